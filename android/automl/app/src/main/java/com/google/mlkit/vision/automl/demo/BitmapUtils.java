@@ -16,9 +16,8 @@
 
 package com.google.mlkit.vision.automl.demo;
 
-import static java.lang.Math.min;
+import static java.lang.Math.max;
 
-import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -26,8 +25,8 @@ import android.graphics.BitmapFactory;
 import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.YuvImage;
-import android.media.Image;
 import android.media.Image.Plane;
 import android.net.Uri;
 import android.os.Build.VERSION_CODES;
@@ -42,17 +41,46 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /** Utils functions for bitmap conversions. */
 public final class BitmapUtils {
   private static final String TAG = "BitmapUtils";
 
+  /** Number of threads encoding the stripes of a bitmap, including the calling one. */
+  private static final int ENCODING_THREAD_COUNT =
+      Math.min(4, Runtime.getRuntime().availableProcessors());
+
+  // Runs all but one stripe of a bitmap encoding, the calling thread encodes the last one.
+  private static final Executor encodingExecutor =
+      ENCODING_THREAD_COUNT > 1
+          ? Executors.newFixedThreadPool(
+              ENCODING_THREAD_COUNT - 1,
+              runnable -> {
+                Thread thread = new Thread(runnable, "BitmapUtils#encode");
+                thread.setDaemon(true);
+                return thread;
+              })
+          : Runnable::run;
+
+  // Conversion buffers of each thread, reused for the next image of the same or a smaller size.
+  private static final ThreadLocal<byte[]> nv21Buffer = new ThreadLocal<>();
+  private static final ThreadLocal<int[]> argbBuffer = new ThreadLocal<>();
+  private static final ThreadLocal<byte[]> scratchBuffer = new ThreadLocal<>();
+
   /** Converts NV21 format byte buffer to bitmap. */
   @Nullable
+  @SuppressWarnings("ByteBufferBackingArray")
   public static Bitmap getBitmap(ByteBuffer data, FrameMetadata metadata) {
-    data.rewind();
-    byte[] imageInBuffer = new byte[data.limit()];
-    data.get(imageInBuffer, 0, imageInBuffer.length);
+    byte[] imageInBuffer;
+    if (data.hasArray() && data.arrayOffset() == 0) {
+      imageInBuffer = data.array();
+    } else {
+      data.rewind();
+      imageInBuffer = new byte[data.limit()];
+      data.get(imageInBuffer, 0, imageInBuffer.length);
+    }
     try {
       YuvImage image =
           new YuvImage(
@@ -97,14 +125,19 @@ public final class BitmapUtils {
 
     // Mirror the image along the X or Y axis.
     matrix.postScale(flipX ? -1.0f : 1.0f, flipY ? -1.0f : 1.0f);
-    Bitmap rotatedBitmap =
+    return transformBitmap(bitmap, matrix);
+  }
+
+  /** Applies {@code matrix} to a bitmap, recycling the original bitmap if it was copied. */
+  private static Bitmap transformBitmap(Bitmap bitmap, Matrix matrix) {
+    Bitmap transformedBitmap =
         Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
 
     // Recycle the old bitmap if it has changed.
-    if (rotatedBitmap != bitmap) {
+    if (transformedBitmap != bitmap) {
       bitmap.recycle();
     }
-    return rotatedBitmap;
+    return transformedBitmap;
   }
 
   @Nullable
@@ -135,6 +168,72 @@ public final class BitmapUtils {
     if (decodedBitmap == null) {
       return null;
     }
+    return transformBitmap(decodedBitmap, getExifTransformation(contentResolver, imageUri));
+  }
+
+  /**
+   * Decodes an image scaled to fit into {@code targetWidth} x {@code targetHeight} while keeping
+   * its aspect ratio, both measured after applying its EXIF orientation.
+   *
+   * <p>Only the bounds of the image are read first. It is then decoded with the largest {@code
+   * inSampleSize} keeping it at least as large as the scaled image, and scaled and rotated to its
+   * final size with a single copy. Neither the full resolution image nor a rotated copy of it are
+   * ever allocated, which matters for photos of 12 MP and more.
+   */
+  @Nullable
+  public static Bitmap getBitmapFromContentUri(
+      ContentResolver contentResolver, Uri imageUri, int targetWidth, int targetHeight)
+      throws IOException {
+    Matrix matrix = getExifTransformation(contentResolver, imageUri);
+
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    decodeBitmap(contentResolver, imageUri, options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      return null;
+    }
+    RectF bounds = new RectF(0, 0, options.outWidth, options.outHeight);
+    matrix.mapRect(bounds);
+    float width = bounds.width();
+    float height = bounds.height();
+
+    // Determine how much to scale down the image
+    float scaleFactor = max(width / targetWidth, height / targetHeight);
+    int scaledWidth = max(1, (int) (width / scaleFactor));
+    int scaledHeight = max(1, (int) (height / scaleFactor));
+
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = 1;
+    while (width / (options.inSampleSize * 2) >= scaledWidth
+        && height / (options.inSampleSize * 2) >= scaledHeight) {
+      options.inSampleSize *= 2;
+    }
+    Bitmap decodedBitmap = decodeBitmap(contentResolver, imageUri, options);
+    if (decodedBitmap == null) {
+      return null;
+    }
+
+    // Scale the upright decoded image to its final size.
+    bounds.set(0, 0, decodedBitmap.getWidth(), decodedBitmap.getHeight());
+    matrix.mapRect(bounds);
+    matrix.postScale(scaledWidth / bounds.width(), scaledHeight / bounds.height());
+    return transformBitmap(decodedBitmap, matrix);
+  }
+
+  @Nullable
+  private static Bitmap decodeBitmap(
+      ContentResolver contentResolver, Uri imageUri, BitmapFactory.Options options)
+      throws IOException {
+    try (InputStream inputStream = contentResolver.openInputStream(imageUri)) {
+      if (inputStream == null) {
+        return null;
+      }
+      return BitmapFactory.decodeStream(inputStream, /* outPadding= */ null, options);
+    }
+  }
+
+  /** Returns the transformation turning an image upright according to its EXIF orientation. */
+  private static Matrix getExifTransformation(ContentResolver contentResolver, Uri imageUri) {
     int orientation = getExifOrientationTag(contentResolver, imageUri);
 
     int rotationDegrees = 0;
@@ -172,7 +271,14 @@ public final class BitmapUtils {
         // No transformations necessary in this case.
     }
 
-    return rotateBitmap(decodedBitmap, rotationDegrees, flipX, flipY);
+    Matrix matrix = new Matrix();
+
+    // Rotate the image back to straight.
+    matrix.postRotate(rotationDegrees);
+
+    // Mirror the image along the X or Y axis.
+    matrix.postScale(flipX ? -1.0f : 1.0f, flipY ? -1.0f : 1.0f);
+    return matrix;
   }
 
   private static int getExifOrientationTag(ContentResolver resolver, Uri imageUri) {
@@ -204,197 +310,64 @@ public final class BitmapUtils {
   }
 
   public static byte[] convertBitmapToNv21Bytes(Bitmap bitmap) {
-    int inputWidth = bitmap.getWidth();
-    int inputHeight = bitmap.getHeight();
-    int[] argb = new int[inputWidth * inputHeight];
-
-    bitmap.getPixels(argb, 0, inputWidth, 0, 0, inputWidth, inputHeight);
+    int width = bitmap.getWidth();
+    int height = bitmap.getHeight();
+    int[] argb = argbBuffer.get();
+    if (argb == null || argb.length < width * height) {
+      argb = new int[width * height];
+      argbBuffer.set(argb);
+    }
+    bitmap.getPixels(argb, 0, width, 0, 0, width, height);
 
-    byte[] nv21Bytes =
-        new byte
-            [inputHeight * inputWidth
-                + 2 * (int) Math.ceil(inputHeight / 2.0) * (int) Math.ceil(inputWidth / 2.0)];
-    encodeToNv21(nv21Bytes, argb, inputWidth, inputHeight);
+    byte[] nv21Bytes = new byte[YuvUtils.getEncodedNv21Size(width, height)];
+    YuvUtils.encodeToNv21(argb, width, height, nv21Bytes, encodingExecutor, ENCODING_THREAD_COUNT);
     return nv21Bytes;
   }
 
-  private static void encodeToNv21(byte[] nv21Bytes, int[] argb, int width, int height) {
-    int frameSize = width * height;
-
-    int yIndex = 0;
-    int uvIndex = frameSize;
-
-    int red;
-    int green;
-    int blue;
-    int y;
-    int u;
-    int v;
-    int index = 0;
-    for (int j = 0; j < height; j++) {
-      for (int i = 0; i < width; i++) {
-
-        // first byte is alpha, but is unused
-        red = (argb[index] & 0xff0000) >> 16;
-        green = (argb[index] & 0xff00) >> 8;
-        blue = (argb[index] & 0xff) >> 0;
-
-        // well known RGB to YUV algorithm
-        y = ((66 * red + 129 * green + 25 * blue + 128) >> 8) + 16;
-        u = ((-38 * red - 74 * green + 112 * blue + 128) >> 8) + 128;
-        v = ((112 * red - 94 * green - 18 * blue + 128) >> 8) + 128;
-
-        // NV21 has a plane of Y and interleaved planes of VU each sampled by a factor of 2
-        // meaning for every 4 Y pixels there are 1 V and 1 U.  Note the sampling is every other
-        // pixel AND every other scanline.
-        nv21Bytes[yIndex++] = (byte) ((y < 0) ? 0 : min(255, y));
-        if (j % 2 == 0 && index % 2 == 0) {
-          nv21Bytes[uvIndex++] = (byte) ((v < 0) ? 0 : min(255, v));
-          nv21Bytes[uvIndex++] = (byte) ((u < 0) ? 0 : min(255, u));
-        }
-
-        index++;
-      }
-    }
-  }
-
   public static ByteBuffer convertBitmapToYv12Buffer(Bitmap bitmap) {
     return ByteBuffer.wrap(convertBitmapToYv12Bytes(bitmap));
   }
 
   public static byte[] convertBitmapToYv12Bytes(Bitmap bitmap) {
-    byte[] nv21Bytes = convertBitmapToNv21Bytes(bitmap);
-    return nv21Toyv12(nv21Bytes);
+    byte[] yuvBytes = convertBitmapToNv21Bytes(bitmap);
+    YuvUtils.nv21Toyv12InPlace(yuvBytes, yuvBytes.length, getScratchBuffer(yuvBytes.length / 6));
+    return yuvBytes;
   }
 
-  /**
-   * Converts nv21 byte[] to yv12 byte[].
-   *
-   * <p>NV21 (4:2:0) Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y V U V U V U V U V U V U
-   *
-   * <p>YV12 (4:2:0) Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y V V V V V V U U U U U U
-   */
-  private static byte[] nv21Toyv12(byte[] nv21Bytes) {
-    int totalBytes = nv21Bytes.length;
-    int rowSize = totalBytes / 6; // 4+2+0
-    byte[] yv12Bytes = new byte[totalBytes];
-    System.arraycopy(nv21Bytes, 0, yv12Bytes, 0, rowSize * 4);
-    int offSet = totalBytes / 6 * 4;
-    for (int i = 0; i < rowSize; i++) {
-      yv12Bytes[offSet + i] = nv21Bytes[offSet + 2 * i]; // V
-      yv12Bytes[offSet + rowSize + i] = nv21Bytes[offSet + 2 * i + 1]; // U
+  /** Returns the scratch array of the calling thread, holding at least {@code size} bytes. */
+  private static byte[] getScratchBuffer(int size) {
+    byte[] scratch = scratchBuffer.get();
+    if (scratch == null || scratch.length < size) {
+      scratch = new byte[size];
+      scratchBuffer.set(scratch);
     }
-
-    return yv12Bytes;
+    return scratch;
   }
 
   /**
-   * Converts YUV_420_888 to NV21 bytebuffer.
-   *
-   * <p>The NV21 format consists of a single byte array containing the Y, U and V values. For an
-   * image of size S, the first S positions of the array contain all the Y values. The remaining
-   * positions contain interleaved V and U values. U and V are subsampled by a factor of 2 in both
-   * dimensions, so there are S/4 U values and S/4 V values. In summary, the NV21 array will contain
-   * S Y values followed by S/4 VU values: YYYYYYYYYYYYYY(...)YVUVUVUVU(...)VU
-   *
-   * <p>YUV_420_888 is a generic format that can describe any YUV image where U and V are subsampled
-   * by a factor of 2 in both dimensions. {@link Image#getPlanes} returns an array with the Y, U and
-   * V planes. The Y plane is guaranteed not to be interleaved, so we can just copy its values into
-   * the first part of the NV21 array. The U and V planes may already have the representation in the
-   * NV21 format. This happens if the planes share the same buffer, the V buffer is one position
-   * before the U buffer and the planes have a pixelStride of 2. If this is case, we can just copy
-   * them to the NV21 array.
+   * Converts YUV_420_888 to NV21 bytebuffer, see {@link YuvUtils#yuv420ThreePlanesToNV21}. The
+   * buffer wraps the conversion array of the calling thread, it is only valid until the thread's
+   * next conversion.
    */
   @RequiresApi(VERSION_CODES.KITKAT)
   private static ByteBuffer yuv420ThreePlanesToNV21(
       Plane[] yuv420888planes, int width, int height) {
-    int imageSize = width * height;
-    byte[] out = new byte[imageSize + 2 * (imageSize / 4)];
-
-    if (areUVPlanesNV21(yuv420888planes, width, height)) {
-      // Copy the Y values.
-      yuv420888planes[0].getBuffer().get(out, 0, imageSize);
-
-      ByteBuffer uBuffer = yuv420888planes[1].getBuffer();
-      ByteBuffer vBuffer = yuv420888planes[2].getBuffer();
-      // Get the first V value from the V buffer, since the U buffer does not contain it.
-      vBuffer.get(out, imageSize, 1);
-      // Copy the first U value and the remaining VU values from the U buffer.
-      uBuffer.get(out, imageSize + 1, 2 * imageSize / 4 - 1);
-    } else {
-      // Fallback to copying the UV values one by one, which is slower but also works.
-      // Unpack Y.
-      unpackPlane(yuv420888planes[0], width, height, out, 0, 1);
-      // Unpack U.
-      unpackPlane(yuv420888planes[1], width, height, out, imageSize + 1, 2);
-      // Unpack V.
-      unpackPlane(yuv420888planes[2], width, height, out, imageSize, 2);
+    ByteBuffer[] planeBuffers = new ByteBuffer[yuv420888planes.length];
+    int[] rowStrides = new int[yuv420888planes.length];
+    int[] pixelStrides = new int[yuv420888planes.length];
+    for (int i = 0; i < yuv420888planes.length; i++) {
+      planeBuffers[i] = yuv420888planes[i].getBuffer();
+      rowStrides[i] = yuv420888planes[i].getRowStride();
+      pixelStrides[i] = yuv420888planes[i].getPixelStride();
     }
-
-    return ByteBuffer.wrap(out);
-  }
-
-  /** Checks if the UV plane buffers of a YUV_420_888 image are in the NV21 format. */
-  @RequiresApi(VERSION_CODES.KITKAT)
-  private static boolean areUVPlanesNV21(Plane[] planes, int width, int height) {
-    int imageSize = width * height;
-
-    ByteBuffer uBuffer = planes[1].getBuffer();
-    ByteBuffer vBuffer = planes[2].getBuffer();
-
-    // Backup buffer properties.
-    int vBufferPosition = vBuffer.position();
-    int uBufferLimit = uBuffer.limit();
-
-    // Advance the V buffer by 1 byte, since the U buffer will not contain the first V value.
-    vBuffer.position(vBufferPosition + 1);
-    // Chop off the last byte of the U buffer, since the V buffer will not contain the last U value.
-    uBuffer.limit(uBufferLimit - 1);
-
-    // Check that the buffers are equal and have the expected number of elements.
-    boolean areNV21 =
-        (vBuffer.remaining() == (2 * imageSize / 4 - 2)) && (vBuffer.compareTo(uBuffer) == 0);
-
-    // Restore buffers to their initial state.
-    vBuffer.position(vBufferPosition);
-    uBuffer.limit(uBufferLimit);
-
-    return areNV21;
-  }
-
-  /**
-   * Unpack an image plane into a byte array.
-   *
-   * <p>The input plane data will be copied in 'out', starting at 'offset' and every pixel will be
-   * spaced by 'pixelStride'. Note that there is no row padding on the output.
-   */
-  @TargetApi(VERSION_CODES.KITKAT)
-  private static void unpackPlane(
-      Plane plane, int width, int height, byte[] out, int offset, int pixelStride) {
-    ByteBuffer buffer = plane.getBuffer();
-    buffer.rewind();
-
-    // Compute the size of the current plane.
-    // We assume that it has the aspect ratio as the original image.
-    int numRow = (buffer.limit() + plane.getRowStride() - 1) / plane.getRowStride();
-    if (numRow == 0) {
-      return;
-    }
-    int scaleFactor = height / numRow;
-    int numCol = width / scaleFactor;
-
-    // Extract the data in the output buffer.
-    int outputPos = offset;
-    int rowStart = 0;
-    for (int row = 0; row < numRow; row++) {
-      int inputPos = rowStart;
-      for (int col = 0; col < numCol; col++) {
-        out[outputPos] = buffer.get(inputPos);
-        outputPos += pixelStride;
-        inputPos += plane.getPixelStride();
-      }
-      rowStart += plane.getRowStride();
+    int nv21Size = YuvUtils.getNv21Size(width, height);
+    byte[] nv21 = nv21Buffer.get();
+    if (nv21 == null || nv21.length < nv21Size) {
+      nv21 = new byte[nv21Size];
+      nv21Buffer.set(nv21);
     }
+    YuvUtils.yuv420ThreePlanesToNV21(planeBuffers, rowStrides, pixelStrides, width, height, nv21);
+    return ByteBuffer.wrap(nv21, 0, nv21Size);
   }
 
   private BitmapUtils() {}
@@ -16,8 +16,6 @@
 
 package com.google.mlkit.vision.automl.demo;
 
-import static java.lang.Math.max;
-
 import android.content.ContentValues;
 import android.content.Intent;
 import android.content.res.Configuration;
@@ -268,30 +266,20 @@ public final class StillImageActivity extends AppCompatActivity {
         return;
       }
 
-      Bitmap imageBitmap = BitmapUtils.getBitmapFromContentUri(getContentResolver(), imageUri);
-      if (imageBitmap == null) {
+      // Get the dimensions of the image view
+      Pair<Integer, Integer> targetedSize = getTargetedWidthHeight();
+
+      // Decode the image straight to the targeted size instead of scaling down the full image.
+      Bitmap resizedBitmap =
+          BitmapUtils.getBitmapFromContentUri(
+              getContentResolver(), imageUri, targetedSize.first, targetedSize.second);
+      if (resizedBitmap == null) {
         return;
       }
 
       // Clear the overlay first
       graphicOverlay.clear();
 
-      // Get the dimensions of the image view
-      Pair<Integer, Integer> targetedSize = getTargetedWidthHeight();
-
-      // Determine how much to scale down the image
-      float scaleFactor =
-          max(
-              (float) imageBitmap.getWidth() / (float) targetedSize.first,
-              (float) imageBitmap.getHeight() / (float) targetedSize.second);
-
-      Bitmap resizedBitmap =
-          Bitmap.createScaledBitmap(
-              imageBitmap,
-              (int) (imageBitmap.getWidth() / scaleFactor),
-              (int) (imageBitmap.getHeight() / scaleFactor),
-              true);
-
       preview.setImageBitmap(resizedBitmap);
 
       if (imageProcessor != null) {
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.automl.demo;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * YUV conversions on plain buffers and arrays. They don't use Android classes, so the
+ * microbenchmark module of the vision quickstart can run them on a JVM.
+ */
+final class YuvUtils {
+
+  // Scratch array of each thread for the rows of interleaved planes, see unpackPlane().
+  private static final ThreadLocal<byte[]> rowBuffer = new ThreadLocal<>();
+
+  // Tables of the terms of the well known RGB to YUV algorithm below, indexed by color value. The
+  // rounding and the offset of each component are folded into its green table, so a component is
+  // the sum of three lookups shifted by 8. The results are always within [16, 240], they need no
+  // clamping.
+  private static final int[] Y_R = new int[256];
+  private static final int[] Y_G = new int[256];
+  private static final int[] Y_B = new int[256];
+  private static final int[] U_R = new int[256];
+  private static final int[] U_G = new int[256];
+  private static final int[] U_B = new int[256];
+  private static final int[] V_R = new int[256];
+  private static final int[] V_G = new int[256];
+  private static final int[] V_B = new int[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      // y = ((66 * red + 129 * green + 25 * blue + 128) >> 8) + 16
+      Y_R[i] = 66 * i;
+      Y_G[i] = 129 * i + 128 + (16 << 8);
+      Y_B[i] = 25 * i;
+      // u = ((-38 * red - 74 * green + 112 * blue + 128) >> 8) + 128
+      U_R[i] = -38 * i;
+      U_G[i] = -74 * i + 128 + (128 << 8);
+      U_B[i] = 112 * i;
+      // v = ((112 * red - 94 * green - 18 * blue + 128) >> 8) + 128
+      V_R[i] = 112 * i;
+      V_G[i] = -94 * i + 128 + (128 << 8);
+      V_B[i] = -18 * i;
+    }
+  }
+
+  /** Encodes ARGB pixels to NV21. */
+  static void encodeToNv21(byte[] nv21Bytes, int[] argb, int width, int height) {
+    encodeToNv21(argb, width, height, nv21Bytes, 0, height);
+  }
+
+  /**
+   * Encodes ARGB pixels to NV21, like {@link #encodeToNv21(byte[], int[], int, int)}.
+   *
+   * <p>The image is split into {@code stripeCount} stripes of rows, all but one encoded on {@code
+   * executor} while the calling thread encodes the last one. The stripes write to separate parts of
+   * {@code nv21Bytes}, so no locking is needed. The calling thread waits for all stripes even if
+   * it is interrupted, since the image is only complete once they are done; the interrupt status
+   * is kept.
+   */
+  static void encodeToNv21(
+      int[] argb, int width, int height, byte[] nv21Bytes, Executor executor, int stripeCount) {
+    checkSizes(argb, width, height, nv21Bytes);
+    stripeCount = max(1, stripeCount);
+    int stripeRows = max(1, (height + stripeCount - 1) / stripeCount);
+    int parallelStripeCount = max(0, (height + stripeRows - 1) / stripeRows - 1);
+    CountDownLatch done = new CountDownLatch(parallelStripeCount);
+    for (int i = 0; i < parallelStripeCount; i++) {
+      int rowStart = i * stripeRows;
+      int rowEnd = rowStart + stripeRows;
+      executor.execute(
+          () -> {
+            try {
+              encodeToNv21(argb, width, height, nv21Bytes, rowStart, rowEnd);
+            } finally {
+              done.countDown();
+            }
+          });
+    }
+    encodeToNv21(argb, width, height, nv21Bytes, parallelStripeCount * stripeRows, height);
+
+    boolean interrupted = false;
+    while (true) {
+      try {
+        done.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Encodes the rows {@code [rowStart, rowEnd)} of ARGB pixels to NV21, see {@link
+   * #encodeToNv21(byte[], int[], int, int)}.
+   *
+   * <p>NV21 has a plane of Y and interleaved planes of VU each sampled by a factor of 2, meaning
+   * for every 4 Y pixels there are 1 V and 1 U. The V and U values are those of the first pixel of
+   * every other row and column. Even rows are encoded as pairs of pixels, the first one with its V
+   * and U values, so there is no branch per pixel.
+   */
+  static void encodeToNv21(
+      int[] argb, int width, int height, byte[] nv21Bytes, int rowStart, int rowEnd) {
+    checkSizes(argb, width, height, nv21Bytes);
+    int frameSize = width * height;
+    int uvRowSize = 2 * ((width + 1) / 2);
+    for (int j = rowStart; j < rowEnd; j++) {
+      int index = j * width;
+      int end = index + width;
+      if ((j & 1) == 0) {
+        int uvIndex = frameSize + (j >> 1) * uvRowSize;
+        int pairsEnd = index + (width & ~1);
+        while (index < pairsEnd) {
+          int pixel = argb[index];
+          int red = (pixel >> 16) & 0xff;
+          int green = (pixel >> 8) & 0xff;
+          int blue = pixel & 0xff;
+          nv21Bytes[index] = (byte) ((Y_R[red] + Y_G[green] + Y_B[blue]) >> 8);
+          nv21Bytes[uvIndex++] = (byte) ((V_R[red] + V_G[green] + V_B[blue]) >> 8);
+          nv21Bytes[uvIndex++] = (byte) ((U_R[red] + U_G[green] + U_B[blue]) >> 8);
+          nv21Bytes[index + 1] = encodeY(argb[index + 1]);
+          index += 2;
+        }
+        if (index < end) {
+          // The last column of an image of odd width has V and U values of its own.
+          int pixel = argb[index];
+          int red = (pixel >> 16) & 0xff;
+          int green = (pixel >> 8) & 0xff;
+          int blue = pixel & 0xff;
+          nv21Bytes[index] = (byte) ((Y_R[red] + Y_G[green] + Y_B[blue]) >> 8);
+          nv21Bytes[uvIndex++] = (byte) ((V_R[red] + V_G[green] + V_B[blue]) >> 8);
+          nv21Bytes[uvIndex] = (byte) ((U_R[red] + U_G[green] + U_B[blue]) >> 8);
+        }
+      } else {
+        for (; index < end; index++) {
+          nv21Bytes[index] = encodeY(argb[index]);
+        }
+      }
+    }
+  }
+
+  /** Returns the size in bytes of ARGB pixels encoded to NV21 by {@link #encodeToNv21}. */
+  static int getEncodedNv21Size(int width, int height) {
+    return width * height + 2 * ((height + 1) / 2) * ((width + 1) / 2);
+  }
+
+  private static byte encodeY(int pixel) {
+    return (byte) ((Y_R[(pixel >> 16) & 0xff] + Y_G[(pixel >> 8) & 0xff] + Y_B[pixel & 0xff]) >> 8);
+  }
+
+  private static void checkSizes(int[] argb, int width, int height, byte[] nv21Bytes) {
+    if (argb.length < width * height || nv21Bytes.length < getEncodedNv21Size(width, height)) {
+      throw new IllegalArgumentException("Buffers too small for " + width + "x" + height);
+    }
+  }
+
+  /**
+   * Converts nv21 byte[] to yv12 byte[].
+   *
+   * <p>NV21 (4:2:0) Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y V U V U V U V U V U V U
+   *
+   * <p>YV12 (4:2:0) Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y Y V V V V V V U U U U U U
+   */
+  static byte[] nv21Toyv12(byte[] nv21Bytes) {
+    int totalBytes = nv21Bytes.length;
+    int rowSize = totalBytes / 6; // 4+2+0
+    byte[] yv12Bytes = new byte[totalBytes];
+    System.arraycopy(nv21Bytes, 0, yv12Bytes, 0, rowSize * 4);
+    int offSet = totalBytes / 6 * 4;
+    for (int i = 0; i < rowSize; i++) {
+      yv12Bytes[offSet + i] = nv21Bytes[offSet + 2 * i]; // V
+      yv12Bytes[offSet + rowSize + i] = nv21Bytes[offSet + 2 * i + 1]; // U
+    }
+
+    return yv12Bytes;
+  }
+
+  /**
+   * Converts the first {@code length} bytes of {@code yuvBytes} from NV21 to YV12 in place, like
+   * {@link #nv21Toyv12} but without allocating a new image.
+   *
+   * @param scratch holds at least {@code length / 6} bytes, the U values are moved through it
+   */
+  static void nv21Toyv12InPlace(byte[] yuvBytes, int length, byte[] scratch) {
+    int rowSize = length / 6; // 4+2+0
+    int offSet = rowSize * 4;
+    // The V values move towards the start of the chroma values, never past one that wasn't read.
+    for (int i = 0; i < rowSize; i++) {
+      scratch[i] = yuvBytes[offSet + 2 * i + 1]; // U
+      yuvBytes[offSet + i] = yuvBytes[offSet + 2 * i]; // V
+    }
+    System.arraycopy(scratch, 0, yuvBytes, offSet + rowSize, rowSize);
+  }
+
+  /**
+   * Converts the Y, U and V planes of a YUV_420_888 image to NV21, into {@code out} so the caller
+   * can reuse it for the next frame.
+   *
+   * <p>The NV21 format consists of a single byte array containing the Y, U and V values. For an
+   * image of size S, the first S positions of the array contain all the Y values. The remaining
+   * positions contain interleaved V and U values. U and V are subsampled by a factor of 2 in both
+   * dimensions, so there are S/4 U values and S/4 V values. In summary, the NV21 array will contain
+   * S Y values followed by S/4 VU values: YYYYYYYYYYYYYY(...)YVUVUVUVU(...)VU
+   *
+   * <p>YUV_420_888 is a generic format that can describe any YUV image where U and V are subsampled
+   * by a factor of 2 in both dimensions. {@code Image#getPlanes} returns an array with the Y, U and
+   * V planes. The Y plane is guaranteed not to be interleaved, so we can just copy its values into
+   * the first part of the NV21 array. The U and V planes may already have the representation in the
+   * NV21 format. This happens if the planes share the same buffer, the V buffer is one position
+   * before the U buffer and the planes have a pixelStride of 2. If this is case, we can just copy
+   * them to the NV21 array.
+   *
+   * @param out receives the NV21 image, must hold at least {@link #getNv21Size} bytes
+   */
+  static void yuv420ThreePlanesToNV21(
+      ByteBuffer[] planeBuffers,
+      int[] rowStrides,
+      int[] pixelStrides,
+      int width,
+      int height,
+      byte[] out) {
+    if (out.length < getNv21Size(width, height)) {
+      throw new IllegalArgumentException("NV21 buffer too small for " + width + "x" + height);
+    }
+    int imageSize = width * height;
+
+    ByteBuffer uBuffer = planeBuffers[1];
+    ByteBuffer vBuffer = planeBuffers[2];
+    if (areUVPlanesNV21(uBuffer, vBuffer, width, height)) {
+      // Copy the Y values.
+      planeBuffers[0].get(out, 0, imageSize);
+
+      // Get the first V value from the V buffer, since the U buffer does not contain it.
+      vBuffer.get(out, imageSize, 1);
+      // Copy the first U value and the remaining VU values from the U buffer.
+      uBuffer.get(out, imageSize + 1, 2 * imageSize / 4 - 1);
+    } else {
+      // Fallback to unpacking the planes row by row, which is slower but also works.
+      // Unpack Y.
+      unpackPlane(planeBuffers[0], rowStrides[0], pixelStrides[0], width, height, out, 0, 1);
+      // Unpack U.
+      unpackPlane(uBuffer, rowStrides[1], pixelStrides[1], width, height, out, imageSize + 1, 2);
+      // Unpack V.
+      unpackPlane(vBuffer, rowStrides[2], pixelStrides[2], width, height, out, imageSize, 2);
+    }
+  }
+
+  /** Returns the size in bytes of an NV21 image. */
+  static int getNv21Size(int width, int height) {
+    int imageSize = width * height;
+    return imageSize + 2 * (imageSize / 4);
+  }
+
+  /** Checks if the UV plane buffers of a YUV_420_888 image are in the NV21 format. */
+  static boolean areUVPlanesNV21(ByteBuffer uBuffer, ByteBuffer vBuffer, int width, int height) {
+    int imageSize = width * height;
+
+    // Backup buffer properties.
+    int vBufferPosition = vBuffer.position();
+    int uBufferLimit = uBuffer.limit();
+
+    // Advance the V buffer by 1 byte, since the U buffer will not contain the first V value.
+    vBuffer.position(vBufferPosition + 1);
+    // Chop off the last byte of the U buffer, since the V buffer will not contain the last U value.
+    uBuffer.limit(uBufferLimit - 1);
+
+    // Check that the buffers are equal and have the expected number of elements.
+    boolean areNV21 =
+        (vBuffer.remaining() == (2 * imageSize / 4 - 2)) && (vBuffer.compareTo(uBuffer) == 0);
+
+    // Restore buffers to their initial state.
+    vBuffer.position(vBufferPosition);
+    uBuffer.limit(uBufferLimit);
+
+    return areNV21;
+  }
+
+  /**
+   * Unpack an image plane into a byte array.
+   *
+   * <p>The input plane data will be copied in 'out', starting at 'offset' and every pixel will be
+   * spaced by 'pixelStride'. Note that there is no row padding on the output.
+   *
+   * <p>Each row is read from the buffer with one bulk copy, straight into 'out' if neither the
+   * plane nor the output are interleaved. Otherwise the row is copied into a scratch array first
+   * and its pixels are picked from there, which avoids a bounds checked buffer access per pixel.
+   */
+  static void unpackPlane(
+      ByteBuffer buffer,
+      int rowStride,
+      int planePixelStride,
+      int width,
+      int height,
+      byte[] out,
+      int offset,
+      int pixelStride) {
+    buffer.rewind();
+
+    // Compute the size of the current plane.
+    // We assume that it has the aspect ratio as the original image.
+    int numRow = (buffer.limit() + rowStride - 1) / rowStride;
+    if (numRow == 0) {
+      return;
+    }
+    int scaleFactor = height / numRow;
+    int numCol = width / scaleFactor;
+    if (numCol <= 0) {
+      return;
+    }
+
+    // Extract the data in the output buffer.
+    int outputPos = offset;
+    int rowStart = 0;
+    if (planePixelStride == 1 && pixelStride == 1) {
+      for (int row = 0; row < numRow; row++) {
+        buffer.position(rowStart);
+        buffer.get(out, outputPos, numCol);
+        outputPos += numCol;
+        rowStart += rowStride;
+      }
+    } else {
+      // The last pixel of the last row may be the last byte of the buffer, so only the bytes up to
+      // the last pixel of a row are copied.
+      int rowLength = (numCol - 1) * planePixelStride + 1;
+      byte[] rowBytes = getRowBuffer(rowLength);
+      for (int row = 0; row < numRow; row++) {
+        buffer.position(rowStart);
+        buffer.get(rowBytes, 0, rowLength);
+        for (int inputPos = 0; inputPos < rowLength; inputPos += planePixelStride) {
+          out[outputPos] = rowBytes[inputPos];
+          outputPos += pixelStride;
+        }
+        rowStart += rowStride;
+      }
+    }
+    buffer.rewind();
+  }
+
+  /** Returns the row array of the calling thread, holding at least {@code length} bytes. */
+  private static byte[] getRowBuffer(int length) {
+    byte[] rowBytes = rowBuffer.get();
+    if (rowBytes == null || rowBytes.length < length) {
+      rowBytes = new byte[length];
+      rowBuffer.set(rowBytes);
+    }
+    return rowBytes;
+  }
+
+  private YuvUtils() {}
+}
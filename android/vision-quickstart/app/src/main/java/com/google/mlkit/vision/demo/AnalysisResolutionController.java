@@ -0,0 +1,184 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.android.gms.common.images.Size;
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Steps the resolution of the analyzed frames up or down, so the detector latency stays within a
+ * frame budget on fast and slow devices alike.
+ *
+ * <p>The mean detector latency over a rolling window is compared against the budget. The
+ * resolution is lowered once the mean exceeds the budget, and raised only if the latency,
+ * extrapolated by the pixel count of the next resolution, would still be well within it. The gap
+ * between the two thresholds, a settle period after each change and a back-off when the
+ * resolution goes back and forth keep the controller from rebinding the camera all the time.
+ *
+ * <p>Instances are not thread safe and are expected to be fed from a single thread.
+ */
+public class AnalysisResolutionController {
+
+  private static final String TAG = "ResolutionController";
+
+  /** The analysis resolutions to choose from by default, in landscape orientation. */
+  public static final List<Size> DEFAULT_RESOLUTIONS =
+      Collections.unmodifiableList(
+          Arrays.asList(
+              new Size(320, 240),
+              new Size(480, 360),
+              new Size(640, 480),
+              new Size(960, 720),
+              new Size(1280, 960)));
+
+  // Number of latencies the decision is based on.
+  private static final int WINDOW_SIZE = 30;
+  // Number of latencies ignored after a change, while the camera and detector settle.
+  private static final int SETTLE_FRAMES = 5;
+  // Step down once the mean latency exceeds the budget by this factor.
+  private static final float STEP_DOWN_THRESHOLD = 1.1f;
+  // Step up only if the extrapolated latency stays below this fraction of the budget.
+  private static final float STEP_UP_THRESHOLD = 0.75f;
+  private static final long MIN_CHANGE_INTERVAL_MS = 3_000;
+  private static final long MAX_CHANGE_INTERVAL_MS = 60_000;
+
+  /** Notified when the controller picked a new resolution. */
+  public interface Listener {
+    void onResolutionChanged(Size resolution);
+  }
+
+  private final List<Size> resolutions;
+  private final long frameBudgetMs;
+  private final Listener listener;
+  private int index;
+
+  private final long[] latenciesMs = new long[WINDOW_SIZE];
+  private int latencyCount;
+  private int nextLatencyIndex;
+  private long latencySumMs;
+  private int framesToSkip = SETTLE_FRAMES;
+
+  private long lastChangeMs = SystemClock.elapsedRealtime();
+  private long changeIntervalMs = MIN_CHANGE_INTERVAL_MS;
+  // -1 if the last change lowered the resolution, 1 if it raised it, 0 if there was none yet.
+  private int lastDirection;
+
+  /**
+   * Creates a controller.
+   *
+   * @param resolutions the resolutions to choose from, in increasing size
+   * @param initialResolution the resolution currently used, the closest one in {@code resolutions}
+   *     is started with
+   * @param frameBudgetMs the detector latency to stay within
+   * @param listener notified on the thread feeding the latencies when the resolution changes
+   */
+  public AnalysisResolutionController(
+      List<Size> resolutions, Size initialResolution, long frameBudgetMs, Listener listener) {
+    Preconditions.checkArgument(!resolutions.isEmpty(), "resolutions must not be empty");
+    Preconditions.checkArgument(frameBudgetMs > 0, "frameBudgetMs must be positive");
+    this.resolutions = resolutions;
+    this.frameBudgetMs = frameBudgetMs;
+    this.listener = listener;
+    index = findClosestIndex(initialResolution);
+  }
+
+  /** Returns the resolution frames should be analyzed at. */
+  public Size getResolution() {
+    return resolutions.get(index);
+  }
+
+  /** Feeds the detector latency of a frame analyzed at the current resolution. */
+  public void onDetectorLatency(long latencyMs) {
+    if (framesToSkip > 0) {
+      framesToSkip--;
+      return;
+    }
+    if (latencyCount == WINDOW_SIZE) {
+      latencySumMs -= latenciesMs[nextLatencyIndex];
+    } else {
+      latencyCount++;
+    }
+    latenciesMs[nextLatencyIndex] = latencyMs;
+    latencySumMs += latencyMs;
+    nextLatencyIndex = (nextLatencyIndex + 1) % WINDOW_SIZE;
+
+    long nowMs = SystemClock.elapsedRealtime();
+    if (latencyCount < WINDOW_SIZE || nowMs - lastChangeMs < changeIntervalMs) {
+      return;
+    }
+    float meanLatencyMs = (float) latencySumMs / latencyCount;
+    if (index > 0 && meanLatencyMs > frameBudgetMs * STEP_DOWN_THRESHOLD) {
+      changeResolution(index - 1, meanLatencyMs, nowMs);
+    } else if (index < resolutions.size() - 1
+        && meanLatencyMs * getAreaRatio(index + 1, index)
+            < frameBudgetMs * STEP_UP_THRESHOLD) {
+      changeResolution(index + 1, meanLatencyMs, nowMs);
+    }
+  }
+
+  private void changeResolution(int newIndex, float meanLatencyMs, long nowMs) {
+    int direction = newIndex > index ? 1 : -1;
+    if (lastDirection != 0 && direction != lastDirection) {
+      // Going back and forth between two resolutions, wait longer before the next change.
+      changeIntervalMs = Math.min(changeIntervalMs * 2, MAX_CHANGE_INTERVAL_MS);
+    }
+    Log.d(
+        TAG,
+        "Mean detector latency "
+            + meanLatencyMs
+            + " ms with budget "
+            + frameBudgetMs
+            + " ms, changing resolution from "
+            + resolutions.get(index)
+            + " to "
+            + resolutions.get(newIndex));
+    index = newIndex;
+    lastDirection = direction;
+    lastChangeMs = nowMs;
+    latencyCount = 0;
+    nextLatencyIndex = 0;
+    latencySumMs = 0;
+    framesToSkip = SETTLE_FRAMES;
+    listener.onResolutionChanged(resolutions.get(index));
+  }
+
+  private float getAreaRatio(int toIndex, int fromIndex) {
+    Size to = resolutions.get(toIndex);
+    Size from = resolutions.get(fromIndex);
+    return (float) to.getWidth() * to.getHeight() / ((float) from.getWidth() * from.getHeight());
+  }
+
+  private int findClosestIndex(Size size) {
+    long area = (long) size.getWidth() * size.getHeight();
+    int closestIndex = 0;
+    long minDiff = Long.MAX_VALUE;
+    for (int i = 0; i < resolutions.size(); i++) {
+      Size resolution = resolutions.get(i);
+      long diff = Math.abs((long) resolution.getWidth() * resolution.getHeight() - area);
+      if (diff < minDiff) {
+        closestIndex = i;
+        minDiff = diff;
+      }
+    }
+    return closestIndex;
+  }
+}
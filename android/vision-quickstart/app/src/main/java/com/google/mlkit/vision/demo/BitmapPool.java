@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.graphics.Bitmap;
+import androidx.annotation.GuardedBy;
+import com.google.common.base.Preconditions;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Mutable ARGB_8888 bitmaps kept for reuse, so camera frames drawn under the graphics don't each
+ * allocate a new bitmap.
+ *
+ * <p>Bitmaps are handed out by size. The idle bitmaps are capped by their total size in bytes,
+ * beyond that the least recently released ones are recycled. Bitmaps that are never released are
+ * simply garbage collected.
+ *
+ * <p>All methods are thread safe.
+ */
+public final class BitmapPool {
+
+  /** Default cap on the idle bitmaps, four 720p frames. */
+  public static final int DEFAULT_MAX_SIZE_BYTES = 4 * 1280 * 720 * 4;
+
+  private final int maxSizeBytes;
+
+  // Most recently released first.
+  @GuardedBy("this")
+  private final ArrayDeque<Bitmap> idleBitmaps = new ArrayDeque<>();
+
+  @GuardedBy("this")
+  private int sizeBytes;
+
+  public BitmapPool(int maxSizeBytes) {
+    Preconditions.checkArgument(maxSizeBytes >= 0, "maxSizeBytes must not be negative");
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  /**
+   * Returns an idle bitmap of the given size, or a new one if there is none. The content of the
+   * bitmap is undefined.
+   */
+  public Bitmap acquire(int width, int height) {
+    synchronized (this) {
+      Iterator<Bitmap> iterator = idleBitmaps.iterator();
+      while (iterator.hasNext()) {
+        Bitmap bitmap = iterator.next();
+        if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+          iterator.remove();
+          sizeBytes -= bitmap.getAllocationByteCount();
+          return bitmap;
+        }
+      }
+    }
+    return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+  }
+
+  /**
+   * Gives a bitmap back for reuse. It must not be used by the caller anymore. Bitmaps that can't
+   * be reused, i.e. recycled, immutable or not ARGB_8888 ones, are ignored.
+   */
+  public void release(Bitmap bitmap) {
+    if (bitmap.isRecycled()
+        || !bitmap.isMutable()
+        || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+      return;
+    }
+    synchronized (this) {
+      idleBitmaps.addFirst(bitmap);
+      sizeBytes += bitmap.getAllocationByteCount();
+      while (sizeBytes > maxSizeBytes) {
+        Bitmap evicted = idleBitmaps.removeLast();
+        sizeBytes -= evicted.getAllocationByteCount();
+        evicted.recycle();
+      }
+    }
+  }
+}
@@ -16,13 +16,13 @@
 
 package com.google.mlkit.vision.demo;
 
+import static java.lang.Math.max;
+
 import android.content.ContentResolver;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
 import android.graphics.Matrix;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
+import android.graphics.RectF;
 import android.media.Image;
 import android.media.Image.Plane;
 import android.net.Uri;
@@ -34,36 +34,117 @@ import androidx.annotation.RequiresApi;
 import androidx.camera.core.ExperimentalGetImage;
 import androidx.camera.core.ImageProxy;
 import androidx.exifinterface.media.ExifInterface;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /** Utils functions for bitmap conversions. */
 public class BitmapUtils {
   private static final String TAG = "BitmapUtils";
 
+  /** Number of threads converting the stripes of a camera frame, including the calling one. */
+  private static final int CONVERSION_THREAD_COUNT =
+      Math.min(4, Runtime.getRuntime().availableProcessors());
+
+  // Runs all but one stripe of a frame conversion, the calling thread converts the last one.
+  private static final Executor conversionExecutor =
+      CONVERSION_THREAD_COUNT > 1
+          ? Executors.newFixedThreadPool(
+              CONVERSION_THREAD_COUNT - 1,
+              runnable -> {
+                Thread thread = new Thread(runnable, "BitmapUtils#convert");
+                thread.setDaemon(true);
+                return thread;
+              })
+          : Runnable::run;
+
+  // Conversion buffers of each thread, reused for the next frame of the same or a smaller size.
+  private static final ThreadLocal<byte[]> nv21Buffer = new ThreadLocal<>();
+  private static final ThreadLocal<int[]> argbBuffer = new ThreadLocal<>();
+
   /** Converts NV21 format byte buffer to bitmap. */
   @Nullable
   public static Bitmap getBitmap(ByteBuffer data, FrameMetadata metadata) {
-    data.rewind();
-    byte[] imageInBuffer = new byte[data.limit()];
-    data.get(imageInBuffer, 0, imageInBuffer.length);
+    return convertToBitmap(data, metadata, /* bitmapPool= */ null);
+  }
+
+  /**
+   * Converts NV21 format byte buffer to a bitmap taken from {@code bitmapPool}, to be given back
+   * once it isn't drawn anymore, e.g. by a {@link CameraImageGraphic}.
+   */
+  @Nullable
+  public static Bitmap getBitmap(ByteBuffer data, FrameMetadata metadata, BitmapPool bitmapPool) {
+    return convertToBitmap(data, metadata, bitmapPool);
+  }
+
+  @Nullable
+  private static Bitmap convertToBitmap(
+      ByteBuffer data, FrameMetadata metadata, @Nullable BitmapPool bitmapPool) {
+    boolean isRotated = metadata.getRotation() % 180 != 0;
+    int width = isRotated ? metadata.getHeight() : metadata.getWidth();
+    int height = isRotated ? metadata.getWidth() : metadata.getHeight();
+    Bitmap bitmap =
+        bitmapPool != null
+            ? bitmapPool.acquire(width, height)
+            : Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    if (!getBitmap(data, metadata, bitmap)) {
+      if (bitmapPool != null) {
+        bitmapPool.release(bitmap);
+      }
+      return null;
+    }
+    return bitmap;
+  }
+
+  /**
+   * Converts an NV21 frame into {@code bitmap}, rotated by the rotation of the frame. The bitmap
+   * must be mutable, ARGB_8888 and as large as the rotated frame.
+   *
+   * <p>The pixels are converted directly, in stripes on {@link #CONVERSION_THREAD_COUNT} threads,
+   * into an array kept by the calling thread for the next frame. Nothing but the bitmap is
+   * allocated per frame. Returns false if interrupted while converting.
+   */
+  @SuppressWarnings("ByteBufferBackingArray")
+  public static boolean getBitmap(ByteBuffer data, FrameMetadata metadata, Bitmap bitmap) {
+    int width = metadata.getWidth();
+    int height = metadata.getHeight();
+    byte[] nv21;
+    if (data.hasArray() && data.arrayOffset() == 0) {
+      // Camera1 buffers wrap an array, they are converted in place.
+      nv21 = data.array();
+    } else {
+      data.rewind();
+      nv21 = nv21Buffer.get();
+      if (nv21 == null || nv21.length < data.limit()) {
+        nv21 = new byte[data.limit()];
+        nv21Buffer.set(nv21);
+      }
+      data.get(nv21, 0, data.limit());
+    }
+    int[] argb = argbBuffer.get();
+    if (argb == null || argb.length < width * height) {
+      argb = new int[width * height];
+      argbBuffer.set(argb);
+    }
+
     try {
-      YuvImage image =
-          new YuvImage(
-              imageInBuffer, ImageFormat.NV21, metadata.getWidth(), metadata.getHeight(), null);
-      ByteArrayOutputStream stream = new ByteArrayOutputStream();
-      image.compressToJpeg(new Rect(0, 0, metadata.getWidth(), metadata.getHeight()), 80, stream);
-
-      Bitmap bmp = BitmapFactory.decodeByteArray(stream.toByteArray(), 0, stream.size());
-
-      stream.close();
-      return rotateBitmap(bmp, metadata.getRotation(), false, false);
-    } catch (Exception e) {
-      Log.e("VisionProcessorBase", "Error: " + e.getMessage());
+      YuvUtils.nv21ToArgb(
+          nv21,
+          width,
+          height,
+          metadata.getRotation(),
+          /* mirror= */ false,
+          argb,
+          conversionExecutor,
+          CONVERSION_THREAD_COUNT);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
     }
-    return null;
+    bitmap.setPixels(argb, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+    return true;
   }
 
   /** Converts a YUV_420_888 image from CameraX API to a bitmap. */
@@ -71,36 +152,65 @@ public class BitmapUtils {
   @Nullable
   @ExperimentalGetImage
   public static Bitmap getBitmap(ImageProxy image) {
+    return convertToBitmap(
+        image.getImage(), image.getImageInfo().getRotationDegrees(), /* bitmapPool= */ null);
+  }
+
+  /**
+   * Converts a YUV_420_888 image from CameraX API to a bitmap taken from {@code bitmapPool}, see
+   * {@link #getBitmap(ByteBuffer, FrameMetadata, BitmapPool)}.
+   */
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  @Nullable
+  @ExperimentalGetImage
+  public static Bitmap getBitmap(ImageProxy image, BitmapPool bitmapPool) {
+    return convertToBitmap(
+        image.getImage(), image.getImageInfo().getRotationDegrees(), bitmapPool);
+  }
+
+  /** Converts a YUV_420_888 image, e.g. from a Camera2 {@code ImageReader}, to a bitmap. */
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  @Nullable
+  public static Bitmap getBitmap(Image image, int rotationDegrees) {
+    return convertToBitmap(image, rotationDegrees, /* bitmapPool= */ null);
+  }
+
+  /**
+   * Converts a YUV_420_888 image, e.g. from a Camera2 {@code ImageReader}, to a bitmap taken from
+   * {@code bitmapPool}, see {@link #getBitmap(ByteBuffer, FrameMetadata, BitmapPool)}.
+   */
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  @Nullable
+  public static Bitmap getBitmap(Image image, int rotationDegrees, BitmapPool bitmapPool) {
+    return convertToBitmap(image, rotationDegrees, bitmapPool);
+  }
+
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  @Nullable
+  private static Bitmap convertToBitmap(
+      Image image, int rotationDegrees, @Nullable BitmapPool bitmapPool) {
     FrameMetadata frameMetadata =
         new FrameMetadata.Builder()
             .setWidth(image.getWidth())
             .setHeight(image.getHeight())
-            .setRotation(image.getImageInfo().getRotationDegrees())
+            .setRotation(rotationDegrees)
             .build();
 
     ByteBuffer nv21Buffer =
-        yuv420ThreePlanesToNV21(image.getImage().getPlanes(), image.getWidth(), image.getHeight());
-    return getBitmap(nv21Buffer, frameMetadata);
+        yuv420ThreePlanesToNV21(image.getPlanes(), image.getWidth(), image.getHeight());
+    return convertToBitmap(nv21Buffer, frameMetadata, bitmapPool);
   }
 
-  /** Rotates a bitmap if it is converted from a bytebuffer. */
-  private static Bitmap rotateBitmap(
-      Bitmap bitmap, int rotationDegrees, boolean flipX, boolean flipY) {
-    Matrix matrix = new Matrix();
-
-    // Rotate the image back to straight.
-    matrix.postRotate(rotationDegrees);
-
-    // Mirror the image along the X or Y axis.
-    matrix.postScale(flipX ? -1.0f : 1.0f, flipY ? -1.0f : 1.0f);
-    Bitmap rotatedBitmap =
+  /** Applies {@code matrix} to a bitmap, recycling the original bitmap if it was copied. */
+  private static Bitmap transformBitmap(Bitmap bitmap, Matrix matrix) {
+    Bitmap transformedBitmap =
         Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
 
     // Recycle the old bitmap if it has changed.
-    if (rotatedBitmap != bitmap) {
+    if (transformedBitmap != bitmap) {
       bitmap.recycle();
     }
-    return rotatedBitmap;
+    return transformedBitmap;
   }
 
   @Nullable
@@ -110,6 +220,72 @@ public class BitmapUtils {
     if (decodedBitmap == null) {
       return null;
     }
+    return transformBitmap(decodedBitmap, getExifTransformation(contentResolver, imageUri));
+  }
+
+  /**
+   * Decodes an image scaled to fit into {@code targetWidth} x {@code targetHeight} while keeping
+   * its aspect ratio, both measured after applying its EXIF orientation.
+   *
+   * <p>Only the bounds of the image are read first. It is then decoded with the largest {@code
+   * inSampleSize} keeping it at least as large as the scaled image, and scaled and rotated to its
+   * final size with a single copy. Neither the full resolution image nor a rotated copy of it are
+   * ever allocated, which matters for photos of 12 MP and more.
+   */
+  @Nullable
+  public static Bitmap getBitmapFromContentUri(
+      ContentResolver contentResolver, Uri imageUri, int targetWidth, int targetHeight)
+      throws IOException {
+    Matrix matrix = getExifTransformation(contentResolver, imageUri);
+
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    decodeBitmap(contentResolver, imageUri, options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      return null;
+    }
+    RectF bounds = new RectF(0, 0, options.outWidth, options.outHeight);
+    matrix.mapRect(bounds);
+    float width = bounds.width();
+    float height = bounds.height();
+
+    // Determine how much to scale down the image
+    float scaleFactor = max(width / targetWidth, height / targetHeight);
+    int scaledWidth = max(1, (int) (width / scaleFactor));
+    int scaledHeight = max(1, (int) (height / scaleFactor));
+
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = 1;
+    while (width / (options.inSampleSize * 2) >= scaledWidth
+        && height / (options.inSampleSize * 2) >= scaledHeight) {
+      options.inSampleSize *= 2;
+    }
+    Bitmap decodedBitmap = decodeBitmap(contentResolver, imageUri, options);
+    if (decodedBitmap == null) {
+      return null;
+    }
+
+    // Scale the upright decoded image to its final size.
+    bounds.set(0, 0, decodedBitmap.getWidth(), decodedBitmap.getHeight());
+    matrix.mapRect(bounds);
+    matrix.postScale(scaledWidth / bounds.width(), scaledHeight / bounds.height());
+    return transformBitmap(decodedBitmap, matrix);
+  }
+
+  @Nullable
+  private static Bitmap decodeBitmap(
+      ContentResolver contentResolver, Uri imageUri, BitmapFactory.Options options)
+      throws IOException {
+    try (InputStream inputStream = contentResolver.openInputStream(imageUri)) {
+      if (inputStream == null) {
+        return null;
+      }
+      return BitmapFactory.decodeStream(inputStream, /* outPadding= */ null, options);
+    }
+  }
+
+  /** Returns the transformation turning an image upright according to its EXIF orientation. */
+  private static Matrix getExifTransformation(ContentResolver contentResolver, Uri imageUri) {
     int orientation = getExifOrientationTag(contentResolver, imageUri);
 
     int rotationDegrees = 0;
@@ -147,7 +323,14 @@ public class BitmapUtils {
         // No transformations necessary in this case.
     }
 
-    return rotateBitmap(decodedBitmap, rotationDegrees, flipX, flipY);
+    Matrix matrix = new Matrix();
+
+    // Rotate the image back to straight.
+    matrix.postRotate(rotationDegrees);
+
+    // Mirror the image along the X or Y axis.
+    matrix.postScale(flipX ? -1.0f : 1.0f, flipY ? -1.0f : 1.0f);
+    return matrix;
   }
 
   private static int getExifOrientationTag(ContentResolver resolver, Uri imageUri) {
@@ -175,108 +358,28 @@ public class BitmapUtils {
   }
 
   /**
-   * Converts YUV_420_888 to NV21 bytebuffer.
-   *
-   * <p>The NV21 format consists of a single byte array containing the Y, U and V values. For an
-   * image of size S, the first S positions of the array contain all the Y values. The remaining
-   * positions contain interleaved V and U values. U and V are subsampled by a factor of 2 in both
-   * dimensions, so there are S/4 U values and S/4 V values. In summary, the NV21 array will contain
-   * S Y values followed by S/4 VU values: YYYYYYYYYYYYYY(...)YVUVUVUVU(...)VU
-   *
-   * <p>YUV_420_888 is a generic format that can describe any YUV image where U and V are subsampled
-   * by a factor of 2 in both dimensions. {@link Image#getPlanes} returns an array with the Y, U and
-   * V planes. The Y plane is guaranteed not to be interleaved, so we can just copy its values into
-   * the first part of the NV21 array. The U and V planes may already have the representation in the
-   * NV21 format. This happens if the planes share the same buffer, the V buffer is one position
-   * before the U buffer and the planes have a pixelStride of 2. If this is case, we can just copy
-   * them to the NV21 array.
+   * Converts YUV_420_888 to NV21 bytebuffer, see {@link YuvUtils#yuv420ThreePlanesToNV21}. The
+   * buffer wraps the conversion array of the calling thread, it is only valid until the thread's
+   * next conversion.
    */
   private static ByteBuffer yuv420ThreePlanesToNV21(
       Plane[] yuv420888planes, int width, int height) {
-    int imageSize = width * height;
-    byte[] out = new byte[imageSize + 2 * (imageSize / 4)];
-
-    if (areUVPlanesNV21(yuv420888planes, width, height)) {
-      // Copy the Y values.
-      yuv420888planes[0].getBuffer().get(out, 0, imageSize);
-
-      ByteBuffer uBuffer = yuv420888planes[1].getBuffer();
-      ByteBuffer vBuffer = yuv420888planes[2].getBuffer();
-      // Get the first V value from the V buffer, since the U buffer does not contain it.
-      vBuffer.get(out, imageSize, 1);
-      // Copy the first U value and the remaining VU values from the U buffer.
-      uBuffer.get(out, imageSize + 1, 2 * imageSize / 4 - 1);
-    } else {
-      // Fallback to copying the UV values one by one, which is slower but also works.
-      // Unpack Y.
-      unpackPlane(yuv420888planes[0], width, height, out, 0, 1);
-      // Unpack U.
-      unpackPlane(yuv420888planes[1], width, height, out, imageSize + 1, 2);
-      // Unpack V.
-      unpackPlane(yuv420888planes[2], width, height, out, imageSize, 2);
+    ByteBuffer[] planeBuffers = new ByteBuffer[yuv420888planes.length];
+    int[] rowStrides = new int[yuv420888planes.length];
+    int[] pixelStrides = new int[yuv420888planes.length];
+    for (int i = 0; i < yuv420888planes.length; i++) {
+      planeBuffers[i] = yuv420888planes[i].getBuffer();
+      rowStrides[i] = yuv420888planes[i].getRowStride();
+      pixelStrides[i] = yuv420888planes[i].getPixelStride();
     }
-
-    return ByteBuffer.wrap(out);
-  }
-
-  /** Checks if the UV plane buffers of a YUV_420_888 image are in the NV21 format. */
-  private static boolean areUVPlanesNV21(Plane[] planes, int width, int height) {
-    int imageSize = width * height;
-
-    ByteBuffer uBuffer = planes[1].getBuffer();
-    ByteBuffer vBuffer = planes[2].getBuffer();
-
-    // Backup buffer properties.
-    int vBufferPosition = vBuffer.position();
-    int uBufferLimit = uBuffer.limit();
-
-    // Advance the V buffer by 1 byte, since the U buffer will not contain the first V value.
-    vBuffer.position(vBufferPosition + 1);
-    // Chop off the last byte of the U buffer, since the V buffer will not contain the last U value.
-    uBuffer.limit(uBufferLimit - 1);
-
-    // Check that the buffers are equal and have the expected number of elements.
-    boolean areNV21 =
-        (vBuffer.remaining() == (2 * imageSize / 4 - 2)) && (vBuffer.compareTo(uBuffer) == 0);
-
-    // Restore buffers to their initial state.
-    vBuffer.position(vBufferPosition);
-    uBuffer.limit(uBufferLimit);
-
-    return areNV21;
-  }
-
-  /**
-   * Unpack an image plane into a byte array.
-   *
-   * <p>The input plane data will be copied in 'out', starting at 'offset' and every pixel will be
-   * spaced by 'pixelStride'. Note that there is no row padding on the output.
-   */
-  private static void unpackPlane(
-      Plane plane, int width, int height, byte[] out, int offset, int pixelStride) {
-    ByteBuffer buffer = plane.getBuffer();
-    buffer.rewind();
-
-    // Compute the size of the current plane.
-    // We assume that it has the aspect ratio as the original image.
-    int numRow = (buffer.limit() + plane.getRowStride() - 1) / plane.getRowStride();
-    if (numRow == 0) {
-      return;
-    }
-    int scaleFactor = height / numRow;
-    int numCol = width / scaleFactor;
-
-    // Extract the data in the output buffer.
-    int outputPos = offset;
-    int rowStart = 0;
-    for (int row = 0; row < numRow; row++) {
-      int inputPos = rowStart;
-      for (int col = 0; col < numCol; col++) {
-        out[outputPos] = buffer.get(inputPos);
-        outputPos += pixelStride;
-        inputPos += plane.getPixelStride();
-      }
-      rowStart += plane.getRowStride();
+    int nv21Size = YuvUtils.getNv21Size(width, height);
+    byte[] nv21 = nv21Buffer.get();
+    if (nv21 == null || nv21.length < nv21Size) {
+      nv21 = new byte[nv21Size];
+      nv21Buffer.set(nv21);
     }
+    YuvUtils.yuv420ThreePlanesToNV21(planeBuffers, rowStrides, pixelStrides, width, height, nv21);
+    // Wraps the array from its start, so it is converted in place like a Camera1 buffer.
+    return ByteBuffer.wrap(nv21, 0, nv21Size);
   }
 }
@@ -0,0 +1,616 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.WindowManager;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.RequiresPermission;
+import com.google.android.gms.common.images.Size;
+import com.google.mlkit.vision.demo.VisionImageProcessor.ImageReleaser;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A {@link LiveCameraSource} on top of the Camera2 API. Preview frames are read as YUV_420_888
+ * {@link Image}s from an {@link ImageReader} and handed to the processor as they are, without
+ * copying them into NV21 buffers first. Each image carries the timestamp the sensor captured it at.
+ *
+ * <p>The reader holds {@link #DEFAULT_MAX_IMAGES} images by default. The processor may keep all but
+ * one of them until it gives them back through {@link ImageReleaser}, the last one is needed to
+ * pick the latest frame. Frames arriving while the processor holds its share are dropped.
+ */
+@RequiresApi(VERSION_CODES.LOLLIPOP)
+public class Camera2Source implements LiveCameraSource {
+
+  /**
+   * Images the reader can hold: two for the frames the detector works on when pipelined and one to
+   * acquire the latest frame with.
+   */
+  public static final int DEFAULT_MAX_IMAGES = 3;
+
+  private static final String TAG = "MIDemoApp:Camera2Source";
+
+  protected Activity activity;
+
+  private final CameraManager cameraManager;
+
+  private final GraphicOverlay graphicOverlay;
+
+  private int facing = CameraSource.CAMERA_FACING_BACK;
+
+  /** Rotation of the device, and thus the associated preview images captured from the device. */
+  private int rotationDegrees;
+
+  private Size previewSize;
+
+  // Overrides the default preview size if set, see setRequestedPreviewSize().
+  @Nullable private Size requestedPreviewSize;
+
+  private int maxImages = DEFAULT_MAX_IMAGES;
+
+  private boolean isSensorTimestampRealtime;
+
+  // Thread for the camera callbacks, kept until release() so late callbacks of a stopped session
+  // still get delivered.
+  @Nullable private HandlerThread cameraThread;
+  @Nullable private Handler cameraHandler;
+
+  // The session of the open camera, null while stopped.
+  @Nullable private CameraSession session;
+
+  private final Object processorLock = new Object();
+
+  private VisionImageProcessor frameProcessor;
+
+  // Guards the images handed to the processor and the state of all sessions.
+  private final Object imageLock = new Object();
+
+  // The session of each image held by the processor. Images may be released after their session
+  // was stopped, its reader is closed only once all of them are back.
+  @GuardedBy("imageLock")
+  private final IdentityHashMap<Image, CameraSession> imageSessions = new IdentityHashMap<>();
+
+  private final ImageReleaser imageReleaser = this::releaseImage;
+
+  public Camera2Source(Activity activity, GraphicOverlay overlay) {
+    this.activity = activity;
+    cameraManager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
+    graphicOverlay = overlay;
+    graphicOverlay.clear();
+    graphicOverlay.setTimestampsAreCallbackTimes(false);
+  }
+
+  // ==============================================================================================
+  // Public
+  // ==============================================================================================
+
+  /** Stops the camera and releases the resources of the camera and underlying detector. */
+  @Override
+  public void release() {
+    synchronized (processorLock) {
+      stop();
+      cleanScreen();
+
+      if (frameProcessor != null) {
+        frameProcessor.stop();
+      }
+    }
+    synchronized (this) {
+      if (cameraThread != null) {
+        cameraThread.quitSafely();
+        cameraThread = null;
+        cameraHandler = null;
+      }
+    }
+  }
+
+  /**
+   * Opens the camera and starts sending preview frames to the underlying detector. The preview
+   * frames are not displayed.
+   *
+   * @throws IOException if the camera could not be found or opened
+   */
+  @Override
+  @RequiresPermission(Manifest.permission.CAMERA)
+  public synchronized Camera2Source start() throws IOException {
+    openSession(/* surfaceHolder= */ null);
+    return this;
+  }
+
+  /**
+   * Opens the camera and starts sending preview frames to the underlying detector. The supplied
+   * surface holder is used for the preview so frames can be displayed to the user.
+   *
+   * @param surfaceHolder the surface holder to use for the preview frames
+   * @throws IOException if the camera could not be found or opened
+   */
+  @Override
+  @RequiresPermission(Manifest.permission.CAMERA)
+  public synchronized Camera2Source start(SurfaceHolder surfaceHolder) throws IOException {
+    openSession(surfaceHolder);
+    return this;
+  }
+
+  /**
+   * Closes the camera and stops sending frames to the underlying frame detector. Images still held
+   * by the processor stay valid until they are released.
+   *
+   * <p>This camera source may be restarted again by calling {@link #start()} or {@link
+   * #start(SurfaceHolder)}.
+   */
+  @Override
+  public synchronized void stop() {
+    if (session != null) {
+      synchronized (imageLock) {
+        session.stop();
+      }
+      session = null;
+    }
+  }
+
+  /** Changes the facing of the camera. */
+  @Override
+  public synchronized void setFacing(int facing) {
+    if ((facing != CameraSource.CAMERA_FACING_BACK)
+        && (facing != CameraSource.CAMERA_FACING_FRONT)) {
+      throw new IllegalArgumentException("Invalid camera: " + facing);
+    }
+    this.facing = facing;
+  }
+
+  /**
+   * Requests the preview size closest to the given one. Takes effect the next time the camera is
+   * started. Pass null to use the default size again.
+   */
+  @Override
+  public synchronized void setRequestedPreviewSize(@Nullable Size size) {
+    requestedPreviewSize = size;
+  }
+
+  /**
+   * Sets the number of images the reader holds, see {@link #DEFAULT_MAX_IMAGES}. Takes effect the
+   * next time the camera is started.
+   */
+  @Override
+  public synchronized void setPreviewBufferCount(int count) {
+    if (count < 2) {
+      throw new IllegalArgumentException("Invalid preview buffer count: " + count);
+    }
+    maxImages = count;
+  }
+
+  /** Returns the preview size that is currently in use by the underlying camera. */
+  @Override
+  public Size getPreviewSize() {
+    return previewSize;
+  }
+
+  /**
+   * Returns the selected camera; one of {@link CameraSource#CAMERA_FACING_BACK} or {@link
+   * CameraSource#CAMERA_FACING_FRONT}.
+   */
+  @Override
+  public int getCameraFacing() {
+    return facing;
+  }
+
+  /**
+   * Returns whether the {@link Image#getTimestamp()} of the frames is in the {@link
+   * android.os.SystemClock#elapsedRealtimeNanos()} time base. Otherwise the timestamps only allow
+   * comparing frames with each other.
+   */
+  public boolean isSensorTimestampRealtime() {
+    return isSensorTimestampRealtime;
+  }
+
+  @Override
+  public void setMachineLearningFrameProcessor(VisionImageProcessor processor) {
+    synchronized (processorLock) {
+      cleanScreen();
+      if (frameProcessor != null) {
+        frameProcessor.stop();
+      }
+      frameProcessor = processor;
+    }
+  }
+
+  // ==============================================================================================
+  // Camera setup
+  // ==============================================================================================
+
+  /**
+   * Selects the camera and preview size, then opens the camera. The capture session is configured
+   * on the camera thread once the camera is open.
+   *
+   * @throws IOException if the camera could not be found or opened
+   */
+  @SuppressLint("MissingPermission")
+  @GuardedBy("this")
+  private void openSession(@Nullable SurfaceHolder surfaceHolder) throws IOException {
+    if (session != null) {
+      return;
+    }
+
+    String cameraId;
+    CameraCharacteristics characteristics;
+    try {
+      cameraId = getIdForRequestedCamera(cameraManager, facing);
+      if (cameraId == null) {
+        throw new IOException("Could not find requested camera.");
+      }
+      characteristics = cameraManager.getCameraCharacteristics(cameraId);
+    } catch (CameraAccessException e) {
+      throw new IOException("Could not access camera.", e);
+    }
+
+    Size size =
+        requestedPreviewSize != null
+            ? selectPreviewSize(
+                characteristics, requestedPreviewSize.getWidth(), requestedPreviewSize.getHeight())
+            : selectPreviewSize(
+                characteristics,
+                CameraSource.DEFAULT_REQUESTED_CAMERA_PREVIEW_WIDTH,
+                CameraSource.DEFAULT_REQUESTED_CAMERA_PREVIEW_HEIGHT);
+    if (size == null) {
+      throw new IOException("Could not find suitable preview size.");
+    }
+    previewSize = size;
+    Log.v(TAG, "Camera preview size: " + previewSize);
+
+    setRotation(characteristics);
+
+    Integer timestampSource =
+        characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+    isSensorTimestampRealtime =
+        timestampSource != null
+            && timestampSource == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+
+    if (cameraThread == null) {
+      cameraThread = new HandlerThread("Camera2Source");
+      cameraThread.start();
+      cameraHandler = new Handler(cameraThread.getLooper());
+    }
+
+    ImageReader reader =
+        ImageReader.newInstance(
+            previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, maxImages);
+    List<Surface> surfaces = new ArrayList<>();
+    surfaces.add(reader.getSurface());
+    if (surfaceHolder != null) {
+      surfaceHolder.setFixedSize(previewSize.getWidth(), previewSize.getHeight());
+      surfaces.add(surfaceHolder.getSurface());
+    }
+
+    CameraSession newSession =
+        new CameraSession(
+            reader, surfaces, cameraHandler, supportsContinuousVideoFocus(characteristics));
+    reader.setOnImageAvailableListener(newSession, cameraHandler);
+    try {
+      cameraManager.openCamera(cameraId, newSession, cameraHandler);
+    } catch (CameraAccessException | SecurityException e) {
+      reader.close();
+      throw new IOException("Could not open camera.", e);
+    }
+    session = newSession;
+  }
+
+  /**
+   * Gets the id for the camera specified by the direction it is facing. Returns null if no such
+   * camera was found.
+   */
+  @Nullable
+  private static String getIdForRequestedCamera(CameraManager cameraManager, int facing)
+      throws CameraAccessException {
+    int lensFacing =
+        facing == CameraSource.CAMERA_FACING_FRONT
+            ? CameraMetadata.LENS_FACING_FRONT
+            : CameraMetadata.LENS_FACING_BACK;
+    for (String cameraId : cameraManager.getCameraIdList()) {
+      Integer cameraLensFacing =
+          cameraManager.getCameraCharacteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+      if (cameraLensFacing != null && cameraLensFacing == lensFacing) {
+        return cameraId;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Selects the YUV_420_888 output size closest to the desired width and height, measured by the
+   * sum of the differences between them. Returns null if the camera lists no such sizes.
+   */
+  @Nullable
+  private static Size selectPreviewSize(
+      CameraCharacteristics characteristics, int desiredWidth, int desiredHeight) {
+    StreamConfigurationMap map =
+        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    if (map == null) {
+      return null;
+    }
+    android.util.Size[] outputSizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+    if (outputSizes == null) {
+      return null;
+    }
+
+    Size selectedSize = null;
+    int minDiff = Integer.MAX_VALUE;
+    for (android.util.Size outputSize : outputSizes) {
+      int diff =
+          Math.abs(outputSize.getWidth() - desiredWidth)
+              + Math.abs(outputSize.getHeight() - desiredHeight);
+      if (diff < minDiff) {
+        selectedSize = new Size(outputSize.getWidth(), outputSize.getHeight());
+        minDiff = diff;
+      }
+    }
+    return selectedSize;
+  }
+
+  private static boolean supportsContinuousVideoFocus(CameraCharacteristics characteristics) {
+    int[] afModes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+    if (afModes != null) {
+      for (int afMode : afModes) {
+        if (afMode == CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO) {
+          return true;
+        }
+      }
+    }
+    Log.i(TAG, "Camera auto focus is not supported on this device.");
+    return false;
+  }
+
+  /**
+   * Calculates the rotation of the preview images relative to the display, the same way as {@link
+   * CameraSource} does. The preview surface is rotated by the camera framework itself.
+   */
+  private void setRotation(CameraCharacteristics characteristics) {
+    WindowManager windowManager = (WindowManager) activity.getSystemService(Context.WINDOW_SERVICE);
+    int degrees = 0;
+    int rotation = windowManager.getDefaultDisplay().getRotation();
+    switch (rotation) {
+      case Surface.ROTATION_0:
+        degrees = 0;
+        break;
+      case Surface.ROTATION_90:
+        degrees = 90;
+        break;
+      case Surface.ROTATION_180:
+        degrees = 180;
+        break;
+      case Surface.ROTATION_270:
+        degrees = 270;
+        break;
+      default:
+        Log.e(TAG, "Bad rotation value: " + rotation);
+    }
+
+    Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+    int orientation = sensorOrientation != null ? sensorOrientation : 0;
+    Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+    if (lensFacing != null && lensFacing == CameraMetadata.LENS_FACING_FRONT) {
+      rotationDegrees = (orientation + degrees) % 360;
+    } else { // back-facing
+      rotationDegrees = (orientation - degrees + 360) % 360;
+    }
+    Log.d(TAG, "Display rotation is: " + rotation);
+    Log.d(TAG, "Camera rotation is: " + orientation);
+    // This value should be one of the degrees that ImageMetadata accepts: 0, 90, 180 or 270.
+    Log.d(TAG, "RotationDegrees is: " + rotationDegrees);
+  }
+
+  // ==============================================================================================
+  // Frame processing
+  // ==============================================================================================
+
+  /** Gives an image held by the processor back to its reader. Extra releases are ignored. */
+  private void releaseImage(Image image) {
+    synchronized (imageLock) {
+      CameraSession imageSession = imageSessions.remove(image);
+      if (imageSession == null) {
+        return;
+      }
+      image.close();
+      imageSession.onImageReleased();
+    }
+  }
+
+  /**
+   * One opening of the camera: its device, capture session and image reader. Callbacks run on the
+   * camera thread, the state is guarded by {@link #imageLock}.
+   */
+  private final class CameraSession extends CameraDevice.StateCallback
+      implements ImageReader.OnImageAvailableListener {
+
+    private final ImageReader reader;
+    private final List<Surface> surfaces;
+    private final Handler handler;
+    private final boolean useContinuousVideoFocus;
+
+    @Nullable private CameraDevice device;
+    @Nullable private CameraCaptureSession captureSession;
+    private int acquiredImageCount;
+    private boolean isStopped;
+
+    CameraSession(
+        ImageReader reader,
+        List<Surface> surfaces,
+        Handler handler,
+        boolean useContinuousVideoFocus) {
+      this.reader = reader;
+      this.surfaces = surfaces;
+      this.handler = handler;
+      this.useContinuousVideoFocus = useContinuousVideoFocus;
+    }
+
+    @Override
+    public void onOpened(CameraDevice camera) {
+      synchronized (imageLock) {
+        if (isStopped) {
+          camera.close();
+          return;
+        }
+        device = camera;
+      }
+      try {
+        camera.createCaptureSession(surfaces, new CaptureSessionCallback(camera), handler);
+      } catch (CameraAccessException | IllegalStateException e) {
+        Log.e(TAG, "Failed to create capture session.", e);
+      }
+    }
+
+    @Override
+    public void onDisconnected(CameraDevice camera) {
+      Log.w(TAG, "Camera disconnected.");
+      camera.close();
+    }
+
+    @Override
+    public void onError(CameraDevice camera, int error) {
+      Log.e(TAG, "Camera error: " + error);
+      camera.close();
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader imageReader) {
+      Image image;
+      synchronized (imageLock) {
+        if (isStopped) {
+          return;
+        }
+        image = imageReader.acquireLatestImage();
+        if (image == null) {
+          return;
+        }
+        if (acquiredImageCount >= imageReader.getMaxImages() - 1) {
+          // The processor holds all the images it may, one has to stay free to acquire the latest
+          // frame with.
+          image.close();
+          return;
+        }
+        acquiredImageCount++;
+        imageSessions.put(image, this);
+      }
+
+      Tracer.beginSection("Camera2Source#processFrame");
+      try {
+        synchronized (processorLock) {
+          frameProcessor.processMediaImage(
+              image, rotationDegrees, isSensorTimestampRealtime, imageReleaser, graphicOverlay);
+        }
+      } catch (Exception t) {
+        Log.e(TAG, "Exception thrown from receiver.", t);
+        releaseImage(image);
+      } finally {
+        Tracer.endSection();
+      }
+    }
+
+    @GuardedBy("imageLock")
+    void onImageReleased() {
+      acquiredImageCount--;
+      if (isStopped && acquiredImageCount == 0) {
+        reader.close();
+      }
+    }
+
+    @GuardedBy("imageLock")
+    void stop() {
+      isStopped = true;
+      if (captureSession != null) {
+        captureSession.close();
+        captureSession = null;
+      }
+      if (device != null) {
+        device.close();
+        device = null;
+      }
+      // Closing the reader invalidates its images, wait for the processor to release them.
+      if (acquiredImageCount == 0) {
+        reader.close();
+      }
+    }
+
+    /** Starts the repeating preview request once the capture session is configured. */
+    private final class CaptureSessionCallback extends CameraCaptureSession.StateCallback {
+      private final CameraDevice camera;
+
+      CaptureSessionCallback(CameraDevice camera) {
+        this.camera = camera;
+      }
+
+      @Override
+      public void onConfigured(CameraCaptureSession cameraCaptureSession) {
+        synchronized (imageLock) {
+          if (isStopped) {
+            cameraCaptureSession.close();
+            return;
+          }
+          captureSession = cameraCaptureSession;
+        }
+        try {
+          CaptureRequest.Builder request =
+              camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+          for (Surface surface : surfaces) {
+            request.addTarget(surface);
+          }
+          if (useContinuousVideoFocus) {
+            request.set(
+                CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+          }
+          cameraCaptureSession.setRepeatingRequest(request.build(), null, handler);
+        } catch (CameraAccessException | IllegalStateException e) {
+          Log.e(TAG, "Failed to start camera preview.", e);
+        }
+      }
+
+      @Override
+      public void onConfigureFailed(CameraCaptureSession cameraCaptureSession) {
+        Log.e(TAG, "Failed to configure capture session.");
+      }
+    }
+  }
+
+  /** Cleans up graphicOverlay and child classes can do their cleanups as well . */
+  private void cleanScreen() {
+    graphicOverlay.clear();
+  }
+}
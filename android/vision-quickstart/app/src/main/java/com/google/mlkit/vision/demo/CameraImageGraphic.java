@@ -18,16 +18,35 @@ package com.google.mlkit.vision.demo;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import androidx.annotation.Nullable;
 import com.google.mlkit.vision.demo.GraphicOverlay.Graphic;
 
 /** Draw camera image to background. */
 public class CameraImageGraphic extends Graphic {
 
   private final Bitmap bitmap;
+  @Nullable private final BitmapPool bitmapPool;
 
   public CameraImageGraphic(GraphicOverlay overlay, Bitmap bitmap) {
+    this(overlay, bitmap, /* bitmapPool= */ null);
+  }
+
+  /**
+   * Creates a graphic drawing a bitmap taken from {@code bitmapPool}, given back to the pool once
+   * the graphic is released by the overlay.
+   */
+  public CameraImageGraphic(
+      GraphicOverlay overlay, Bitmap bitmap, @Nullable BitmapPool bitmapPool) {
     super(overlay);
     this.bitmap = bitmap;
+    this.bitmapPool = bitmapPool;
+  }
+
+  @Override
+  protected void release() {
+    if (bitmapPool != null) {
+      bitmapPool.release(bitmap);
+    }
   }
 
   @Override
@@ -24,6 +24,7 @@ import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
@@ -33,9 +34,7 @@ import androidx.annotation.RequiresPermission;
 import com.google.android.gms.common.images.Size;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.IdentityHashMap;
 import java.util.List;
 
 /**
@@ -43,7 +42,7 @@ import java.util.List;
  * displaying extra information). This receives preview frames from the camera at a specified rate,
  * sending those frames to child classes' detectors / classifiers as fast as it is able to process.
  */
-public class CameraSource {
+public class CameraSource implements LiveCameraSource {
   @SuppressLint("InlinedApi")
   public static final int CAMERA_FACING_BACK = CameraInfo.CAMERA_FACING_BACK;
 
@@ -54,6 +53,20 @@ public class CameraSource {
   public static final int DEFAULT_REQUESTED_CAMERA_PREVIEW_WIDTH = 480;
   public static final int DEFAULT_REQUESTED_CAMERA_PREVIEW_HEIGHT = 360;
 
+  /**
+   * Preview buffers needed to keep the camera going while frames are retained:
+   *
+   * <p>two for the frames that the camera uses to populate future preview images, one for the
+   * next pending frame in this source, one waiting in the processor's frame policy and two for the
+   * frames the detector works on when pipelined.
+   *
+   * <p>Through trial and error it appears that two free buffers are needed for the camera to work
+   * properly. Perhaps the camera has one thread for acquiring images, and another thread for
+   * calling into user code. If fewer are free, then the camera will spew thousands of warning
+   * messages when detection takes a non-trivial amount of time.
+   */
+  public static final int DEFAULT_PREVIEW_BUFFER_COUNT = 6;
+
   private static final String TAG = "MIDemoApp:CameraSource";
 
   /**
@@ -80,6 +93,16 @@ public class CameraSource {
 
   private Size previewSize;
 
+  // Overrides the preview size preference if set, see setRequestedPreviewSize().
+  @Nullable private Size requestedPreviewSize;
+
+  private int previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
+
+  // The buffers of the open camera, frames go back to the camera once all consumers released them.
+  private PreviewBufferPool bufferPool;
+  // Number of frames delivered by the open camera. Only used on the camera callback thread.
+  private long frameSequenceNumber;
+
   private static final float REQUESTED_FPS = 30.0f;
   private static final boolean REQUESTED_AUTO_FOCUS = true;
 
@@ -101,21 +124,12 @@ public class CameraSource {
 
   private VisionImageProcessor frameProcessor;
 
-  /**
-   * Map to convert between a byte array, received from the camera, and its associated byte buffer.
-   * We use byte buffers internally because this is a more efficient way to call into native code
-   * later (avoids a potential copy).
-   *
-   * <p><b>Note:</b> uses IdentityHashMap here instead of HashMap because the behavior of an array's
-   * equals, hashCode and toString methods is both useless and unexpected. IdentityHashMap enforces
-   * identity ('==') check on the keys.
-   */
-  private final IdentityHashMap<byte[], ByteBuffer> bytesToByteBuffer = new IdentityHashMap<>();
-
   public CameraSource(Activity activity, GraphicOverlay overlay) {
     this.activity = activity;
     graphicOverlay = overlay;
     graphicOverlay.clear();
+    // Camera1 doesn't report capture timestamps, frames are stamped when they are received.
+    graphicOverlay.setTimestampsAreCallbackTimes(true);
     processingRunnable = new FrameProcessingRunnable();
   }
 
@@ -124,6 +138,7 @@ public class CameraSource {
   // ==============================================================================================
 
   /** Stops the camera and releases the resources of the camera and underlying detector. */
+  @Override
   public void release() {
     synchronized (processorLock) {
       stop();
@@ -141,6 +156,7 @@ public class CameraSource {
    *
    * @throws IOException if the camera's preview texture or display could not be initialized
    */
+  @Override
   @RequiresPermission(Manifest.permission.CAMERA)
   public synchronized CameraSource start() throws IOException {
     if (camera != null) {
@@ -165,6 +181,7 @@ public class CameraSource {
    * @param surfaceHolder the surface holder to use for the preview frames
    * @throws IOException if the supplied surface holder could not be used as the preview display
    */
+  @Override
   @RequiresPermission(Manifest.permission.CAMERA)
   public synchronized CameraSource start(SurfaceHolder surfaceHolder) throws IOException {
     if (camera != null) {
@@ -190,6 +207,7 @@ public class CameraSource {
    * <p>Call {@link #release()} instead to completely shut down this camera source and release the
    * resources of the underlying detector.
    */
+  @Override
   public synchronized void stop() {
     processingRunnable.setActive(false);
     if (processingThread != null) {
@@ -205,6 +223,8 @@ public class CameraSource {
     }
 
     if (camera != null) {
+      // Buffers still retained by the processor must not go back to the released camera.
+      bufferPool.close();
       camera.stopPreview();
       camera.setPreviewCallbackWithBuffer(null);
       try {
@@ -216,13 +236,12 @@ public class CameraSource {
       }
       camera.release();
       camera = null;
+      bufferPool = null;
     }
-
-    // Release the reference to any image buffers, since these will no longer be in use.
-    bytesToByteBuffer.clear();
   }
 
   /** Changes the facing of the camera. */
+  @Override
   public synchronized void setFacing(int facing) {
     if ((facing != CAMERA_FACING_BACK) && (facing != CAMERA_FACING_FRONT)) {
       throw new IllegalArgumentException("Invalid camera: " + facing);
@@ -230,7 +249,30 @@ public class CameraSource {
     this.facing = facing;
   }
 
+  /**
+   * Requests the preview size closest to the given one, overriding the preview size preference.
+   * Takes effect the next time the camera is started. Pass null to use the preference again.
+   */
+  @Override
+  public synchronized void setRequestedPreviewSize(@Nullable Size size) {
+    requestedPreviewSize = size;
+  }
+
+  /**
+   * Sets the number of preview buffers shared by the camera and the frame processor. More buffers
+   * let the processor hold on to frames longer, e.g. to absorb detector latency spikes, without the
+   * camera running out of buffers. Takes effect the next time the camera is started.
+   */
+  @Override
+  public synchronized void setPreviewBufferCount(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("Invalid preview buffer count: " + count);
+    }
+    previewBufferCount = count;
+  }
+
   /** Returns the preview size that is currently in use by the underlying camera. */
+  @Override
   public Size getPreviewSize() {
     return previewSize;
   }
@@ -239,6 +281,7 @@ public class CameraSource {
    * Returns the selected camera; one of {@link #CAMERA_FACING_BACK} or {@link
    * #CAMERA_FACING_FRONT}.
    */
+  @Override
   public int getCameraFacing() {
     return facing;
   }
@@ -256,7 +299,11 @@ public class CameraSource {
     }
     Camera camera = Camera.open(requestedCameraId);
 
-    SizePair sizePair = PreferenceUtils.getCameraPreviewSizePair(activity, requestedCameraId);
+    SizePair sizePair =
+        requestedPreviewSize != null
+            ? selectSizePair(
+                camera, requestedPreviewSize.getWidth(), requestedPreviewSize.getHeight())
+            : PreferenceUtils.getCameraPreviewSizePair(activity, requestedCameraId);
     if (sizePair == null) {
       sizePair =
           selectSizePair(
@@ -305,22 +352,21 @@ public class CameraSource {
 
     camera.setParameters(parameters);
 
-    // Four frame buffers are needed for working with the camera:
-    //
-    //   one for the frame that is currently being executed upon in doing detection
-    //   one for the next pending frame to process immediately upon completing detection
-    //   two for the frames that the camera uses to populate future preview images
-    //
-    // Through trial and error it appears that two free buffers, in addition to the two buffers
-    // used in this code, are needed for the camera to work properly.  Perhaps the camera has
-    // one thread for acquiring images, and another thread for calling into user code.  If only
-    // three buffers are used, then the camera will spew thousands of warning messages when
-    // detection takes a non-trivial amount of time.
+    // See DEFAULT_PREVIEW_BUFFER_COUNT for the number of buffers needed.
     camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
+    // The frame size and rotation only change on restart, each buffer gets its metadata once.
+    FrameMetadata.Builder frameMetadata =
+        new FrameMetadata.Builder()
+            .setWidth(previewSize.getWidth())
+            .setHeight(previewSize.getHeight())
+            .setRotation(rotationDegrees);
+    bufferPool =
+        new PreviewBufferPool(
+            previewBufferCount,
+            getPreviewBufferSize(previewSize),
+            frameMetadata,
+            camera::addCallbackBuffer);
+    frameSequenceNumber = 0;
 
     return camera;
   }
@@ -525,29 +571,14 @@ public class CameraSource {
   }
 
   /**
-   * Creates one buffer for the camera preview callback. The size of the buffer is based off of the
-   * camera preview size and the format of the camera image.
-   *
-   * @return a new preview buffer of the appropriate size for the current camera settings
+   * Returns the size of the buffers for the camera preview callback. The size of the buffer is
+   * based off of the camera preview size and the format of the camera image.
    */
   @SuppressLint("InlinedApi")
-  private byte[] createPreviewBuffer(Size previewSize) {
+  private static int getPreviewBufferSize(Size previewSize) {
     int bitsPerPixel = ImageFormat.getBitsPerPixel(IMAGE_FORMAT);
     long sizeInBits = (long) previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
-    int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
-
-    // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
-    // should guarantee that there will be an array to work with.
-    byte[] byteArray = new byte[bufferSize];
-    ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-    if (!buffer.hasArray() || (buffer.array() != byteArray)) {
-      // I don't think that this will ever happen.  But if it does, then we wouldn't be
-      // passing the preview content to the underlying detector later.
-      throw new IllegalStateException("Failed to create valid buffer for camera source.");
-    }
-
-    bytesToByteBuffer.put(byteArray, buffer);
-    return byteArray;
+    return (int) Math.ceil(sizeInBits / 8.0d) + 1;
   }
 
   // ==============================================================================================
@@ -558,10 +589,11 @@ public class CameraSource {
   private class CameraPreviewCallback implements Camera.PreviewCallback {
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
-      processingRunnable.setNextFrame(data, camera);
+      processingRunnable.setNextFrame(data);
     }
   }
 
+  @Override
   public void setMachineLearningFrameProcessor(VisionImageProcessor processor) {
     synchronized (processorLock) {
       cleanScreen();
@@ -589,7 +621,7 @@ public class CameraSource {
     private boolean active = true;
 
     // These pending variables hold the state associated with the new frame awaiting processing.
-    private ByteBuffer pendingFrameData;
+    private PreviewBufferPool.Frame pendingFrame;
 
     FrameProcessingRunnable() {}
 
@@ -597,32 +629,36 @@ public class CameraSource {
     void setActive(boolean active) {
       synchronized (lock) {
         this.active = active;
+        // A pending frame belongs to a camera that was closed or is being closed.
+        pendingFrame = null;
         lock.notifyAll();
       }
     }
 
     /**
-     * Sets the frame data received from the camera. This adds the previous unused frame buffer (if
-     * present) back to the camera, and keeps a pending reference to the frame data for future use.
+     * Sets the frame data received from the camera. This releases the previous unused frame buffer
+     * (if present) back to the pool, and keeps a pending reference to the frame data for future
+     * use. Camera1 doesn't report capture timestamps, the time of receiving the frame is used.
      */
-    @SuppressWarnings("ByteBufferBackingArray")
-    void setNextFrame(byte[] data, Camera camera) {
+    void setNextFrame(byte[] data) {
+      long timestampNanos = SystemClock.elapsedRealtimeNanos();
       synchronized (lock) {
-        if (pendingFrameData != null) {
-          camera.addCallbackBuffer(pendingFrameData.array());
-          pendingFrameData = null;
+        PreviewBufferPool pool = bufferPool;
+        if (pool == null) {
+          // The camera was closed in the meantime.
+          return;
+        }
+        if (pendingFrame != null) {
+          pool.release(pendingFrame.getData());
+          pendingFrame = null;
         }
 
-        if (!bytesToByteBuffer.containsKey(data)) {
-          Log.d(
-              TAG,
-              "Skipping frame. Could not find ByteBuffer associated with the image "
-                  + "data from the camera.");
+        pendingFrame = pool.acquire(data, timestampNanos, frameSequenceNumber++);
+        if (pendingFrame == null) {
+          Log.d(TAG, "Skipping frame, it isn't from the preview buffer pool.");
           return;
         }
 
-        pendingFrameData = bytesToByteBuffer.get(data);
-
         // Notify the processor thread if it is waiting on the next frame (see below).
         lock.notifyAll();
       }
@@ -642,14 +678,15 @@ public class CameraSource {
      * FPS setting above to allow for some idle time in between frames.
      */
     @SuppressLint("InlinedApi")
-    @SuppressWarnings({"GuardedBy", "ByteBufferBackingArray"})
+    @SuppressWarnings("GuardedBy")
     @Override
     public void run() {
-      ByteBuffer data;
+      PreviewBufferPool.Frame frame;
+      PreviewBufferPool pool;
 
       while (true) {
         synchronized (lock) {
-          while (active && (pendingFrameData == null)) {
+          while (active && (pendingFrame == null)) {
             try {
               // Wait for the next frame to be received from the camera, since we
               // don't have it yet.
@@ -669,31 +706,29 @@ public class CameraSource {
           }
 
           // Hold onto the frame data locally, so that we can use this for detection
-          // below.  We need to clear pendingFrameData to ensure that this buffer isn't
+          // below.  We need to clear pendingFrame to ensure that this buffer isn't
           // recycled back to the camera before we are done using that data.
-          data = pendingFrameData;
-          pendingFrameData = null;
+          frame = pendingFrame;
+          pendingFrame = null;
+          pool = bufferPool;
         }
 
         // The code below needs to run outside of synchronization, because this will allow
         // the camera to add pending frame(s) while we are running detection on the current
         // frame.
 
+        Tracer.beginSection("CameraSource#processFrame");
         try {
           synchronized (processorLock) {
             frameProcessor.processByteBuffer(
-                data,
-                new FrameMetadata.Builder()
-                    .setWidth(previewSize.getWidth())
-                    .setHeight(previewSize.getHeight())
-                    .setRotation(rotationDegrees)
-                    .build(),
-                graphicOverlay);
+                frame.getData(), frame.getMetadata(), pool, graphicOverlay);
           }
         } catch (Exception t) {
           Log.e(TAG, "Exception thrown from receiver.", t);
         } finally {
-          camera.addCallbackBuffer(data.array());
+          // Goes back to the camera right away unless the processor retained the frame.
+          pool.release(frame.getData());
+          Tracer.endSection();
         }
       }
     }
@@ -35,7 +35,7 @@ public class CameraSourcePreview extends ViewGroup {
   private final SurfaceView surfaceView;
   private boolean startRequested;
   private boolean surfaceAvailable;
-  private CameraSource cameraSource;
+  private LiveCameraSource cameraSource;
 
   private GraphicOverlay overlay;
 
@@ -50,7 +50,7 @@ public class CameraSourcePreview extends ViewGroup {
     addView(surfaceView);
   }
 
-  private void start(CameraSource cameraSource) throws IOException {
+  private void start(LiveCameraSource cameraSource) throws IOException {
     this.cameraSource = cameraSource;
 
     if (this.cameraSource != null) {
@@ -59,7 +59,7 @@ public class CameraSourcePreview extends ViewGroup {
     }
   }
 
-  public void start(CameraSource cameraSource, GraphicOverlay overlay) throws IOException {
+  public void start(LiveCameraSource cameraSource, GraphicOverlay overlay) throws IOException {
     this.overlay = overlay;
     start(cameraSource);
   }
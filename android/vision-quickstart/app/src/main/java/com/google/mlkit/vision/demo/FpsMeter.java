@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Measures a frame rate from the completion timestamps of the frames themselves, so no timer or
+ * background thread is needed.
+ *
+ * <p>The most recent timestamps are kept in a ring buffer. {@link #getInstantaneousFps()} is
+ * derived from the last two frames, {@link #getSmoothedFps(long)} from all frames completed within
+ * the sliding window before the given time.
+ *
+ * <p>Instances are not thread safe and are expected to be used from a single thread.
+ */
+public class FpsMeter {
+
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+  private static final int DEFAULT_CAPACITY = 64;
+
+  private final long windowNanos;
+  private final long[] timestampsNanos;
+  // Index the next timestamp is written to.
+  private int head;
+  private int size;
+
+  /** Creates a meter with a one second sliding window. */
+  public FpsMeter() {
+    this(NANOS_PER_SECOND, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a meter.
+   *
+   * @param windowNanos length of the sliding window used for the smoothed frame rate
+   * @param capacity maximum number of timestamps kept, i.e. the highest frame rate that can be
+   *     measured over one window
+   */
+  public FpsMeter(long windowNanos, int capacity) {
+    Preconditions.checkArgument(windowNanos > 0, "windowNanos must be positive");
+    Preconditions.checkArgument(capacity > 1, "capacity must be greater than 1");
+    this.windowNanos = windowNanos;
+    timestampsNanos = new long[capacity];
+  }
+
+  /** Records a completed frame, e.g. with {@code SystemClock.elapsedRealtimeNanos()}. */
+  public void onFrame(long timestampNanos) {
+    timestampsNanos[head] = timestampNanos;
+    head = (head + 1) % timestampsNanos.length;
+    if (size < timestampsNanos.length) {
+      size++;
+    }
+  }
+
+  /** Returns the frame rate derived from the interval between the last two frames. */
+  public float getInstantaneousFps() {
+    if (size < 2) {
+      return 0;
+    }
+    long intervalNanos = timestampAt(size - 1) - timestampAt(size - 2);
+    return intervalNanos > 0 ? (float) NANOS_PER_SECOND / intervalNanos : 0;
+  }
+
+  /**
+   * Returns the average frame rate over the sliding window ending at {@code nowNanos}. Drops to 0
+   * once no frame has completed for a whole window.
+   */
+  public float getSmoothedFps(long nowNanos) {
+    long windowStartNanos = nowNanos - windowNanos;
+    int framesInWindow = 0;
+    long oldestInWindowNanos = nowNanos;
+    for (int i = size - 1; i >= 0; i--) {
+      long timestamp = timestampAt(i);
+      if (timestamp <= windowStartNanos) {
+        break;
+      }
+      framesInWindow++;
+      oldestInWindowNanos = timestamp;
+    }
+    if (framesInWindow == 0) {
+      return 0;
+    }
+    if (framesInWindow < timestampsNanos.length) {
+      // All frames of the window were kept, so count them over the full window.
+      return (float) framesInWindow * NANOS_PER_SECOND / windowNanos;
+    }
+    // The ring buffer is too small for the window, fall back to the span it covers.
+    long spanNanos = nowNanos - oldestInWindowNanos;
+    return spanNanos > 0 ? (float) framesInWindow * NANOS_PER_SECOND / spanNanos : 0;
+  }
+
+  /** Forgets all recorded frames. */
+  public void reset() {
+    head = 0;
+    size = 0;
+  }
+
+  /** Returns the i-th oldest timestamp still kept, 0 being the oldest. */
+  private long timestampAt(int i) {
+    int start = (head - size + timestampsNanos.length) % timestampsNanos.length;
+    return timestampsNanos[(start + i) % timestampsNanos.length];
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.Task;
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.demo.FramePolicy.PendingFrame;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands the Camera1 frames kept by a {@link FramePolicy} to a processor, at most a fixed number at
+ * a time.
+ *
+ * <p>Each frame taken from the policy holds a slot until the task the processor returned for it
+ * completes. The slot is freed whether the detection succeeded or failed, and the next pending
+ * frame is processed right away.
+ *
+ * <p>All methods are thread safe.
+ */
+public final class FrameIntake {
+
+  /** Processes the frames taken from the policy. */
+  public interface FrameProcessor {
+    /**
+     * Starts processing {@code frame}, which the processor must {@link PendingFrame#release}.
+     * Returns a task completing, successfully or not, once the processor is ready for the next
+     * frame.
+     */
+    Task<?> process(PendingFrame frame);
+  }
+
+  private final int maxFramesInFlight;
+  private final Executor completionExecutor;
+
+  @GuardedBy("this")
+  private FramePolicy framePolicy;
+
+  @GuardedBy("this")
+  private int framesInFlight;
+
+  @GuardedBy("this")
+  private boolean isClosed;
+
+  /**
+   * Creates an intake.
+   *
+   * @param maxFramesInFlight number of frames processed at the same time
+   * @param completionExecutor runs the processing of the next frame once one completes. Nothing is
+   *     processed anymore once it stops running tasks
+   */
+  public FrameIntake(FramePolicy framePolicy, int maxFramesInFlight, Executor completionExecutor) {
+    Preconditions.checkArgument(maxFramesInFlight > 0, "maxFramesInFlight must be positive");
+    this.framePolicy = framePolicy;
+    this.maxFramesInFlight = maxFramesInFlight;
+    this.completionExecutor = completionExecutor;
+  }
+
+  /** Replaces the policy. Frames pending in the previous one are discarded. */
+  public synchronized void setFramePolicy(FramePolicy framePolicy) {
+    this.framePolicy.clear();
+    this.framePolicy = framePolicy;
+  }
+
+  /** Returns the name of the current policy, e.g. for logging. */
+  public synchronized String getFramePolicyName() {
+    return framePolicy.getName();
+  }
+
+  /** Returns the number of frames dropped by the current policy. */
+  public synchronized long getDroppedFrameCount() {
+    return framePolicy.getDroppedFrameCount();
+  }
+
+  /**
+   * Offers a frame that just arrived from the camera to the policy, then processes pending frames
+   * with {@code processor} while slots are free. See {@link FramePolicy#offer} for {@code
+   * bufferPool}.
+   */
+  public synchronized void offer(
+      ByteBuffer data,
+      FrameMetadata metadata,
+      @Nullable PreviewBufferPool bufferPool,
+      FrameProcessor processor) {
+    if (isClosed) {
+      return;
+    }
+    framePolicy.offer(data, metadata, bufferPool);
+    processPendingFrames(processor);
+  }
+
+  /** Discards the pending frames and stops processing new ones. */
+  public synchronized void close() {
+    isClosed = true;
+    framePolicy.clear();
+  }
+
+  @GuardedBy("this")
+  private void processPendingFrames(FrameProcessor processor) {
+    while (!isClosed && framesInFlight < maxFramesInFlight) {
+      PendingFrame frame = framePolicy.poll();
+      if (frame == null) {
+        return;
+      }
+      framesInFlight++;
+      processor
+          .process(frame)
+          .addOnCompleteListener(completionExecutor, task -> onFrameProcessed(processor));
+    }
+  }
+
+  private synchronized void onFrameProcessed(FrameProcessor processor) {
+    framesInFlight--;
+    processPendingFrames(processor);
+  }
+}
@@ -16,12 +16,20 @@
 
 package com.google.mlkit.vision.demo;
 
-/** Describing a frame info. */
+/**
+ * Describing a frame info.
+ *
+ * <p>Instances describing Camera1 preview frames belong to a {@link PreviewBufferPool} buffer and
+ * are reused for the next frame in that buffer, so the camera loop doesn't allocate per frame. They
+ * are only valid as long as the frame data is, see {@link PreviewBufferPool#retain}.
+ */
 public class FrameMetadata {
 
   private final int width;
   private final int height;
   private final int rotation;
+  private long timestampNanos;
+  private long sequenceNumber;
 
   public int getWidth() {
     return width;
@@ -35,10 +43,33 @@ public class FrameMetadata {
     return rotation;
   }
 
-  private FrameMetadata(int width, int height, int rotation) {
+  /**
+   * Returns the time the frame was captured in the {@link
+   * android.os.SystemClock#elapsedRealtimeNanos} time base, or 0 if unknown. Frames from Camera1
+   * are stamped with the time the app received them instead.
+   */
+  public long getTimestampNanos() {
+    return timestampNanos;
+  }
+
+  /** Returns the number of frames delivered by the camera before this one, or 0 if unknown. */
+  public long getSequenceNumber() {
+    return sequenceNumber;
+  }
+
+  private FrameMetadata(
+      int width, int height, int rotation, long timestampNanos, long sequenceNumber) {
     this.width = width;
     this.height = height;
     this.rotation = rotation;
+    this.timestampNanos = timestampNanos;
+    this.sequenceNumber = sequenceNumber;
+  }
+
+  /** Reuses the instance for the next frame of the same size and rotation. */
+  void setFrame(long timestampNanos, long sequenceNumber) {
+    this.timestampNanos = timestampNanos;
+    this.sequenceNumber = sequenceNumber;
   }
 
   /** Builder of {@link FrameMetadata}. */
@@ -47,6 +78,8 @@ public class FrameMetadata {
     private int width;
     private int height;
     private int rotation;
+    private long timestampNanos;
+    private long sequenceNumber;
 
     public Builder setWidth(int width) {
       this.width = width;
@@ -63,8 +96,18 @@ public class FrameMetadata {
       return this;
     }
 
+    public Builder setTimestampNanos(long timestampNanos) {
+      this.timestampNanos = timestampNanos;
+      return this;
+    }
+
+    public Builder setSequenceNumber(long sequenceNumber) {
+      this.sequenceNumber = sequenceNumber;
+      return this;
+    }
+
     public FrameMetadata build() {
-      return new FrameMetadata(width, height, rotation);
+      return new FrameMetadata(width, height, rotation, timestampNanos, sequenceNumber);
     }
   }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.util.Log;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The stages a live preview frame goes through when pipelined processing is enabled:
+ *
+ * <ol>
+ *   <li>convert: builds the detector input and the preview bitmap from the camera frame
+ *   <li>infer: runs the detector and waits for its result
+ *   <li>post-process: builds the overlay graphics from the result
+ *   <li>render: publishes the graphics to the overlay and invalidates it
+ * </ol>
+ *
+ * <p>Each stage has its own thread and bounded queue, so consecutive frames overlap: one frame can
+ * be converted while the previous one is inferred and the one before is rendered. The main thread
+ * is left with drawing only.
+ *
+ * <p>The stage threads are shared by all processors of the app, so recreating a processor doesn't
+ * create new threads.
+ */
+public final class FramePipeline {
+
+  /**
+   * Maximum number of camera frames a processor holds on to at the same time, i.e. one being
+   * converted and one being inferred.
+   */
+  public static final int MAX_FRAMES_IN_FLIGHT = 2;
+
+  private static final int QUEUE_CAPACITY = 1;
+
+  private static FramePipeline instance;
+
+  private final PipelineStage convertStage = new PipelineStage("convert", QUEUE_CAPACITY);
+  private final PipelineStage inferStage = new PipelineStage("infer", QUEUE_CAPACITY);
+  private final PipelineStage postProcessStage =
+      new PipelineStage("post-process", QUEUE_CAPACITY);
+  private final PipelineStage renderStage = new PipelineStage("render", QUEUE_CAPACITY);
+
+  /** Returns the pipeline shared by all processors, creating its threads on first use. */
+  public static synchronized FramePipeline getInstance() {
+    if (instance == null) {
+      instance = new FramePipeline();
+    }
+    return instance;
+  }
+
+  private FramePipeline() {}
+
+  public PipelineStage getConvertStage() {
+    return convertStage;
+  }
+
+  public PipelineStage getInferStage() {
+    return inferStage;
+  }
+
+  public PipelineStage getPostProcessStage() {
+    return postProcessStage;
+  }
+
+  public PipelineStage getRenderStage() {
+    return renderStage;
+  }
+
+  /** Returns all stages in the order a frame goes through them. */
+  public List<PipelineStage> getStages() {
+    return Collections.unmodifiableList(
+        Arrays.asList(convertStage, inferStage, postProcessStage, renderStage));
+  }
+
+  /** Logs occupancy and queue time of every stage. */
+  public void logStats(String tag) {
+    for (PipelineStage stage : getStages()) {
+      Log.d(tag, "Pipeline stage " + stage);
+    }
+  }
+
+  /** Resets the stats of every stage. */
+  public void resetStats() {
+    for (PipelineStage stage : getStages()) {
+      stage.resetStats();
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.Nullable;
+import com.google.common.base.Preconditions;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Decides which incoming camera frames are kept for processing while the detector is busy with a
+ * previous one.
+ *
+ * <p>Frames are offered with {@link #offer} as they arrive from the camera and taken with {@link
+ * #poll} whenever the processor is ready for the next one. Frames that the policy decides not to
+ * process are counted and can be read with {@link #getDroppedFrameCount()}.
+ *
+ * <p>Frames from a {@link PreviewBufferPool} are retained while pending and released when dropped.
+ * A polled frame passes its reference to the caller, which must {@link PendingFrame#release} it.
+ * Such frames are queued as the {@link PendingFrame} of their buffer, which is reused for all its
+ * frames, so the camera loop doesn't allocate per frame.
+ *
+ * <p>Instances are not thread safe. The owning processor is expected to guard all calls with its
+ * own lock.
+ */
+public abstract class FramePolicy {
+
+  /**
+   * A frame waiting to be processed. The frames of a preview buffer share one instance, which must
+   * not be used anymore once released.
+   */
+  public static final class PendingFrame {
+    public final ByteBuffer data;
+    public final FrameMetadata metadata;
+    @Nullable private final PreviewBufferPool bufferPool;
+
+    PendingFrame(ByteBuffer data, FrameMetadata metadata, @Nullable PreviewBufferPool bufferPool) {
+      this.data = data;
+      this.metadata = metadata;
+      this.bufferPool = bufferPool;
+    }
+
+    /** Gives the frame buffer back to its pool, if any, once the frame is no longer used. */
+    public void release() {
+      if (bufferPool != null) {
+        bufferPool.release(data);
+      }
+    }
+  }
+
+  private final String name;
+  private final int capacity;
+  private final ArrayDeque<PendingFrame> pendingFrames;
+  private long droppedFrameCount;
+
+  protected FramePolicy(String name, int capacity) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+    this.name = name;
+    this.capacity = capacity;
+    pendingFrames = new ArrayDeque<>(capacity);
+  }
+
+  /**
+   * Keeps the pending frame and drops every newer frame until it has been taken. Favors the
+   * oldest frame, which keeps results stable but adds latency.
+   */
+  public static FramePolicy dropLatest() {
+    return new FramePolicy("drop-latest", /* capacity= */ 1) {
+      @Override
+      protected boolean shouldEvictOldest() {
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Replaces the pending frame with every newer one, so the detector always sees the most recent
+   * frame. This is the lowest latency policy and the default of {@code VisionProcessorBase}.
+   */
+  public static FramePolicy dropOldest() {
+    return new FramePolicy("drop-oldest", /* capacity= */ 1) {
+      @Override
+      protected boolean shouldEvictOldest() {
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Queues up to {@code capacity} frames in arrival order and drops the oldest one when the queue
+   * is full. Absorbs short detector latency spikes without skipping frames, at the cost of up to
+   * {@code capacity} frames of extra latency.
+   */
+  public static FramePolicy boundedQueue(int capacity) {
+    return new FramePolicy("bounded-queue(" + capacity + ")", capacity) {
+      @Override
+      protected boolean shouldEvictOldest() {
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Only accepts every {@code k}-th frame from the camera and drops the others up front. Accepted
+   * frames are handled like {@link #dropOldest()}. Useful to cap the detector rate independently
+   * of the camera frame rate.
+   */
+  public static FramePolicy everyKthFrame(int k) {
+    Preconditions.checkArgument(k > 0, "k must be positive");
+    return new FramePolicy("every-kth-frame(" + k + ")", /* capacity= */ 1) {
+      private long frameIndex;
+
+      @Override
+      protected boolean shouldAccept() {
+        return frameIndex++ % k == 0;
+      }
+
+      @Override
+      protected boolean shouldEvictOldest() {
+        return true;
+      }
+    };
+  }
+
+  /** Whether a newly arrived frame is considered at all. */
+  protected boolean shouldAccept() {
+    return true;
+  }
+
+  /** Whether a full queue makes room for a new frame by dropping its oldest frame. */
+  protected abstract boolean shouldEvictOldest();
+
+  /**
+   * Offers a newly arrived frame. If {@code bufferPool} is set, queued frames are retained from it
+   * until they are dropped or polled, and are described by the metadata of their buffer.
+   *
+   * @return whether the frame was queued for processing
+   */
+  public boolean offer(
+      ByteBuffer data, FrameMetadata metadata, @Nullable PreviewBufferPool bufferPool) {
+    if (!shouldAccept()) {
+      droppedFrameCount++;
+      return false;
+    }
+    if (pendingFrames.size() >= capacity) {
+      if (!shouldEvictOldest()) {
+        droppedFrameCount++;
+        return false;
+      }
+      pendingFrames.pollFirst().release();
+      droppedFrameCount++;
+    }
+    PendingFrame frame = bufferPool != null ? bufferPool.retainPendingFrame(data) : null;
+    if (frame == null) {
+      // Not a preview buffer, e.g. a replayed frame.
+      frame = new PendingFrame(data, metadata, /* bufferPool= */ null);
+    }
+    pendingFrames.addLast(frame);
+    return true;
+  }
+
+  /** Takes the next frame to process, or returns null if there is none. */
+  @Nullable
+  public PendingFrame poll() {
+    return pendingFrames.pollFirst();
+  }
+
+  /** Drops all pending frames without counting them as dropped. */
+  public void clear() {
+    PendingFrame frame;
+    while ((frame = pendingFrames.pollFirst()) != null) {
+      frame.release();
+    }
+  }
+
+  /** Returns the number of frames this policy has dropped so far. */
+  public long getDroppedFrameCount() {
+    return droppedFrameCount;
+  }
+
+  /** Returns a short human-readable name of this policy, e.g. for logging. */
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
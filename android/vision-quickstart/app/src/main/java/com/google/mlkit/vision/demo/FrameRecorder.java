@@ -0,0 +1,362 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.content.Context;
+import android.media.Image;
+import android.os.Build.VERSION_CODES;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.camera.core.ImageProxy;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends live preview frames to a file, so they can be replayed later with {@link FrameReplayer}.
+ *
+ * <p>The file starts with a header of the magic number {@code "MLFR"} and the format version, both
+ * as 32-bit ints. Each frame follows as:
+ *
+ * <ul>
+ *   <li>long: the time the frame was captured in nanoseconds
+ *   <li>int: flags, {@link #FLAG_TIMESTAMP_REALTIME} if the timestamp is in the {@link
+ *       android.os.SystemClock#elapsedRealtimeNanos} time base. Otherwise it is in a time base of
+ *       the camera and only meaningful relative to the other frames of the same session
+ *   <li>int: the width, the height and the rotation in degrees
+ *   <li>int: the data length, followed by the frame in NV21 format
+ * </ul>
+ *
+ * <p>All values are big endian. Frames are copied on the calling thread, then converted to NV21 if
+ * needed and written on a background thread, so recording doesn't block the camera and replaying
+ * doesn't convert. If the writer falls behind, frames are dropped and
+ * counted, see {@link #getDroppedFrameCount()}. Closing doesn't block either, the writer thread
+ * closes the file once it wrote the pending frames.
+ */
+public final class FrameRecorder implements Closeable {
+
+  private static final String TAG = "FrameRecorder";
+
+  static final int MAGIC = 0x4D4C4652;
+  static final int VERSION = 3;
+
+  /** Set if the frame timestamp is in the {@code elapsedRealtimeNanos} time base. */
+  public static final int FLAG_TIMESTAMP_REALTIME = 1;
+
+  private static final int MAX_PENDING_FRAMES = 8;
+  private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+  private final File file;
+  private final DataOutputStream output;
+  private final ThreadPoolExecutor writer;
+  private final AtomicLong recordedFrameCount = new AtomicLong();
+  private final AtomicLong droppedFrameCount = new AtomicLong();
+  private final CountDownLatch closed = new CountDownLatch(1);
+  @Nullable private volatile IOException writeError;
+
+  // Only used on the writer thread, reused for every frame of the same size.
+  @Nullable private byte[] nv21Buffer;
+
+  /** Returns a new file named after the current time in the app's recordings directory. */
+  public static File newRecordingFile(Context context) {
+    String name =
+        new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".mlfr";
+    return new File(context.getExternalFilesDir("recordings"), name);
+  }
+
+  /**
+   * Opens {@code file} for recording. Frames are appended if it is an existing recording.
+   *
+   * @throws IOException if the file can't be opened or is not a recording of this version
+   */
+  public FrameRecorder(File file) throws IOException {
+    this.file = file;
+    boolean isNewFile = file.length() == 0;
+    if (!isNewFile) {
+      checkHeader(file);
+    } else if (file.getParentFile() != null) {
+      file.getParentFile().mkdirs();
+    }
+    output =
+        new DataOutputStream(
+            new BufferedOutputStream(
+                new FileOutputStream(file, /* append= */ true), OUTPUT_BUFFER_SIZE));
+    if (isNewFile) {
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+    }
+    writer =
+        new ThreadPoolExecutor(
+            /* corePoolSize= */ 1,
+            /* maximumPoolSize= */ 1,
+            /* keepAliveTime= */ 0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_PENDING_FRAMES),
+            runnable -> new Thread(runnable, TAG)) {
+          @Override
+          protected void terminated() {
+            closeOutput();
+          }
+        };
+    // Terminates on the writer thread then, even if no frame was recorded.
+    writer.prestartCoreThread();
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Records a Camera1 frame with the timestamp of {@code frameMetadata}, the time the app received
+   * it. {@code data} is copied and its position is not changed.
+   */
+  public void recordNv21(ByteBuffer data, FrameMetadata frameMetadata) {
+    byte[] nv21 = copy(data);
+    submit(
+        frameMetadata.getTimestampNanos(),
+        FLAG_TIMESTAMP_REALTIME,
+        frameMetadata.getWidth(),
+        frameMetadata.getHeight(),
+        frameMetadata.getRotation(),
+        () -> nv21);
+  }
+
+  /**
+   * Records a CameraX frame with its capture timestamp. The plane data is copied, the image may be
+   * closed afterwards.
+   *
+   * @param isTimestampRealtime whether the image timestamps are in the {@code
+   *     elapsedRealtimeNanos} time base
+   */
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  public void recordImageProxy(ImageProxy image, boolean isTimestampRealtime) {
+    ImageProxy.PlaneProxy[] imagePlanes = image.getPlanes();
+    ByteBuffer[] planes = new ByteBuffer[imagePlanes.length];
+    int[] rowStrides = new int[imagePlanes.length];
+    int[] pixelStrides = new int[imagePlanes.length];
+    for (int i = 0; i < imagePlanes.length; i++) {
+      planes[i] = imagePlanes[i].getBuffer();
+      rowStrides[i] = imagePlanes[i].getRowStride();
+      pixelStrides[i] = imagePlanes[i].getPixelStride();
+    }
+    recordYuv420888(
+        planes,
+        rowStrides,
+        pixelStrides,
+        image.getWidth(),
+        image.getHeight(),
+        image.getImageInfo().getRotationDegrees(),
+        image.getImageInfo().getTimestamp(),
+        isTimestampRealtime);
+  }
+
+  /**
+   * Records a Camera2 frame with its sensor timestamp. The plane data is copied, the image may be
+   * closed afterwards.
+   *
+   * @param isTimestampRealtime whether the sensor timestamps are in the {@code
+   *     elapsedRealtimeNanos} time base
+   */
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  public void recordMediaImage(Image image, int rotationDegrees, boolean isTimestampRealtime) {
+    Image.Plane[] imagePlanes = image.getPlanes();
+    ByteBuffer[] planes = new ByteBuffer[imagePlanes.length];
+    int[] rowStrides = new int[imagePlanes.length];
+    int[] pixelStrides = new int[imagePlanes.length];
+    for (int i = 0; i < imagePlanes.length; i++) {
+      planes[i] = imagePlanes[i].getBuffer();
+      rowStrides[i] = imagePlanes[i].getRowStride();
+      pixelStrides[i] = imagePlanes[i].getPixelStride();
+    }
+    recordYuv420888(
+        planes,
+        rowStrides,
+        pixelStrides,
+        image.getWidth(),
+        image.getHeight(),
+        rotationDegrees,
+        image.getTimestamp(),
+        isTimestampRealtime);
+  }
+
+  /**
+   * Records the Y, U and V planes of a YUV_420_888 frame with their strides. The plane data is
+   * copied and the buffer positions are not changed, the copy is converted to NV21 on the writer
+   * thread.
+   */
+  void recordYuv420888(
+      ByteBuffer[] planes,
+      int[] rowStrides,
+      int[] pixelStrides,
+      int width,
+      int height,
+      int rotation,
+      long timestampNanos,
+      boolean isTimestampRealtime) {
+    byte[][] planeData = new byte[planes.length][];
+    for (int i = 0; i < planes.length; i++) {
+      planeData[i] = copy(planes[i]);
+    }
+    submit(
+        timestampNanos,
+        isTimestampRealtime ? FLAG_TIMESTAMP_REALTIME : 0,
+        width,
+        height,
+        rotation,
+        () -> toNv21(planeData, rowStrides, pixelStrides, width, height));
+  }
+
+  public long getRecordedFrameCount() {
+    return recordedFrameCount.get();
+  }
+
+  public long getDroppedFrameCount() {
+    return droppedFrameCount.get();
+  }
+
+  /**
+   * Stops recording without blocking. Frames recorded afterwards are dropped. The writer thread
+   * writes the pending frames and then closes the file, see {@link #awaitClosed}.
+   */
+  @Override
+  public void close() {
+    writer.shutdown();
+  }
+
+  /**
+   * Waits until the file is closed after {@link #close()}.
+   *
+   * @return false if the file is not closed yet after {@code timeout}
+   * @throws IOException if writing any of the frames or closing the file failed
+   */
+  public boolean awaitClosed(long timeout, TimeUnit unit)
+      throws IOException, InterruptedException {
+    if (!closed.await(timeout, unit)) {
+      return false;
+    }
+    IOException error = writeError;
+    if (error != null) {
+      throw error;
+    }
+    return true;
+  }
+
+  // Runs on the writer thread once it wrote the last pending frame.
+  private void closeOutput() {
+    try {
+      output.close();
+    } catch (IOException e) {
+      if (writeError == null) {
+        writeError = e;
+      }
+    }
+    IOException error = writeError;
+    if (error != null) {
+      Log.e(TAG, "Failed to record frames to " + file, error);
+    }
+    Log.d(
+        TAG,
+        "Recorded "
+            + recordedFrameCount.get()
+            + " frames to "
+            + file
+            + ", dropped "
+            + droppedFrameCount.get());
+    closed.countDown();
+  }
+
+  private void submit(
+      long timestampNanos, int flags, int width, int height, int rotation, Nv21Source source) {
+    try {
+      writer.execute(
+          () -> {
+            if (writeError != null) {
+              return;
+            }
+            try {
+              byte[] nv21 = source.getNv21();
+              output.writeLong(timestampNanos);
+              output.writeInt(flags);
+              output.writeInt(width);
+              output.writeInt(height);
+              output.writeInt(rotation);
+              output.writeInt(nv21.length);
+              output.write(nv21);
+              recordedFrameCount.incrementAndGet();
+            } catch (IOException e) {
+              Log.e(TAG, "Failed to record frame", e);
+              writeError = e;
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      // The writer is behind or already closed.
+      droppedFrameCount.incrementAndGet();
+    }
+  }
+
+  // Runs on the writer thread, the returned array is only valid until the next frame.
+  private byte[] toNv21(
+      byte[][] planeData, int[] rowStrides, int[] pixelStrides, int width, int height) {
+    int size = YuvUtils.getNv21Size(width, height);
+    if (nv21Buffer == null || nv21Buffer.length != size) {
+      nv21Buffer = new byte[size];
+    }
+    ByteBuffer[] planes = new ByteBuffer[planeData.length];
+    for (int i = 0; i < planeData.length; i++) {
+      planes[i] = ByteBuffer.wrap(planeData[i]);
+    }
+    YuvUtils.yuv420ThreePlanesToNV21(planes, rowStrides, pixelStrides, width, height, nv21Buffer);
+    return nv21Buffer;
+  }
+
+  private static byte[] copy(ByteBuffer buffer) {
+    ByteBuffer source = buffer.duplicate();
+    source.rewind();
+    byte[] bytes = new byte[source.remaining()];
+    source.get(bytes);
+    return bytes;
+  }
+
+  /** Provides the NV21 data of a frame on the writer thread. */
+  private interface Nv21Source {
+    byte[] getNv21();
+  }
+
+  private static void checkHeader(File file) throws IOException {
+    try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        throw new IOException("Not a frame recording of version " + VERSION + ": " + file);
+      }
+    }
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.google.mlkit.common.MlKitException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a recording written by {@link FrameRecorder} and replays it into a {@link
+ * VisionImageProcessor}, without a camera.
+ *
+ * <p>The file is memory mapped and frames are passed to {@link
+ * VisionImageProcessor#processByteBuffer} as slices of the mapping, so replaying doesn't read or
+ * copy them. The recorder stores every frame in NV21, including CameraX and Camera2 frames, as an
+ * {@code ImageProxy} can't be created without a camera.
+ *
+ * <p>Processors may drop frames that arrive while their detector is busy. To compare builds frame
+ * for frame at maximum speed, give the processor a {@link FramePolicy#boundedQueue} large enough
+ * for the recording.
+ *
+ * <p>Instances are not thread safe. Replaying blocks, so it should not be done on the main thread.
+ */
+public final class FrameReplayer implements Closeable {
+
+  private static final String TAG = "FrameReplayer";
+
+  // Size of the part of the file mapped at a time, frames larger than this are mapped on their own.
+  private static final long MAPPING_SIZE = 64L << 20;
+  private static final int FILE_HEADER_SIZE = 8;
+  private static final int FRAME_HEADER_SIZE = 28;
+
+  /** A recorded frame. Its data is only valid while the replayer is open. */
+  public static final class Frame {
+    private final long timestampNanos;
+    private final boolean isTimestampRealtime;
+    private final FrameMetadata frameMetadata;
+    private final ByteBuffer data;
+
+    Frame(
+        long timestampNanos,
+        boolean isTimestampRealtime,
+        FrameMetadata frameMetadata,
+        ByteBuffer data) {
+      this.timestampNanos = timestampNanos;
+      this.isTimestampRealtime = isTimestampRealtime;
+      this.frameMetadata = frameMetadata;
+      this.data = data;
+    }
+
+    /** Returns the recorded capture time, only meaningful relative to the other frames. */
+    public long getTimestampNanos() {
+      return timestampNanos;
+    }
+
+    /**
+     * Returns whether {@link #getTimestampNanos()} is in the {@link
+     * android.os.SystemClock#elapsedRealtimeNanos} time base, rather than in a time base of the
+     * camera.
+     */
+    public boolean isTimestampRealtime() {
+      return isTimestampRealtime;
+    }
+
+    /**
+     * Returns the metadata passed to the processor. Its timestamp is unknown, as the frame wasn't
+     * captured now, so processors don't measure latencies against the time it was recorded.
+     */
+    public FrameMetadata getFrameMetadata() {
+      return frameMetadata;
+    }
+
+    /** Returns the frame in NV21 format, a slice of the mapped file. */
+    public ByteBuffer getData() {
+      return data.duplicate();
+    }
+  }
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long fileSize;
+
+  private MappedByteBuffer mapping;
+  private long mappingStart;
+  private long position = FILE_HEADER_SIZE;
+
+  /**
+   * Opens a recording.
+   *
+   * @throws IOException if the file can't be read or is not a recording of a supported version
+   */
+  public FrameReplayer(File recording) throws IOException {
+    file = new RandomAccessFile(recording, "r");
+    channel = file.getChannel();
+    fileSize = channel.size();
+    try {
+      if (fileSize >= FILE_HEADER_SIZE) {
+        map(0, FILE_HEADER_SIZE);
+      }
+      if (mapping == null
+          || mapping.getInt(0) != FrameRecorder.MAGIC
+          || mapping.getInt(4) != FrameRecorder.VERSION) {
+        throw new IOException("Not a frame recording of a supported version: " + recording);
+      }
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the next frame, or null at the end of the recording. A frame cut off at the end, e.g.
+   * because the app was killed while recording, counts as the end.
+   */
+  @Nullable
+  public Frame nextFrame() throws IOException {
+    if (!ensureMapped(FRAME_HEADER_SIZE)) {
+      return null;
+    }
+    int offset = (int) (position - mappingStart);
+    long timestampNanos = mapping.getLong(offset);
+    boolean isTimestampRealtime =
+        (mapping.getInt(offset + 8) & FrameRecorder.FLAG_TIMESTAMP_REALTIME) != 0;
+    FrameMetadata frameMetadata =
+        new FrameMetadata.Builder()
+            .setWidth(mapping.getInt(offset + 12))
+            .setHeight(mapping.getInt(offset + 16))
+            .setRotation(mapping.getInt(offset + 20))
+            .build();
+    int length = mapping.getInt(offset + 24);
+    long frameStart = position;
+    position += FRAME_HEADER_SIZE;
+    if (!ensureMapped(length)) {
+      return truncatedAt(frameStart);
+    }
+    offset = (int) (position - mappingStart);
+    ByteBuffer data = mapping.duplicate();
+    data.position(offset);
+    data.limit(offset + length);
+    position += length;
+    return new Frame(timestampNanos, isTimestampRealtime, frameMetadata, data.slice());
+  }
+
+  /** Starts over with the first frame. */
+  public void rewind() {
+    position = FILE_HEADER_SIZE;
+  }
+
+  /**
+   * Feeds the remaining frames to {@code processor}.
+   *
+   * @param graphicOverlay the overlay to draw the results on, or null to replay headless
+   * @param realTime whether to keep the recorded time between frames, or to replay them as fast
+   *     as the processor takes them
+   * @return the number of frames replayed
+   */
+  public int replay(
+      VisionImageProcessor processor, @Nullable GraphicOverlay graphicOverlay, boolean realTime)
+      throws IOException, MlKitException, InterruptedException {
+    int frameCount = 0;
+    long firstTimestampNanos = 0;
+    boolean isTimestampRealtime = false;
+    long startNanos = System.nanoTime();
+    long paceStartNanos = startNanos;
+    Frame frame;
+    while ((frame = nextFrame()) != null) {
+      if (realTime) {
+        // Sessions appended with a camera in another time base are paced on their own.
+        if (frameCount == 0 || frame.isTimestampRealtime() != isTimestampRealtime) {
+          firstTimestampNanos = frame.getTimestampNanos();
+          isTimestampRealtime = frame.isTimestampRealtime();
+          paceStartNanos = System.nanoTime();
+        }
+        long delayNanos =
+            (frame.getTimestampNanos() - firstTimestampNanos)
+                - (System.nanoTime() - paceStartNanos);
+        if (delayNanos > 0) {
+          TimeUnit.NANOSECONDS.sleep(delayNanos);
+        }
+      }
+      processor.processByteBuffer(
+          frame.getData(), frame.getFrameMetadata(), /* bufferPool= */ null, graphicOverlay);
+      frameCount++;
+    }
+    Log.d(
+        TAG,
+        "Replayed "
+            + frameCount
+            + " frames in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+            + " ms");
+    return frameCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  /** Makes sure the next {@code length} bytes are mapped, returns false if the file is shorter. */
+  private boolean ensureMapped(int length) throws IOException {
+    if (position + length > fileSize) {
+      return false;
+    }
+    if (mapping == null
+        || position < mappingStart
+        || position + length > mappingStart + mapping.limit()) {
+      map(position, length);
+    }
+    return true;
+  }
+
+  private void map(long start, int minLength) throws IOException {
+    long size = Math.min(fileSize - start, Math.max(minLength, MAPPING_SIZE));
+    // Buffers sliced from the previous mapping stay valid, it is unmapped once they are collected.
+    mapping = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    mappingStart = start;
+  }
+
+  @Nullable
+  private Frame truncatedAt(long frameStart) {
+    Log.w(TAG, "Ignoring the truncated frame at " + frameStart);
+    position = fileSize;
+    return null;
+  }
+}
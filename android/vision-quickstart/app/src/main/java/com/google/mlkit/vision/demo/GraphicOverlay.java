@@ -23,12 +23,20 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.View;
 import com.google.common.base.Preconditions;
 import com.google.common.primitives.Ints;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A view which renders a series of custom graphics to be overlayed on top of an associated preview
@@ -48,13 +56,90 @@ import java.util.List;
  *   <li>{@link Graphic#translateX(float)} and {@link Graphic#translateY(float)} adjust the
  *       coordinate from the image's coordinate system to the view coordinate system.
  * </ol>
+ *
+ * <p>Graphics of a camera frame can be tagged with the time the frame was captured, see {@link
+ * #setCaptureTimestampNanos}. The overlay then records the glass-to-glass latency, from the
+ * capture to the first draw of the graphics, see {@link #getGlassToGlassLatencyPercentiles}. For
+ * cameras that only tell when the app received a frame, it is the callback-to-glass latency
+ * instead, see {@link #setTimestampsAreCallbackTimes}.
+ *
+ * <p>Graphics removed from the overlay are {@link Graphic#release() released} once they can't be
+ * drawn anymore, e.g. to give their camera frame bitmap back to the overlay's {@link BitmapPool}.
+ *
+ * <p>The graphics and the image they belong to are kept in an immutable frame. Every change builds
+ * a new frame and publishes it with a single atomic swap, and {@link #onDraw} draws the frame
+ * published last without any locking, so threads changing the graphics never wait for a draw and
+ * the other way round.
  */
 public class GraphicOverlay extends View {
-  private final Object lock = new Object();
-  private final List<Graphic> graphics = new ArrayList<>();
+  private static final long MAX_TRACKABLE_LATENCY_MS = 60_000;
+
+  /** The graphics shown by the overlay and the image they belong to. Never modified. */
+  private static final class Frame {
+    static final Frame EMPTY =
+        new Frame(Collections.emptyList(), 0, 0, false, /* captureTimestampNanos= */ 0);
+
+    final List<Graphic> graphics;
+    final int imageWidth;
+    final int imageHeight;
+    final boolean isImageFlipped;
+    // Capture time of the camera frame the graphics belong to, 0 if unknown.
+    final long captureTimestampNanos;
+
+    Frame(
+        List<Graphic> graphics,
+        int imageWidth,
+        int imageHeight,
+        boolean isImageFlipped,
+        long captureTimestampNanos) {
+      this.graphics = graphics;
+      this.imageWidth = imageWidth;
+      this.imageHeight = imageHeight;
+      this.isImageFlipped = isImageFlipped;
+      this.captureTimestampNanos = captureTimestampNanos;
+    }
+
+    /** Returns a frame of the same image showing {@code graphics}, which must not be modified. */
+    Frame withGraphics(List<Graphic> graphics, long captureTimestampNanos) {
+      return new Frame(
+          Collections.unmodifiableList(graphics),
+          imageWidth,
+          imageHeight,
+          isImageFlipped,
+          captureTimestampNanos);
+    }
+  }
+
+  /** Builds the frame replacing the current one. May be retried, so it has no side effects. */
+  private interface FrameUpdate {
+    Frame apply(Frame frame);
+  }
+
+  private final AtomicReference<Frame> frame = new AtomicReference<>(Frame.EMPTY);
+  // Graphics dropped from the published frame. They are released on the main thread, by a task
+  // posted when they are retired or by the next onDraw(), as a running onDraw() may still read
+  // them until then.
+  private final Queue<Graphic> retiredGraphics = new ConcurrentLinkedQueue<>();
+  private final Runnable releaseRetiredGraphicsTask = this::releaseRetiredGraphics;
+  // Latencies from capturing a camera frame to drawing its graphics. Guarded by itself, which is
+  // only held to record or look up a value.
+  private final LatencyHistogram glassToGlassLatencyHistogram =
+      new LatencyHistogram(MAX_TRACKABLE_LATENCY_MS);
+  private volatile long lastGlassToGlassLatencyMs;
+  // Written while holding glassToGlassLatencyHistogram, so the histogram is reset along with it.
+  private volatile boolean timestampsAreCallbackTimes;
+  // Bitmaps of the camera frames drawn under the graphics, see getBitmapPool().
+  private final BitmapPool bitmapPool = new BitmapPool(BitmapPool.DEFAULT_MAX_SIZE_BYTES);
+  // Paints shared by the graphics, see getPaintRegistry().
+  private final PaintRegistry paintRegistry = new PaintRegistry();
+  // Graphics added on a thread between startCapture() and finishCapture(), not yet shown.
+  private final ThreadLocal<List<Graphic>> capturedGraphics = new ThreadLocal<>();
   // Matrix for transforming from image coordinates to overlay view coordinates.
   private final Matrix transformationMatrix = new Matrix();
 
+  // The state below is only used on the main thread, by onDraw() and the graphics it draws. The
+  // image source info is the one of the frame drawn last.
+  private long drawnCaptureTimestampNanos;
   private int imageWidth;
   private int imageHeight;
   // The factor of overlay View size to image size. Anything in the image coordinates need to be
@@ -96,6 +181,12 @@ public class GraphicOverlay extends View {
      */
     public abstract void draw(Canvas canvas);
 
+    /**
+     * Called once the graphic was removed from the overlay and won't be drawn anymore, e.g. to give
+     * pooled resources back. Released graphics must not be added to an overlay again.
+     */
+    protected void release() {}
+
     protected void drawRect(
         Canvas canvas, float left, float top, float right, float bottom, Paint paint) {
       canvas.drawRect(left, top, right, bottom, paint);
@@ -218,27 +309,215 @@ public class GraphicOverlay extends View {
 
   /** Removes all graphics from the overlay. */
   public void clear() {
-    synchronized (lock) {
-      graphics.clear();
+    List<Graphic> captured = capturedGraphics.get();
+    if (captured != null) {
+      for (Graphic graphic : captured) {
+        graphic.release();
+      }
+      captured.clear();
+      return;
     }
+    Frame oldFrame =
+        publish(frame -> frame.withGraphics(new ArrayList<>(), /* captureTimestampNanos= */ 0));
+    retire(oldFrame.graphics);
     postInvalidate();
   }
 
   /** Adds a graphic to the overlay. */
   public void add(Graphic graphic) {
-    synchronized (lock) {
-      graphics.add(graphic);
+    List<Graphic> captured = capturedGraphics.get();
+    if (captured != null) {
+      captured.add(graphic);
+      return;
     }
+    publish(
+        frame -> {
+          List<Graphic> graphics = new ArrayList<>(frame.graphics);
+          graphics.add(graphic);
+          return frame.withGraphics(graphics, frame.captureTimestampNanos);
+        });
   }
 
   /** Removes a graphic from the overlay. */
   public void remove(Graphic graphic) {
-    synchronized (lock) {
-      graphics.remove(graphic);
+    List<Graphic> captured = capturedGraphics.get();
+    if (captured != null) {
+      if (captured.remove(graphic)) {
+        graphic.release();
+      }
+      return;
+    }
+    Frame oldFrame =
+        publish(
+            frame -> {
+              List<Graphic> graphics = new ArrayList<>(frame.graphics);
+              graphics.remove(graphic);
+              return frame.withGraphics(graphics, frame.captureTimestampNanos);
+            });
+    if (oldFrame.graphics.contains(graphic)) {
+      retire(Collections.singletonList(graphic));
     }
     postInvalidate();
   }
 
+  /**
+   * Starts capturing the graphics changes made on the calling thread. Until {@link
+   * #finishCapture()} is called, {@link #clear()}, {@link #add(Graphic)} and {@link
+   * #remove(Graphic)} on this thread only change a private list, so the graphics of a frame can be
+   * built off the main thread without the overlay showing a half built frame.
+   */
+  public void startCapture() {
+    capturedGraphics.set(new ArrayList<>());
+  }
+
+  /** Stops capturing on the calling thread and returns the graphics captured since the start. */
+  public List<Graphic> finishCapture() {
+    List<Graphic> captured = capturedGraphics.get();
+    Preconditions.checkState(captured != null, "startCapture() was not called on this thread");
+    capturedGraphics.remove();
+    return captured;
+  }
+
+  /**
+   * Releases graphics from {@link #finishCapture} that are never going to be shown, e.g. because
+   * the graphics of a newer frame replaced them.
+   */
+  public void discardGraphics(List<Graphic> graphics) {
+    for (Graphic graphic : graphics) {
+      graphic.release();
+    }
+  }
+
+  /** Replaces all graphics of the overlay, e.g. with the ones from {@link #finishCapture}. */
+  public void setGraphics(List<Graphic> newGraphics) {
+    setGraphics(newGraphics, /* captureTimestampNanos= */ 0);
+  }
+
+  /**
+   * Replaces all graphics of the overlay with the ones of a camera frame captured at {@code
+   * captureTimestampNanos}, see {@link #setCaptureTimestampNanos}.
+   */
+  public void setGraphics(List<Graphic> newGraphics, long captureTimestampNanos) {
+    List<Graphic> graphics = new ArrayList<>(newGraphics);
+    Frame oldFrame = publish(frame -> frame.withGraphics(graphics, captureTimestampNanos));
+    // Graphics don't define equality, kept ones are the same instances.
+    Set<Graphic> keptGraphics = Collections.newSetFromMap(new IdentityHashMap<>());
+    keptGraphics.addAll(graphics);
+    List<Graphic> droppedGraphics = new ArrayList<>(oldFrame.graphics.size());
+    for (Graphic graphic : oldFrame.graphics) {
+      if (!keptGraphics.contains(graphic)) {
+        droppedGraphics.add(graphic);
+      }
+    }
+    retire(droppedGraphics);
+    postInvalidate();
+  }
+
+  /**
+   * Publishes the frame built by {@code update} from the current one and returns the frame it
+   * replaced. Graphics dropped from the returned frame may still be drawn by a running onDraw(), so
+   * they must be released through {@link #retiredGraphics}.
+   */
+  private Frame publish(FrameUpdate update) {
+    while (true) {
+      Frame oldFrame = frame.get();
+      if (frame.compareAndSet(oldFrame, update.apply(oldFrame))) {
+        return oldFrame;
+      }
+    }
+  }
+
+  /**
+   * Releases {@code graphics}, just dropped from the published frame, on the main thread once no
+   * draw can read them anymore. They are released right after the running draw, if any, so their
+   * resources go back to their pools without waiting for the next draw.
+   */
+  private void retire(List<Graphic> graphics) {
+    if (graphics.isEmpty()) {
+      return;
+    }
+    retiredGraphics.addAll(graphics);
+    post(releaseRetiredGraphicsTask);
+  }
+
+  /** Releases the graphics retired since the last call. Only called on the main thread. */
+  private void releaseRetiredGraphics() {
+    Graphic graphic;
+    while ((graphic = retiredGraphics.poll()) != null) {
+      graphic.release();
+    }
+  }
+
+  /**
+   * Returns the pool for the bitmaps of the camera frames drawn under the graphics. A {@link
+   * CameraImageGraphic} created with it gives its bitmap back once it is released.
+   */
+  public BitmapPool getBitmapPool() {
+    return bitmapPool;
+  }
+
+  /**
+   * Returns the paints shared by the graphics of the overlay. Graphics take their paints from it
+   * instead of creating new ones for every frame.
+   */
+  public PaintRegistry getPaintRegistry() {
+    return paintRegistry;
+  }
+
+  /**
+   * Sets the time the camera frame shown by the current graphics was captured, in the {@link
+   * SystemClock#elapsedRealtimeNanos()} time base, or 0 if unknown. The glass-to-glass latency of
+   * the frame is recorded the next time the overlay is drawn. Cleared by {@link #clear()}.
+   */
+  public void setCaptureTimestampNanos(long captureTimestampNanos) {
+    publish(frame -> frame.withGraphics(frame.graphics, captureTimestampNanos));
+  }
+
+  /**
+   * Looks up percentiles of the glass-to-glass latencies in ms recorded so far, see {@link
+   * LatencyHistogram#getValuesAtPercentiles}. Returns false, leaving {@code values} untouched, if
+   * no latency was recorded yet.
+   */
+  public boolean getGlassToGlassLatencyPercentiles(double[] percentiles, long[] values) {
+    synchronized (glassToGlassLatencyHistogram) {
+      if (glassToGlassLatencyHistogram.getTotalCount() == 0) {
+        return false;
+      }
+      glassToGlassLatencyHistogram.getValuesAtPercentiles(percentiles, values);
+      return true;
+    }
+  }
+
+  /** Returns the glass-to-glass latency in ms of the last drawn camera frame, 0 if none. */
+  public long getLastGlassToGlassLatencyMs() {
+    return lastGlassToGlassLatencyMs;
+  }
+
+  /**
+   * Sets whether the capture timestamps of the frames are actually the times the app received
+   * them, as for Camera1 which doesn't report when a frame was captured. The recorded latency then
+   * leaves out the time the frame spent in the camera stack, and is named callback-to-glass
+   * instead of glass-to-glass. Changing it discards the latencies recorded so far.
+   */
+  public void setTimestampsAreCallbackTimes(boolean timestampsAreCallbackTimes) {
+    synchronized (glassToGlassLatencyHistogram) {
+      if (this.timestampsAreCallbackTimes == timestampsAreCallbackTimes) {
+        return;
+      }
+      this.timestampsAreCallbackTimes = timestampsAreCallbackTimes;
+      glassToGlassLatencyHistogram.reset();
+      lastGlassToGlassLatencyMs = 0;
+    }
+  }
+
+  /**
+   * Returns the name to show the glass-to-glass latency under, see {@link
+   * #setTimestampsAreCallbackTimes}.
+   */
+  public String getGlassToGlassLatencyName() {
+    return timestampsAreCallbackTimes ? "Callback-to-glass" : "Glass-to-glass";
+  }
+
   /**
    * Sets the source information of the image being processed by detectors, including size and
    * whether it is flipped, which informs how to transform image coordinates later.
@@ -251,24 +530,30 @@ public class GraphicOverlay extends View {
   public void setImageSourceInfo(int imageWidth, int imageHeight, boolean isFlipped) {
     Preconditions.checkState(imageWidth > 0, "image width must be positive");
     Preconditions.checkState(imageHeight > 0, "image height must be positive");
-    synchronized (lock) {
-      this.imageWidth = imageWidth;
-      this.imageHeight = imageHeight;
-      this.isImageFlipped = isFlipped;
-      needUpdateTransformation = true;
-    }
+    publish(
+        frame ->
+            new Frame(
+                frame.graphics, imageWidth, imageHeight, isFlipped, frame.captureTimestampNanos));
     postInvalidate();
   }
 
   public int getImageWidth() {
-    return imageWidth;
+    return frame.get().imageWidth;
   }
 
   public int getImageHeight() {
-    return imageHeight;
+    return frame.get().imageHeight;
   }
 
-  private void updateTransformationIfNeeded() {
+  private void updateTransformationIfNeeded(Frame frame) {
+    if (frame.imageWidth != imageWidth
+        || frame.imageHeight != imageHeight
+        || frame.isImageFlipped != isImageFlipped) {
+      imageWidth = frame.imageWidth;
+      imageHeight = frame.imageHeight;
+      isImageFlipped = frame.isImageFlipped;
+      needUpdateTransformation = true;
+    }
     if (!needUpdateTransformation || imageWidth <= 0 || imageHeight <= 0) {
       return;
     }
@@ -297,17 +582,51 @@ public class GraphicOverlay extends View {
     needUpdateTransformation = false;
   }
 
-  /** Draws the overlay with its associated graphic objects. */
+  /**
+   * Draws the overlay with its associated graphic objects. The first draw of the graphics of a
+   * camera frame records its glass-to-glass latency. The frame reaches the display with the next
+   * vsync after this, so the latency is short of the real one by up to a display refresh.
+   */
   @Override
   protected void onDraw(Canvas canvas) {
     super.onDraw(canvas);
 
-    synchronized (lock) {
-      updateTransformationIfNeeded();
+    Tracer.beginSection("GraphicOverlay#onDraw");
+    // Graphics are only retired once dropped from the published frame, so none of the ones
+    // released here can be in the frame read below.
+    releaseRetiredGraphics();
+    Frame frame = this.frame.get();
+    updateTransformationIfNeeded(frame);
+
+    boolean isTracing = Tracer.isEnabled();
+    for (Graphic graphic : frame.graphics) {
+      if (isTracing) {
+        Tracer.beginSection(Tracer.getSectionName(graphic.getClass()));
+      }
+      graphic.draw(canvas);
+      if (isTracing) {
+        Tracer.endSection();
+      }
+    }
 
-      for (Graphic graphic : graphics) {
-        graphic.draw(canvas);
+    if (frame.captureTimestampNanos != 0
+        && frame.captureTimestampNanos != drawnCaptureTimestampNanos) {
+      drawnCaptureTimestampNanos = frame.captureTimestampNanos;
+      long latencyMs =
+          TimeUnit.NANOSECONDS.toMillis(
+              SystemClock.elapsedRealtimeNanos() - frame.captureTimestampNanos);
+      lastGlassToGlassLatencyMs = latencyMs;
+      synchronized (glassToGlassLatencyHistogram) {
+        glassToGlassLatencyHistogram.recordValue(latencyMs);
       }
     }
+    Tracer.endSection();
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    // No more draws are coming to release the retired graphics.
+    releaseRetiredGraphics();
   }
 }
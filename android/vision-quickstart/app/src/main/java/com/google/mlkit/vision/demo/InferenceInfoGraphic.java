@@ -19,13 +19,53 @@ package com.google.mlkit.vision.demo;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import androidx.annotation.GuardedBy;
 import androidx.annotation.Nullable;
+import java.util.ArrayDeque;
 
 /** Graphic instance for rendering inference info (latency, FPS, resolution) in an overlay view. */
 public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
 
   private static final int TEXT_COLOR = Color.WHITE;
   private static final float TEXT_SIZE = 60.0f;
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  // One row each for the frame, detector and render latency percentiles.
+  private static final int PERCENTILE_ROWS = 3;
+
+  /**
+   * Arrays for the latency percentiles of the graphics, owned by a processor and reused for the
+   * graphics of later frames once the overlay released the graphic showing them. All methods are
+   * thread safe.
+   */
+  public static final class PercentilesPool {
+    // Beyond the graphics of a few frames waiting to be drawn or released.
+    private static final int MAX_IDLE = 4;
+
+    @GuardedBy("this")
+    private final ArrayDeque<long[][]> idlePercentiles = new ArrayDeque<>(MAX_IDLE);
+
+    synchronized long[][] acquire() {
+      long[][] percentiles = idlePercentiles.pollFirst();
+      return percentiles != null ? percentiles : new long[PERCENTILE_ROWS][PERCENTILES.length];
+    }
+
+    synchronized void release(long[][] percentiles) {
+      if (idlePercentiles.size() < MAX_IDLE) {
+        idlePercentiles.addFirst(percentiles);
+      }
+    }
+  }
+
+  /** The paints of the inference info graphics, created once per overlay. */
+  private static final class Paints {
+    final Paint textPaint;
+
+    Paints(PaintRegistry registry) {
+      textPaint =
+          registry.getShadowedTextPaint(
+              TEXT_COLOR, TEXT_SIZE, /* shadowRadius= */ 5.0f, Color.BLACK);
+    }
+  }
 
   private final Paint textPaint;
   private final GraphicOverlay overlay;
@@ -34,6 +74,14 @@ public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
 
   // Only valid when a stream of input images is being processed. Null for single image mode.
   @Nullable private final Integer framesPerSecond;
+  // Latency percentiles in the order of PERCENTILES. Null if no histogram was supplied.
+  @Nullable private final long[] frameLatencyPercentiles;
+  @Nullable private final long[] detectorLatencyPercentiles;
+  @Nullable private final long[] renderLatencyPercentiles;
+  @Nullable private final PercentilesPool percentilesPool;
+  @Nullable private final long[][] percentiles;
+  // Read from the overlay on every draw, as the latency is only known once the graphics are drawn.
+  private final long[] glassToGlassLatencyPercentiles = new long[PERCENTILES.length];
   private boolean showLatencyInfo = true;
 
   public InferenceInfoGraphic(
@@ -41,15 +89,73 @@ public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
       long frameLatency,
       long detectorLatency,
       @Nullable Integer framesPerSecond) {
+    this(
+        overlay,
+        frameLatency,
+        detectorLatency,
+        framesPerSecond,
+        /* frameLatencyHistogram= */ null,
+        /* detectorLatencyHistogram= */ null,
+        /* renderLatencyHistogram= */ null);
+  }
+
+  /**
+   * Creates an {@link InferenceInfoGraphic} that additionally shows the latency percentiles of the
+   * given histograms. The percentiles are read once here while holding the lock of each histogram,
+   * so the histograms may keep recording or be reset while this graphic is displayed.
+   */
+  public InferenceInfoGraphic(
+      GraphicOverlay overlay,
+      long frameLatency,
+      long detectorLatency,
+      @Nullable Integer framesPerSecond,
+      @Nullable LatencyHistogram frameLatencyHistogram,
+      @Nullable LatencyHistogram detectorLatencyHistogram,
+      @Nullable LatencyHistogram renderLatencyHistogram) {
+    this(
+        overlay,
+        frameLatency,
+        detectorLatency,
+        framesPerSecond,
+        frameLatencyHistogram,
+        detectorLatencyHistogram,
+        renderLatencyHistogram,
+        /* percentilesPool= */ null);
+  }
+
+  /**
+   * Creates an {@link InferenceInfoGraphic} showing the latency percentiles of the given histograms
+   * like above, read into arrays taken from {@code percentilesPool} and given back to it once the
+   * graphic is released by the overlay.
+   */
+  public InferenceInfoGraphic(
+      GraphicOverlay overlay,
+      long frameLatency,
+      long detectorLatency,
+      @Nullable Integer framesPerSecond,
+      @Nullable LatencyHistogram frameLatencyHistogram,
+      @Nullable LatencyHistogram detectorLatencyHistogram,
+      @Nullable LatencyHistogram renderLatencyHistogram,
+      @Nullable PercentilesPool percentilesPool) {
     super(overlay);
     this.overlay = overlay;
     this.frameLatency = frameLatency;
     this.detectorLatency = detectorLatency;
     this.framesPerSecond = framesPerSecond;
-    textPaint = new Paint();
-    textPaint.setColor(TEXT_COLOR);
-    textPaint.setTextSize(TEXT_SIZE);
-    textPaint.setShadowLayer(5.0f, 0f, 0f, Color.BLACK);
+    this.percentilesPool = percentilesPool;
+    if (frameLatencyHistogram == null
+        && detectorLatencyHistogram == null
+        && renderLatencyHistogram == null) {
+      percentiles = null;
+    } else if (percentilesPool != null) {
+      percentiles = percentilesPool.acquire();
+    } else {
+      percentiles = new long[PERCENTILE_ROWS][PERCENTILES.length];
+    }
+    frameLatencyPercentiles = readPercentiles(frameLatencyHistogram, percentiles, 0);
+    detectorLatencyPercentiles = readPercentiles(detectorLatencyHistogram, percentiles, 1);
+    renderLatencyPercentiles = readPercentiles(renderLatencyHistogram, percentiles, 2);
+    textPaint = overlay.getPaintRegistry().get(Paints.class, Paints::new).textPaint;
     postInvalidate();
   }
 
@@ -59,6 +165,30 @@ public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
     showLatencyInfo = false;
   }
 
+  /** Reads the percentiles into row {@code row} of {@code percentiles} and returns the row. */
+  @Nullable
+  private static long[] readPercentiles(
+      @Nullable LatencyHistogram histogram, @Nullable long[][] percentiles, int row) {
+    if (histogram == null || percentiles == null) {
+      return null;
+    }
+    long[] values = percentiles[row];
+    synchronized (histogram) {
+      if (histogram.getTotalCount() == 0) {
+        return null;
+      }
+      histogram.getValuesAtPercentiles(PERCENTILES, values);
+    }
+    return values;
+  }
+
+  @Override
+  protected void release() {
+    if (percentilesPool != null && percentiles != null) {
+      percentilesPool.release(percentiles);
+    }
+  }
+
   @Override
   public synchronized void draw(Canvas canvas) {
     float x = TEXT_SIZE * 0.5f;
@@ -85,5 +215,47 @@ public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
     }
     canvas.drawText(
         "Detector latency: " + detectorLatency + " ms", x, y + TEXT_SIZE * 2, textPaint);
+
+    // Draw latency percentiles (if available) as p50/p90/p99/p99.9
+    float percentileY = y + TEXT_SIZE * 3;
+    if (frameLatencyPercentiles != null) {
+      drawPercentiles(canvas, "Frame", frameLatencyPercentiles, x, percentileY);
+      percentileY += TEXT_SIZE;
+    }
+    if (detectorLatencyPercentiles != null) {
+      drawPercentiles(canvas, "Detector", detectorLatencyPercentiles, x, percentileY);
+      percentileY += TEXT_SIZE;
+    }
+    if (renderLatencyPercentiles != null) {
+      drawPercentiles(canvas, "Render", renderLatencyPercentiles, x, percentileY);
+      percentileY += TEXT_SIZE;
+    }
+    if (overlay.getGlassToGlassLatencyPercentiles(PERCENTILES, glassToGlassLatencyPercentiles)) {
+      String latencyName = overlay.getGlassToGlassLatencyName();
+      canvas.drawText(
+          latencyName + " latency: " + overlay.getLastGlassToGlassLatencyMs() + " ms",
+          x,
+          percentileY,
+          textPaint);
+      drawPercentiles(
+          canvas, latencyName, glassToGlassLatencyPercentiles, x, percentileY + TEXT_SIZE);
+    }
+  }
+
+  private void drawPercentiles(Canvas canvas, String name, long[] values, float x, float y) {
+    canvas.drawText(
+        name
+            + " p50/90/99/99.9: "
+            + values[0]
+            + "/"
+            + values[1]
+            + "/"
+            + values[2]
+            + "/"
+            + values[3]
+            + " ms",
+        x,
+        y,
+        textPaint);
   }
 }
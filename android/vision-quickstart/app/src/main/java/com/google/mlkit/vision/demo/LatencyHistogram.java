@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+
+/**
+ * Fixed-size histogram of latency values with log-linear buckets, in the spirit of HdrHistogram.
+ *
+ * <p>Values below {@link #SUB_BUCKET_COUNT} are counted exactly. Larger values are grouped into
+ * buckets whose width doubles with every power of two, so the relative error of a reported value
+ * stays below {@code 2 / SUB_BUCKET_COUNT} (about 1.6%) across the whole range. Values above the
+ * highest trackable value are clamped to it.
+ *
+ * <p>All storage is allocated up front: {@link #recordValue(long)} is O(1) and allocation free.
+ * Instances are not thread safe and are expected to be recorded and queried from a single thread.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 7;
+  public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+  private final long highestTrackableValue;
+  private final long[] counts;
+
+  private long totalCount;
+  private long totalValue;
+  private long minValue = Long.MAX_VALUE;
+  private long maxValue;
+
+  /**
+   * Creates a histogram tracking values in {@code [0, highestTrackableValue]}.
+   *
+   * @param highestTrackableValue the largest value that can be told apart from larger ones
+   */
+  public LatencyHistogram(long highestTrackableValue) {
+    Preconditions.checkArgument(
+        highestTrackableValue >= SUB_BUCKET_COUNT,
+        "highestTrackableValue must be at least " + SUB_BUCKET_COUNT);
+    this.highestTrackableValue = highestTrackableValue;
+    counts = new long[bucketIndex(highestTrackableValue) + 1];
+  }
+
+  /** Records a single value. Negative values are recorded as zero. */
+  public void recordValue(long value) {
+    long clamped = Math.min(Math.max(value, 0), highestTrackableValue);
+    counts[bucketIndex(clamped)]++;
+    totalCount++;
+    totalValue += clamped;
+    minValue = Math.min(minValue, clamped);
+    maxValue = Math.max(maxValue, clamped);
+  }
+
+  /** Clears all recorded values. */
+  public void reset() {
+    Arrays.fill(counts, 0);
+    totalCount = 0;
+    totalValue = 0;
+    minValue = Long.MAX_VALUE;
+    maxValue = 0;
+  }
+
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /** Returns the smallest recorded value, or 0 if nothing has been recorded. */
+  public long getMinValue() {
+    return totalCount == 0 ? 0 : minValue;
+  }
+
+  public long getMaxValue() {
+    return maxValue;
+  }
+
+  /** Returns the mean of the recorded values, or 0 if nothing has been recorded. */
+  public long getMeanValue() {
+    return totalCount == 0 ? 0 : totalValue / totalCount;
+  }
+
+  /**
+   * Returns the value below or at which the given percentage of recorded values fall, e.g. {@code
+   * getValueAtPercentile(99.9)}. Returns 0 if nothing has been recorded.
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (totalCount == 0) {
+      return 0;
+    }
+    long countAtPercentile = countAtPercentile(percentile);
+    long runningCount = 0;
+    for (int i = 0; i < counts.length; i++) {
+      runningCount += counts[i];
+      if (runningCount >= countAtPercentile) {
+        return Math.min(highestValueInBucket(i), maxValue);
+      }
+    }
+    return maxValue;
+  }
+
+  /**
+   * Looks up several percentiles in a single pass over the buckets.
+   *
+   * @param percentiles percentiles to look up, in ascending order
+   * @param values receives the value for each percentile, must be at least as long as {@code
+   *     percentiles}
+   */
+  public void getValuesAtPercentiles(double[] percentiles, long[] values) {
+    Preconditions.checkArgument(values.length >= percentiles.length);
+    if (totalCount == 0) {
+      Arrays.fill(values, 0, percentiles.length, 0);
+      return;
+    }
+    int next = 0;
+    long runningCount = 0;
+    for (int i = 0; i < counts.length && next < percentiles.length; i++) {
+      runningCount += counts[i];
+      while (next < percentiles.length && runningCount >= countAtPercentile(percentiles[next])) {
+        values[next++] = Math.min(highestValueInBucket(i), maxValue);
+      }
+    }
+    while (next < percentiles.length) {
+      values[next++] = maxValue;
+    }
+  }
+
+  private long countAtPercentile(double percentile) {
+    double clamped = Math.min(Math.max(percentile, 0), 100);
+    return Math.max(1, (long) Math.ceil(clamped / 100 * totalCount));
+  }
+
+  private static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    // Values in [2^n, 2^(n+1)) are shifted right until they fit in the upper half of a sub-bucket
+    // range, so each power of two gets SUB_BUCKET_HALF_COUNT buckets.
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+    return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+  }
+
+  private static long highestValueInBucket(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+    long subBucket = index - (long) shift * SUB_BUCKET_HALF_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.Manifest;
+import android.view.SurfaceHolder;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresPermission;
+import com.google.android.gms.common.images.Size;
+import java.io.IOException;
+
+/**
+ * A camera sending its preview frames to a {@link VisionImageProcessor}, shown by {@link
+ * CameraSourcePreview}. Implemented on top of the Camera1 API by {@link CameraSource} and on top of
+ * the Camera2 API by {@link Camera2Source}.
+ */
+public interface LiveCameraSource {
+
+  /**
+   * Opens the camera and starts sending preview frames to the underlying detector. The preview
+   * frames are not displayed.
+   *
+   * @throws IOException if the camera could not be opened
+   */
+  @RequiresPermission(Manifest.permission.CAMERA)
+  LiveCameraSource start() throws IOException;
+
+  /**
+   * Opens the camera and starts sending preview frames to the underlying detector. The supplied
+   * surface holder is used for the preview so frames can be displayed to the user.
+   *
+   * @throws IOException if the camera could not be opened or the surface holder could not be used
+   */
+  @RequiresPermission(Manifest.permission.CAMERA)
+  LiveCameraSource start(SurfaceHolder surfaceHolder) throws IOException;
+
+  /** Closes the camera and stops sending frames. The camera may be started again. */
+  void stop();
+
+  /** Stops the camera and releases the resources of the camera and underlying detector. */
+  void release();
+
+  /**
+   * Changes the facing of the camera, one of {@link CameraSource#CAMERA_FACING_BACK} or {@link
+   * CameraSource#CAMERA_FACING_FRONT}.
+   */
+  void setFacing(int facing);
+
+  /** Returns the selected camera facing, see {@link #setFacing}. */
+  int getCameraFacing();
+
+  /**
+   * Requests the preview size closest to the given one. Takes effect the next time the camera is
+   * started. Pass null to use the default again.
+   */
+  void setRequestedPreviewSize(@Nullable Size size);
+
+  /** Returns the preview size that is currently in use by the camera. */
+  Size getPreviewSize();
+
+  /**
+   * Sets the number of preview buffers shared by the camera and the frame processor. Takes effect
+   * the next time the camera is started.
+   */
+  void setPreviewBufferCount(int count);
+
+  /** Sets the processor the preview frames are sent to, stopping the previous one. */
+  void setMachineLearningFrameProcessor(VisionImageProcessor processor);
+}
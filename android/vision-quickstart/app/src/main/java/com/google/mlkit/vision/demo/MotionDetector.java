@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import com.google.common.base.Preconditions;
+import java.nio.ByteBuffer;
+
+/**
+ * Tells whether a camera frame differs noticeably from a reference frame, so the detector can be
+ * skipped on static scenes.
+ *
+ * <p>Compares the luma (Y plane) of the frames on a subsampled grid, using the mean absolute
+ * difference of the samples. The reference is the last frame reported as changed, not simply the
+ * previous frame, so slow changes add up until they are noticed. After a number of frames without
+ * change, a frame is reported as changed anyway to refresh the results.
+ *
+ * <p>Doesn't allocate once the first frame of a size is seen. Instances are not thread safe and
+ * are expected to be fed from a single thread.
+ */
+public final class MotionDetector {
+
+  /** Compares every 8th pixel of every 8th row by default. */
+  public static final int DEFAULT_SAMPLE_STEP = 8;
+  /** Mean absolute luma difference above which a frame counts as changed by default. */
+  public static final float DEFAULT_THRESHOLD = 4f;
+  /** Number of unchanged frames after which a frame is reported as changed by default. */
+  public static final int DEFAULT_MAX_UNCHANGED_FRAMES = 30;
+
+  private final int sampleStep;
+  private final float threshold;
+  private final int maxUnchangedFrames;
+
+  // Luma samples of the reference frame, and of the current frame while it is compared.
+  private byte[] referenceSamples = new byte[0];
+  private byte[] currentSamples = new byte[0];
+  private boolean hasReference;
+  private int referenceWidth;
+  private int referenceHeight;
+  private int unchangedFrames;
+
+  public MotionDetector() {
+    this(DEFAULT_SAMPLE_STEP, DEFAULT_THRESHOLD, DEFAULT_MAX_UNCHANGED_FRAMES);
+  }
+
+  /**
+   * Creates a detector.
+   *
+   * @param sampleStep distance in pixels between the compared samples, horizontally and vertically
+   * @param threshold mean absolute luma difference, from 0 to 255, above which a frame has changed
+   * @param maxUnchangedFrames number of consecutive unchanged frames after which a frame is
+   *     reported as changed anyway
+   */
+  public MotionDetector(int sampleStep, float threshold, int maxUnchangedFrames) {
+    Preconditions.checkArgument(sampleStep > 0, "sampleStep must be positive");
+    Preconditions.checkArgument(threshold >= 0, "threshold must not be negative");
+    this.sampleStep = sampleStep;
+    this.threshold = threshold;
+    this.maxUnchangedFrames = maxUnchangedFrames;
+  }
+
+  /**
+   * Returns whether the frame differs from the reference frame. If so, it becomes the new
+   * reference. The buffer position is not changed.
+   *
+   * @param yPlane the luma plane of the frame, e.g. the start of an NV21 buffer
+   * @param width the frame width in pixels
+   * @param height the frame height in pixels
+   * @param rowStride the distance in bytes between the starts of two rows
+   * @param pixelStride the distance in bytes between two pixels of a row
+   */
+  public boolean hasChanged(
+      ByteBuffer yPlane, int width, int height, int rowStride, int pixelStride) {
+    int columns = (width + sampleStep - 1) / sampleStep;
+    int rows = (height + sampleStep - 1) / sampleStep;
+    int sampleCount = columns * rows;
+    if (!hasReference || width != referenceWidth || height != referenceHeight) {
+      if (referenceSamples.length != sampleCount) {
+        referenceSamples = new byte[sampleCount];
+        currentSamples = new byte[sampleCount];
+      }
+      readSamples(yPlane, rows, columns, rowStride, pixelStride, referenceSamples);
+      hasReference = true;
+      referenceWidth = width;
+      referenceHeight = height;
+      unchangedFrames = 0;
+      return true;
+    }
+
+    long sumOfDifferences = 0;
+    int sampleIndex = 0;
+    for (int row = 0; row < rows; row++) {
+      int offset = yPlane.position() + row * sampleStep * rowStride;
+      for (int column = 0; column < columns; column++) {
+        byte sample = yPlane.get(offset + column * sampleStep * pixelStride);
+        currentSamples[sampleIndex] = sample;
+        sumOfDifferences += Math.abs((sample & 0xFF) - (referenceSamples[sampleIndex] & 0xFF));
+        sampleIndex++;
+      }
+    }
+
+    if (sumOfDifferences > threshold * sampleCount || unchangedFrames >= maxUnchangedFrames) {
+      byte[] previousReference = referenceSamples;
+      referenceSamples = currentSamples;
+      currentSamples = previousReference;
+      unchangedFrames = 0;
+      return true;
+    }
+    unchangedFrames++;
+    return false;
+  }
+
+  /** Forgets the reference frame, so the next frame is reported as changed. */
+  public void reset() {
+    hasReference = false;
+  }
+
+  private void readSamples(
+      ByteBuffer yPlane, int rows, int columns, int rowStride, int pixelStride, byte[] samples) {
+    int sampleIndex = 0;
+    for (int row = 0; row < rows; row++) {
+      int offset = yPlane.position() + row * sampleStep * rowStride;
+      for (int column = 0; column < columns; column++) {
+        samples[sampleIndex++] = yPlane.get(offset + column * sampleStep * pixelStride);
+      }
+    }
+  }
+}
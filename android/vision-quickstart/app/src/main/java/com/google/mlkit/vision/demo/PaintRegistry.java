@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.graphics.Paint;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Paints shared by the graphics of an overlay, so graphics created for every detection of every
+ * frame don't each allocate their own.
+ *
+ * <p>A paint is created once per configuration and then handed out to every graphic asking for the
+ * same one. A graphic usually needs the same set of paints each time, it can keep it in a class of
+ * its own that is created once per overlay with {@link #get(Class, Factory)}.
+ *
+ * <p>The paints are shared, so they must not be modified. A graphic that changes a paint while
+ * drawing has to own it. All methods are thread safe.
+ */
+public final class PaintRegistry {
+
+  /** Creates a set of paints, typically from the ones of the registry. */
+  public interface Factory<T> {
+    T create(PaintRegistry registry);
+  }
+
+  private final ConcurrentHashMap<Key, Paint> paints = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Class<?>, Object> paintSets = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the set of paints of type {@code type}, created by {@code factory} the first time it is
+   * asked for. Concurrent first calls may both run the factory, only one of the sets is kept.
+   */
+  public <T> T get(Class<T> type, Factory<T> factory) {
+    Object paintSet = paintSets.get(type);
+    if (paintSet == null) {
+      T created = factory.create(this);
+      paintSet = paintSets.putIfAbsent(type, created);
+      if (paintSet == null) {
+        return created;
+      }
+    }
+    return type.cast(paintSet);
+  }
+
+  /** Returns a paint filling shapes with {@code color}. */
+  public Paint getFillPaint(int color) {
+    return getPaint(Paint.Style.FILL, color, /* strokeWidth= */ 0, /* textSize= */ 0);
+  }
+
+  /** Returns a paint outlining shapes with {@code color}. */
+  public Paint getStrokePaint(int color, float strokeWidth) {
+    return getPaint(Paint.Style.STROKE, color, strokeWidth, /* textSize= */ 0);
+  }
+
+  /** Returns a paint drawing text with {@code color}. */
+  public Paint getTextPaint(int color, float textSize) {
+    return getPaint(Paint.Style.FILL, color, /* strokeWidth= */ 0, textSize);
+  }
+
+  /**
+   * Returns a paint of the given style. A {@code strokeWidth} or {@code textSize} of 0 keeps the
+   * default of {@link Paint}.
+   */
+  public Paint getPaint(Paint.Style style, int color, float strokeWidth, float textSize) {
+    return getPaint(
+        new Key(style, color, strokeWidth, textSize, /* shadowRadius= */ 0, /* shadowColor= */ 0));
+  }
+
+  /** Returns a paint drawing text with {@code color} over a shadow of {@code shadowColor}. */
+  public Paint getShadowedTextPaint(
+      int color, float textSize, float shadowRadius, int shadowColor) {
+    return getPaint(
+        new Key(
+            Paint.Style.FILL, color, /* strokeWidth= */ 0, textSize, shadowRadius, shadowColor));
+  }
+
+  private Paint getPaint(Key key) {
+    Paint paint = paints.get(key);
+    if (paint == null) {
+      Paint created = key.createPaint();
+      paint = paints.putIfAbsent(key, created);
+      if (paint == null) {
+        return created;
+      }
+    }
+    return paint;
+  }
+
+  /** The configuration of a paint. */
+  private static final class Key {
+    private final Paint.Style style;
+    private final int color;
+    private final float strokeWidth;
+    private final float textSize;
+    private final float shadowRadius;
+    private final int shadowColor;
+
+    Key(
+        Paint.Style style,
+        int color,
+        float strokeWidth,
+        float textSize,
+        float shadowRadius,
+        int shadowColor) {
+      this.style = style;
+      this.color = color;
+      this.strokeWidth = strokeWidth;
+      this.textSize = textSize;
+      this.shadowRadius = shadowRadius;
+      this.shadowColor = shadowColor;
+    }
+
+    Paint createPaint() {
+      Paint paint = new Paint();
+      paint.setStyle(style);
+      paint.setColor(color);
+      if (strokeWidth > 0) {
+        paint.setStrokeWidth(strokeWidth);
+      }
+      if (textSize > 0) {
+        paint.setTextSize(textSize);
+      }
+      if (shadowRadius > 0) {
+        paint.setShadowLayer(shadowRadius, 0f, 0f, shadowColor);
+      }
+      return paint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return style == other.style
+          && color == other.color
+          && Float.compare(strokeWidth, other.strokeWidth) == 0
+          && Float.compare(textSize, other.textSize) == 0
+          && Float.compare(shadowRadius, other.shadowRadius) == 0
+          && shadowColor == other.shadowColor;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = style.hashCode();
+      result = 31 * result + color;
+      result = 31 * result + Float.floatToIntBits(strokeWidth);
+      result = 31 * result + Float.floatToIntBits(textSize);
+      result = 31 * result + Float.floatToIntBits(shadowRadius);
+      result = 31 * result + shadowColor;
+      return result;
+    }
+  }
+}
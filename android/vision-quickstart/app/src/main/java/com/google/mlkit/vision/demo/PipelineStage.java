@@ -0,0 +1,249 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.common.base.Preconditions;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One stage of a {@link FramePipeline}: a dedicated thread working off a bounded queue of tasks.
+ *
+ * <p>{@link #submit} never blocks. When the queue is full the task is rejected, so a slow stage
+ * drops frames instead of stalling the stages before it. {@link #submitLatest} drops the oldest
+ * waiting task instead, for stages that should always work on the newest frame. The stage keeps
+ * track of how busy its thread is, how long tasks wait in its queue and how many it dropped.
+ */
+public class PipelineStage {
+
+  private static final String TAG = "PipelineStage";
+  private static final long MAX_TRACKABLE_QUEUE_TIME_US = 10_000_000;
+
+  private final String name;
+  private final ThreadPoolExecutor executor;
+
+  @GuardedBy("this")
+  private final LatencyHistogram queueTimeHistogram =
+      new LatencyHistogram(MAX_TRACKABLE_QUEUE_TIME_US);
+
+  @GuardedBy("this")
+  private long busyNanos;
+
+  @GuardedBy("this")
+  private long statsStartNanos = SystemClock.elapsedRealtimeNanos();
+
+  @GuardedBy("this")
+  private long processedCount;
+
+  @GuardedBy("this")
+  private long rejectedCount;
+
+  @GuardedBy("this")
+  private long replacedCount;
+
+  /**
+   * Creates a stage and its thread.
+   *
+   * @param name name of the stage, also used for its thread
+   * @param queueCapacity how many tasks may wait while the stage thread is busy
+   */
+  public PipelineStage(String name, int queueCapacity) {
+    Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+    this.name = name;
+    executor =
+        new ThreadPoolExecutor(
+            /* corePoolSize= */ 1,
+            /* maximumPoolSize= */ 1,
+            /* keepAliveTime= */ 0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            runnable -> {
+              Thread thread = new Thread(runnable, "Pipeline-" + name);
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Queues a task to run on the stage thread.
+   *
+   * @return false if the queue was full and the task was dropped
+   */
+  public boolean submit(@NonNull Runnable task) {
+    return submit(task, /* onDropped= */ null);
+  }
+
+  /**
+   * Queues a task to run on the stage thread. If the task is dropped, because the queue was full
+   * now or because {@link #submitLatest} replaces it later, {@code onDropped} runs instead, on the
+   * thread dropping it, e.g. to release what the task holds.
+   *
+   * @return false if the queue was full and the task was dropped
+   */
+  public boolean submit(@NonNull Runnable task, @Nullable Runnable onDropped) {
+    TimedTask timedTask = new TimedTask(task, onDropped, SystemClock.elapsedRealtimeNanos());
+    try {
+      executor.execute(timedTask);
+      return true;
+    } catch (RejectedExecutionException e) {
+      synchronized (this) {
+        rejectedCount++;
+      }
+      timedTask.drop();
+      return false;
+    }
+  }
+
+  /**
+   * Queues a task to run on the stage thread. If the queue is full, the oldest waiting task is
+   * dropped to make room, so the stage always goes on with the newest frame instead of falling
+   * behind. {@code onDropped} runs if this task is dropped in turn, see {@link #submit(Runnable,
+   * Runnable)}.
+   */
+  public void submitLatest(@NonNull Runnable task, @Nullable Runnable onDropped) {
+    TimedTask timedTask = new TimedTask(task, onDropped, SystemClock.elapsedRealtimeNanos());
+    while (true) {
+      try {
+        executor.execute(timedTask);
+        return;
+      } catch (RejectedExecutionException e) {
+        if (executor.isShutdown()) {
+          synchronized (this) {
+            rejectedCount++;
+          }
+          timedTask.drop();
+          return;
+        }
+        // Retries right away if the stage thread took the waiting task in the meantime.
+        Runnable oldestTask = executor.getQueue().poll();
+        if (oldestTask != null) {
+          synchronized (this) {
+            replacedCount++;
+          }
+          ((TimedTask) oldestTask).drop();
+        }
+      }
+    }
+  }
+
+  /** Returns the number of tasks currently waiting in the queue. */
+  public int getQueueSize() {
+    return executor.getQueue().size();
+  }
+
+  /** Returns the fraction of time the stage thread was busy since the stats were last reset. */
+  public synchronized float getOccupancy() {
+    long elapsedNanos = SystemClock.elapsedRealtimeNanos() - statsStartNanos;
+    return elapsedNanos > 0 ? Math.min(1f, (float) busyNanos / elapsedNanos) : 0;
+  }
+
+  /** Returns the given percentile of the time tasks spent in the queue, in microseconds. */
+  public synchronized long getQueueTimeMicrosAtPercentile(double percentile) {
+    return queueTimeHistogram.getValueAtPercentile(percentile);
+  }
+
+  public synchronized long getProcessedCount() {
+    return processedCount;
+  }
+
+  /** Returns the number of tasks dropped because the queue was full. */
+  public synchronized long getRejectedCount() {
+    return rejectedCount;
+  }
+
+  /** Returns the number of waiting tasks dropped for a newer one, see {@link #submitLatest}. */
+  public synchronized long getReplacedCount() {
+    return replacedCount;
+  }
+
+  public synchronized void resetStats() {
+    queueTimeHistogram.reset();
+    busyNanos = 0;
+    statsStartNanos = SystemClock.elapsedRealtimeNanos();
+    processedCount = 0;
+    rejectedCount = 0;
+    replacedCount = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return name
+        + ": occupancy="
+        + Math.round(getOccupancy() * 100)
+        + "%, queue="
+        + getQueueSize()
+        + ", queueTime p50="
+        + queueTimeHistogram.getValueAtPercentile(50)
+        + "us p99="
+        + queueTimeHistogram.getValueAtPercentile(99)
+        + "us, processed="
+        + processedCount
+        + ", rejected="
+        + rejectedCount
+        + ", replaced="
+        + replacedCount;
+  }
+
+  private synchronized void recordTask(long queueTimeNanos, long runTimeNanos) {
+    queueTimeHistogram.recordValue(queueTimeNanos / 1000);
+    busyNanos += runTimeNanos;
+    processedCount++;
+  }
+
+  /** Wraps a task to measure its time in the queue and on the stage thread. */
+  private final class TimedTask implements Runnable {
+    private final Runnable task;
+    @Nullable private final Runnable onDropped;
+    private final long submitNanos;
+
+    TimedTask(Runnable task, @Nullable Runnable onDropped, long submitNanos) {
+      this.task = task;
+      this.onDropped = onDropped;
+      this.submitNanos = submitNanos;
+    }
+
+    /** Called instead of {@link #run} if the task is dropped. */
+    void drop() {
+      if (onDropped != null) {
+        onDropped.run();
+      }
+    }
+
+    @Override
+    public void run() {
+      long startNanos = SystemClock.elapsedRealtimeNanos();
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        Log.e(TAG, "Task failed in stage " + name, e);
+      } finally {
+        recordTask(startNanos - submitNanos, SystemClock.elapsedRealtimeNanos() - startNanos);
+      }
+    }
+  }
+}
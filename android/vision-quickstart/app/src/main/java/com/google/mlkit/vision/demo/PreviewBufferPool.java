@@ -0,0 +1,168 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import com.google.common.base.Preconditions;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+
+/**
+ * A fixed set of Camera1 preview buffers, each given back to the camera only once every consumer
+ * of its frame has released it.
+ *
+ * <p>A buffer delivered by the camera starts with one reference, owned by the {@link CameraSource}.
+ * Processors that keep using the frame after {@link VisionImageProcessor#processByteBuffer}
+ * returns, e.g. while the detector runs asynchronously, {@link #retain} it and {@link #release} it
+ * once done, so the camera can't overwrite a frame that is still being read. Frames are never
+ * copied, and each buffer comes with a {@link FrameMetadata} and a {@link FramePolicy.PendingFrame}
+ * reused for all its frames.
+ *
+ * <p>All methods are thread safe.
+ */
+public final class PreviewBufferPool {
+
+  /** Gives a buffer whose frame was released by all consumers back to the camera. */
+  public interface Recycler {
+    void recycle(byte[] buffer);
+  }
+
+  /** A preview buffer and the description of the frame it holds. */
+  public static final class Frame {
+    private final ByteBuffer data;
+    private final FrameMetadata metadata;
+    private final FramePolicy.PendingFrame pendingFrame;
+    private int refCount;
+
+    private Frame(ByteBuffer data, FrameMetadata metadata, PreviewBufferPool pool) {
+      this.data = data;
+      this.metadata = metadata;
+      pendingFrame = new FramePolicy.PendingFrame(data, metadata, pool);
+    }
+
+    public ByteBuffer getData() {
+      return data;
+    }
+
+    public FrameMetadata getMetadata() {
+      return metadata;
+    }
+  }
+
+  private final Recycler recycler;
+
+  /**
+   * Map to convert between a byte array, received from the camera, and its associated byte buffer.
+   * We use byte buffers internally because this is a more efficient way to call into native code
+   * later (avoids a potential copy).
+   *
+   * <p><b>Note:</b> uses IdentityHashMap here instead of HashMap because the behavior of an array's
+   * equals, hashCode and toString methods is both useless and unexpected. IdentityHashMap enforces
+   * identity ('==') check on the keys.
+   */
+  @GuardedBy("this")
+  private final IdentityHashMap<byte[], Frame> frames = new IdentityHashMap<>();
+
+  @GuardedBy("this")
+  private boolean isClosed;
+
+  /**
+   * Creates {@code size} buffers of {@code bufferSize} bytes and hands all of them to {@code
+   * recycler}. The frames of all buffers are described by {@code frameMetadata} plus their
+   * timestamp and sequence number.
+   */
+  public PreviewBufferPool(
+      int size, int bufferSize, FrameMetadata.Builder frameMetadata, Recycler recycler) {
+    Preconditions.checkArgument(size > 0, "size must be positive");
+    this.recycler = recycler;
+    for (int i = 0; i < size; i++) {
+      // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
+      // should guarantee that there will be an array to work with.
+      byte[] byteArray = new byte[bufferSize];
+      ByteBuffer buffer = ByteBuffer.wrap(byteArray);
+      if (!buffer.hasArray() || (buffer.array() != byteArray)) {
+        // I don't think that this will ever happen.  But if it does, then we wouldn't be
+        // passing the preview content to the underlying detector later.
+        throw new IllegalStateException("Failed to create valid buffer for camera source.");
+      }
+      frames.put(byteArray, new Frame(buffer, frameMetadata.build(), this));
+    }
+    for (byte[] byteArray : frames.keySet()) {
+      recycler.recycle(byteArray);
+    }
+  }
+
+  /**
+   * Takes the first reference to a buffer just filled by the camera, to be released with {@link
+   * #release}, and updates its frame metadata. Returns null if the buffer isn't one of this pool.
+   */
+  @Nullable
+  public synchronized Frame acquire(byte[] data, long timestampNanos, long sequenceNumber) {
+    Frame frame = frames.get(data);
+    if (frame == null) {
+      return null;
+    }
+    Preconditions.checkState(frame.refCount == 0, "Buffer delivered while still in use");
+    frame.refCount = 1;
+    frame.metadata.setFrame(timestampNanos, sequenceNumber);
+    return frame;
+  }
+
+  /** Takes another reference to a frame. Does nothing for buffers that aren't from this pool. */
+  public synchronized void retain(ByteBuffer buffer) {
+    retainPendingFrame(buffer);
+  }
+
+  /**
+   * Takes another reference to a frame like {@link #retain}, and returns the pending frame of its
+   * buffer, so queueing the frame doesn't allocate. Returns null for buffers that aren't from this
+   * pool.
+   */
+  @Nullable
+  @SuppressWarnings("ByteBufferBackingArray")
+  synchronized FramePolicy.PendingFrame retainPendingFrame(ByteBuffer buffer) {
+    Frame frame = buffer.hasArray() ? frames.get(buffer.array()) : null;
+    if (frame == null) {
+      return null;
+    }
+    Preconditions.checkState(frame.refCount > 0, "Buffer retained after being released");
+    frame.refCount++;
+    return frame.pendingFrame;
+  }
+
+  /**
+   * Releases a reference to a frame. The buffer goes back to the camera when the last reference
+   * is released, unless the pool is closed. Does nothing for buffers that aren't from this pool.
+   */
+  @SuppressWarnings("ByteBufferBackingArray")
+  public synchronized void release(ByteBuffer buffer) {
+    Frame frame = buffer.hasArray() ? frames.get(buffer.array()) : null;
+    if (frame == null) {
+      return;
+    }
+    Preconditions.checkState(frame.refCount > 0, "Buffer released more often than retained");
+    if (--frame.refCount == 0 && !isClosed) {
+      recycler.recycle(buffer.array());
+    }
+  }
+
+  /** Stops giving buffers back, e.g. once the camera is released. */
+  public synchronized void close() {
+    isClosed = true;
+  }
+}
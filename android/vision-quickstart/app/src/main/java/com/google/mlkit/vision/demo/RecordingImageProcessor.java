@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.graphics.Bitmap;
+import android.media.Image;
+import android.os.Build.VERSION_CODES;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.camera.core.ImageProxy;
+import com.google.mlkit.common.MlKitException;
+import java.nio.ByteBuffer;
+
+/**
+ * Records the live preview frames passed to a processor with a {@link FrameRecorder} before
+ * handing them on. Still images are not recorded.
+ *
+ * <p>Frames are recorded with the time they were captured, in the time base the processor is told
+ * about, so a recording can be replayed at the pace it was captured at.
+ *
+ * <p>The recorder is not closed by {@link #stop()}, its owner is expected to close it.
+ */
+public class RecordingImageProcessor implements VisionImageProcessor {
+
+  private final VisionImageProcessor delegate;
+  private final FrameRecorder recorder;
+
+  public RecordingImageProcessor(VisionImageProcessor delegate, FrameRecorder recorder) {
+    this.delegate = delegate;
+    this.recorder = recorder;
+  }
+
+  @Override
+  public void processBitmap(Bitmap bitmap, @Nullable GraphicOverlay graphicOverlay) {
+    delegate.processBitmap(bitmap, graphicOverlay);
+  }
+
+  @Override
+  public void processByteBuffer(
+      ByteBuffer data,
+      FrameMetadata frameMetadata,
+      @Nullable PreviewBufferPool bufferPool,
+      @Nullable GraphicOverlay graphicOverlay)
+      throws MlKitException {
+    recorder.recordNv21(data, frameMetadata);
+    delegate.processByteBuffer(data, frameMetadata, bufferPool, graphicOverlay);
+  }
+
+  @Override
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  public void processImageProxy(
+      ImageProxy image, boolean isTimestampRealtime, @Nullable GraphicOverlay graphicOverlay)
+      throws MlKitException {
+    recorder.recordImageProxy(image, isTimestampRealtime);
+    delegate.processImageProxy(image, isTimestampRealtime, graphicOverlay);
+  }
+
+  @Override
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  public void processMediaImage(
+      Image image,
+      int rotationDegrees,
+      boolean isTimestampRealtime,
+      ImageReleaser releaser,
+      @Nullable GraphicOverlay graphicOverlay)
+      throws MlKitException {
+    recorder.recordMediaImage(image, rotationDegrees, isTimestampRealtime);
+    delegate.processMediaImage(
+        image, rotationDegrees, isTimestampRealtime, releaser, graphicOverlay);
+  }
+
+  @Override
+  public void stop() {
+    delegate.stop();
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import androidx.annotation.GuardedBy;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Keeps the most recent trace events in memory and exports them in the Chrome trace event format,
+ * which chrome://tracing and ui.perfetto.dev open. Recording doesn't allocate, the events are
+ * written to preallocated arrays and the oldest ones are overwritten once full.
+ */
+public final class RingBufferTraceSink implements Tracer.TraceSink {
+
+  /** The default capacity, enough for about a minute of live preview. */
+  public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+  private static final char PHASE_BEGIN = 'B';
+  private static final char PHASE_END = 'E';
+  private static final char PHASE_ASYNC_BEGIN = 'b';
+  private static final char PHASE_ASYNC_END = 'e';
+
+  private final int pid = Process.myPid();
+  private final char[] phases;
+  private final String[] names;
+  private final int[] threadIds;
+  private final int[] cookies;
+  private final long[] timestampsNanos;
+
+  // The index the next event is written to.
+  @GuardedBy("this")
+  private int next;
+
+  @GuardedBy("this")
+  private boolean isFull;
+
+  public RingBufferTraceSink(int capacity) {
+    phases = new char[capacity];
+    names = new String[capacity];
+    threadIds = new int[capacity];
+    cookies = new int[capacity];
+    timestampsNanos = new long[capacity];
+  }
+
+  /** Returns a new file in the app's traces directory, named after the current time. */
+  public static File newTraceFile(Context context) {
+    String name =
+        new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".json";
+    return new File(context.getExternalFilesDir("traces"), name);
+  }
+
+  @Override
+  public void beginSection(String name) {
+    record(PHASE_BEGIN, name, /* cookie= */ 0);
+  }
+
+  @Override
+  public void endSection() {
+    record(PHASE_END, /* name= */ null, /* cookie= */ 0);
+  }
+
+  @Override
+  public void beginAsyncSection(String name, int cookie) {
+    record(PHASE_ASYNC_BEGIN, name, cookie);
+  }
+
+  @Override
+  public void endAsyncSection(String name, int cookie) {
+    record(PHASE_ASYNC_END, name, cookie);
+  }
+
+  private void record(char phase, String name, int cookie) {
+    long timestampNanos = SystemClock.elapsedRealtimeNanos();
+    int threadId = Process.myTid();
+    synchronized (this) {
+      phases[next] = phase;
+      names[next] = name;
+      threadIds[next] = threadId;
+      cookies[next] = cookie;
+      timestampsNanos[next] = timestampNanos;
+      next++;
+      if (next == phases.length) {
+        next = 0;
+        isFull = true;
+      }
+    }
+  }
+
+  /** Removes all recorded events. */
+  public synchronized void clear() {
+    next = 0;
+    isFull = false;
+  }
+
+  /** Writes the recorded events to {@code file}, see {@link #writeChromeTrace(Writer)}. */
+  public void writeChromeTrace(File file) throws IOException {
+    if (file.getParentFile() != null) {
+      file.getParentFile().mkdirs();
+    }
+    try (Writer writer =
+        new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")))) {
+      writeChromeTrace(writer);
+    }
+  }
+
+  /**
+   * Writes the recorded events, oldest first, as a Chrome trace JSON object. If the buffer
+   * overflowed, the first sections may miss their begin event.
+   */
+  public void writeChromeTrace(Writer writer) throws IOException {
+    char[] phasesCopy;
+    String[] namesCopy;
+    int[] threadIdsCopy;
+    int[] cookiesCopy;
+    long[] timestampsNanosCopy;
+    int count;
+    // Copies the events, so recording isn't blocked while writing them.
+    synchronized (this) {
+      count = isFull ? phases.length : next;
+      int start = isFull ? next : 0;
+      phasesCopy = new char[count];
+      namesCopy = new String[count];
+      threadIdsCopy = new int[count];
+      cookiesCopy = new int[count];
+      timestampsNanosCopy = new long[count];
+      for (int i = 0; i < count; i++) {
+        int index = (start + i) % phases.length;
+        phasesCopy[i] = phases[index];
+        namesCopy[i] = names[index];
+        threadIdsCopy[i] = threadIds[index];
+        cookiesCopy[i] = cookies[index];
+        timestampsNanosCopy[i] = timestampsNanos[index];
+      }
+    }
+
+    writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        writer.write(",\n");
+      }
+      char phase = phasesCopy[i];
+      writer.write("{\"ph\":\"");
+      writer.write(phase);
+      writer.write('"');
+      if (namesCopy[i] != null) {
+        writer.write(",\"name\":");
+        writeQuoted(writer, namesCopy[i]);
+      }
+      if (phase == PHASE_ASYNC_BEGIN || phase == PHASE_ASYNC_END) {
+        writer.write(",\"cat\":\"async\",\"id\":" + cookiesCopy[i]);
+      }
+      writer.write(
+          String.format(
+              Locale.US,
+              ",\"ts\":%.3f,\"pid\":%d,\"tid\":%d}",
+              timestampsNanosCopy[i] / 1000.0,
+              pid,
+              threadIdsCopy[i]));
+    }
+    writer.write("]}\n");
+  }
+
+  private static void writeQuoted(Writer writer, String value) throws IOException {
+    writer.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        writer.write('\\');
+        writer.write(c);
+      } else if (c < 0x20) {
+        writer.write(String.format(Locale.US, "\\u%04x", (int) c));
+      } else {
+        writer.write(c);
+      }
+    }
+    writer.write('"');
+  }
+}
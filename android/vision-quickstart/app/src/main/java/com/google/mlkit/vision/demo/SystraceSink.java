@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Trace;
+
+/**
+ * Sends the trace sections to {@link Trace}, so they show up in system traces captured with
+ * Perfetto or systrace. Async sections need Android Q, they are skipped on older versions.
+ */
+public final class SystraceSink implements Tracer.TraceSink {
+
+  // Longer section names are rejected by Trace.
+  private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+  @Override
+  public void beginSection(String name) {
+    Trace.beginSection(truncate(name));
+  }
+
+  @Override
+  public void endSection() {
+    Trace.endSection();
+  }
+
+  @Override
+  public void beginAsyncSection(String name, int cookie) {
+    if (VERSION.SDK_INT >= VERSION_CODES.Q) {
+      Trace.beginAsyncSection(truncate(name), cookie);
+    }
+  }
+
+  @Override
+  public void endAsyncSection(String name, int cookie) {
+    if (VERSION.SDK_INT >= VERSION_CODES.Q) {
+      Trace.endAsyncSection(truncate(name), cookie);
+    }
+  }
+
+  private static String truncate(String name) {
+    return name.length() <= MAX_SECTION_NAME_LENGTH
+        ? name
+        : name.substring(0, MAX_SECTION_NAME_LENGTH);
+  }
+}
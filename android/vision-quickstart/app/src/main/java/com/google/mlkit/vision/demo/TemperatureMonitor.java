@@ -1,28 +1,125 @@
 package com.google.mlkit.vision.demo;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.BatteryManager;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.PowerManager;
 import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.core.content.ContextCompat;
+import com.google.common.base.Preconditions;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Monitors device temperature.
+ *
+ * <p>If created with a {@link ThermalLevelListener}, it also derives a thermal level from the
+ * readings, so the app can do less work while the device is hot. The level is based on the
+ * smoothed readings of the temperature sensors and the battery, which are compared against a warm
+ * and a hot threshold with some hysteresis, and on the thermal status reported by the system on
+ * Android Q and above, whichever is more severe.
  */
 public final class TemperatureMonitor implements SensorEventListener {
 
   private static final String TAG = "TemperatureMonitor";
 
-  public Map<String, Float> sensorReadingsCelsius = new HashMap<>();
+  /** The device is not hot, nothing needs to be throttled. */
+  public static final int THERMAL_LEVEL_NORMAL = 0;
+  /** The device is warming up, expensive work should be reduced. */
+  public static final int THERMAL_LEVEL_WARM = 1;
+  /** The device is hot, work should be reduced as much as possible. */
+  public static final int THERMAL_LEVEL_HOT = 2;
+
+  private static final String BATTERY_READING_NAME = "battery";
+  // Weight of a new reading in the smoothed temperature, filters out short spikes.
+  private static final float SMOOTHING_FACTOR = 0.2f;
+  // The smoothed temperature must drop this far below a threshold to leave its level again.
+  private static final float HYSTERESIS_CELSIUS = 3f;
+
+  /** Notified on the main thread when the thermal level changes. */
+  public interface ThermalLevelListener {
+    void onThermalLevelChanged(int thermalLevel);
+  }
+
+  // The monitor without listener shared by all processors, see acquireShared().
+  @GuardedBy("TemperatureMonitor.class")
+  @Nullable
+  private static TemperatureMonitor sharedMonitor;
+
+  @GuardedBy("TemperatureMonitor.class")
+  private static int sharedMonitorRefCount;
+
+  public Map<String, Float> sensorReadingsCelsius = new ConcurrentHashMap<>();
 
   private final SensorManager sensorManager;
 
+  // The fields below are only used if there is a listener, and only on the main thread.
+  @Nullable private final ThermalLevelListener listener;
+  private final Context context;
+  private final float warmThresholdCelsius;
+  private final float hotThresholdCelsius;
+  private final Map<String, Float> smoothedReadingsCelsius = new HashMap<>();
+  @Nullable private BroadcastReceiver batteryReceiver;
+  @Nullable private PowerManager.OnThermalStatusChangedListener thermalStatusListener;
+  private int sensorThermalLevel = THERMAL_LEVEL_NORMAL;
+  private int systemThermalLevel = THERMAL_LEVEL_NORMAL;
+  private int thermalLevel = THERMAL_LEVEL_NORMAL;
+
   public TemperatureMonitor(Context context) {
+    this(context, Float.MAX_VALUE, Float.MAX_VALUE, /* listener= */ null);
+  }
+
+  /**
+   * Returns a monitor without listener that is shared by all callers, so processors running side
+   * by side don't each register the temperature sensors. Every call must be paired with a call to
+   * {@link #releaseShared()}, the monitor is stopped once the last caller released it.
+   */
+  public static synchronized TemperatureMonitor acquireShared(Context context) {
+    if (sharedMonitor == null) {
+      sharedMonitor = new TemperatureMonitor(context.getApplicationContext());
+    }
+    sharedMonitorRefCount++;
+    return sharedMonitor;
+  }
+
+  /** Releases the monitor returned by {@link #acquireShared}. */
+  public static synchronized void releaseShared() {
+    Preconditions.checkState(sharedMonitorRefCount > 0, "Shared monitor released too often");
+    if (--sharedMonitorRefCount == 0) {
+      sharedMonitor.stop();
+      sharedMonitor = null;
+    }
+  }
+
+  /**
+   * Creates a monitor that reports the thermal level of the device to {@code listener}.
+   *
+   * @param warmThresholdCelsius smoothed temperature from which the device is considered warm
+   * @param hotThresholdCelsius smoothed temperature from which the device is considered hot
+   */
+  public TemperatureMonitor(
+      Context context,
+      float warmThresholdCelsius,
+      float hotThresholdCelsius,
+      @Nullable ThermalLevelListener listener) {
+    this.context = context;
+    this.warmThresholdCelsius = warmThresholdCelsius;
+    this.hotThresholdCelsius = hotThresholdCelsius;
+    this.listener = listener;
     sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
     List<Sensor> allSensors = sensorManager.getSensorList(Sensor.TYPE_ALL);
     for (Sensor sensor : allSensors) {
@@ -36,10 +133,40 @@ public final class TemperatureMonitor implements SensorEventListener {
 
       }
     }
+    if (listener != null) {
+      // Few devices expose temperature sensors, the battery temperature is available on all.
+      batteryReceiver =
+          new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+              int tenthsCelsius = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, -1);
+              if (tenthsCelsius >= 0) {
+                onReading(BATTERY_READING_NAME, tenthsCelsius / 10f);
+              }
+            }
+          };
+      context.registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+      if (VERSION.SDK_INT >= VERSION_CODES.Q) {
+        registerThermalStatusListener();
+      }
+    }
   }
 
   public void stop() {
     sensorManager.unregisterListener(this);
+    if (batteryReceiver != null) {
+      context.unregisterReceiver(batteryReceiver);
+      batteryReceiver = null;
+    }
+    if (VERSION.SDK_INT >= VERSION_CODES.Q && thermalStatusListener != null) {
+      getPowerManager().removeThermalStatusListener(thermalStatusListener);
+      thermalStatusListener = null;
+    }
+  }
+
+  /** Returns the current thermal level, one of the {@code THERMAL_LEVEL_*} constants. */
+  public int getThermalLevel() {
+    return thermalLevel;
   }
 
   public void logTemperature() {
@@ -59,6 +186,72 @@ public final class TemperatureMonitor implements SensorEventListener {
 
   @Override
   public void onSensorChanged(SensorEvent sensorEvent) {
-    sensorReadingsCelsius.put(sensorEvent.sensor.getName(), sensorEvent.values[0]);
+    onReading(sensorEvent.sensor.getName(), sensorEvent.values[0]);
+  }
+
+  private void onReading(String name, float tempC) {
+    sensorReadingsCelsius.put(name, tempC);
+    if (listener == null || tempC < 0) {
+      return;
+    }
+    Float smoothedC = smoothedReadingsCelsius.get(name);
+    smoothedC =
+        smoothedC == null ? tempC : smoothedC + SMOOTHING_FACTOR * (tempC - smoothedC);
+    smoothedReadingsCelsius.put(name, smoothedC);
+
+    float maxSmoothedC = 0;
+    for (float value : smoothedReadingsCelsius.values()) {
+      maxSmoothedC = Math.max(maxSmoothedC, value);
+    }
+    sensorThermalLevel = getSensorThermalLevel(maxSmoothedC);
+    updateThermalLevel();
+  }
+
+  private int getSensorThermalLevel(float tempC) {
+    // Levels are entered at their threshold but only left once clearly below it, so readings
+    // around a threshold don't toggle the level.
+    if (tempC >= hotThresholdCelsius
+        || (sensorThermalLevel == THERMAL_LEVEL_HOT
+            && tempC >= hotThresholdCelsius - HYSTERESIS_CELSIUS)) {
+      return THERMAL_LEVEL_HOT;
+    }
+    if (tempC >= warmThresholdCelsius
+        || (sensorThermalLevel >= THERMAL_LEVEL_WARM
+            && tempC >= warmThresholdCelsius - HYSTERESIS_CELSIUS)) {
+      return THERMAL_LEVEL_WARM;
+    }
+    return THERMAL_LEVEL_NORMAL;
+  }
+
+  private void updateThermalLevel() {
+    int newThermalLevel = Math.max(sensorThermalLevel, systemThermalLevel);
+    if (newThermalLevel == thermalLevel) {
+      return;
+    }
+    Log.i(TAG, "Thermal level changed from " + thermalLevel + " to " + newThermalLevel);
+    thermalLevel = newThermalLevel;
+    listener.onThermalLevelChanged(newThermalLevel);
+  }
+
+  @RequiresApi(VERSION_CODES.Q)
+  private void registerThermalStatusListener() {
+    thermalStatusListener =
+        status -> {
+          if (status >= PowerManager.THERMAL_STATUS_SEVERE) {
+            systemThermalLevel = THERMAL_LEVEL_HOT;
+          } else if (status >= PowerManager.THERMAL_STATUS_MODERATE) {
+            systemThermalLevel = THERMAL_LEVEL_WARM;
+          } else {
+            systemThermalLevel = THERMAL_LEVEL_NORMAL;
+          }
+          updateThermalLevel();
+        };
+    // Also called right away with the current status.
+    getPowerManager()
+        .addThermalStatusListener(ContextCompat.getMainExecutor(context), thermalStatusListener);
+  }
+
+  private PowerManager getPowerManager() {
+    return (PowerManager) context.getSystemService(Context.POWER_SERVICE);
   }
 }
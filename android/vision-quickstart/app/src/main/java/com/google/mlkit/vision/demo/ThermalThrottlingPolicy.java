@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.Nullable;
+import com.google.android.gms.common.images.Size;
+
+/**
+ * What the live previews give up at each {@link TemperatureMonitor} thermal level: the analysis
+ * frame rate, the analysis resolution and the accurate pose model. Everything is restored once the
+ * device is back at {@link TemperatureMonitor#THERMAL_LEVEL_NORMAL}.
+ */
+public final class ThermalThrottlingPolicy {
+
+  /** The hot threshold is this far above the configured warm threshold. */
+  public static final float HOT_THRESHOLD_OFFSET_CELSIUS = 8f;
+
+  private static final float WARM_MAX_FRAME_RATE = 15f;
+  private static final float HOT_MAX_FRAME_RATE = 8f;
+  private static final Size WARM_MAX_RESOLUTION = new Size(640, 480);
+  private static final Size HOT_MAX_RESOLUTION = new Size(480, 360);
+
+  /** Returns the maximum number of frames to analyze per second, or 0 if not limited. */
+  public static float getMaxFrameRate(int thermalLevel) {
+    switch (thermalLevel) {
+      case TemperatureMonitor.THERMAL_LEVEL_WARM:
+        return WARM_MAX_FRAME_RATE;
+      case TemperatureMonitor.THERMAL_LEVEL_HOT:
+        return HOT_MAX_FRAME_RATE;
+      default:
+        return 0;
+    }
+  }
+
+  /** Returns the largest resolution to analyze frames at in landscape, or null if not limited. */
+  @Nullable
+  public static Size getMaxResolution(int thermalLevel) {
+    switch (thermalLevel) {
+      case TemperatureMonitor.THERMAL_LEVEL_WARM:
+        return WARM_MAX_RESOLUTION;
+      case TemperatureMonitor.THERMAL_LEVEL_HOT:
+        return HOT_MAX_RESOLUTION;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns {@code resolution}, or the maximum resolution of the thermal level if that has fewer
+   * pixels. Both are in landscape orientation.
+   */
+  public static Size capResolution(Size resolution, int thermalLevel) {
+    Size maxResolution = getMaxResolution(thermalLevel);
+    if (maxResolution == null
+        || (long) resolution.getWidth() * resolution.getHeight()
+            <= (long) maxResolution.getWidth() * maxResolution.getHeight()) {
+      return resolution;
+    }
+    return maxResolution;
+  }
+
+  /** Returns whether the accurate pose model may be used. */
+  public static boolean allowsAccuratePoseDetection(int thermalLevel) {
+    return thermalLevel == TemperatureMonitor.THERMAL_LEVEL_NORMAL;
+  }
+
+  private ThermalThrottlingPolicy() {}
+}
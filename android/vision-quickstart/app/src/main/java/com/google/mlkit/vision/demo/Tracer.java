@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Traces named sections of the frame processing stages, e.g. image conversion, detection and
+ * drawing the overlay. Sections go to the installed {@link TraceSink}s. The {@link SystraceSink} is
+ * installed by default, so the sections show up in system traces on device.
+ *
+ * <p>Sections are cheap enough for every frame. With no sinks installed they cost a volatile read.
+ */
+public final class Tracer {
+
+  /** Receives the trace sections. Called on the thread running the section. */
+  public interface TraceSink {
+    void beginSection(String name);
+
+    /** Ends the most recent section begun on the calling thread. */
+    void endSection();
+
+    /** Begins a section that may end on another thread. */
+    void beginAsyncSection(String name, int cookie);
+
+    void endAsyncSection(String name, int cookie);
+  }
+
+  private static final AtomicInteger nextCookie = new AtomicInteger();
+  private static final Map<Class<?>, String> sectionNames = new ConcurrentHashMap<>();
+  private static volatile TraceSink[] sinks = {new SystraceSink()};
+
+  /** Installs a sink receiving all sections begun from now on. */
+  public static synchronized void addSink(TraceSink sink) {
+    TraceSink[] newSinks = Arrays.copyOf(sinks, sinks.length + 1);
+    newSinks[sinks.length] = sink;
+    sinks = newSinks;
+  }
+
+  /**
+   * Removes a sink. Sections begun before are not ended on it, so only remove sinks while no
+   * traced stage is running or when their open sections don't matter.
+   */
+  public static synchronized void removeSink(TraceSink sink) {
+    TraceSink[] currentSinks = sinks;
+    for (int i = 0; i < currentSinks.length; i++) {
+      if (currentSinks[i] == sink) {
+        TraceSink[] newSinks = new TraceSink[currentSinks.length - 1];
+        System.arraycopy(currentSinks, 0, newSinks, 0, i);
+        System.arraycopy(currentSinks, i + 1, newSinks, i, newSinks.length - i);
+        sinks = newSinks;
+        return;
+      }
+    }
+  }
+
+  /** Returns whether any sink is installed, to skip building section names otherwise. */
+  public static boolean isEnabled() {
+    return sinks.length > 0;
+  }
+
+  /** Begins a section. Must be ended with {@link #endSection()} on the same thread. */
+  public static void beginSection(String name) {
+    for (TraceSink sink : sinks) {
+      sink.beginSection(name);
+    }
+  }
+
+  public static void endSection() {
+    for (TraceSink sink : sinks) {
+      sink.endSection();
+    }
+  }
+
+  /**
+   * Begins a section that may end on another thread, e.g. from submitting an image to the detector
+   * until its result arrives. Returns the cookie to pass to {@link #endAsyncSection}.
+   */
+  public static int beginAsyncSection(String name) {
+    int cookie = nextCookie.incrementAndGet();
+    for (TraceSink sink : sinks) {
+      sink.beginAsyncSection(name, cookie);
+    }
+    return cookie;
+  }
+
+  public static void endAsyncSection(String name, int cookie) {
+    for (TraceSink sink : sinks) {
+      sink.endAsyncSection(name, cookie);
+    }
+  }
+
+  /** Returns a section name for instances of {@code type}, without allocating after the first. */
+  public static String getSectionName(Class<?> type) {
+    String name = sectionNames.get(type);
+    if (name == null) {
+      name = type.getSimpleName();
+      sectionNames.put(type, name);
+    }
+    return name;
+  }
+
+  private Tracer() {}
+}
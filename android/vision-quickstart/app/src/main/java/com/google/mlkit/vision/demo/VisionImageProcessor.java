@@ -17,23 +17,62 @@
 package com.google.mlkit.vision.demo;
 
 import android.graphics.Bitmap;
+import android.media.Image;
+import android.os.Build.VERSION_CODES;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 import androidx.camera.core.ImageProxy;
 import com.google.mlkit.common.MlKitException;
 import java.nio.ByteBuffer;
 
-/** An interface to process the images with different vision detectors and custom image models. */
+/**
+ * An interface to process the images with different vision detectors and custom image models. The
+ * results are drawn on the given {@link GraphicOverlay}, or not rendered at all if it is null.
+ */
 public interface VisionImageProcessor {
 
+  /** Takes back the images passed to {@link #processMediaImage}. */
+  interface ImageReleaser {
+    void release(Image image);
+  }
+
   /** Processes a bitmap image. */
-  void processBitmap(Bitmap bitmap, GraphicOverlay graphicOverlay);
+  void processBitmap(Bitmap bitmap, @Nullable GraphicOverlay graphicOverlay);
 
-  /** Processes ByteBuffer image data, e.g. used for Camera1 live preview case. */
+  /**
+   * Processes ByteBuffer image data, e.g. used for Camera1 live preview case. If {@code bufferPool}
+   * is set, {@code data} is only valid until this returns unless it is retained from the pool.
+   */
   void processByteBuffer(
-      ByteBuffer data, FrameMetadata frameMetadata, GraphicOverlay graphicOverlay)
+      ByteBuffer data,
+      FrameMetadata frameMetadata,
+      @Nullable PreviewBufferPool bufferPool,
+      @Nullable GraphicOverlay graphicOverlay)
       throws MlKitException;
 
-  /** Processes ImageProxy image data, e.g. used for CameraX live preview case. */
-  void processImageProxy(ImageProxy image, GraphicOverlay graphicOverlay) throws MlKitException;
+  /**
+   * Processes ImageProxy image data, e.g. used for CameraX live preview case. {@code
+   * isTimestampRealtime} tells whether the image timestamps are in the {@link
+   * android.os.SystemClock#elapsedRealtimeNanos()} time base, otherwise the capture time of the
+   * image is unknown.
+   */
+  void processImageProxy(
+      ImageProxy image, boolean isTimestampRealtime, @Nullable GraphicOverlay graphicOverlay)
+      throws MlKitException;
+
+  /**
+   * Processes a YUV_420_888 image, e.g. used for Camera2 live preview case. Instead of closing the
+   * image, the processor gives it back with {@code releaser} once it no longer uses it. {@code
+   * isTimestampRealtime} is as for {@link #processImageProxy}.
+   */
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  void processMediaImage(
+      Image image,
+      int rotationDegrees,
+      boolean isTimestampRealtime,
+      ImageReleaser releaser,
+      @Nullable GraphicOverlay graphicOverlay)
+      throws MlKitException;
 
   /** Stops the underlying machine learning model and release resources. */
   void stop();
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * YUV conversions on plain buffers and arrays. They don't use Android classes, so the
+ * microbenchmark module can run them on a JVM.
+ */
+final class YuvUtils {
+
+  // Scratch array of each thread for the rows of interleaved planes, see unpackPlane().
+  private static final ThreadLocal<byte[]> rowBuffer = new ThreadLocal<>();
+
+  /**
+   * Converts the Y, U and V planes of a YUV_420_888 image to NV21.
+   *
+   * <p>The NV21 format consists of a single byte array containing the Y, U and V values. For an
+   * image of size S, the first S positions of the array contain all the Y values. The remaining
+   * positions contain interleaved V and U values. U and V are subsampled by a factor of 2 in both
+   * dimensions, so there are S/4 U values and S/4 V values. In summary, the NV21 array will contain
+   * S Y values followed by S/4 VU values: YYYYYYYYYYYYYY(...)YVUVUVUVU(...)VU
+   *
+   * <p>YUV_420_888 is a generic format that can describe any YUV image where U and V are subsampled
+   * by a factor of 2 in both dimensions. {@code Image#getPlanes} returns an array with the Y, U and
+   * V planes. The Y plane is guaranteed not to be interleaved, so we can just copy its values into
+   * the first part of the NV21 array. The U and V planes may already have the representation in the
+   * NV21 format. This happens if the planes share the same buffer, the V buffer is one position
+   * before the U buffer and the planes have a pixelStride of 2. If this is case, we can just copy
+   * them to the NV21 array.
+   */
+  static byte[] yuv420ThreePlanesToNV21(
+      ByteBuffer[] planeBuffers, int[] rowStrides, int[] pixelStrides, int width, int height) {
+    byte[] out = new byte[getNv21Size(width, height)];
+    yuv420ThreePlanesToNV21(planeBuffers, rowStrides, pixelStrides, width, height, out);
+    return out;
+  }
+
+  /**
+   * Converts the Y, U and V planes of a YUV_420_888 image to NV21 like {@link
+   * #yuv420ThreePlanesToNV21(ByteBuffer[], int[], int[], int, int)}, into {@code out} instead of a
+   * new array, so the caller can reuse it for the next frame.
+   *
+   * @param out receives the NV21 image, must hold at least {@link #getNv21Size} bytes
+   */
+  static void yuv420ThreePlanesToNV21(
+      ByteBuffer[] planeBuffers,
+      int[] rowStrides,
+      int[] pixelStrides,
+      int width,
+      int height,
+      byte[] out) {
+    checkNv21Size(out, width, height);
+    int imageSize = width * height;
+
+    ByteBuffer uBuffer = planeBuffers[1];
+    ByteBuffer vBuffer = planeBuffers[2];
+    if (areUVPlanesNV21(uBuffer, vBuffer, width, height)) {
+      // Copy the Y values.
+      planeBuffers[0].get(out, 0, imageSize);
+
+      // Get the first V value from the V buffer, since the U buffer does not contain it.
+      vBuffer.get(out, imageSize, 1);
+      // Copy the first U value and the remaining VU values from the U buffer.
+      uBuffer.get(out, imageSize + 1, 2 * imageSize / 4 - 1);
+    } else {
+      // Fallback to unpacking the planes row by row, which is slower but also works.
+      // Unpack Y.
+      unpackPlane(planeBuffers[0], rowStrides[0], pixelStrides[0], width, height, out, 0, 1);
+      // Unpack U.
+      unpackPlane(uBuffer, rowStrides[1], pixelStrides[1], width, height, out, imageSize + 1, 2);
+      // Unpack V.
+      unpackPlane(vBuffer, rowStrides[2], pixelStrides[2], width, height, out, imageSize, 2);
+    }
+  }
+
+  /** Returns the size in bytes of an NV21 image. */
+  static int getNv21Size(int width, int height) {
+    int imageSize = width * height;
+    return imageSize + 2 * (imageSize / 4);
+  }
+
+  /** Checks if the UV plane buffers of a YUV_420_888 image are in the NV21 format. */
+  static boolean areUVPlanesNV21(ByteBuffer uBuffer, ByteBuffer vBuffer, int width, int height) {
+    int imageSize = width * height;
+
+    // Backup buffer properties.
+    int vBufferPosition = vBuffer.position();
+    int uBufferLimit = uBuffer.limit();
+
+    // Advance the V buffer by 1 byte, since the U buffer will not contain the first V value.
+    vBuffer.position(vBufferPosition + 1);
+    // Chop off the last byte of the U buffer, since the V buffer will not contain the last U value.
+    uBuffer.limit(uBufferLimit - 1);
+
+    // Check that the buffers are equal and have the expected number of elements.
+    boolean areNV21 =
+        (vBuffer.remaining() == (2 * imageSize / 4 - 2)) && (vBuffer.compareTo(uBuffer) == 0);
+
+    // Restore buffers to their initial state.
+    vBuffer.position(vBufferPosition);
+    uBuffer.limit(uBufferLimit);
+
+    return areNV21;
+  }
+
+  /**
+   * Unpack an image plane into a byte array.
+   *
+   * <p>The input plane data will be copied in 'out', starting at 'offset' and every pixel will be
+   * spaced by 'pixelStride'. Note that there is no row padding on the output.
+   *
+   * <p>Each row is read from the buffer with one bulk copy, straight into 'out' if neither the
+   * plane nor the output are interleaved. Otherwise the row is copied into a scratch array first
+   * and its pixels are picked from there, which avoids a bounds checked buffer access per pixel.
+   */
+  static void unpackPlane(
+      ByteBuffer buffer,
+      int rowStride,
+      int planePixelStride,
+      int width,
+      int height,
+      byte[] out,
+      int offset,
+      int pixelStride) {
+    buffer.rewind();
+
+    // Compute the size of the current plane.
+    // We assume that it has the aspect ratio as the original image.
+    int numRow = (buffer.limit() + rowStride - 1) / rowStride;
+    if (numRow == 0) {
+      return;
+    }
+    int scaleFactor = height / numRow;
+    int numCol = width / scaleFactor;
+    if (numCol <= 0) {
+      return;
+    }
+
+    // Extract the data in the output buffer.
+    int outputPos = offset;
+    int rowStart = 0;
+    if (planePixelStride == 1 && pixelStride == 1) {
+      for (int row = 0; row < numRow; row++) {
+        buffer.position(rowStart);
+        buffer.get(out, outputPos, numCol);
+        outputPos += numCol;
+        rowStart += rowStride;
+      }
+    } else {
+      // The last pixel of the last row may be the last byte of the buffer, so only the bytes up to
+      // the last pixel of a row are copied.
+      int rowLength = (numCol - 1) * planePixelStride + 1;
+      byte[] rowBytes = getRowBuffer(rowLength);
+      for (int row = 0; row < numRow; row++) {
+        buffer.position(rowStart);
+        buffer.get(rowBytes, 0, rowLength);
+        for (int inputPos = 0; inputPos < rowLength; inputPos += planePixelStride) {
+          out[outputPos] = rowBytes[inputPos];
+          outputPos += pixelStride;
+        }
+        rowStart += rowStride;
+      }
+    }
+    buffer.rewind();
+  }
+
+  /** Returns the row array of the calling thread, holding at least {@code length} bytes. */
+  private static byte[] getRowBuffer(int length) {
+    byte[] rowBytes = rowBuffer.get();
+    if (rowBytes == null || rowBytes.length < length) {
+      rowBytes = new byte[length];
+      rowBuffer.set(rowBytes);
+    }
+    return rowBytes;
+  }
+
+  /**
+   * Converts an NV21 image to ARGB_8888 pixels, rotated clockwise by {@code rotationDegrees} and
+   * then mirrored horizontally if {@code mirror} is set, in a single pass.
+   *
+   * <p>The image is split into {@code stripeCount} stripes of rows, all but one converted on {@code
+   * executor} while the calling thread converts the last one. The stripes write to separate parts
+   * of {@code out}, so no locking is needed.
+   *
+   * @param out receives the pixels row by row, must hold at least {@code width * height} of them.
+   *     The rows are {@code height} pixels wide if the image is rotated by 90 or 270 degrees,
+   *     {@code width} pixels wide otherwise
+   * @throws InterruptedException if interrupted while waiting for the other stripes
+   */
+  static void nv21ToArgb(
+      byte[] nv21,
+      int width,
+      int height,
+      int rotationDegrees,
+      boolean mirror,
+      int[] out,
+      Executor executor,
+      int stripeCount)
+      throws InterruptedException {
+    checkNv21Size(nv21, width, height);
+    // Stripes start at even rows, so each pair of rows sharing their chroma values is converted as
+    // a whole by one stripe.
+    stripeCount = Math.max(1, stripeCount);
+    int stripeRows = ((height + stripeCount - 1) / stripeCount + 1) & ~1;
+    int parallelStripeCount = (height + stripeRows - 1) / stripeRows - 1;
+    CountDownLatch done = new CountDownLatch(parallelStripeCount);
+    for (int i = 0; i < parallelStripeCount; i++) {
+      int rowStart = i * stripeRows;
+      int rowEnd = rowStart + stripeRows;
+      executor.execute(
+          () -> {
+            try {
+              nv21ToArgb(nv21, width, height, rotationDegrees, mirror, out, rowStart, rowEnd);
+            } finally {
+              done.countDown();
+            }
+          });
+    }
+    int lastRowStart = parallelStripeCount * stripeRows;
+    nv21ToArgb(nv21, width, height, rotationDegrees, mirror, out, lastRowStart, height);
+    done.await();
+  }
+
+  /**
+   * Converts the source rows {@code [rowStart, rowEnd)} of an NV21 image to ARGB_8888 pixels, see
+   * {@link #nv21ToArgb(byte[], int, int, int, boolean, int[], Executor, int)}.
+   *
+   * <p>Uses the BT.601 video range conversion in 10 bit fixed point, the values are the same as the
+   * ones of the platform's own NV21 decoders. The Y, U and V values are read from {@code nv21}
+   * exactly once, nothing is allocated.
+   */
+  static void nv21ToArgb(
+      byte[] nv21,
+      int width,
+      int height,
+      int rotationDegrees,
+      boolean mirror,
+      int[] out,
+      int rowStart,
+      int rowEnd) {
+    checkNv21Size(nv21, width, height);
+    int frameSize = width * height;
+    // Each source row is written to the output with a fixed step, e.g. down a column when rotated.
+    int step =
+        outputIndex(1, 0, width, height, rotationDegrees, mirror)
+            - outputIndex(0, 0, width, height, rotationDegrees, mirror);
+    for (int y = rowStart; y < rowEnd; y++) {
+      int outIndex = outputIndex(0, y, width, height, rotationDegrees, mirror);
+      int yIndex = y * width;
+      int uvIndex = frameSize + (y >> 1) * width;
+      int u = 0;
+      int v = 0;
+      for (int x = 0; x < width; x++) {
+        int luma = (nv21[yIndex++] & 0xff) - 16;
+        if (luma < 0) {
+          luma = 0;
+        }
+        if ((x & 1) == 0) {
+          v = (nv21[uvIndex++] & 0xff) - 128;
+          u = (nv21[uvIndex++] & 0xff) - 128;
+        }
+        int y1192 = 1192 * luma;
+        int r = y1192 + 1634 * v;
+        int g = y1192 - 833 * v - 400 * u;
+        int b = y1192 + 2066 * u;
+        r = r < 0 ? 0 : (r > 262143 ? 262143 : r);
+        g = g < 0 ? 0 : (g > 262143 ? 262143 : g);
+        b = b < 0 ? 0 : (b > 262143 ? 262143 : b);
+        out[outIndex] =
+            0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+        outIndex += step;
+      }
+    }
+  }
+
+  private static void checkNv21Size(byte[] nv21, int width, int height) {
+    if (nv21.length < getNv21Size(width, height)) {
+      throw new IllegalArgumentException("NV21 buffer too small for " + width + "x" + height);
+    }
+  }
+
+  /** Returns the index in the converted pixels of the source pixel at (x, y). */
+  private static int outputIndex(
+      int x, int y, int width, int height, int rotationDegrees, boolean mirror) {
+    int outX;
+    int outY;
+    int outWidth;
+    switch (rotationDegrees) {
+      case 90:
+        outX = height - 1 - y;
+        outY = x;
+        outWidth = height;
+        break;
+      case 180:
+        outX = width - 1 - x;
+        outY = height - 1 - y;
+        outWidth = width;
+        break;
+      case 270:
+        outX = y;
+        outY = width - 1 - x;
+        outWidth = height;
+        break;
+      case 0:
+        outX = x;
+        outY = y;
+        outWidth = width;
+        break;
+      default:
+        throw new IllegalArgumentException("Invalid rotation: " + rotationDegrees);
+    }
+    if (mirror) {
+      outX = outWidth - 1 - outX;
+    }
+    return outY * outWidth + outX;
+  }
+
+  private YuvUtils() {}
+}
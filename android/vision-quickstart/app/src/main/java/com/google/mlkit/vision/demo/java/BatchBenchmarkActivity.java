@@ -0,0 +1,218 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.TextView;
+import androidx.appcompat.app.AppCompatActivity;
+import com.google.mlkit.vision.demo.FramePolicy;
+import com.google.mlkit.vision.demo.FrameReplayer;
+import com.google.mlkit.vision.demo.LatencyHistogram;
+import com.google.mlkit.vision.demo.benchmark.BenchmarkRunner;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a detector over a directory of images without a camera or any rendering, and writes a
+ * JSONL report to {@code getExternalFilesDir("benchmarks")}. Only declared in the debug manifest,
+ * started from adb, e.g.
+ *
+ * <pre>
+ * adb push images/. /sdcard/Android/data/com.google.mlkit.vision.demo/files/benchmark_images
+ * adb shell am start -n com.google.mlkit.vision.demo/.java.BatchBenchmarkActivity \
+ *     --es feature "Face Detection" --ei concurrency 2
+ * </pre>
+ *
+ * <p>Given a {@code recording} made with the live preview's frame recording setting instead, the
+ * frames are replayed into the processor with {@link FrameReplayer} and the detector latencies are
+ * logged:
+ *
+ * <pre>
+ * adb shell am start -n com.google.mlkit.vision.demo/.java.BatchBenchmarkActivity \
+ *     --es feature "Face Detection" \
+ *     --es recording /sdcard/Android/data/com.google.mlkit.vision.demo/files/recordings/x.mlfr
+ * </pre>
+ *
+ * <p>The activity finishes once the report is written.
+ */
+public final class BatchBenchmarkActivity extends AppCompatActivity {
+
+  private static final String TAG = "BatchBenchmark";
+
+  /** The feature to run, one of the features of the {@link StillImageActivity}. */
+  static final String EXTRA_FEATURE = "feature";
+  /** The image directory, {@code getExternalFilesDir("benchmark_images")} by default. */
+  static final String EXTRA_IMAGES = "images";
+
+  /** A frame recording to replay instead of running over the image directory. */
+  static final String EXTRA_RECORDING = "recording";
+  /** Whether to replay the recording at its recorded pace, as fast as possible by default. */
+  static final String EXTRA_REAL_TIME = "real_time";
+
+  static final String EXTRA_CONCURRENCY = "concurrency";
+  static final String EXTRA_WARM_UP_RUNS = "warm_up";
+
+  private static final int DEFAULT_WARM_UP_RUNS = 3;
+  private static final long MAX_TRACKABLE_LATENCY_MS = 60_000;
+  private static final long REPLAY_RESULTS_TIMEOUT_SECONDS = 30;
+
+  private TextView statusView;
+
+  @Override
+  protected void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    statusView = new TextView(this);
+    setContentView(statusView);
+
+    String feature = getIntent().getStringExtra(EXTRA_FEATURE);
+    if (feature == null) {
+      feature = StillImageActivity.FACE_DETECTION;
+    }
+    String recording = getIntent().getStringExtra(EXTRA_RECORDING);
+    if (recording != null) {
+      boolean realTime = getIntent().getBooleanExtra(EXTRA_REAL_TIME, false);
+      statusView.setText("Replaying " + recording + " into " + feature);
+      String finalFeature = feature;
+      new Thread(() -> runReplay(finalFeature, new File(recording), realTime), "BatchBenchmark")
+          .start();
+      return;
+    }
+    String images = getIntent().getStringExtra(EXTRA_IMAGES);
+    File imageDirectory =
+        images != null ? new File(images) : getExternalFilesDir("benchmark_images");
+    int concurrency = getIntent().getIntExtra(EXTRA_CONCURRENCY, 1);
+    int warmUpRuns = getIntent().getIntExtra(EXTRA_WARM_UP_RUNS, DEFAULT_WARM_UP_RUNS);
+
+    statusView.setText("Running " + feature + " on " + imageDirectory);
+    String finalFeature = feature;
+    new Thread(
+            () -> runBenchmark(finalFeature, imageDirectory, concurrency, warmUpRuns),
+            "BatchBenchmark")
+        .start();
+  }
+
+  private void runBenchmark(String feature, File imageDirectory, int concurrency, int warmUpRuns) {
+    VisionProcessorBase<?> processor = null;
+    String status;
+    try {
+      processor = StillImageActivity.createImageProcessor(getApplicationContext(), feature);
+      File reportFile = newReportFile();
+      BenchmarkRunner.Summary summary;
+      try (Writer report =
+          new OutputStreamWriter(new FileOutputStream(reportFile), Charset.forName("UTF-8"))) {
+        summary =
+            new BenchmarkRunner(new MlKitDetector<>(feature, processor), concurrency, warmUpRuns)
+                .run(imageDirectory, report);
+      }
+      status =
+          String.format(
+              Locale.US,
+              "%d images, %d failures, detect p50 %.1f ms, p90 %.1f ms. Report: %s",
+              summary.getImageCount(),
+              summary.getFailureCount(),
+              summary.getDetectNanosAtPercentile(50) / 1e6,
+              summary.getDetectNanosAtPercentile(90) / 1e6,
+              reportFile);
+      Log.i(TAG, status);
+    } catch (Exception e) {
+      status = "Benchmark failed: " + e;
+      Log.e(TAG, status, e);
+    } finally {
+      if (processor != null) {
+        processor.stop();
+      }
+    }
+    finishWithStatus(status);
+  }
+
+  private void runReplay(String feature, File recording, boolean realTime) {
+    VisionProcessorBase<?> processor = null;
+    String status;
+    try (FrameReplayer replayer = new FrameReplayer(recording)) {
+      int frameCount = 0;
+      while (replayer.nextFrame() != null) {
+        frameCount++;
+      }
+      replayer.rewind();
+
+      processor = StillImageActivity.createImageProcessor(getApplicationContext(), feature);
+      // Queues all frames, so every one of them is detected however slow the detector is.
+      processor.setFramePolicy(FramePolicy.boundedQueue(Math.max(frameCount, 1)));
+      CountDownLatch results = new CountDownLatch(frameCount);
+      processor.addResultListener(result -> results.countDown());
+      LatencyHistogram detectorLatencies = new LatencyHistogram(MAX_TRACKABLE_LATENCY_MS);
+      processor.setDetectorLatencyListener(
+          latencyMs -> {
+            synchronized (detectorLatencies) {
+              detectorLatencies.recordValue(latencyMs);
+            }
+          });
+
+      replayer.replay(processor, /* graphicOverlay= */ null, realTime);
+      if (!results.await(REPLAY_RESULTS_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        Log.w(TAG, "Timed out waiting for the results of " + results.getCount() + " frames");
+      }
+      synchronized (detectorLatencies) {
+        status =
+            String.format(
+                Locale.US,
+                "%d frames replayed, %d results, %d dropped, detector p50 %d ms, p90 %d ms",
+                frameCount,
+                frameCount - results.getCount(),
+                processor.getDroppedFrameCount(),
+                detectorLatencies.getValueAtPercentile(50),
+                detectorLatencies.getValueAtPercentile(90));
+      }
+      Log.i(TAG, status);
+    } catch (Exception e) {
+      status = "Replay failed: " + e;
+      Log.e(TAG, status, e);
+    } finally {
+      if (processor != null) {
+        processor.stop();
+      }
+    }
+    finishWithStatus(status);
+  }
+
+  private void finishWithStatus(String status) {
+    runOnUiThread(
+        () -> {
+          statusView.setText(status);
+          finish();
+        });
+  }
+
+  private File newReportFile() {
+    File directory = getExternalFilesDir("benchmarks");
+    if (directory == null) {
+      directory = new File(getFilesDir(), "benchmarks");
+    }
+    directory.mkdirs();
+    String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+    return new File(directory, "benchmark_" + timestamp + ".jsonl");
+  }
+}
@@ -17,6 +17,9 @@
 package com.google.mlkit.vision.demo.java;
 
 import android.content.Intent;
+import android.content.res.Configuration;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraMetadata;
 import android.os.Build.VERSION_CODES;
 import android.os.Bundle;
 import androidx.appcompat.app.AppCompatActivity;
@@ -34,6 +37,11 @@ import android.widget.ToggleButton;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
+import androidx.annotation.experimental.UseExperimental;
+import androidx.camera.camera2.interop.Camera2CameraInfo;
+import androidx.camera.camera2.interop.ExperimentalCamera2Interop;
+import androidx.camera.core.Camera;
+import androidx.camera.core.CameraInfo;
 import androidx.camera.core.CameraInfoUnavailableException;
 import androidx.camera.core.CameraSelector;
 import androidx.camera.core.ImageAnalysis;
@@ -44,11 +52,15 @@ import androidx.core.content.ContextCompat;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.lifecycle.ViewModelProvider.AndroidViewModelFactory;
 import com.google.android.gms.common.annotation.KeepName;
+import com.google.common.primitives.Ints;
 import com.google.mlkit.common.MlKitException;
 import com.google.mlkit.common.model.LocalModel;
+import com.google.mlkit.vision.demo.AnalysisResolutionController;
 import com.google.mlkit.vision.demo.CameraXViewModel;
+import com.google.mlkit.vision.demo.FramePipeline;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.R;
+import com.google.mlkit.vision.demo.ThermalThrottlingPolicy;
 import com.google.mlkit.vision.demo.VisionImageProcessor;
 import com.google.mlkit.vision.demo.java.barcodescanner.BarcodeScannerProcessor;
 import com.google.mlkit.vision.demo.java.facedetector.FaceDetectorProcessor;
@@ -97,8 +109,14 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
   private static final String TEXT_RECOGNITION_JAPANESE = "Text Recognition Japanese";
   private static final String TEXT_RECOGNITION_KOREAN = "Text Recognition Korean";
   private static final String FACE_MESH_DETECTION = "Face Mesh Detection (Beta)";
+  private static final String MULTI_DETECTION = "Face + Pose + Barcode";
 
   private static final String STATE_SELECTED_MODEL = "selected_model";
+  // Number of processors kept alive to make switching between features fast.
+  private static final int PROCESSOR_CACHE_SIZE = 3;
+  // The default ImageAnalysis resolution, used as the starting point of the adaptive resolution.
+  private static final com.google.android.gms.common.images.Size DEFAULT_ANALYSIS_RESOLUTION =
+      new com.google.android.gms.common.images.Size(640, 480);
 
   private PreviewView previewView;
   private GraphicOverlay graphicOverlay;
@@ -107,6 +125,13 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
   @Nullable private Preview previewUseCase;
   @Nullable private ImageAnalysis analysisUseCase;
   @Nullable private VisionImageProcessor imageProcessor;
+  private ProcessorCache processorCache;
+  @Nullable private AnalysisResolutionController resolutionController;
+  // The analysis target resolution last bound, null if CameraX picked the default.
+  @Nullable private Size analysisTargetResolution;
+  // Whether the timestamps of the analyzed images are in the elapsedRealtimeNanos() time base.
+  private boolean isSensorTimestampRealtime;
+  private LivePreviewSession session;
   private boolean needUpdateGraphicOverlayImageSourceInfo;
 
   private String selectedModel = OBJECT_DETECTION;
@@ -122,6 +147,13 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
       selectedModel = savedInstanceState.getString(STATE_SELECTED_MODEL, OBJECT_DETECTION);
     }
     cameraSelector = new CameraSelector.Builder().requireLensFacing(lensFacing).build();
+    session = new LivePreviewSession(this, this::onThermalLevelChanged);
+    processorCache =
+        new ProcessorCache(
+            this,
+            PROCESSOR_CACHE_SIZE,
+            this::createImageProcessor,
+            CameraXLivePreviewActivity::getOptionKeys);
 
     setContentView(R.layout.activity_vision_camerax_live_preview);
     previewView = findViewById(R.id.preview_view);
@@ -151,6 +183,7 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
     options.add(TEXT_RECOGNITION_JAPANESE);
     options.add(TEXT_RECOGNITION_KOREAN);
     options.add(FACE_MESH_DETECTION);
+    options.add(MULTI_DETECTION);
 
     // Creating adapter for spinner
     ArrayAdapter<String> dataAdapter = new ArrayAdapter<>(this, R.layout.spinner_style, options);
@@ -199,6 +232,8 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
     // parent.getItemAtPosition(pos)
     selectedModel = parent.getItemAtPosition(pos).toString();
     Log.d(TAG, "Selected model: " + selectedModel);
+    // Detectors differ in cost, so the resolution is adapted to the new one from scratch.
+    resolutionController = null;
     bindAnalysisUseCase();
   }
 
@@ -239,23 +274,27 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
   @Override
   public void onResume() {
     super.onResume();
+    session.start();
     bindAllCameraUseCases();
   }
 
   @Override
   protected void onPause() {
     super.onPause();
-    if (imageProcessor != null) {
-      imageProcessor.stop();
-    }
+    session.stop();
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    processorCache.onTrimMemory(level);
   }
 
   @Override
   public void onDestroy() {
     super.onDestroy();
-    if (imageProcessor != null) {
-      imageProcessor.stop();
-    }
+    // Also stops the processor in use. It is kept alive while paused, so resuming is warm.
+    processorCache.clear();
   }
 
   private void bindAllCameraUseCases() {
@@ -295,124 +334,13 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
     if (analysisUseCase != null) {
       cameraProvider.unbind(analysisUseCase);
     }
-    if (imageProcessor != null) {
-      imageProcessor.stop();
-    }
-
+    int thermalLevel = session.getThermalLevel();
+    VisionProcessorBase<?> processor;
     try {
-      switch (selectedModel) {
-        case OBJECT_DETECTION:
-          Log.i(TAG, "Using Object Detector Processor");
-          ObjectDetectorOptions objectDetectorOptions =
-              PreferenceUtils.getObjectDetectorOptionsForLivePreview(this);
-          imageProcessor = new ObjectDetectorProcessor(this, objectDetectorOptions);
-          break;
-        case OBJECT_DETECTION_CUSTOM:
-          Log.i(TAG, "Using Custom Object Detector Processor");
-          LocalModel localModel =
-              new LocalModel.Builder()
-                  .setAssetFilePath("custom_models/object_labeler.tflite")
-                  .build();
-          CustomObjectDetectorOptions customObjectDetectorOptions =
-              PreferenceUtils.getCustomObjectDetectorOptionsForLivePreview(this, localModel);
-          imageProcessor = new ObjectDetectorProcessor(this, customObjectDetectorOptions);
-          break;
-        case CUSTOM_AUTOML_OBJECT_DETECTION:
-          Log.i(TAG, "Using Custom AutoML Object Detector Processor");
-          LocalModel customAutoMLODTLocalModel =
-              new LocalModel.Builder().setAssetManifestFilePath("automl/manifest.json").build();
-          CustomObjectDetectorOptions customAutoMLODTOptions =
-              PreferenceUtils.getCustomObjectDetectorOptionsForLivePreview(
-                  this, customAutoMLODTLocalModel);
-          imageProcessor = new ObjectDetectorProcessor(this, customAutoMLODTOptions);
-          break;
-        case TEXT_RECOGNITION_CHINESE:
-          Log.i(TAG, "Using on-device Text recognition Processor for Latin and Chinese.");
-          imageProcessor =
-              new TextRecognitionProcessor(
-                  this, new ChineseTextRecognizerOptions.Builder().build());
-          break;
-        case TEXT_RECOGNITION_DEVANAGARI:
-          Log.i(TAG, "Using on-device Text recognition Processor for Latin and Devanagari.");
-          imageProcessor =
-              new TextRecognitionProcessor(
-                  this, new DevanagariTextRecognizerOptions.Builder().build());
-          break;
-        case TEXT_RECOGNITION_JAPANESE:
-          Log.i(TAG, "Using on-device Text recognition Processor for Latin and Japanese.");
-          imageProcessor =
-              new TextRecognitionProcessor(
-                  this, new JapaneseTextRecognizerOptions.Builder().build());
-          break;
-        case TEXT_RECOGNITION_KOREAN:
-          Log.i(TAG, "Using on-device Text recognition Processor for Latin and Korean.");
-          imageProcessor =
-              new TextRecognitionProcessor(this, new KoreanTextRecognizerOptions.Builder().build());
-          break;
-        case TEXT_RECOGNITION_LATIN:
-          Log.i(TAG, "Using on-device Text recognition Processor for Latin.");
-          imageProcessor =
-              new TextRecognitionProcessor(this, new TextRecognizerOptions.Builder().build());
-          break;
-        case FACE_DETECTION:
-          Log.i(TAG, "Using Face Detector Processor");
-          imageProcessor = new FaceDetectorProcessor(this);
-          break;
-        case BARCODE_SCANNING:
-          Log.i(TAG, "Using Barcode Detector Processor");
-          imageProcessor = new BarcodeScannerProcessor(this);
-          break;
-        case IMAGE_LABELING:
-          Log.i(TAG, "Using Image Label Detector Processor");
-          imageProcessor = new LabelDetectorProcessor(this, ImageLabelerOptions.DEFAULT_OPTIONS);
-          break;
-        case IMAGE_LABELING_CUSTOM:
-          Log.i(TAG, "Using Custom Image Label (Birds) Detector Processor");
-          LocalModel localClassifier =
-              new LocalModel.Builder()
-                  .setAssetFilePath("custom_models/bird_classifier.tflite")
-                  .build();
-          CustomImageLabelerOptions customImageLabelerOptions =
-              new CustomImageLabelerOptions.Builder(localClassifier).build();
-          imageProcessor = new LabelDetectorProcessor(this, customImageLabelerOptions);
-          break;
-        case CUSTOM_AUTOML_LABELING:
-          Log.i(TAG, "Using Custom AutoML Image Label Detector Processor");
-          LocalModel customAutoMLLabelLocalModel =
-              new LocalModel.Builder().setAssetManifestFilePath("automl/manifest.json").build();
-          CustomImageLabelerOptions customAutoMLLabelOptions =
-              new CustomImageLabelerOptions.Builder(customAutoMLLabelLocalModel)
-                  .setConfidenceThreshold(0)
-                  .build();
-          imageProcessor = new LabelDetectorProcessor(this, customAutoMLLabelOptions);
-          break;
-        case POSE_DETECTION:
-          PoseDetectorOptionsBase poseDetectorOptions =
-              PreferenceUtils.getPoseDetectorOptionsForLivePreview(this);
-          boolean shouldShowInFrameLikelihood =
-              PreferenceUtils.shouldShowPoseDetectionInFrameLikelihoodLivePreview(this);
-          boolean visualizeZ = PreferenceUtils.shouldPoseDetectionVisualizeZ(this);
-          boolean rescaleZ = PreferenceUtils.shouldPoseDetectionRescaleZForVisualization(this);
-          boolean runClassification = PreferenceUtils.shouldPoseDetectionRunClassification(this);
-          imageProcessor =
-              new PoseDetectorProcessor(
-                  this,
-                  poseDetectorOptions,
-                  shouldShowInFrameLikelihood,
-                  visualizeZ,
-                  rescaleZ,
-                  runClassification,
-                  /* isStreamMode = */ true);
-          break;
-        case SELFIE_SEGMENTATION:
-          imageProcessor = new SegmenterProcessor(this);
-          break;
-        case FACE_MESH_DETECTION:
-          imageProcessor = new FaceMeshDetectorProcessor(this);
-          break;
-        default:
-          throw new IllegalStateException("Invalid model name");
-      }
+      // Processors created with the accurate pose model must not be reused while throttled.
+      processorCache.setVariant(ThermalThrottlingPolicy.allowsAccuratePoseDetection(thermalLevel));
+      processor = processorCache.acquire(selectedModel);
+      processorCache.prewarmMostUsed();
     } catch (Exception e) {
       Log.e(TAG, "Can not create image processor: " + selectedModel, e);
       Toast.makeText(
@@ -422,12 +350,48 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
           .show();
       return;
     }
+    imageProcessor = session.wrapForRecording(processor);
 
     ImageAnalysis.Builder builder = new ImageAnalysis.Builder();
     Size targetResolution = PreferenceUtils.getCameraXTargetResolution(this, lensFacing);
+    if (PreferenceUtils.isAdaptiveResolutionEnabled(this)) {
+      if (resolutionController == null) {
+        resolutionController =
+            new AnalysisResolutionController(
+                AnalysisResolutionController.DEFAULT_RESOLUTIONS,
+                targetResolution != null
+                    ? toLandscapeSize(targetResolution)
+                    : DEFAULT_ANALYSIS_RESOLUTION,
+                PreferenceUtils.getAdaptiveResolutionFrameBudgetMs(this),
+                this::onAnalysisResolutionChanged);
+      }
+      targetResolution = toTargetResolution(resolutionController.getResolution());
+      processor.setDetectorLatencyListener(resolutionController::onDetectorLatency);
+    } else {
+      resolutionController = null;
+      processor.setDetectorLatencyListener(null);
+    }
+    if (ThermalThrottlingPolicy.getMaxResolution(thermalLevel) != null) {
+      targetResolution =
+          toTargetResolution(
+              ThermalThrottlingPolicy.capResolution(
+                  targetResolution != null
+                      ? toLandscapeSize(targetResolution)
+                      : DEFAULT_ANALYSIS_RESOLUTION,
+                  thermalLevel));
+    }
+    analysisTargetResolution = targetResolution;
     if (targetResolution != null) {
       builder.setTargetResolution(targetResolution);
     }
+    processor.setMaxFrameRate(ThermalThrottlingPolicy.getMaxFrameRate(thermalLevel));
+    if (PreferenceUtils.isPipelinedProcessingEnabled(this)) {
+      // The pipeline holds on to more than one image at a time, which the default
+      // STRATEGY_KEEP_ONLY_LATEST doesn't allow.
+      builder
+          .setBackpressureStrategy(ImageAnalysis.STRATEGY_BLOCK_PRODUCER)
+          .setImageQueueDepth(FramePipeline.MAX_FRAMES_IN_FLIGHT);
+    }
     analysisUseCase = builder.build();
 
     needUpdateGraphicOverlayImageSourceInfo = true;
@@ -449,7 +413,8 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
             needUpdateGraphicOverlayImageSourceInfo = false;
           }
           try {
-            imageProcessor.processImageProxy(imageProxy, graphicOverlay);
+            imageProcessor.processImageProxy(
+                imageProxy, isSensorTimestampRealtime, graphicOverlay);
           } catch (MlKitException e) {
             Log.e(TAG, "Failed to process image. Error: " + e.getLocalizedMessage());
             Toast.makeText(getApplicationContext(), e.getLocalizedMessage(), Toast.LENGTH_SHORT)
@@ -457,6 +422,195 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
           }
         });
 
-    cameraProvider.bindToLifecycle(/* lifecycleOwner= */ this, cameraSelector, analysisUseCase);
+    Camera camera =
+        cameraProvider.bindToLifecycle(
+            /* lifecycleOwner= */ this, cameraSelector, analysisUseCase);
+    isSensorTimestampRealtime = isSensorTimestampRealtime(camera.getCameraInfo());
+  }
+
+  /**
+   * Returns whether the image timestamps of the camera are in the {@link
+   * android.os.SystemClock#elapsedRealtimeNanos()} time base. CameraX stamps the images with the
+   * sensor timestamp of the camera, which is only in that time base if the camera says so.
+   */
+  @UseExperimental(markerClass = ExperimentalCamera2Interop.class)
+  private static boolean isSensorTimestampRealtime(CameraInfo cameraInfo) {
+    Integer timestampSource =
+        Camera2CameraInfo.from(cameraInfo)
+            .getCameraCharacteristic(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+    return timestampSource != null
+        && timestampSource == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+  }
+
+  private void onAnalysisResolutionChanged(
+      com.google.android.gms.common.images.Size resolution) {
+    // Called on the thread delivering results, the use case is rebound on the main thread.
+    runOnUiThread(
+        () -> {
+          if (resolutionController == null
+              || !resolution.equals(resolutionController.getResolution())) {
+            // Outdated, the feature or settings changed in the meantime.
+            return;
+          }
+          com.google.android.gms.common.images.Size cappedResolution =
+              ThermalThrottlingPolicy.capResolution(resolution, session.getThermalLevel());
+          if (toTargetResolution(cappedResolution).equals(analysisTargetResolution)) {
+            // Capped by the thermal throttling, rebinding wouldn't change anything.
+            return;
+          }
+          bindAnalysisUseCase();
+        });
+  }
+
+  private void onThermalLevelChanged(int thermalLevel) {
+    bindAnalysisUseCase();
+  }
+
+  /** Converts a resolution in landscape orientation to a CameraX target resolution. */
+  private Size toTargetResolution(com.google.android.gms.common.images.Size landscapeSize) {
+    // CameraX expects the target resolution in the orientation of the display.
+    return isPortraitMode()
+        ? new Size(landscapeSize.getHeight(), landscapeSize.getWidth())
+        : new Size(landscapeSize.getWidth(), landscapeSize.getHeight());
+  }
+
+  private static com.google.android.gms.common.images.Size toLandscapeSize(Size size) {
+    return new com.google.android.gms.common.images.Size(
+        Math.max(size.getWidth(), size.getHeight()), Math.min(size.getWidth(), size.getHeight()));
+  }
+
+  private boolean isPortraitMode() {
+    return getApplicationContext().getResources().getConfiguration().orientation
+        != Configuration.ORIENTATION_LANDSCAPE;
+  }
+
+  private VisionProcessorBase<?> createImageProcessor(String model) {
+    switch (model) {
+      case OBJECT_DETECTION:
+        Log.i(TAG, "Using Object Detector Processor");
+        ObjectDetectorOptions objectDetectorOptions =
+            PreferenceUtils.getObjectDetectorOptionsForLivePreview(this);
+        return new ObjectDetectorProcessor(this, objectDetectorOptions);
+      case OBJECT_DETECTION_CUSTOM:
+        Log.i(TAG, "Using Custom Object Detector Processor");
+        LocalModel localModel =
+            new LocalModel.Builder()
+                .setAssetFilePath("custom_models/object_labeler.tflite")
+                .build();
+        CustomObjectDetectorOptions customObjectDetectorOptions =
+            PreferenceUtils.getCustomObjectDetectorOptionsForLivePreview(this, localModel);
+        return new ObjectDetectorProcessor(this, customObjectDetectorOptions);
+      case CUSTOM_AUTOML_OBJECT_DETECTION:
+        Log.i(TAG, "Using Custom AutoML Object Detector Processor");
+        LocalModel customAutoMLODTLocalModel =
+            new LocalModel.Builder().setAssetManifestFilePath("automl/manifest.json").build();
+        CustomObjectDetectorOptions customAutoMLODTOptions =
+            PreferenceUtils.getCustomObjectDetectorOptionsForLivePreview(
+                this, customAutoMLODTLocalModel);
+        return new ObjectDetectorProcessor(this, customAutoMLODTOptions);
+      case TEXT_RECOGNITION_CHINESE:
+        Log.i(TAG, "Using on-device Text recognition Processor for Latin and Chinese.");
+        return new TextRecognitionProcessor(
+            this, new ChineseTextRecognizerOptions.Builder().build());
+      case TEXT_RECOGNITION_DEVANAGARI:
+        Log.i(TAG, "Using on-device Text recognition Processor for Latin and Devanagari.");
+        return new TextRecognitionProcessor(
+            this, new DevanagariTextRecognizerOptions.Builder().build());
+      case TEXT_RECOGNITION_JAPANESE:
+        Log.i(TAG, "Using on-device Text recognition Processor for Latin and Japanese.");
+        return new TextRecognitionProcessor(
+            this, new JapaneseTextRecognizerOptions.Builder().build());
+      case TEXT_RECOGNITION_KOREAN:
+        Log.i(TAG, "Using on-device Text recognition Processor for Latin and Korean.");
+        return new TextRecognitionProcessor(
+            this, new KoreanTextRecognizerOptions.Builder().build());
+      case TEXT_RECOGNITION_LATIN:
+        Log.i(TAG, "Using on-device Text recognition Processor for Latin.");
+        return new TextRecognitionProcessor(this, new TextRecognizerOptions.Builder().build());
+      case FACE_DETECTION:
+        Log.i(TAG, "Using Face Detector Processor");
+        return new FaceDetectorProcessor(this);
+      case BARCODE_SCANNING:
+        Log.i(TAG, "Using Barcode Detector Processor");
+        return new BarcodeScannerProcessor(this);
+      case IMAGE_LABELING:
+        Log.i(TAG, "Using Image Label Detector Processor");
+        return new LabelDetectorProcessor(this, ImageLabelerOptions.DEFAULT_OPTIONS);
+      case IMAGE_LABELING_CUSTOM:
+        Log.i(TAG, "Using Custom Image Label (Birds) Detector Processor");
+        LocalModel localClassifier =
+            new LocalModel.Builder()
+                .setAssetFilePath("custom_models/bird_classifier.tflite")
+                .build();
+        CustomImageLabelerOptions customImageLabelerOptions =
+            new CustomImageLabelerOptions.Builder(localClassifier).build();
+        return new LabelDetectorProcessor(this, customImageLabelerOptions);
+      case CUSTOM_AUTOML_LABELING:
+        Log.i(TAG, "Using Custom AutoML Image Label Detector Processor");
+        LocalModel customAutoMLLabelLocalModel =
+            new LocalModel.Builder().setAssetManifestFilePath("automl/manifest.json").build();
+        CustomImageLabelerOptions customAutoMLLabelOptions =
+            new CustomImageLabelerOptions.Builder(customAutoMLLabelLocalModel)
+                .setConfidenceThreshold(0)
+                .build();
+        return new LabelDetectorProcessor(this, customAutoMLLabelOptions);
+      case POSE_DETECTION:
+        PoseDetectorOptionsBase poseDetectorOptions =
+            PreferenceUtils.getPoseDetectorOptionsForLivePreview(
+                this,
+                ThermalThrottlingPolicy.allowsAccuratePoseDetection(session.getThermalLevel()));
+        boolean shouldShowInFrameLikelihood =
+            PreferenceUtils.shouldShowPoseDetectionInFrameLikelihoodLivePreview(this);
+        boolean visualizeZ = PreferenceUtils.shouldPoseDetectionVisualizeZ(this);
+        boolean rescaleZ = PreferenceUtils.shouldPoseDetectionRescaleZForVisualization(this);
+        boolean runClassification = PreferenceUtils.shouldPoseDetectionRunClassification(this);
+        return new PoseDetectorProcessor(
+            this,
+            poseDetectorOptions,
+            shouldShowInFrameLikelihood,
+            visualizeZ,
+            rescaleZ,
+            runClassification,
+            /* isStreamMode = */ true);
+      case SELFIE_SEGMENTATION:
+        return new SegmenterProcessor(this);
+      case FACE_MESH_DETECTION:
+        return new FaceMeshDetectorProcessor(this);
+      case MULTI_DETECTION:
+        Log.i(TAG, "Using Multi Detector Processor");
+        return session.createMultiDetectorProcessor();
+      default:
+        throw new IllegalStateException("Invalid model name");
+    }
+  }
+
+  /** Returns the keys of the preferences the processor of a feature is created with. */
+  private static int[] getOptionKeys(String model) {
+    switch (model) {
+      case OBJECT_DETECTION:
+      case OBJECT_DETECTION_CUSTOM:
+      case CUSTOM_AUTOML_OBJECT_DETECTION:
+        return PreferenceUtils.getObjectDetectorOptionKeys(/* isStreamMode= */ true);
+      case FACE_DETECTION:
+        return PreferenceUtils.getFaceDetectorOptionKeys();
+      case TEXT_RECOGNITION_LATIN:
+      case TEXT_RECOGNITION_CHINESE:
+      case TEXT_RECOGNITION_DEVANAGARI:
+      case TEXT_RECOGNITION_JAPANESE:
+      case TEXT_RECOGNITION_KOREAN:
+        return PreferenceUtils.getTextRecognitionOptionKeys();
+      case POSE_DETECTION:
+        return PreferenceUtils.getPoseDetectorOptionKeys(/* isStreamMode= */ true);
+      case SELFIE_SEGMENTATION:
+        return PreferenceUtils.getSegmenterOptionKeys();
+      case FACE_MESH_DETECTION:
+        return PreferenceUtils.getFaceMeshDetectorOptionKeys();
+      case MULTI_DETECTION:
+        return Ints.concat(
+            PreferenceUtils.getFaceDetectorOptionKeys(),
+            PreferenceUtils.getPoseDetectorOptionKeys(/* isStreamMode= */ true));
+      default:
+        return new int[0];
+    }
   }
 }
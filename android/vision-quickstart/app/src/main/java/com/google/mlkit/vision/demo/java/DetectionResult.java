@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The detection results of a frame together with its timing, delivered to the {@link
+ * VisionProcessorBase.ResultListener}s of a processor.
+ *
+ * <p>The same instance, and the same results object, is passed to all listeners, so listeners must
+ * not modify the results.
+ *
+ * @param <T> The type of the detected feature.
+ */
+public final class DetectionResult<T> {
+
+  private final T results;
+  private final long frameTimestampMs;
+  private final long captureTimestampNanos;
+  private final long detectorLatencyMs;
+  private final long frameLatencyMs;
+  private final boolean isReused;
+
+  DetectionResult(
+      T results,
+      long frameTimestampMs,
+      long captureTimestampNanos,
+      long detectorLatencyMs,
+      long frameLatencyMs,
+      boolean isReused) {
+    this.results = results;
+    this.frameTimestampMs = frameTimestampMs;
+    this.captureTimestampNanos = captureTimestampNanos;
+    this.detectorLatencyMs = detectorLatencyMs;
+    this.frameLatencyMs = frameLatencyMs;
+    this.isReused = isReused;
+  }
+
+  /** Returns the detection results. Shared with the other listeners, must not be modified. */
+  @NonNull
+  public T getResults() {
+    return results;
+  }
+
+  /**
+   * Returns the time the frame was received by the processor, in the {@link
+   * android.os.SystemClock#elapsedRealtime()} time base.
+   */
+  public long getFrameTimestampMs() {
+    return frameTimestampMs;
+  }
+
+  /**
+   * Returns the time the camera captured the frame, in the {@link
+   * android.os.SystemClock#elapsedRealtimeNanos()} time base, or 0 if unknown, e.g. for still
+   * images.
+   */
+  public long getCaptureTimestampNanos() {
+    return captureTimestampNanos;
+  }
+
+  /** Returns the time the detector took for the frame, 0 if the results were reused. */
+  public long getDetectorLatencyMs() {
+    return detectorLatencyMs;
+  }
+
+  /** Returns the time from receiving the frame to getting its results. */
+  public long getFrameLatencyMs() {
+    return frameLatencyMs;
+  }
+
+  /**
+   * Returns whether the detector was skipped for the frame because it barely changed, and the
+   * results are the ones of an earlier frame.
+   */
+  public boolean isReused() {
+    return isReused;
+  }
+}
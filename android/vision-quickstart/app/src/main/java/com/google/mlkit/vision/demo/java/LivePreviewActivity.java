@@ -17,6 +17,8 @@
 package com.google.mlkit.vision.demo.java;
 
 import android.content.Intent;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
 import android.os.Bundle;
 import androidx.appcompat.app.AppCompatActivity;
 import android.util.Log;
@@ -29,12 +31,18 @@ import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
 import android.widget.ToggleButton;
+import androidx.annotation.Nullable;
 import com.google.android.gms.common.annotation.KeepName;
+import com.google.android.gms.common.images.Size;
 import com.google.mlkit.common.model.LocalModel;
+import com.google.mlkit.vision.demo.AnalysisResolutionController;
+import com.google.mlkit.vision.demo.Camera2Source;
 import com.google.mlkit.vision.demo.CameraSource;
 import com.google.mlkit.vision.demo.CameraSourcePreview;
 import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.LiveCameraSource;
 import com.google.mlkit.vision.demo.R;
+import com.google.mlkit.vision.demo.ThermalThrottlingPolicy;
 import com.google.mlkit.vision.demo.java.barcodescanner.BarcodeScannerProcessor;
 import com.google.mlkit.vision.demo.java.facedetector.FaceDetectorProcessor;
 import com.google.mlkit.vision.demo.java.labeldetector.LabelDetectorProcessor;
@@ -80,13 +88,18 @@ public final class LivePreviewActivity extends AppCompatActivity
   private static final String TEXT_RECOGNITION_JAPANESE = "Text Recognition Japanese";
   private static final String TEXT_RECOGNITION_KOREAN = "Text Recognition Korean";
   private static final String FACE_MESH_DETECTION = "Face Mesh Detection (Beta)";
+  private static final String MULTI_DETECTION = "Face + Pose + Barcode";
 
   private static final String TAG = "LivePreviewActivity";
 
-  private CameraSource cameraSource = null;
+  private LiveCameraSource cameraSource = null;
   private CameraSourcePreview preview;
   private GraphicOverlay graphicOverlay;
   private String selectedModel = OBJECT_DETECTION;
+  @Nullable private AnalysisResolutionController resolutionController;
+  // The preview size last requested from the camera source, null if taken from the preferences.
+  @Nullable private Size requestedPreviewSize;
+  private LivePreviewSession session;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -94,6 +107,7 @@ public final class LivePreviewActivity extends AppCompatActivity
     Log.d(TAG, "onCreate");
 
     setContentView(R.layout.activity_vision_live_preview);
+    session = new LivePreviewSession(this, this::onThermalLevelChanged);
 
     preview = findViewById(R.id.preview_view);
     if (preview == null) {
@@ -122,6 +136,7 @@ public final class LivePreviewActivity extends AppCompatActivity
     options.add(TEXT_RECOGNITION_JAPANESE);
     options.add(TEXT_RECOGNITION_KOREAN);*/
     options.add(FACE_MESH_DETECTION);
+    options.add(MULTI_DETECTION);
 
     // Creating adapter for spinner
     ArrayAdapter<String> dataAdapter = new ArrayAdapter<>(this, R.layout.spinner_style, options);
@@ -152,6 +167,8 @@ public final class LivePreviewActivity extends AppCompatActivity
     // parent.getItemAtPosition(pos)
     selectedModel = parent.getItemAtPosition(pos).toString();
     Log.d(TAG, "Selected model: " + selectedModel);
+    // Detectors differ in cost, so the resolution is adapted to the new one from scratch.
+    resolutionController = null;
     preview.stop();
     createCameraSource(selectedModel);
     startCameraSource();
@@ -179,7 +196,11 @@ public final class LivePreviewActivity extends AppCompatActivity
   private void createCameraSource(String model) {
     // If there's no existing cameraSource, create one.
     if (cameraSource == null) {
-      cameraSource = new CameraSource(this, graphicOverlay);
+      if (VERSION.SDK_INT >= VERSION_CODES.LOLLIPOP && PreferenceUtils.isCamera2Enabled(this)) {
+        cameraSource = new Camera2Source(this, graphicOverlay);
+      } else {
+        cameraSource = new CameraSource(this, graphicOverlay);
+      }
     }
 
     try {
@@ -188,8 +209,7 @@ public final class LivePreviewActivity extends AppCompatActivity
           Log.i(TAG, "Using Object Detector Processor");
           ObjectDetectorOptions objectDetectorOptions =
               PreferenceUtils.getObjectDetectorOptionsForLivePreview(this);
-          cameraSource.setMachineLearningFrameProcessor(
-              new ObjectDetectorProcessor(this, objectDetectorOptions));
+          setFrameProcessor(new ObjectDetectorProcessor(this, objectDetectorOptions));
           break;
         case OBJECT_DETECTION_CUSTOM:
           Log.i(TAG, "Using Custom Object Detector Processor");
@@ -199,8 +219,7 @@ public final class LivePreviewActivity extends AppCompatActivity
                   .build();
           CustomObjectDetectorOptions customObjectDetectorOptions =
               PreferenceUtils.getCustomObjectDetectorOptionsForLivePreview(this, localModel);
-          cameraSource.setMachineLearningFrameProcessor(
-              new ObjectDetectorProcessor(this, customObjectDetectorOptions));
+          setFrameProcessor(new ObjectDetectorProcessor(this, customObjectDetectorOptions));
           break;
         case CUSTOM_AUTOML_OBJECT_DETECTION:
           Log.i(TAG, "Using Custom AutoML Object Detector Processor");
@@ -209,50 +228,48 @@ public final class LivePreviewActivity extends AppCompatActivity
           CustomObjectDetectorOptions customAutoMLODTOptions =
               PreferenceUtils.getCustomObjectDetectorOptionsForLivePreview(
                   this, customAutoMLODTLocalModel);
-          cameraSource.setMachineLearningFrameProcessor(
-              new ObjectDetectorProcessor(this, customAutoMLODTOptions));
+          setFrameProcessor(new ObjectDetectorProcessor(this, customAutoMLODTOptions));
           break;
         case TEXT_RECOGNITION_LATIN:
           Log.i(TAG, "Using on-device Text recognition Processor for Latin.");
-          cameraSource.setMachineLearningFrameProcessor(
+          setFrameProcessor(
               new TextRecognitionProcessor(this, new TextRecognizerOptions.Builder().build()));
           break;
         case TEXT_RECOGNITION_CHINESE:
           Log.i(TAG, "Using on-device Text recognition Processor for Latin and Chinese.");
-          cameraSource.setMachineLearningFrameProcessor(
+          setFrameProcessor(
               new TextRecognitionProcessor(
                   this, new ChineseTextRecognizerOptions.Builder().build()));
           break;
         case TEXT_RECOGNITION_DEVANAGARI:
           Log.i(TAG, "Using on-device Text recognition Processor for Latin and Devanagari.");
-          cameraSource.setMachineLearningFrameProcessor(
+          setFrameProcessor(
               new TextRecognitionProcessor(
                   this, new DevanagariTextRecognizerOptions.Builder().build()));
           break;
         case TEXT_RECOGNITION_JAPANESE:
           Log.i(TAG, "Using on-device Text recognition Processor for Latin and Japanese.");
-          cameraSource.setMachineLearningFrameProcessor(
+          setFrameProcessor(
               new TextRecognitionProcessor(
                   this, new JapaneseTextRecognizerOptions.Builder().build()));
           break;
         case TEXT_RECOGNITION_KOREAN:
           Log.i(TAG, "Using on-device Text recognition Processor for Latin and Korean.");
-          cameraSource.setMachineLearningFrameProcessor(
+          setFrameProcessor(
               new TextRecognitionProcessor(
                   this, new KoreanTextRecognizerOptions.Builder().build()));
           break;
         case FACE_DETECTION:
           Log.i(TAG, "Using Face Detector Processor");
-          cameraSource.setMachineLearningFrameProcessor(new FaceDetectorProcessor(this));
+          setFrameProcessor(new FaceDetectorProcessor(this));
           break;
         case BARCODE_SCANNING:
           Log.i(TAG, "Using Barcode Detector Processor");
-          cameraSource.setMachineLearningFrameProcessor(new BarcodeScannerProcessor(this));
+          setFrameProcessor(new BarcodeScannerProcessor(this));
           break;
         case IMAGE_LABELING:
           Log.i(TAG, "Using Image Label Detector Processor");
-          cameraSource.setMachineLearningFrameProcessor(
-              new LabelDetectorProcessor(this, ImageLabelerOptions.DEFAULT_OPTIONS));
+          setFrameProcessor(new LabelDetectorProcessor(this, ImageLabelerOptions.DEFAULT_OPTIONS));
           break;
         case IMAGE_LABELING_CUSTOM:
           Log.i(TAG, "Using Custom Image Label Detector Processor");
@@ -262,8 +279,7 @@ public final class LivePreviewActivity extends AppCompatActivity
                   .build();
           CustomImageLabelerOptions customImageLabelerOptions =
               new CustomImageLabelerOptions.Builder(localClassifier).build();
-          cameraSource.setMachineLearningFrameProcessor(
-              new LabelDetectorProcessor(this, customImageLabelerOptions));
+          setFrameProcessor(new LabelDetectorProcessor(this, customImageLabelerOptions));
           break;
         case CUSTOM_AUTOML_LABELING:
           Log.i(TAG, "Using Custom AutoML Image Label Detector Processor");
@@ -273,8 +289,7 @@ public final class LivePreviewActivity extends AppCompatActivity
               new CustomImageLabelerOptions.Builder(customAutoMLLabelLocalModel)
                   .setConfidenceThreshold(0)
                   .build();
-          cameraSource.setMachineLearningFrameProcessor(
-              new LabelDetectorProcessor(this, customAutoMLLabelOptions));
+          setFrameProcessor(new LabelDetectorProcessor(this, customAutoMLLabelOptions));
           break;
         case POSE_DETECTION:
           PoseDetectorOptionsBase poseDetectorOptions =
@@ -285,7 +300,7 @@ public final class LivePreviewActivity extends AppCompatActivity
           boolean visualizeZ = PreferenceUtils.shouldPoseDetectionVisualizeZ(this);
           boolean rescaleZ = PreferenceUtils.shouldPoseDetectionRescaleZForVisualization(this);
           boolean runClassification = PreferenceUtils.shouldPoseDetectionRunClassification(this);
-          cameraSource.setMachineLearningFrameProcessor(
+          setFrameProcessor(
               new PoseDetectorProcessor(
                   this,
                   poseDetectorOptions,
@@ -296,10 +311,14 @@ public final class LivePreviewActivity extends AppCompatActivity
                   /* isStreamMode = true));
           break;
         case SELFIE_SEGMENTATION:
-          cameraSource.setMachineLearningFrameProcessor(new SegmenterProcessor(this));
+          setFrameProcessor(new SegmenterProcessor(this));
           break; */
         case FACE_MESH_DETECTION:
-          cameraSource.setMachineLearningFrameProcessor(new FaceMeshDetectorProcessor(this));
+          setFrameProcessor(new FaceMeshDetectorProcessor(this));
+          break;
+        case MULTI_DETECTION:
+          Log.i(TAG, "Using Multi Detector Processor");
+          setFrameProcessor(session.createMultiDetectorProcessor());
           break;
         default:
           Log.e(TAG, "Unknown model: " + model);
@@ -314,6 +333,71 @@ public final class LivePreviewActivity extends AppCompatActivity
     }
   }
 
+  private void setFrameProcessor(VisionProcessorBase<?> processor) {
+    Size previewSize = null;
+    if (PreferenceUtils.isAdaptiveResolutionEnabled(this)) {
+      if (resolutionController == null) {
+        resolutionController =
+            new AnalysisResolutionController(
+                AnalysisResolutionController.DEFAULT_RESOLUTIONS,
+                new Size(
+                    CameraSource.DEFAULT_REQUESTED_CAMERA_PREVIEW_WIDTH,
+                    CameraSource.DEFAULT_REQUESTED_CAMERA_PREVIEW_HEIGHT),
+                PreferenceUtils.getAdaptiveResolutionFrameBudgetMs(this),
+                this::onAnalysisResolutionChanged);
+      }
+      previewSize = resolutionController.getResolution();
+      processor.setDetectorLatencyListener(resolutionController::onDetectorLatency);
+    } else {
+      resolutionController = null;
+    }
+    int thermalLevel = session.getThermalLevel();
+    if (ThermalThrottlingPolicy.getMaxResolution(thermalLevel) != null) {
+      // Caps the adaptive resolution, or the one picked from the preferences.
+      Size currentPreviewSize = previewSize != null ? previewSize : cameraSource.getPreviewSize();
+      if (currentPreviewSize != null) {
+        previewSize = ThermalThrottlingPolicy.capResolution(currentPreviewSize, thermalLevel);
+      }
+    }
+    requestedPreviewSize = previewSize;
+    cameraSource.setRequestedPreviewSize(previewSize);
+    processor.setMaxFrameRate(ThermalThrottlingPolicy.getMaxFrameRate(thermalLevel));
+    cameraSource.setMachineLearningFrameProcessor(session.wrapForRecording(processor));
+  }
+
+  private void onAnalysisResolutionChanged(Size resolution) {
+    // Called on the thread delivering results, the camera is restarted on the main thread.
+    runOnUiThread(
+        () -> {
+          if (cameraSource == null
+              || resolutionController == null
+              || !resolution.equals(resolutionController.getResolution())) {
+            // Outdated, the feature or settings changed in the meantime.
+            return;
+          }
+          Size previewSize =
+              ThermalThrottlingPolicy.capResolution(resolution, session.getThermalLevel());
+          if (previewSize.equals(requestedPreviewSize)) {
+            // Capped by the thermal throttling, restarting wouldn't change anything.
+            return;
+          }
+          requestedPreviewSize = previewSize;
+          cameraSource.setRequestedPreviewSize(previewSize);
+          preview.stop();
+          startCameraSource();
+        });
+  }
+
+  private void onThermalLevelChanged(int thermalLevel) {
+    if (cameraSource == null) {
+      return;
+    }
+    // Recreates the processor, as the pose detector options may change too.
+    preview.stop();
+    createCameraSource(selectedModel);
+    startCameraSource();
+  }
+
   /**
    * Starts or restarts the camera source, if it exists. If the camera source doesn't exist yet
    * (e.g., because onResume was called before the camera source was created), this will be called
@@ -341,6 +425,7 @@ public final class LivePreviewActivity extends AppCompatActivity
   public void onResume() {
     super.onResume();
     Log.d(TAG, "onResume");
+    session.start();
     createCameraSource(selectedModel);
     startCameraSource();
   }
@@ -350,6 +435,7 @@ public final class LivePreviewActivity extends AppCompatActivity
   protected void onPause() {
     super.onPause();
     preview.stop();
+    session.stop();
   }
 
   @Override
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.google.mlkit.vision.demo.FrameRecorder;
+import com.google.mlkit.vision.demo.RecordingImageProcessor;
+import com.google.mlkit.vision.demo.RingBufferTraceSink;
+import com.google.mlkit.vision.demo.TemperatureMonitor;
+import com.google.mlkit.vision.demo.ThermalThrottlingPolicy;
+import com.google.mlkit.vision.demo.Tracer;
+import com.google.mlkit.vision.demo.VisionImageProcessor;
+import com.google.mlkit.vision.demo.java.barcodescanner.BarcodeScannerProcessor;
+import com.google.mlkit.vision.demo.java.facedetector.FaceDetectorProcessor;
+import com.google.mlkit.vision.demo.java.posedetector.PoseDetectorProcessor;
+import com.google.mlkit.vision.demo.preference.PreferenceUtils;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What the live preview activities run next to the camera while they are resumed: the thermal
+ * monitoring, frame recording and trace recording enabled in the settings.
+ *
+ * <p>{@link #start()} must be called from {@code onResume()} before the processor is created, so
+ * it is throttled and recorded from the first frame, and {@link #stop()} from {@code onPause()}.
+ * Must be used on the main thread, except for {@link #getThermalLevel()}.
+ */
+final class LivePreviewSession {
+
+  private static final String TAG = "LivePreviewSession";
+
+  private final Context context;
+  private final TemperatureMonitor.ThermalLevelListener thermalLevelListener;
+
+  @Nullable private TemperatureMonitor temperatureMonitor;
+  @Nullable private FrameRecorder frameRecorder;
+  @Nullable private RingBufferTraceSink traceSink;
+  // Also read by processor factories prewarming on a background thread.
+  private volatile int thermalLevel = TemperatureMonitor.THERMAL_LEVEL_NORMAL;
+
+  /**
+   * Creates a session for an activity.
+   *
+   * @param thermalLevelListener called on the main thread when the thermal level changes, after
+   *     {@link #getThermalLevel()} returns the new one
+   */
+  LivePreviewSession(
+      Context context, TemperatureMonitor.ThermalLevelListener thermalLevelListener) {
+    this.context = context;
+    this.thermalLevelListener = thermalLevelListener;
+  }
+
+  void start() {
+    startThermalMonitoring();
+    startFrameRecording();
+    startTraceRecording();
+  }
+
+  void stop() {
+    stopThermalMonitoring();
+    stopFrameRecording();
+    stopTraceRecording();
+  }
+
+  /** Returns the current {@link TemperatureMonitor} thermal level, normal unless throttling. */
+  int getThermalLevel() {
+    return thermalLevel;
+  }
+
+  /** Returns {@code processor}, wrapped to record the frames passed to it if recording. */
+  VisionImageProcessor wrapForRecording(VisionImageProcessor processor) {
+    return frameRecorder != null
+        ? new RecordingImageProcessor(processor, frameRecorder)
+        : processor;
+  }
+
+  /** Creates the processor running the face, pose and barcode detectors on each frame. */
+  MultiDetectorProcessor createMultiDetectorProcessor() {
+    List<VisionProcessorBase<?>> processors = new ArrayList<>();
+    processors.add(new FaceDetectorProcessor(context));
+    processors.add(
+        new PoseDetectorProcessor(
+            context,
+            PreferenceUtils.getPoseDetectorOptionsForLivePreview(
+                context, ThermalThrottlingPolicy.allowsAccuratePoseDetection(thermalLevel)),
+            PreferenceUtils.shouldShowPoseDetectionInFrameLikelihoodLivePreview(context),
+            PreferenceUtils.shouldPoseDetectionVisualizeZ(context),
+            PreferenceUtils.shouldPoseDetectionRescaleZForVisualization(context),
+            PreferenceUtils.shouldPoseDetectionRunClassification(context),
+            /* isStreamMode = */ true));
+    processors.add(new BarcodeScannerProcessor(context));
+    return new MultiDetectorProcessor(context, processors);
+  }
+
+  private void startThermalMonitoring() {
+    thermalLevel = TemperatureMonitor.THERMAL_LEVEL_NORMAL;
+    if (!PreferenceUtils.isThermalThrottlingEnabled(context)) {
+      return;
+    }
+    float warmThresholdCelsius = PreferenceUtils.getThermalThrottlingThresholdCelsius(context);
+    temperatureMonitor =
+        new TemperatureMonitor(
+            context,
+            warmThresholdCelsius,
+            warmThresholdCelsius + ThermalThrottlingPolicy.HOT_THRESHOLD_OFFSET_CELSIUS,
+            this::onThermalLevelChanged);
+  }
+
+  private void stopThermalMonitoring() {
+    if (temperatureMonitor != null) {
+      temperatureMonitor.stop();
+      temperatureMonitor = null;
+    }
+  }
+
+  private void onThermalLevelChanged(int thermalLevel) {
+    this.thermalLevel = thermalLevel;
+    thermalLevelListener.onThermalLevelChanged(thermalLevel);
+  }
+
+  private void startFrameRecording() {
+    if (!PreferenceUtils.isFrameRecordingEnabled(context)) {
+      return;
+    }
+    try {
+      frameRecorder = new FrameRecorder(FrameRecorder.newRecordingFile(context));
+      Log.i(TAG, "Recording frames to " + frameRecorder.getFile());
+    } catch (IOException e) {
+      Log.e(TAG, "Can not record frames", e);
+    }
+  }
+
+  private void stopFrameRecording() {
+    if (frameRecorder == null) {
+      return;
+    }
+    // Doesn't block, the pending frames are written on the recorder's thread.
+    frameRecorder.close();
+    frameRecorder = null;
+  }
+
+  private void startTraceRecording() {
+    if (!PreferenceUtils.isTraceRecordingEnabled(context)) {
+      return;
+    }
+    traceSink = new RingBufferTraceSink(RingBufferTraceSink.DEFAULT_CAPACITY);
+    Tracer.addSink(traceSink);
+  }
+
+  private void stopTraceRecording() {
+    if (traceSink == null) {
+      return;
+    }
+    RingBufferTraceSink sink = traceSink;
+    traceSink = null;
+    Tracer.removeSink(sink);
+    File file = RingBufferTraceSink.newTraceFile(context);
+    // Writing a full buffer takes a while, so it doesn't hold up pausing.
+    new Thread(
+            () -> {
+              try {
+                sink.writeChromeTrace(file);
+                Log.i(TAG, "Wrote trace to " + file);
+              } catch (IOException e) {
+                Log.e(TAG, "Failed to write trace", e);
+              }
+            },
+            "TraceWriter")
+        .start();
+  }
+}
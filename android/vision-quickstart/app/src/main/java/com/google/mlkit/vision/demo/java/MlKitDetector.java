@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.benchmark.Detector;
+import java.io.File;
+import java.io.IOException;
+
+/** Runs the detector of a {@link VisionProcessorBase} in the batch benchmark. */
+class MlKitDetector<T> implements Detector<InputImage> {
+
+  private final String name;
+  private final VisionProcessorBase<T> processor;
+
+  MlKitDetector(String name, VisionProcessorBase<T> processor) {
+    this.name = name;
+    this.processor = processor;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public InputImage load(File imageFile) throws IOException {
+    Bitmap bitmap = BitmapFactory.decodeFile(imageFile.getPath());
+    if (bitmap == null) {
+      throw new IOException("Can not decode image: " + imageFile);
+    }
+    return InputImage.fromBitmap(bitmap, 0);
+  }
+
+  @Override
+  public int detect(InputImage image) throws Exception {
+    // Called on the benchmark threads, so blocking on the task is fine.
+    return processor.getResultCount(Tasks.await(processor.detectInImage(image)));
+  }
+}
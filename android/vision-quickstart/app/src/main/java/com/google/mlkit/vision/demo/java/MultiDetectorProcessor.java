@@ -0,0 +1,295 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.android.odml.image.MlImage;
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.LatencyHistogram;
+import com.google.mlkit.vision.demo.PaintRegistry;
+import com.google.mlkit.vision.demo.preference.PreferenceUtils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs several detectors on the same frame.
+ *
+ * <p>The frame is converted to an {@link InputImage} or {@link MlImage} once by {@link
+ * VisionProcessorBase} and handed to all detectors at the same time, so they run concurrently on
+ * their own ML Kit threads. When all of them have finished, the results of every detector are
+ * drawn in a single overlay pass by the {@code onSuccess} of the processor that produced them. A
+ * failing detector does not prevent the others from being drawn.
+ *
+ * <p>The latency of each detector is tracked separately and shown on the overlay.
+ */
+public class MultiDetectorProcessor
+    extends VisionProcessorBase<List<MultiDetectorProcessor.DetectorResult<?>>> {
+
+  private static final String TAG = "MultiDetectorProcessor";
+  private static final long MAX_TRACKABLE_LATENCY_MS = 60_000;
+  private static final long LOG_INTERVAL_MS = 1000;
+
+  // Completes the per-detector tasks on the detector thread, so the measured latency doesn't
+  // include the time spent waiting for the main thread.
+  private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+  private final List<Detector<?>> detectors;
+  private long lastLogMs;
+
+  /** The result of one detector on one frame. */
+  public static final class DetectorResult<R> {
+    private final Detector<R> detector;
+    @Nullable private final R result;
+    @Nullable private final Exception exception;
+    private final long latencyMs;
+
+    private DetectorResult(
+        Detector<R> detector, @Nullable R result, @Nullable Exception exception, long latencyMs) {
+      this.detector = detector;
+      this.result = result;
+      this.exception = exception;
+      this.latencyMs = latencyMs;
+    }
+
+    public String getDetectorName() {
+      return detector.name;
+    }
+
+    /** Returns the detection result, or null if the detector failed. */
+    @Nullable
+    public R getResult() {
+      return result;
+    }
+
+    /** Returns the reason the detector failed, or null if it succeeded. */
+    @Nullable
+    public Exception getException() {
+      return exception;
+    }
+
+    /** Returns the time from handing the frame to the detector until it finished. */
+    public long getLatencyMs() {
+      return latencyMs;
+    }
+
+    private void render(GraphicOverlay graphicOverlay) {
+      detector.latencyHistogram.recordValue(latencyMs);
+      if (result != null) {
+        detector.processor.onSuccess(result, graphicOverlay);
+      } else if (exception != null) {
+        detector.processor.onFailure(exception);
+      }
+    }
+  }
+
+  /** Wraps one of the child processors together with its latency statistics. */
+  private static final class Detector<R> {
+    private final VisionProcessorBase<R> processor;
+    private final String name;
+    // Only accessed on the thread delivering results of the processor.
+    private final LatencyHistogram latencyHistogram =
+        new LatencyHistogram(MAX_TRACKABLE_LATENCY_MS);
+
+    Detector(VisionProcessorBase<R> processor) {
+      this.processor = processor;
+      this.name = processor.getClass().getSimpleName();
+    }
+
+    Task<DetectorResult<?>> detect(InputImage image) {
+      long startMs = SystemClock.elapsedRealtime();
+      return toDetectorResult(processor.detectInImage(image), startMs);
+    }
+
+    Task<DetectorResult<?>> detect(MlImage image) {
+      long startMs = SystemClock.elapsedRealtime();
+      return toDetectorResult(processor.detectInImage(image), startMs);
+    }
+
+    private Task<DetectorResult<?>> toDetectorResult(Task<R> task, long startMs) {
+      // Never fails, so that one failing detector doesn't fail the whole frame.
+      return task.continueWith(
+          DIRECT_EXECUTOR,
+          completedTask ->
+              new DetectorResult<>(
+                  this,
+                  completedTask.isSuccessful() ? completedTask.getResult() : null,
+                  completedTask.getException(),
+                  SystemClock.elapsedRealtime() - startMs));
+    }
+  }
+
+  /**
+   * Creates a processor running all the given processors on every frame. The processors are owned
+   * by this processor from now on and are stopped with it.
+   */
+  public MultiDetectorProcessor(Context context, List<VisionProcessorBase<?>> processors) {
+    super(context);
+    Preconditions.checkArgument(!processors.isEmpty(), "At least one processor is required");
+    List<Detector<?>> detectors = new ArrayList<>(processors.size());
+    for (VisionProcessorBase<?> processor : processors) {
+      detectors.add(createDetector(processor));
+    }
+    this.detectors = Collections.unmodifiableList(detectors);
+  }
+
+  private static <R> Detector<R> createDetector(VisionProcessorBase<R> processor) {
+    return new Detector<>(processor);
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    for (Detector<?> detector : detectors) {
+      detector.processor.stop();
+    }
+  }
+
+  /** Returns the names of the detectors, in the order their latencies are reported. */
+  public List<String> getDetectorNames() {
+    List<String> names = new ArrayList<>(detectors.size());
+    for (Detector<?> detector : detectors) {
+      names.add(detector.name);
+    }
+    return names;
+  }
+
+  /**
+   * Returns the latency histogram of the detector at {@code index}. Must only be accessed on the
+   * thread delivering results, see {@link #getFrameLatencyHistogram()}.
+   */
+  public LatencyHistogram getDetectorLatencyHistogram(int index) {
+    return detectors.get(index).latencyHistogram;
+  }
+
+  @Override
+  protected Task<List<DetectorResult<?>>> detectInImage(InputImage image) {
+    List<Task<DetectorResult<?>>> tasks = new ArrayList<>(detectors.size());
+    for (Detector<?> detector : detectors) {
+      tasks.add(detector.detect(image));
+    }
+    return Tasks.whenAllSuccess(tasks);
+  }
+
+  @Override
+  protected Task<List<DetectorResult<?>>> detectInImage(MlImage image) {
+    List<Task<DetectorResult<?>>> tasks = new ArrayList<>(detectors.size());
+    for (Detector<?> detector : detectors) {
+      tasks.add(detector.detect(image));
+    }
+    return Tasks.whenAllSuccess(tasks);
+  }
+
+  @Override
+  protected void onSuccess(
+      @NonNull List<DetectorResult<?>> results, @NonNull GraphicOverlay graphicOverlay) {
+    for (DetectorResult<?> result : results) {
+      result.render(graphicOverlay);
+    }
+    if (!PreferenceUtils.shouldHideDetectionInfo(graphicOverlay.getContext())) {
+      graphicOverlay.add(new DetectorLatencyGraphic(graphicOverlay, results));
+    }
+
+    long nowMs = SystemClock.elapsedRealtime();
+    if (nowMs - lastLogMs >= LOG_INTERVAL_MS) {
+      lastLogMs = nowMs;
+      for (Detector<?> detector : detectors) {
+        Log.d(
+            TAG,
+            detector.name
+                + " latency: p50="
+                + detector.latencyHistogram.getValueAtPercentile(50)
+                + ", p99="
+                + detector.latencyHistogram.getValueAtPercentile(99)
+                + ", max="
+                + detector.latencyHistogram.getMaxValue());
+      }
+    }
+  }
+
+  @Override
+  protected void onFailure(@NonNull Exception e) {
+    Log.e(TAG, "Multi detection failed " + e);
+  }
+
+  @Override
+  protected boolean isMlImageEnabled(Context context) {
+    // MlImage can only be used if every detector supports it, otherwise all get an InputImage.
+    for (Detector<?> detector : detectors) {
+      if (!detector.processor.isMlImageEnabled(context)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Draws the latency of each detector on the current frame at the bottom of the overlay. */
+  private static class DetectorLatencyGraphic extends GraphicOverlay.Graphic {
+    private static final float TEXT_SIZE = 40.0f;
+
+    private final Paint textPaint;
+    private final String[] lines;
+
+    DetectorLatencyGraphic(GraphicOverlay overlay, List<DetectorResult<?>> results) {
+      super(overlay);
+      lines = new String[results.size()];
+      for (int i = 0; i < results.size(); i++) {
+        DetectorResult<?> result = results.get(i);
+        lines[i] =
+            result.getDetectorName()
+                + ": "
+                + result.getLatencyMs()
+                + " ms"
+                + (result.getException() != null ? " (failed)" : "");
+      }
+      textPaint = overlay.getPaintRegistry().get(Paints.class, Paints::new).textPaint;
+    }
+
+    /** The paints of the latency graphics, created once per overlay. */
+    private static final class Paints {
+      final Paint textPaint;
+
+      Paints(PaintRegistry registry) {
+        textPaint =
+            registry.getShadowedTextPaint(
+                Color.WHITE, TEXT_SIZE, /* shadowRadius= */ 5.0f, Color.BLACK);
+      }
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+      float x = TEXT_SIZE * 0.5f;
+      float y = canvas.getHeight() - TEXT_SIZE * (lines.length - 0.5f);
+      for (String line : lines) {
+        canvas.drawText(line, x, y, textPaint);
+        y += TEXT_SIZE;
+      }
+    }
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.demo.LatencyHistogram;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the most recently used processors alive, so switching between features doesn't load and
+ * initialize their models again.
+ *
+ * <p>Processors are keyed by the feature name plus the values of the preferences it is created
+ * with, as listed by the {@link OptionKeys}. Changing one of these settings therefore creates a new
+ * processor, while the outdated one ages out of the cache. Other settings don't affect the cached
+ * processors. State the factory depends on besides the preferences, such as the thermal level,
+ * must be passed in as the {@link #setVariant variant}.
+ *
+ * <p>The cache counts how often each feature is used and can prewarm the most used ones on a
+ * background thread. Processors that are not in use are released on memory pressure, see {@link
+ * #onTrimMemory(int)}. The time from switching to a processor until its first result is logged
+ * separately for cold (newly created) and warm (cached) processors.
+ *
+ * <p>Should be owned by an activity and {@link #clear() cleared} when it is destroyed, as the
+ * processors hold on to its context.
+ */
+public final class ProcessorCache {
+
+  private static final String TAG = "ProcessorCache";
+  private static final long MAX_TRACKABLE_STARTUP_MS = 60_000;
+
+  /** Creates the processor for a feature on a cache miss. */
+  public interface Factory {
+    VisionProcessorBase<?> create(String feature) throws Exception;
+  }
+
+  /** Lists the preferences the processor for a feature is created with. */
+  public interface OptionKeys {
+    /** Returns the resource ids of the keys of the preferences {@code feature} is created with. */
+    int[] get(String feature);
+  }
+
+  // Creates the prewarmed processors, so loading their models doesn't hold up the UI thread.
+  private static final Executor prewarmExecutor =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "ProcessorCache#prewarm");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private final Context context;
+  private final int maxSize;
+  private final Factory factory;
+  private final OptionKeys optionKeys;
+
+  // In access order, the eldest entry is the least recently used.
+  @GuardedBy("this")
+  private final LinkedHashMap<List<Object>, VisionProcessorBase<?>> processors =
+      new LinkedHashMap<>(
+          /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+
+  @GuardedBy("this")
+  private final Map<String, Integer> useCounts = new HashMap<>();
+
+  @GuardedBy("this")
+  @Nullable
+  private VisionProcessorBase<?> activeProcessor;
+
+  @GuardedBy("this")
+  @Nullable
+  private Object variant;
+
+  // Keys of the processors being prewarmed, so they aren't created twice.
+  @GuardedBy("this")
+  private final Set<List<Object>> prewarmingKeys = new HashSet<>();
+
+  // Incremented by clear(), processors prewarmed for an earlier generation are dropped.
+  @GuardedBy("this")
+  private int generation;
+
+  @GuardedBy("this")
+  private final LatencyHistogram coldStartHistogram =
+      new LatencyHistogram(MAX_TRACKABLE_STARTUP_MS);
+
+  @GuardedBy("this")
+  private final LatencyHistogram warmStartHistogram =
+      new LatencyHistogram(MAX_TRACKABLE_STARTUP_MS);
+
+  /**
+   * Creates a cache.
+   *
+   * @param context context used to read the preferences
+   * @param maxSize maximum number of processors kept, including the one in use
+   * @param factory creates the processors on cache misses, on the UI thread for {@link #acquire}
+   *     and on a background thread for {@link #prewarmMostUsed}
+   * @param optionKeys lists the preferences each feature is created with
+   */
+  public ProcessorCache(Context context, int maxSize, Factory factory, OptionKeys optionKeys) {
+    Preconditions.checkArgument(maxSize > 0, "maxSize must be positive");
+    this.context = context;
+    this.maxSize = maxSize;
+    this.factory = factory;
+    this.optionKeys = optionKeys;
+  }
+
+  /**
+   * Returns the processor for {@code feature} with the current preferences, creating it if it is
+   * not cached. The returned processor is the one in use until the next call and must not be
+   * stopped by the caller.
+   */
+  public synchronized VisionProcessorBase<?> acquire(String feature) throws Exception {
+    long startMs = SystemClock.elapsedRealtime();
+    List<Object> key = createKey(feature);
+    VisionProcessorBase<?> processor = processors.get(key);
+    boolean isWarm = processor != null;
+    if (processor == null) {
+      processor = factory.create(feature);
+      processors.put(key, processor);
+      trimToSize(maxSize);
+    }
+    Integer useCount = useCounts.get(feature);
+    useCounts.put(feature, useCount == null ? 1 : useCount + 1);
+    activeProcessor = processor;
+
+    long creationMs = SystemClock.elapsedRealtime() - startMs;
+    processor.markActivated(startupMs -> recordStartup(feature, isWarm, creationMs, startupMs));
+    return processor;
+  }
+
+  /**
+   * Sets the app state besides the preferences that the factory takes into account. Processors
+   * created for another variant are not returned until it is set again.
+   */
+  public synchronized void setVariant(@Nullable Object variant) {
+    this.variant = variant;
+  }
+
+  /**
+   * Creates the most used features that are not cached yet on a background thread and runs their
+   * detectors once, so switching to them is warm. Prewarms at most as many features as fit next to
+   * the processors cached when called.
+   */
+  public synchronized void prewarmMostUsed() {
+    List<Map.Entry<String, Integer>> byUseCount = new ArrayList<>(useCounts.entrySet());
+    Collections.sort(byUseCount, (a, b) -> b.getValue().compareTo(a.getValue()));
+    int freeSlots = maxSize - processors.size() - prewarmingKeys.size();
+    for (Map.Entry<String, Integer> entry : byUseCount) {
+      if (freeSlots <= 0) {
+        return;
+      }
+      String feature = entry.getKey();
+      List<Object> key = createKey(feature);
+      if (processors.containsKey(key) || !prewarmingKeys.add(key)) {
+        continue;
+      }
+      freeSlots--;
+      int prewarmGeneration = generation;
+      prewarmExecutor.execute(() -> prewarm(feature, key, prewarmGeneration));
+    }
+  }
+
+  private void prewarm(String feature, List<Object> key, int prewarmGeneration) {
+    long startMs = SystemClock.elapsedRealtime();
+    VisionProcessorBase<?> processor;
+    try {
+      processor = factory.create(feature);
+    } catch (Exception e) {
+      Log.e(TAG, "Can not prewarm " + feature, e);
+      synchronized (this) {
+        prewarmingKeys.remove(key);
+      }
+      return;
+    }
+    synchronized (this) {
+      prewarmingKeys.remove(key);
+      // The cache was cleared, filled up, or the feature was acquired while this one was created.
+      if (prewarmGeneration != generation
+          || processors.size() >= maxSize
+          || processors.containsKey(key)) {
+        processor.stop();
+        return;
+      }
+      // Inserted without touching the LRU order of the processor in use.
+      processors.put(key, processor);
+    }
+    processor
+        .warmUp()
+        .addOnCompleteListener(
+            task ->
+                Log.d(
+                    TAG,
+                    "Prewarmed "
+                        + feature
+                        + " in "
+                        + (SystemClock.elapsedRealtime() - startMs)
+                        + " ms"));
+  }
+
+  /**
+   * Releases cached processors according to the {@link ComponentCallbacks2} trim level: those not
+   * in use once memory runs low or the UI is hidden, all of them once the app is in the background.
+   */
+  public synchronized void onTrimMemory(int level) {
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+      clear();
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      trimToSize(activeProcessor != null ? 1 : 0);
+    }
+  }
+
+  /** Stops and removes all processors, including the one in use. */
+  public synchronized void clear() {
+    for (VisionProcessorBase<?> processor : processors.values()) {
+      processor.stop();
+    }
+    processors.clear();
+    activeProcessor = null;
+    generation++;
+  }
+
+  public synchronized int size() {
+    return processors.size();
+  }
+
+  @GuardedBy("this")
+  private void trimToSize(int size) {
+    Iterator<VisionProcessorBase<?>> iterator = processors.values().iterator();
+    int toEvict = processors.size() - size;
+    while (toEvict > 0 && iterator.hasNext()) {
+      VisionProcessorBase<?> processor = iterator.next();
+      if (processor == activeProcessor) {
+        continue;
+      }
+      Log.d(TAG, "Evicting " + processor.getClass().getSimpleName());
+      processor.stop();
+      iterator.remove();
+      toEvict--;
+    }
+  }
+
+  @GuardedBy("this")
+  private List<Object> createKey(String feature) {
+    Map<String, ?> values = PreferenceManager.getDefaultSharedPreferences(context).getAll();
+    List<Object> key = new ArrayList<>();
+    key.add(feature);
+    key.add(variant);
+    addOptions(key, values, VisionProcessorBase.OPTION_KEYS);
+    addOptions(key, values, optionKeys.get(feature));
+    return key;
+  }
+
+  private void addOptions(List<Object> key, Map<String, ?> values, int[] keyResIds) {
+    for (int keyResId : keyResIds) {
+      // Null for preferences that were never changed, the processors use their defaults then.
+      key.add(values.get(context.getString(keyResId)));
+    }
+  }
+
+  private synchronized void recordStartup(
+      String feature, boolean isWarm, long creationMs, long startupMs) {
+    LatencyHistogram histogram = isWarm ? warmStartHistogram : coldStartHistogram;
+    histogram.recordValue(startupMs);
+    Log.d(
+        TAG,
+        feature
+            + (isWarm ? " warm" : " cold")
+            + " start: "
+            + startupMs
+            + " ms to first result ("
+            + creationMs
+            + " ms creating the processor), cold p50="
+            + coldStartHistogram.getValueAtPercentile(50)
+            + " ms, warm p50="
+            + warmStartHistogram.getValueAtPercentile(50)
+            + " ms");
+  }
+}
@@ -16,9 +16,8 @@
 
 package com.google.mlkit.vision.demo.java;
 
-import static java.lang.Math.max;
-
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
@@ -78,7 +77,7 @@ public final class StillImageActivity extends AppCompatActivity {
   private static final String OBJECT_DETECTION_CUSTOM = "Custom Object Detection";
   private static final String CUSTOM_AUTOML_OBJECT_DETECTION =
       "Custom AutoML Object Detection (Flower)";
-  private static final String FACE_DETECTION = "Face Detection";
+  static final String FACE_DETECTION = "Face Detection";
   private static final String BARCODE_SCANNING = "Barcode Scanning";
   private static final String IMAGE_LABELING = "Image Labeling";
   private static final String IMAGE_LABELING_CUSTOM = "Custom Image Labeling (Birds)";
@@ -99,6 +98,8 @@ public final class StillImageActivity extends AppCompatActivity {
 
   private static final String KEY_IMAGE_URI = "com.google.mlkit.vision.demo.KEY_IMAGE_URI";
   private static final String KEY_SELECTED_SIZE = "com.google.mlkit.vision.demo.KEY_SELECTED_SIZE";
+  // Number of processors kept alive to make switching between features fast.
+  private static final int PROCESSOR_CACHE_SIZE = 3;
 
   private static final int REQUEST_IMAGE_CAPTURE = 1001;
   private static final int REQUEST_CHOOSE_IMAGE = 1002;
@@ -114,10 +115,17 @@ public final class StillImageActivity extends AppCompatActivity {
   private int imageMaxWidth;
   private int imageMaxHeight;
   private VisionImageProcessor imageProcessor;
+  private ProcessorCache processorCache;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
+    processorCache =
+        new ProcessorCache(
+            this,
+            PROCESSOR_CACHE_SIZE,
+            mode -> createImageProcessor(this, mode),
+            StillImageActivity::getOptionKeys);
 
     setContentView(R.layout.activity_still_image);
 
@@ -191,19 +199,16 @@ public final class StillImageActivity extends AppCompatActivity {
   }
 
   @Override
-  public void onPause() {
-    super.onPause();
-    if (imageProcessor != null) {
-      imageProcessor.stop();
-    }
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    processorCache.onTrimMemory(level);
   }
 
   @Override
   public void onDestroy() {
     super.onDestroy();
-    if (imageProcessor != null) {
-      imageProcessor.stop();
-    }
+    // Also stops the processor in use. It is kept alive while paused, so resuming is warm.
+    processorCache.clear();
   }
 
   private void populateFeatureSelector() {
@@ -332,35 +337,25 @@ public final class StillImageActivity extends AppCompatActivity {
         return;
       }
 
-      Bitmap imageBitmap = BitmapUtils.getBitmapFromContentUri(getContentResolver(), imageUri);
-      if (imageBitmap == null) {
-        return;
-      }
-
-      // Clear the overlay first
-      graphicOverlay.clear();
-
       Bitmap resizedBitmap;
       if (selectedSize.equals(SIZE_ORIGINAL)) {
-        resizedBitmap = imageBitmap;
+        resizedBitmap = BitmapUtils.getBitmapFromContentUri(getContentResolver(), imageUri);
       } else {
         // Get the dimensions of the image view
         Pair<Integer, Integer> targetedSize = getTargetedWidthHeight();
 
-        // Determine how much to scale down the image
-        float scaleFactor =
-            max(
-                (float) imageBitmap.getWidth() / (float) targetedSize.first,
-                (float) imageBitmap.getHeight() / (float) targetedSize.second);
-
+        // Decode the image straight to the targeted size instead of scaling down the full image.
         resizedBitmap =
-            Bitmap.createScaledBitmap(
-                imageBitmap,
-                (int) (imageBitmap.getWidth() / scaleFactor),
-                (int) (imageBitmap.getHeight() / scaleFactor),
-                true);
+            BitmapUtils.getBitmapFromContentUri(
+                getContentResolver(), imageUri, targetedSize.first, targetedSize.second);
+      }
+      if (resizedBitmap == null) {
+        return;
       }
 
+      // Clear the overlay first
+      graphicOverlay.clear();
+
       preview.setImageBitmap(resizedBitmap);
 
       if (imageProcessor != null) {
@@ -401,133 +396,11 @@ public final class StillImageActivity extends AppCompatActivity {
   }
 
   private void createImageProcessor() {
-    if (imageProcessor != null) {
-      imageProcessor.stop();
-    }
     try {
-      switch (selectedMode) {
-        case OBJECT_DETECTION:
-          Log.i(TAG, "Using Object Detector Processor");
-          ObjectDetectorOptions objectDetectorOptions =
-              PreferenceUtils.getObjectDetectorOptionsForStillImage(this);
-          imageProcessor = new ObjectDetectorProcessor(this, objectDetectorOptions);
-          break;
-        case OBJECT_DETECTION_CUSTOM:
-          Log.i(TAG, "Using Custom Object Detector Processor");
-          LocalModel localModel =
-              new LocalModel.Builder()
-                  .setAssetFilePath("custom_models/object_labeler.tflite")
-                  .build();
-          CustomObjectDetectorOptions customObjectDetectorOptions =
-              PreferenceUtils.getCustomObjectDetectorOptionsForStillImage(this, localModel);
-          imageProcessor = new ObjectDetectorProcessor(this, customObjectDetectorOptions);
-          break;
-        case CUSTOM_AUTOML_OBJECT_DETECTION:
-          Log.i(TAG, "Using Custom AutoML Object Detector Processor");
-          LocalModel customAutoMLODTLocalModel =
-              new LocalModel.Builder().setAssetManifestFilePath("automl/manifest.json").build();
-          CustomObjectDetectorOptions customAutoMLODTOptions =
-              PreferenceUtils.getCustomObjectDetectorOptionsForStillImage(
-                  this, customAutoMLODTLocalModel);
-          imageProcessor = new ObjectDetectorProcessor(this, customAutoMLODTOptions);
-          break;
-        case FACE_DETECTION:
-          Log.i(TAG, "Using Face Detector Processor");
-          imageProcessor = new FaceDetectorProcessor(this);
-          break;
-        case BARCODE_SCANNING:
-          imageProcessor = new BarcodeScannerProcessor(this);
-          break;
-        case TEXT_RECOGNITION_LATIN:
-          if (imageProcessor != null) {
-            imageProcessor.stop();
-          }
-          imageProcessor =
-              new TextRecognitionProcessor(this, new TextRecognizerOptions.Builder().build());
-          break;
-        case TEXT_RECOGNITION_CHINESE:
-          if (imageProcessor != null) {
-            imageProcessor.stop();
-          }
-          imageProcessor =
-              new TextRecognitionProcessor(
-                  this, new ChineseTextRecognizerOptions.Builder().build());
-          break;
-        case TEXT_RECOGNITION_DEVANAGARI:
-          if (imageProcessor != null) {
-            imageProcessor.stop();
-          }
-          imageProcessor =
-              new TextRecognitionProcessor(
-                  this, new DevanagariTextRecognizerOptions.Builder().build());
-          break;
-        case TEXT_RECOGNITION_JAPANESE:
-          if (imageProcessor != null) {
-            imageProcessor.stop();
-          }
-          imageProcessor =
-              new TextRecognitionProcessor(
-                  this, new JapaneseTextRecognizerOptions.Builder().build());
-          break;
-        case TEXT_RECOGNITION_KOREAN:
-          if (imageProcessor != null) {
-            imageProcessor.stop();
-          }
-          imageProcessor =
-              new TextRecognitionProcessor(this, new KoreanTextRecognizerOptions.Builder().build());
-          break;
-        case IMAGE_LABELING:
-          imageProcessor = new LabelDetectorProcessor(this, ImageLabelerOptions.DEFAULT_OPTIONS);
-          break;
-        case IMAGE_LABELING_CUSTOM:
-          Log.i(TAG, "Using Custom Image Label Detector Processor");
-          LocalModel localClassifier =
-              new LocalModel.Builder()
-                  .setAssetFilePath("custom_models/bird_classifier.tflite")
-                  .build();
-          CustomImageLabelerOptions customImageLabelerOptions =
-              new CustomImageLabelerOptions.Builder(localClassifier).build();
-          imageProcessor = new LabelDetectorProcessor(this, customImageLabelerOptions);
-          break;
-        case CUSTOM_AUTOML_LABELING:
-          Log.i(TAG, "Using Custom AutoML Image Label Detector Processor");
-          LocalModel customAutoMLLabelLocalModel =
-              new LocalModel.Builder().setAssetManifestFilePath("automl/manifest.json").build();
-          CustomImageLabelerOptions customAutoMLLabelOptions =
-              new CustomImageLabelerOptions.Builder(customAutoMLLabelLocalModel)
-                  .setConfidenceThreshold(0)
-                  .build();
-          imageProcessor = new LabelDetectorProcessor(this, customAutoMLLabelOptions);
-          break;
-        case POSE_DETECTION:
-          PoseDetectorOptionsBase poseDetectorOptions =
-              PreferenceUtils.getPoseDetectorOptionsForStillImage(this);
-          Log.i(TAG, "Using Pose Detector with options " + poseDetectorOptions);
-          boolean shouldShowInFrameLikelihood =
-              PreferenceUtils.shouldShowPoseDetectionInFrameLikelihoodStillImage(this);
-          boolean visualizeZ = PreferenceUtils.shouldPoseDetectionVisualizeZ(this);
-          boolean rescaleZ = PreferenceUtils.shouldPoseDetectionRescaleZForVisualization(this);
-          boolean runClassification = PreferenceUtils.shouldPoseDetectionRunClassification(this);
-          imageProcessor =
-              new PoseDetectorProcessor(
-                  this,
-                  poseDetectorOptions,
-                  shouldShowInFrameLikelihood,
-                  visualizeZ,
-                  rescaleZ,
-                  runClassification,
-                  /* isStreamMode = */ false);
-          break;
-        case SELFIE_SEGMENTATION:
-          imageProcessor = new SegmenterProcessor(this, /* isStreamMode= */ false);
-          break;
-        case FACE_MESH_DETECTION:
-          imageProcessor = new FaceMeshDetectorProcessor(this);
-          break;
-        default:
-          Log.e(TAG, "Unknown selectedMode: " + selectedMode);
-      }
+      imageProcessor = processorCache.acquire(selectedMode);
+      processorCache.prewarmMostUsed();
     } catch (Exception e) {
+      imageProcessor = null;
       Log.e(TAG, "Can not create image processor: " + selectedMode, e);
       Toast.makeText(
               getApplicationContext(),
@@ -536,4 +409,120 @@ public final class StillImageActivity extends AppCompatActivity {
           .show();
     }
   }
+
+  /** Creates the processor of a feature. Also used by the {@link BatchBenchmarkActivity}. */
+  static VisionProcessorBase<?> createImageProcessor(Context context, String mode) {
+    switch (mode) {
+      case OBJECT_DETECTION:
+        Log.i(TAG, "Using Object Detector Processor");
+        ObjectDetectorOptions objectDetectorOptions =
+            PreferenceUtils.getObjectDetectorOptionsForStillImage(context);
+        return new ObjectDetectorProcessor(context, objectDetectorOptions);
+      case OBJECT_DETECTION_CUSTOM:
+        Log.i(TAG, "Using Custom Object Detector Processor");
+        LocalModel localModel =
+            new LocalModel.Builder()
+                .setAssetFilePath("custom_models/object_labeler.tflite")
+                .build();
+        CustomObjectDetectorOptions customObjectDetectorOptions =
+            PreferenceUtils.getCustomObjectDetectorOptionsForStillImage(context, localModel);
+        return new ObjectDetectorProcessor(context, customObjectDetectorOptions);
+      case CUSTOM_AUTOML_OBJECT_DETECTION:
+        Log.i(TAG, "Using Custom AutoML Object Detector Processor");
+        LocalModel customAutoMLODTLocalModel =
+            new LocalModel.Builder().setAssetManifestFilePath("automl/manifest.json").build();
+        CustomObjectDetectorOptions customAutoMLODTOptions =
+            PreferenceUtils.getCustomObjectDetectorOptionsForStillImage(
+                context, customAutoMLODTLocalModel);
+        return new ObjectDetectorProcessor(context, customAutoMLODTOptions);
+      case FACE_DETECTION:
+        Log.i(TAG, "Using Face Detector Processor");
+        return new FaceDetectorProcessor(context);
+      case BARCODE_SCANNING:
+        return new BarcodeScannerProcessor(context);
+      case TEXT_RECOGNITION_LATIN:
+        return new TextRecognitionProcessor(context, new TextRecognizerOptions.Builder().build());
+      case TEXT_RECOGNITION_CHINESE:
+        return new TextRecognitionProcessor(
+            context, new ChineseTextRecognizerOptions.Builder().build());
+      case TEXT_RECOGNITION_DEVANAGARI:
+        return new TextRecognitionProcessor(
+            context, new DevanagariTextRecognizerOptions.Builder().build());
+      case TEXT_RECOGNITION_JAPANESE:
+        return new TextRecognitionProcessor(
+            context, new JapaneseTextRecognizerOptions.Builder().build());
+      case TEXT_RECOGNITION_KOREAN:
+        return new TextRecognitionProcessor(
+            context, new KoreanTextRecognizerOptions.Builder().build());
+      case IMAGE_LABELING:
+        return new LabelDetectorProcessor(context, ImageLabelerOptions.DEFAULT_OPTIONS);
+      case IMAGE_LABELING_CUSTOM:
+        Log.i(TAG, "Using Custom Image Label Detector Processor");
+        LocalModel localClassifier =
+            new LocalModel.Builder()
+                .setAssetFilePath("custom_models/bird_classifier.tflite")
+                .build();
+        CustomImageLabelerOptions customImageLabelerOptions =
+            new CustomImageLabelerOptions.Builder(localClassifier).build();
+        return new LabelDetectorProcessor(context, customImageLabelerOptions);
+      case CUSTOM_AUTOML_LABELING:
+        Log.i(TAG, "Using Custom AutoML Image Label Detector Processor");
+        LocalModel customAutoMLLabelLocalModel =
+            new LocalModel.Builder().setAssetManifestFilePath("automl/manifest.json").build();
+        CustomImageLabelerOptions customAutoMLLabelOptions =
+            new CustomImageLabelerOptions.Builder(customAutoMLLabelLocalModel)
+                .setConfidenceThreshold(0)
+                .build();
+        return new LabelDetectorProcessor(context, customAutoMLLabelOptions);
+      case POSE_DETECTION:
+        PoseDetectorOptionsBase poseDetectorOptions =
+            PreferenceUtils.getPoseDetectorOptionsForStillImage(context);
+        Log.i(TAG, "Using Pose Detector with options " + poseDetectorOptions);
+        boolean shouldShowInFrameLikelihood =
+            PreferenceUtils.shouldShowPoseDetectionInFrameLikelihoodStillImage(context);
+        boolean visualizeZ = PreferenceUtils.shouldPoseDetectionVisualizeZ(context);
+        boolean rescaleZ = PreferenceUtils.shouldPoseDetectionRescaleZForVisualization(context);
+        boolean runClassification = PreferenceUtils.shouldPoseDetectionRunClassification(context);
+        return new PoseDetectorProcessor(
+            context,
+            poseDetectorOptions,
+            shouldShowInFrameLikelihood,
+            visualizeZ,
+            rescaleZ,
+            runClassification,
+            /* isStreamMode = */ false);
+      case SELFIE_SEGMENTATION:
+        return new SegmenterProcessor(context, /* isStreamMode= */ false);
+      case FACE_MESH_DETECTION:
+        return new FaceMeshDetectorProcessor(context);
+      default:
+        throw new IllegalStateException("Unknown selectedMode: " + mode);
+    }
+  }
+
+  /** Returns the keys of the preferences the processor of a feature is created with. */
+  private static int[] getOptionKeys(String mode) {
+    switch (mode) {
+      case OBJECT_DETECTION:
+      case OBJECT_DETECTION_CUSTOM:
+      case CUSTOM_AUTOML_OBJECT_DETECTION:
+        return PreferenceUtils.getObjectDetectorOptionKeys(/* isStreamMode= */ false);
+      case FACE_DETECTION:
+        return PreferenceUtils.getFaceDetectorOptionKeys();
+      case TEXT_RECOGNITION_LATIN:
+      case TEXT_RECOGNITION_CHINESE:
+      case TEXT_RECOGNITION_DEVANAGARI:
+      case TEXT_RECOGNITION_JAPANESE:
+      case TEXT_RECOGNITION_KOREAN:
+        return PreferenceUtils.getTextRecognitionOptionKeys();
+      case POSE_DETECTION:
+        return PreferenceUtils.getPoseDetectorOptionKeys(/* isStreamMode= */ false);
+      case SELFIE_SEGMENTATION:
+        return PreferenceUtils.getSegmenterOptionKeys();
+      case FACE_MESH_DETECTION:
+        return PreferenceUtils.getFaceMeshDetectorOptionKeys();
+      default:
+        return new int[0];
+    }
+  }
 }
@@ -16,24 +16,22 @@
 
 package com.google.mlkit.vision.demo.java;
 
-import static java.lang.Math.max;
-import static java.lang.Math.min;
-
 import android.app.ActivityManager;
 import android.app.ActivityManager.MemoryInfo;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.media.Image;
 import android.os.Build.VERSION_CODES;
 import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
-import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.camera.core.ExperimentalGetImage;
 import androidx.camera.core.ImageProxy;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.android.gms.tasks.TaskExecutors;
 import com.google.android.gms.tasks.Tasks;
 import com.google.android.odml.image.BitmapMlImageBuilder;
@@ -44,92 +42,235 @@ import com.google.mlkit.common.MlKitException;
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.demo.BitmapUtils;
 import com.google.mlkit.vision.demo.CameraImageGraphic;
+import com.google.mlkit.vision.demo.FpsMeter;
+import com.google.mlkit.vision.demo.FrameIntake;
 import com.google.mlkit.vision.demo.FrameMetadata;
+import com.google.mlkit.vision.demo.FramePipeline;
+import com.google.mlkit.vision.demo.FramePolicy;
+import com.google.mlkit.vision.demo.FramePolicy.PendingFrame;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.InferenceInfoGraphic;
+import com.google.mlkit.vision.demo.LatencyHistogram;
+import com.google.mlkit.vision.demo.MotionDetector;
+import com.google.mlkit.vision.demo.PreviewBufferPool;
+import com.google.mlkit.vision.demo.R;
 import com.google.mlkit.vision.demo.ScopedExecutor;
 import com.google.mlkit.vision.demo.TemperatureMonitor;
+import com.google.mlkit.vision.demo.Tracer;
 import com.google.mlkit.vision.demo.VisionImageProcessor;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import java.nio.ByteBuffer;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Abstract base class for vision frame processors. Subclasses need to implement {@link
  * #onSuccess(Object, GraphicOverlay)} to define what they want to with the detection results and
  * {@link #detectInImage(InputImage)} to specify the detector object.
  *
+ * <p>Rendering is opt-in: results are only drawn if frames are passed with a {@link
+ * GraphicOverlay}. Frames passed with a null overlay are processed headless, without creating any
+ * bitmaps or graphics, and their results are only delivered to the {@link ResultListener}s.
+ *
  * @param <T> The type of the detected feature.
  */
 public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
   protected static final String MANUAL_TESTING_LOG = "LogTagForTest";
   private static final String TAG = "VisionProcessorBase";
+  private static final long MAX_TRACKABLE_LATENCY_MS = 60_000;
+  private static final long STATS_LOG_INTERVAL_NANOS = 1_000_000_000L;
+  private static final double[] LOGGED_PERCENTILES = {50, 90, 99, 99.9};
+  private static final int WARM_UP_IMAGE_SIZE = 64;
+  private static final Object LOST_MOTION_REFERENCE = new Object();
+
+  // Trace section names, see Tracer.
+  private static final String TRACE_CONVERT = "VisionProcessorBase#convert";
+  private static final String TRACE_DETECT_IN_IMAGE = "VisionProcessorBase#detectInImage";
+  private static final String TRACE_DETECTOR = "VisionProcessorBase#detector";
+  private static final String TRACE_ON_SUCCESS = "VisionProcessorBase#onSuccess";
+  private static final String TRACE_POST_INVALIDATE = "VisionProcessorBase#postInvalidate";
+
+  // Preferences read by the constructor, ProcessorCache tells cached processors apart by them.
+  static final int[] OPTION_KEYS = {
+    R.string.pref_key_pipelined_processing,
+    R.string.pref_key_motion_gating,
+    R.string.pref_key_frame_policy
+  };
+
+  /** Notified of the detector latency of every frame. */
+  public interface DetectorLatencyListener {
+    void onDetectorLatency(long latencyMs);
+  }
+
+  /**
+   * Notified of the results of every successfully processed frame, whether they are rendered or
+   * not.
+   */
+  public interface ResultListener<T> {
+    void onResult(@NonNull DetectionResult<T> result);
+  }
+
+  /** Notified of the time from {@link #markActivated} to the first detection result. */
+  interface StartupListener {
+    void onFirstResult(long startupMs);
+  }
 
+  private final Context context;
   private final ActivityManager activityManager;
-  private final Timer fpsTimer = new Timer();
   private final ScopedExecutor executor;
+  // Shared by all processors, see TemperatureMonitor#acquireShared().
   private final TemperatureMonitor temperatureMonitor;
+  // Set if live preview frames are processed on the pipeline stages instead of the main thread.
+  @Nullable private final FramePipeline pipeline;
+  // Set if the detector is skipped for live preview frames that barely changed. Frames reach it on
+  // the thread receiving them, on the main thread for Camera1 frames taken once a detection
+  // completed, or on the convert stage thread when pipelined, so it is guarded by itself.
+  @Nullable private final MotionDetector motionDetector;
 
   // Whether this processor is already shut down
-  private boolean isShutdown;
-
-  // Used to calculate latency, running in the same thread, no sync needed.
-  private int numRuns = 0;
-  private long totalFrameMs = 0;
-  private long maxFrameMs = 0;
-  private long minFrameMs = Long.MAX_VALUE;
-  private long totalDetectorMs = 0;
-  private long maxDetectorMs = 0;
-  private long minDetectorMs = Long.MAX_VALUE;
-
-  // Frame count that have been processed so far in an one second interval to calculate FPS.
-  private int frameProcessedInOneSecondInterval = 0;
-  private int framesPerSecond = 0;
-
-  // To keep the latest images and its metadata.
-  @GuardedBy("this")
-  private ByteBuffer latestImage;
-
-  @GuardedBy("this")
-  private FrameMetadata latestImageMetaData;
-  // To keep the images and metadata in process.
-  @GuardedBy("this")
-  private ByteBuffer processingImage;
-
-  @GuardedBy("this")
-  private FrameMetadata processingMetaData;
+  private volatile boolean isShutdown;
+
+  // Used to calculate latency, recorded on the thread delivering results (the main thread, or the
+  // post-process stage thread when pipelined) and reset by stop() on the main thread. Each one is
+  // guarded by itself, which is only held to record, look up or reset values.
+  private final LatencyHistogram frameLatencyHistogram =
+      new LatencyHistogram(MAX_TRACKABLE_LATENCY_MS);
+  private final LatencyHistogram detectorLatencyHistogram =
+      new LatencyHistogram(MAX_TRACKABLE_LATENCY_MS);
+  private final LatencyHistogram renderLatencyHistogram =
+      new LatencyHistogram(MAX_TRACKABLE_LATENCY_MS);
+  // Arrays for the percentiles shown by the inference info graphics, reused across frames.
+  private final InferenceInfoGraphic.PercentilesPool percentilesPool =
+      new InferenceInfoGraphic.PercentilesPool();
+  private final long[] percentileValues = new long[LOGGED_PERCENTILES.length];
+
+  // Calculates FPS from frame completion timestamps, used and guarded like the histograms above.
+  private final FpsMeter fpsMeter = new FpsMeter();
+  private long lastStatsLogNanos;
+  private long lastDetectorLatencyMs;
+  private long reusedFrameCount;
+
+  // The results shown again for frames that barely changed, see getReusableResults().
+  @Nullable private volatile T lastResults;
+  // The pipelined frame that became the motion reference until its results are published, or
+  // LOST_MOTION_REFERENCE if it was dropped or failed before. The last results are older than the
+  // reference meanwhile, so they must not be reused.
+  private final AtomicReference<Object> pendingMotionReference = new AtomicReference<>();
+
+  // Decides which of the Camera1 frames received while the detector is busy get processed next.
+  private final FrameIntake frameIntake;
+
+  // Frames arriving sooner than this after the last analyzed one are skipped, 0 to analyze all.
+  private volatile long minFrameIntervalNanos;
+  // Only accessed on the thread delivering camera frames.
+  private long lastAnalyzedFrameNanos;
+
+  @Nullable private volatile DetectorLatencyListener detectorLatencyListener;
+  private final List<ResultListener<? super T>> resultListeners = new CopyOnWriteArrayList<>();
+
+  // Reports the startup time of the processor once, see markActivated().
+  @Nullable private volatile StartupListener startupListener;
+  private long activatedAtMs;
 
   protected VisionProcessorBase(Context context) {
+    this.context = context.getApplicationContext();
     activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
     executor = new ScopedExecutor(TaskExecutors.MAIN_THREAD);
-    fpsTimer.scheduleAtFixedRate(
-        new TimerTask() {
-          @Override
-          public void run() {
-            framesPerSecond = frameProcessedInOneSecondInterval;
-            frameProcessedInOneSecondInterval = 0;
-          }
-        },
-        /* delay= */ 0,
-        /* period= */ 1000);
-    temperatureMonitor = new TemperatureMonitor(context);
+    temperatureMonitor = TemperatureMonitor.acquireShared(context);
+    pipeline =
+        PreferenceUtils.isPipelinedProcessingEnabled(context) ? FramePipeline.getInstance() : null;
+    motionDetector = PreferenceUtils.isMotionGatingEnabled(context) ? new MotionDetector() : null;
+    frameIntake =
+        new FrameIntake(
+            PreferenceUtils.getFramePolicy(context),
+            pipeline != null ? FramePipeline.MAX_FRAMES_IN_FLIGHT : 1,
+            executor);
+  }
+
+  /**
+   * Sets the policy deciding which Camera1 frames are processed while the detector is busy with a
+   * previous one. Frames pending in the previous policy are discarded. Defaults to the policy
+   * picked in the settings, see {@link PreferenceUtils#getFramePolicy}.
+   */
+  public void setFramePolicy(@NonNull FramePolicy framePolicy) {
+    frameIntake.setFramePolicy(framePolicy);
+  }
+
+  /** Returns the number of Camera1 frames dropped by the current {@link FramePolicy}. */
+  public long getDroppedFrameCount() {
+    return frameIntake.getDroppedFrameCount();
+  }
+
+  /**
+   * Limits the number of live preview frames analyzed per second, skipping the ones arriving in
+   * between. Pass 0 to analyze all frames.
+   */
+  public void setMaxFrameRate(float maxFramesPerSecond) {
+    minFrameIntervalNanos =
+        maxFramesPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / maxFramesPerSecond) : 0;
+  }
+
+  /**
+   * Sets a listener called with the detector latency of every successfully processed frame, on the
+   * thread delivering results.
+   */
+  public void setDetectorLatencyListener(@Nullable DetectorLatencyListener listener) {
+    detectorLatencyListener = listener;
+  }
+
+  /**
+   * Adds a listener called with the results of every successfully processed frame, on the thread
+   * delivering results. All listeners get the same {@link DetectionResult} instance.
+   */
+  public void addResultListener(@NonNull ResultListener<? super T> listener) {
+    resultListeners.add(listener);
+  }
+
+  /** Removes a listener added with {@link #addResultListener}. */
+  public void removeResultListener(@NonNull ResultListener<? super T> listener) {
+    resultListeners.remove(listener);
+  }
+
+  /**
+   * Marks the processor as the one in use from now on. {@code listener} is called with the time
+   * until the next detection result, on the thread delivering results.
+   */
+  void markActivated(StartupListener listener) {
+    activatedAtMs = SystemClock.elapsedRealtime();
+    startupListener = listener;
+    // Results from the previous activation don't match the new scene.
+    lastResults = null;
+  }
+
+  /**
+   * Runs the detector once on a blank image without drawing anything, so the model is loaded and
+   * initialized before the first real frame arrives.
+   */
+  Task<T> warmUp() {
+    Bitmap blankImage =
+        Bitmap.createBitmap(WARM_UP_IMAGE_SIZE, WARM_UP_IMAGE_SIZE, Bitmap.Config.ARGB_8888);
+    return detectInImage(InputImage.fromBitmap(blankImage, 0));
   }
 
   // -----------------Code for processing single still image----------------------------------------
   @Override
-  public void processBitmap(Bitmap bitmap, final GraphicOverlay graphicOverlay) {
+  public void processBitmap(Bitmap bitmap, @Nullable final GraphicOverlay graphicOverlay) {
     long frameStartMs = SystemClock.elapsedRealtime();
 
-    if (isMlImageEnabled(graphicOverlay.getContext())) {
+    if (isMlImageEnabled(context)) {
       MlImage mlImage = new BitmapMlImageBuilder(bitmap).build();
       requestDetectInImage(
           mlImage,
           graphicOverlay,
           /* originalCameraImage= */ null,
           /* shouldShowFps= */ false,
-          frameStartMs);
+          frameStartMs,
+          /* captureTimestampNanos= */ 0);
       mlImage.close();
 
       return;
@@ -140,42 +281,69 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
         graphicOverlay,
         /* originalCameraImage= */ null,
         /* shouldShowFps= */ false,
-        frameStartMs);
+        frameStartMs,
+        /* captureTimestampNanos= */ 0);
   }
 
   // -----------------Code for processing live preview frame from Camera1 API-----------------------
   @Override
-  public synchronized void processByteBuffer(
-      ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
-    latestImage = data;
-    latestImageMetaData = frameMetadata;
-    if (processingImage == null && processingMetaData == null) {
-      processLatestImage(graphicOverlay);
+  public void processByteBuffer(
+      ByteBuffer data,
+      final FrameMetadata frameMetadata,
+      @Nullable PreviewBufferPool bufferPool,
+      @Nullable final GraphicOverlay graphicOverlay) {
+    if (shouldSkipFrame()) {
+      return;
     }
+    // Retains the frame while it's pending, the camera must not overwrite it before it's processed.
+    frameIntake.offer(
+        data, frameMetadata, bufferPool, frame -> processImage(frame, graphicOverlay));
   }
 
-  private synchronized void processLatestImage(final GraphicOverlay graphicOverlay) {
-    processingImage = latestImage;
-    processingMetaData = latestImageMetaData;
-    latestImage = null;
-    latestImageMetaData = null;
-    if (processingImage != null && processingMetaData != null && !isShutdown) {
-      processImage(processingImage, processingMetaData, graphicOverlay);
+  /**
+   * Processes a frame taken from the policy and releases it once the detector is done with it.
+   * Returns a task completing once the frame is done with, also if the detection failed.
+   */
+  private Task<?> processImage(
+      final PendingFrame frame, @Nullable final GraphicOverlay graphicOverlay) {
+    if (pipeline != null) {
+      ByteBufferFrame pipelinedFrame = new ByteBufferFrame(frame, graphicOverlay);
+      pipelinedFrame.start();
+      return pipelinedFrame.getReleasedTask();
     }
-  }
-
-  private void processImage(
-      ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
+    ByteBuffer data = frame.data;
+    FrameMetadata frameMetadata = frame.metadata;
     long frameStartMs = SystemClock.elapsedRealtime();
+    // Read before the frame is released, the metadata is reused for the next frame in the buffer.
+    long captureTimestampNanos = frameMetadata.getTimestampNanos();
 
-    // If live viewport is on (that is the underneath surface view takes care of the camera preview
-    // drawing), skip the unnecessary bitmap creation that used for the manual preview drawing.
     Bitmap bitmap =
-        PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())
-            ? null
-            : BitmapUtils.getBitmap(data, frameMetadata);
+        shouldDrawCameraImage(graphicOverlay)
+            ? getTracedBitmap(data, frameMetadata, graphicOverlay)
+            : null;
+
+    T reusableResults =
+        getReusableResults(
+            data,
+            frameMetadata.getWidth(),
+            frameMetadata.getHeight(),
+            /* rowStride= */ frameMetadata.getWidth(),
+            /* pixelStride= */ 1,
+            /* frame= */ null);
+    if (reusableResults != null) {
+      // The frame was already drawn into the bitmap and compared, the camera can have it back.
+      frame.release();
+      TaskCompletionSource<Void> shown = new TaskCompletionSource<>();
+      executor.execute(
+          () -> {
+            showReusedResults(
+                reusableResults, graphicOverlay, bitmap, frameStartMs, captureTimestampNanos);
+            shown.setResult(null);
+          });
+      return shown.getTask();
+    }
 
-    if (isMlImageEnabled(graphicOverlay.getContext())) {
+    if (isMlImageEnabled(context)) {
       MlImage mlImage =
           new ByteBufferMlImageBuilder(
                   data,
@@ -185,15 +353,24 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
               .setRotation(frameMetadata.getRotation())
               .build();
 
-      requestDetectInImage(mlImage, graphicOverlay, bitmap, /* shouldShowFps= */ true, frameStartMs)
-          .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
+      Task<T> task =
+          requestDetectInImage(
+                  mlImage,
+                  graphicOverlay,
+                  bitmap,
+                  /* shouldShowFps= */ true,
+                  frameStartMs,
+                  captureTimestampNanos)
+              // Not on the scoped executor, the frame must go back to the camera even if this
+              // processor was stopped in the meantime.
+              .addOnCompleteListener(completedTask -> frame.release());
 
       // This is optional. Java Garbage collection can also close it eventually.
       mlImage.close();
-      return;
+      return task;
     }
 
-    requestDetectInImage(
+    return requestDetectInImage(
             InputImage.fromByteBuffer(
                 data,
                 frameMetadata.getWidth(),
@@ -203,27 +380,81 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             graphicOverlay,
             bitmap,
             /* shouldShowFps= */ true,
-            frameStartMs)
-        .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
+            frameStartMs,
+            captureTimestampNanos)
+        .addOnCompleteListener(task -> frame.release());
+  }
+
+  private static Bitmap getTracedBitmap(
+      ByteBuffer data, FrameMetadata frameMetadata, GraphicOverlay graphicOverlay) {
+    Tracer.beginSection(TRACE_CONVERT);
+    try {
+      return BitmapUtils.getBitmap(data, frameMetadata, graphicOverlay.getBitmapPool());
+    } finally {
+      Tracer.endSection();
+    }
+  }
+
+  /**
+   * Returns whether the camera frame has to be converted into a bitmap drawn under the graphics.
+   * If live viewport is on (that is the underneath surface view takes care of the camera preview
+   * drawing), or nothing is rendered, the bitmap creation is skipped.
+   */
+  private boolean shouldDrawCameraImage(@Nullable GraphicOverlay graphicOverlay) {
+    return graphicOverlay != null && !PreferenceUtils.isCameraLiveViewportEnabled(context);
+  }
+
+  private boolean shouldSkipFrame() {
+    long intervalNanos = minFrameIntervalNanos;
+    if (intervalNanos == 0) {
+      return false;
+    }
+    long nowNanos = SystemClock.elapsedRealtimeNanos();
+    if (nowNanos - lastAnalyzedFrameNanos < intervalNanos) {
+      return true;
+    }
+    lastAnalyzedFrameNanos = nowNanos;
+    return false;
   }
 
   // -----------------Code for processing live preview frame from CameraX API-----------------------
   @Override
   @RequiresApi(VERSION_CODES.LOLLIPOP)
   @ExperimentalGetImage
-  public void processImageProxy(ImageProxy image, GraphicOverlay graphicOverlay) {
+  public void processImageProxy(
+      ImageProxy image, boolean isTimestampRealtime, @Nullable GraphicOverlay graphicOverlay) {
     long frameStartMs = SystemClock.elapsedRealtime();
-    if (isShutdown) {
+    long captureTimestampNanos =
+        isTimestampRealtime ? image.getImageInfo().getTimestamp() : /* unknown */ 0;
+    if (isShutdown || shouldSkipFrame()) {
       image.close();
       return;
     }
+    if (pipeline != null) {
+      new ImageProxyFrame(image, captureTimestampNanos, graphicOverlay).start();
+      return;
+    }
 
     Bitmap bitmap = null;
-    if (!PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())) {
-      bitmap = BitmapUtils.getBitmap(image);
+    if (shouldDrawCameraImage(graphicOverlay)) {
+      Tracer.beginSection(TRACE_CONVERT);
+      try {
+        bitmap = BitmapUtils.getBitmap(image, graphicOverlay.getBitmapPool());
+      } finally {
+        Tracer.endSection();
+      }
     }
 
-    if (isMlImageEnabled(graphicOverlay.getContext())) {
+    T reusableResults = getReusableResults(image, /* frame= */ null);
+    if (reusableResults != null) {
+      // Already on the main thread.
+      showReusedResults(
+          reusableResults, graphicOverlay, bitmap, frameStartMs, captureTimestampNanos);
+      image.close();
+      return;
+    }
+
+    if (isMlImageEnabled(context)) {
       MlImage mlImage =
           new MediaMlImageBuilder(image.getImage())
               .setRotation(image.getImageInfo().getRotationDegrees())
@@ -234,7 +465,8 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
               graphicOverlay,
               /* originalCameraImage= */ bitmap,
               /* shouldShowFps= */ true,
-              frameStartMs)
+              frameStartMs,
+              captureTimestampNanos)
           // When the image is from CameraX analysis use case, must call image.close() on received
           // images when finished using them. Otherwise, new images may not be received or the
           // camera may stall.
@@ -249,135 +481,878 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             graphicOverlay,
             /* originalCameraImage= */ bitmap,
             /* shouldShowFps= */ true,
-            frameStartMs)
+            frameStartMs,
+            captureTimestampNanos)
         // When the image is from CameraX analysis use case, must call image.close() on received
         // images when finished using them. Otherwise, new images may not be received or the camera
         // may stall.
         .addOnCompleteListener(results -> image.close());
   }
 
+  // -----------------Code for processing live preview frame from Camera2 API-----------------------
+  @Override
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  public void processMediaImage(
+      Image image,
+      int rotationDegrees,
+      boolean isTimestampRealtime,
+      ImageReleaser releaser,
+      @Nullable GraphicOverlay graphicOverlay) {
+    long frameStartMs = SystemClock.elapsedRealtime();
+    // Read before the image is released, it's invalid afterwards.
+    long captureTimestampNanos = isTimestampRealtime ? image.getTimestamp() : /* unknown */ 0;
+    if (isShutdown || shouldSkipFrame()) {
+      releaser.release(image);
+      return;
+    }
+    if (pipeline != null) {
+      new MediaImageFrame(image, rotationDegrees, captureTimestampNanos, releaser, graphicOverlay)
+          .start();
+      return;
+    }
+
+    Bitmap bitmap = null;
+    if (shouldDrawCameraImage(graphicOverlay)) {
+      Tracer.beginSection(TRACE_CONVERT);
+      try {
+        bitmap = BitmapUtils.getBitmap(image, rotationDegrees, graphicOverlay.getBitmapPool());
+      } finally {
+        Tracer.endSection();
+      }
+    }
+
+    T reusableResults = getReusableResults(image, /* frame= */ null);
+    if (reusableResults != null) {
+      // The image was already drawn into the bitmap and compared, the camera can have it back.
+      releaser.release(image);
+      Bitmap originalCameraImage = bitmap;
+      executor.execute(
+          () ->
+              showReusedResults(
+                  reusableResults,
+                  graphicOverlay,
+                  originalCameraImage,
+                  frameStartMs,
+                  captureTimestampNanos));
+      return;
+    }
+
+    // The image planes are handed to the detector as they are, without converting them to NV21.
+    if (isMlImageEnabled(context)) {
+      MlImage mlImage = new MediaMlImageBuilder(image).setRotation(rotationDegrees).build();
+      requestDetectInImage(
+              mlImage,
+              graphicOverlay,
+              /* originalCameraImage= */ bitmap,
+              /* shouldShowFps= */ true,
+              frameStartMs,
+              captureTimestampNanos)
+          // Not on the scoped executor, the image must go back to the camera even if this
+          // processor was stopped in the meantime.
+          .addOnCompleteListener(results -> releaser.release(image));
+      return;
+    }
+
+    requestDetectInImage(
+            InputImage.fromMediaImage(image, rotationDegrees),
+            graphicOverlay,
+            /* originalCameraImage= */ bitmap,
+            /* shouldShowFps= */ true,
+            frameStartMs,
+            captureTimestampNanos)
+        .addOnCompleteListener(results -> releaser.release(image));
+  }
+
   // -----------------Common processing logic-------------------------------------------------------
+  /**
+   * Returns the last results if the frame barely changed since the one they were detected in, or
+   * null if the frame has to go through the detector. Always null unless motion gating is enabled.
+   *
+   * <p>A pipelined {@code frame} that changed becomes the reference while the results of the frame
+   * before are still the last ones. Until its own results are published, see {@link
+   * #publishMotionReference}, the following frames go through the detector as well.
+   */
+  @Nullable
+  private T getReusableResults(
+      ByteBuffer yPlane,
+      int width,
+      int height,
+      int rowStride,
+      int pixelStride,
+      @Nullable PipelinedFrame frame) {
+    if (motionDetector == null) {
+      return null;
+    }
+    synchronized (motionDetector) {
+      Object pendingReference = pendingMotionReference.get();
+      if (pendingReference == LOST_MOTION_REFERENCE) {
+        pendingMotionReference.compareAndSet(LOST_MOTION_REFERENCE, null);
+        motionDetector.reset();
+      } else if (pendingReference != null) {
+        return null;
+      }
+      T results = lastResults;
+      if (results == null) {
+        // Nothing to show yet, the frame becomes the reference and is detected.
+        motionDetector.reset();
+      }
+      if (motionDetector.hasChanged(yPlane, width, height, rowStride, pixelStride)) {
+        if (frame != null) {
+          pendingMotionReference.set(frame);
+        }
+        return null;
+      }
+      return results;
+    }
+  }
+
+  /** Lets the frames after {@code frame} reuse its results, if it is the motion reference. */
+  private void publishMotionReference(PipelinedFrame frame) {
+    pendingMotionReference.compareAndSet(frame, null);
+  }
+
+  /**
+   * Makes the next frame the motion reference if {@code frame} is the reference, as its results
+   * won't be published.
+   */
+  private void dropMotionReference(PipelinedFrame frame) {
+    pendingMotionReference.compareAndSet(frame, LOST_MOTION_REFERENCE);
+  }
+
+  @Nullable
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  private T getReusableResults(ImageProxy image, @Nullable PipelinedFrame frame) {
+    if (motionDetector == null) {
+      return null;
+    }
+    ImageProxy.PlaneProxy yPlane = image.getPlanes()[0];
+    return getReusableResults(
+        yPlane.getBuffer(),
+        image.getWidth(),
+        image.getHeight(),
+        yPlane.getRowStride(),
+        yPlane.getPixelStride(),
+        frame);
+  }
+
+  @Nullable
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  private T getReusableResults(Image image, @Nullable PipelinedFrame frame) {
+    if (motionDetector == null) {
+      return null;
+    }
+    Image.Plane yPlane = image.getPlanes()[0];
+    return getReusableResults(
+        yPlane.getBuffer(),
+        image.getWidth(),
+        image.getHeight(),
+        yPlane.getRowStride(),
+        yPlane.getPixelStride(),
+        frame);
+  }
+
+  /** Shows the last results again for a frame the detector was skipped for. */
+  private void showReusedResults(
+      T results,
+      @Nullable GraphicOverlay graphicOverlay,
+      @Nullable Bitmap originalCameraImage,
+      long frameStartMs,
+      long captureTimestampNanos) {
+    long endMs = SystemClock.elapsedRealtime();
+    showResults(
+        results,
+        graphicOverlay,
+        originalCameraImage,
+        /* shouldShowFps= */ true,
+        frameStartMs,
+        captureTimestampNanos,
+        /* detectorStartMs= */ endMs,
+        endMs,
+        /* isReused= */ true);
+  }
+
   private Task<T> requestDetectInImage(
       final InputImage image,
-      final GraphicOverlay graphicOverlay,
+      @Nullable final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
       boolean shouldShowFps,
-      long frameStartMs) {
+      long frameStartMs,
+      long captureTimestampNanos) {
+    Task<T> task;
+    Tracer.beginSection(TRACE_DETECT_IN_IMAGE);
+    try {
+      task = detectInImage(image);
+    } finally {
+      Tracer.endSection();
+    }
     return setUpListener(
-        detectInImage(image), graphicOverlay, originalCameraImage, shouldShowFps, frameStartMs);
+        task,
+        graphicOverlay,
+        originalCameraImage,
+        shouldShowFps,
+        frameStartMs,
+        captureTimestampNanos);
   }
 
   private Task<T> requestDetectInImage(
       final MlImage image,
-      final GraphicOverlay graphicOverlay,
+      @Nullable final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
       boolean shouldShowFps,
-      long frameStartMs) {
+      long frameStartMs,
+      long captureTimestampNanos) {
+    Task<T> task;
+    Tracer.beginSection(TRACE_DETECT_IN_IMAGE);
+    try {
+      task = detectInImage(image);
+    } finally {
+      Tracer.endSection();
+    }
     return setUpListener(
-        detectInImage(image), graphicOverlay, originalCameraImage, shouldShowFps, frameStartMs);
+        task,
+        graphicOverlay,
+        originalCameraImage,
+        shouldShowFps,
+        frameStartMs,
+        captureTimestampNanos);
   }
 
   private Task<T> setUpListener(
       Task<T> task,
-      final GraphicOverlay graphicOverlay,
+      @Nullable final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
       boolean shouldShowFps,
-      long frameStartMs) {
+      long frameStartMs,
+      long captureTimestampNanos) {
     final long detectorStartMs = SystemClock.elapsedRealtime();
-    return task.addOnSuccessListener(
+    int traceCookie = Tracer.beginAsyncSection(TRACE_DETECTOR);
+    return task.addOnCompleteListener(unused -> Tracer.endAsyncSection(TRACE_DETECTOR, traceCookie))
+        .addOnSuccessListener(
             executor,
-            results -> {
-              long endMs = SystemClock.elapsedRealtime();
-              long currentFrameLatencyMs = endMs - frameStartMs;
-              long currentDetectorLatencyMs = endMs - detectorStartMs;
-              if (numRuns >= 500) {
-                resetLatencyStats();
-              }
-              numRuns++;
-              frameProcessedInOneSecondInterval++;
-              totalFrameMs += currentFrameLatencyMs;
-              maxFrameMs = max(currentFrameLatencyMs, maxFrameMs);
-              minFrameMs = min(currentFrameLatencyMs, minFrameMs);
-              totalDetectorMs += currentDetectorLatencyMs;
-              maxDetectorMs = max(currentDetectorLatencyMs, maxDetectorMs);
-              minDetectorMs = min(currentDetectorLatencyMs, minDetectorMs);
-
-              // Only log inference info once per second. When frameProcessedInOneSecondInterval is
-              // equal to 1, it means this is the first frame processed during the current second.
-              if (frameProcessedInOneSecondInterval == 1) {
-                Log.d(TAG, "Num of Runs: " + numRuns);
-                Log.d(
-                    TAG,
-                    "Frame latency: max="
-                        + maxFrameMs
-                        + ", min="
-                        + minFrameMs
-                        + ", avg="
-                        + totalFrameMs / numRuns);
-                Log.d(
-                    TAG,
-                    "Detector latency: max="
-                        + maxDetectorMs
-                        + ", min="
-                        + minDetectorMs
-                        + ", avg="
-                        + totalDetectorMs / numRuns);
-                MemoryInfo mi = new MemoryInfo();
-                activityManager.getMemoryInfo(mi);
-                long availableMegs = mi.availMem / 0x100000L;
-                Log.d(TAG, "Memory available in system: " + availableMegs + " MB");
-                temperatureMonitor.logTemperature();
-              }
-
-              graphicOverlay.clear();
-              if (originalCameraImage != null) {
-                graphicOverlay.add(new CameraImageGraphic(graphicOverlay, originalCameraImage));
-              }
-              VisionProcessorBase.this.onSuccess(results, graphicOverlay);
-              if (!PreferenceUtils.shouldHideDetectionInfo(graphicOverlay.getContext())) {
-                graphicOverlay.add(
-                    new InferenceInfoGraphic(
-                        graphicOverlay,
-                        currentFrameLatencyMs,
-                        currentDetectorLatencyMs,
-                        shouldShowFps ? framesPerSecond : null));
-              }
-              graphicOverlay.postInvalidate();
-            })
-        .addOnFailureListener(
-            executor,
-            e -> {
-              graphicOverlay.clear();
-              graphicOverlay.postInvalidate();
-              String error = "Failed to process. Error: " + e.getLocalizedMessage();
-              Toast.makeText(
-                      graphicOverlay.getContext(),
-                      error + "\nCause: " + e.getCause(),
-                      Toast.LENGTH_SHORT)
-                  .show();
-              Log.d(TAG, error);
-              e.printStackTrace();
-              VisionProcessorBase.this.onFailure(e);
-            });
+            results ->
+                showResults(
+                    results,
+                    graphicOverlay,
+                    originalCameraImage,
+                    shouldShowFps,
+                    frameStartMs,
+                    captureTimestampNanos,
+                    detectorStartMs,
+                    SystemClock.elapsedRealtime(),
+                    /* isReused= */ false))
+        .addOnFailureListener(executor, e -> onDetectionFailure(e, graphicOverlay));
+  }
+
+  /**
+   * Runs {@link #onDetectionSuccess} and shows the graphics it adds in place of the overlay's
+   * current ones, tagged with the capture time of the frame so the overlay measures the
+   * glass-to-glass latency once they are drawn. The graphics are built off the overlay and swapped
+   * in at once, so the overlay never draws a cleared or half built frame.
+   */
+  private void showResults(
+      T results,
+      @Nullable GraphicOverlay graphicOverlay,
+      @Nullable Bitmap originalCameraImage,
+      boolean shouldShowFps,
+      long frameStartMs,
+      long captureTimestampNanos,
+      long detectorStartMs,
+      long endMs,
+      boolean isReused) {
+    if (graphicOverlay == null) {
+      onDetectionSuccess(
+          results,
+          /* graphicOverlay= */ null,
+          originalCameraImage,
+          shouldShowFps,
+          frameStartMs,
+          captureTimestampNanos,
+          detectorStartMs,
+          endMs,
+          isReused);
+      return;
+    }
+    List<GraphicOverlay.Graphic> graphics;
+    graphicOverlay.startCapture();
+    try {
+      onDetectionSuccess(
+          results,
+          graphicOverlay,
+          originalCameraImage,
+          shouldShowFps,
+          frameStartMs,
+          captureTimestampNanos,
+          detectorStartMs,
+          endMs,
+          isReused);
+    } finally {
+      graphics = graphicOverlay.finishCapture();
+    }
+    Tracer.beginSection(TRACE_POST_INVALIDATE);
+    graphicOverlay.setGraphics(graphics, captureTimestampNanos);
+    Tracer.endSection();
+  }
+
+  /**
+   * Records the latency stats of a frame, delivers its results to the listeners and adds its
+   * graphics to the overlay, if any. Doesn't invalidate the overlay. If {@code isReused}, the
+   * results were detected in an earlier frame and no detector latency is recorded. {@code
+   * captureTimestampNanos} is 0 if the capture time of the frame is unknown, e.g. for still images.
+   */
+  private void onDetectionSuccess(
+      T results,
+      @Nullable GraphicOverlay graphicOverlay,
+      @Nullable Bitmap originalCameraImage,
+      boolean shouldShowFps,
+      long frameStartMs,
+      long captureTimestampNanos,
+      long detectorStartMs,
+      long endMs,
+      boolean isReused) {
+    if (isReused) {
+      reusedFrameCount++;
+    } else {
+      lastResults = results;
+      StartupListener listener = startupListener;
+      if (listener != null) {
+        startupListener = null;
+        listener.onFirstResult(endMs - activatedAtMs);
+      }
+      lastDetectorLatencyMs = endMs - detectorStartMs;
+      synchronized (detectorLatencyHistogram) {
+        detectorLatencyHistogram.recordValue(lastDetectorLatencyMs);
+      }
+      DetectorLatencyListener latencyListener = detectorLatencyListener;
+      if (latencyListener != null) {
+        latencyListener.onDetectorLatency(lastDetectorLatencyMs);
+      }
+    }
+    long currentFrameLatencyMs = endMs - frameStartMs;
+    long endNanos = SystemClock.elapsedRealtimeNanos();
+    float smoothedFps;
+    float instantaneousFps;
+    synchronized (fpsMeter) {
+      fpsMeter.onFrame(endNanos);
+      smoothedFps = fpsMeter.getSmoothedFps(endNanos);
+      instantaneousFps = fpsMeter.getInstantaneousFps();
+    }
+    long runCount;
+    synchronized (frameLatencyHistogram) {
+      frameLatencyHistogram.recordValue(currentFrameLatencyMs);
+      runCount = frameLatencyHistogram.getTotalCount();
+    }
+
+    // Only log inference info once per second.
+    if (endNanos - lastStatsLogNanos >= STATS_LOG_INTERVAL_NANOS) {
+      lastStatsLogNanos = endNanos;
+      Log.d(TAG, "Num of Runs: " + runCount);
+      Log.d(TAG, "FPS: smoothed=" + smoothedFps + ", instantaneous=" + instantaneousFps);
+      logLatency("Frame", frameLatencyHistogram);
+      logLatency("Detector", detectorLatencyHistogram);
+      logLatency("Render", renderLatencyHistogram);
+      if (graphicOverlay != null
+          && graphicOverlay.getGlassToGlassLatencyPercentiles(
+              LOGGED_PERCENTILES, percentileValues)) {
+        Log.d(
+            TAG,
+            graphicOverlay.getGlassToGlassLatencyName()
+                + " latency: p50="
+                + percentileValues[0]
+                + ", p90="
+                + percentileValues[1]
+                + ", p99="
+                + percentileValues[2]
+                + ", p99.9="
+                + percentileValues[3]);
+      }
+      Log.d(
+          TAG,
+          "Frames dropped by "
+              + frameIntake.getFramePolicyName()
+              + ": "
+              + frameIntake.getDroppedFrameCount());
+      if (motionDetector != null) {
+        Log.d(TAG, "Frames shown with reused results: " + reusedFrameCount);
+      }
+      if (pipeline != null) {
+        pipeline.logStats(TAG);
+      }
+      MemoryInfo mi = new MemoryInfo();
+      activityManager.getMemoryInfo(mi);
+      long availableMegs = mi.availMem / 0x100000L;
+      Log.d(TAG, "Memory available in system: " + availableMegs + " MB");
+      temperatureMonitor.logTemperature();
+    }
+
+    if (!resultListeners.isEmpty()) {
+      DetectionResult<T> result =
+          new DetectionResult<>(
+              results,
+              frameStartMs,
+              captureTimestampNanos,
+              isReused ? 0 : lastDetectorLatencyMs,
+              currentFrameLatencyMs,
+              isReused);
+      for (ResultListener<? super T> listener : resultListeners) {
+        listener.onResult(result);
+      }
+    }
+
+    if (graphicOverlay == null) {
+      return;
+    }
+    long renderStartMs = SystemClock.elapsedRealtime();
+    graphicOverlay.clear();
+    if (originalCameraImage != null) {
+      // The bitmap goes back to the pool once the graphic is removed from the overlay.
+      graphicOverlay.add(
+          new CameraImageGraphic(
+              graphicOverlay, originalCameraImage, graphicOverlay.getBitmapPool()));
+    }
+    Tracer.beginSection(TRACE_ON_SUCCESS);
+    try {
+      onSuccess(results, graphicOverlay);
+    } finally {
+      Tracer.endSection();
+    }
+    if (!PreferenceUtils.shouldHideDetectionInfo(context)) {
+      graphicOverlay.add(
+          new InferenceInfoGraphic(
+              graphicOverlay,
+              currentFrameLatencyMs,
+              lastDetectorLatencyMs,
+              shouldShowFps ? Math.round(smoothedFps) : null,
+              frameLatencyHistogram,
+              detectorLatencyHistogram,
+              renderLatencyHistogram,
+              percentilesPool));
+    }
+    long renderLatencyMs = SystemClock.elapsedRealtime() - renderStartMs;
+    synchronized (renderLatencyHistogram) {
+      renderLatencyHistogram.recordValue(renderLatencyMs);
+    }
+  }
+
+  /** Clears the overlay and reports the failure. Must be called on the main thread. */
+  private void onDetectionFailure(Exception e, @Nullable GraphicOverlay graphicOverlay) {
+    // The failed frame may have been the motion reference, older results would be shown for it.
+    lastResults = null;
+    if (graphicOverlay != null) {
+      graphicOverlay.clear();
+      graphicOverlay.postInvalidate();
+    }
+    String error = "Failed to process. Error: " + e.getLocalizedMessage();
+    Toast.makeText(context, error + "\nCause: " + e.getCause(), Toast.LENGTH_SHORT).show();
+    Log.d(TAG, error);
+    e.printStackTrace();
+    onFailure(e);
+  }
+
+  // -----------------Code for pipelined processing of live preview frames--------------------------
+  /**
+   * A live preview frame processed on the {@link FramePipeline} stages. Subclasses convert the
+   * camera frame into the detector input and give it back to the camera.
+   */
+  private abstract class PipelinedFrame {
+    @Nullable final GraphicOverlay graphicOverlay;
+    final long frameStartMs = SystemClock.elapsedRealtime();
+    final long captureTimestampNanos;
+    @Nullable Bitmap originalCameraImage;
+    @Nullable InputImage inputImage;
+    @Nullable MlImage mlImage;
+
+    private T results;
+    private boolean isReused;
+    private long detectorStartMs;
+    private long endMs;
+    private List<GraphicOverlay.Graphic> graphics;
+
+    PipelinedFrame(@Nullable GraphicOverlay graphicOverlay, long captureTimestampNanos) {
+      this.graphicOverlay = graphicOverlay;
+      this.captureTimestampNanos = captureTimestampNanos;
+    }
+
+    /**
+     * Sets {@link #inputImage} or {@link #mlImage}, and {@link #originalCameraImage} if the camera
+     * image is drawn, see shouldDrawCameraImage().
+     */
+    abstract void convert();
+
+    /** Gives the camera frame back once the detector is done with it. Called exactly once. */
+    abstract void release();
+
+    /** Returns the results to show again if the frame barely changed, see getReusableResults(). */
+    @Nullable
+    abstract T findReusableResults();
+
+    void start() {
+      if (!pipeline.getConvertStage().submit(this::runConvertStage)) {
+        release();
+      }
+    }
+
+    private void runConvertStage() {
+      if (isShutdown) {
+        release();
+        return;
+      }
+      Tracer.beginSection(TRACE_CONVERT);
+      try {
+        convert();
+      } catch (RuntimeException e) {
+        closeAndRelease();
+        discard();
+        throw e;
+      } finally {
+        Tracer.endSection();
+      }
+      T reusableResults = findReusableResults();
+      if (reusableResults != null) {
+        // Skips the infer stage, the scene didn't change since the last results.
+        closeAndRelease();
+        results = reusableResults;
+        isReused = true;
+        detectorStartMs = SystemClock.elapsedRealtime();
+        endMs = detectorStartMs;
+        pipeline.getPostProcessStage().submitLatest(this::runPostProcessStage, this::discard);
+        return;
+      }
+      pipeline
+          .getInferStage()
+          .submit(
+              this::runInferStage,
+              () -> {
+                closeAndRelease();
+                discard();
+              });
+    }
+
+    private void runInferStage() {
+      if (isShutdown) {
+        closeAndRelease();
+        discard();
+        return;
+      }
+      detectorStartMs = SystemClock.elapsedRealtime();
+      Tracer.beginSection(TRACE_DETECTOR);
+      try {
+        // Blocks the infer stage only, the next frame is converted in the meantime.
+        results = Tasks.await(mlImage != null ? detectInImage(mlImage) : detectInImage(inputImage));
+      } catch (ExecutionException e) {
+        discard();
+        Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        executor.execute(() -> onDetectionFailure(cause, graphicOverlay));
+        return;
+      } catch (InterruptedException e) {
+        discard();
+        Thread.currentThread().interrupt();
+        return;
+      } finally {
+        Tracer.endSection();
+        closeAndRelease();
+      }
+      endMs = SystemClock.elapsedRealtime();
+      // Newer results replace ones still waiting to be post-processed, the preview never falls
+      // behind the detector.
+      pipeline.getPostProcessStage().submitLatest(this::runPostProcessStage, this::discard);
+    }
+
+    private void runPostProcessStage() {
+      if (isShutdown) {
+        discard();
+        return;
+      }
+      if (graphicOverlay == null) {
+        // Headless, the results only go to the listeners.
+        onDetectionSuccess(
+            results,
+            /* graphicOverlay= */ null,
+            /* originalCameraImage= */ null,
+            /* shouldShowFps= */ true,
+            frameStartMs,
+            captureTimestampNanos,
+            detectorStartMs,
+            endMs,
+            isReused);
+        publishMotionReference(this);
+        return;
+      }
+      // Builds the graphics without showing them, the overlay keeps drawing the previous frame.
+      graphicOverlay.startCapture();
+      try {
+        onDetectionSuccess(
+            results,
+            graphicOverlay,
+            originalCameraImage,
+            /* shouldShowFps= */ true,
+            frameStartMs,
+            captureTimestampNanos,
+            detectorStartMs,
+            endMs,
+            isReused);
+      } finally {
+        graphics = graphicOverlay.finishCapture();
+      }
+      publishMotionReference(this);
+      // Owned by the camera image graphic from now on.
+      originalCameraImage = null;
+      pipeline.getRenderStage().submitLatest(this::runRenderStage, this::discard);
+    }
+
+    private void runRenderStage() {
+      if (isShutdown) {
+        discard();
+        return;
+      }
+      graphicOverlay.setGraphics(graphics, captureTimestampNanos);
+    }
+
+    /**
+     * Gives back what the frame holds for the overlay if it is dropped before being shown: the
+     * graphics if they were built already, otherwise the camera image bitmap to its pool. Also
+     * gives up the frame as motion reference. Only called from the stage currently owning the
+     * frame, or from the one dropping it instead.
+     */
+    private void discard() {
+      dropMotionReference(this);
+      if (graphics != null) {
+        graphicOverlay.discardGraphics(graphics);
+        graphics = null;
+      } else if (originalCameraImage != null) {
+        graphicOverlay.getBitmapPool().release(originalCameraImage);
+      }
+      originalCameraImage = null;
+    }
+
+    private void closeAndRelease() {
+      if (mlImage != null) {
+        mlImage.close();
+      }
+      release();
+    }
+  }
+
+  /** A Camera1 frame processed on the pipeline. */
+  private final class ByteBufferFrame extends PipelinedFrame {
+    private final PendingFrame frame;
+    private final ByteBuffer data;
+    private final FrameMetadata frameMetadata;
+    private final TaskCompletionSource<Void> released = new TaskCompletionSource<>();
+
+    ByteBufferFrame(PendingFrame frame, @Nullable GraphicOverlay graphicOverlay) {
+      super(graphicOverlay, frame.metadata.getTimestampNanos());
+      this.frame = frame;
+      data = frame.data;
+      frameMetadata = frame.metadata;
+    }
+
+    @Override
+    void convert() {
+      if (shouldDrawCameraImage(graphicOverlay)) {
+        originalCameraImage =
+            BitmapUtils.getBitmap(data, frameMetadata, graphicOverlay.getBitmapPool());
+      }
+      if (isMlImageEnabled(context)) {
+        mlImage =
+            new ByteBufferMlImageBuilder(
+                    data,
+                    frameMetadata.getWidth(),
+                    frameMetadata.getHeight(),
+                    MlImage.IMAGE_FORMAT_NV21)
+                .setRotation(frameMetadata.getRotation())
+                .build();
+      } else {
+        inputImage =
+            InputImage.fromByteBuffer(
+                data,
+                frameMetadata.getWidth(),
+                frameMetadata.getHeight(),
+                frameMetadata.getRotation(),
+                InputImage.IMAGE_FORMAT_NV21);
+      }
+    }
+
+    @Override
+    void release() {
+      frame.release();
+      released.setResult(null);
+    }
+
+    /** Returns a task completing once the frame was released, see {@link #release()}. */
+    Task<Void> getReleasedTask() {
+      return released.getTask();
+    }
+
+    @Override
+    @Nullable
+    T findReusableResults() {
+      return getReusableResults(
+          data,
+          frameMetadata.getWidth(),
+          frameMetadata.getHeight(),
+          /* rowStride= */ frameMetadata.getWidth(),
+          /* pixelStride= */ 1,
+          /* frame= */ this);
+    }
+  }
+
+  /** A CameraX frame processed on the pipeline. */
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  @ExperimentalGetImage
+  private final class ImageProxyFrame extends PipelinedFrame {
+    private final ImageProxy image;
+
+    ImageProxyFrame(
+        ImageProxy image, long captureTimestampNanos, @Nullable GraphicOverlay graphicOverlay) {
+      super(graphicOverlay, captureTimestampNanos);
+      this.image = image;
+    }
+
+    @Override
+    void convert() {
+      if (shouldDrawCameraImage(graphicOverlay)) {
+        originalCameraImage = BitmapUtils.getBitmap(image, graphicOverlay.getBitmapPool());
+      }
+      int rotationDegrees = image.getImageInfo().getRotationDegrees();
+      if (isMlImageEnabled(context)) {
+        mlImage = new MediaMlImageBuilder(image.getImage()).setRotation(rotationDegrees).build();
+      } else {
+        inputImage = InputImage.fromMediaImage(image.getImage(), rotationDegrees);
+      }
+    }
+
+    @Override
+    void release() {
+      // Must be closed for CameraX to deliver new images, see processImageProxy().
+      image.close();
+    }
+
+    @Override
+    @Nullable
+    T findReusableResults() {
+      return getReusableResults(image, /* frame= */ this);
+    }
+  }
+
+  /** A Camera2 frame processed on the pipeline. */
+  @RequiresApi(VERSION_CODES.LOLLIPOP)
+  private final class MediaImageFrame extends PipelinedFrame {
+    private final Image image;
+    private final int rotationDegrees;
+    private final ImageReleaser releaser;
+
+    MediaImageFrame(
+        Image image,
+        int rotationDegrees,
+        long captureTimestampNanos,
+        ImageReleaser releaser,
+        @Nullable GraphicOverlay graphicOverlay) {
+      super(graphicOverlay, captureTimestampNanos);
+      this.image = image;
+      this.rotationDegrees = rotationDegrees;
+      this.releaser = releaser;
+    }
+
+    @Override
+    void convert() {
+      if (shouldDrawCameraImage(graphicOverlay)) {
+        originalCameraImage =
+            BitmapUtils.getBitmap(image, rotationDegrees, graphicOverlay.getBitmapPool());
+      }
+      if (isMlImageEnabled(context)) {
+        mlImage = new MediaMlImageBuilder(image).setRotation(rotationDegrees).build();
+      } else {
+        inputImage = InputImage.fromMediaImage(image, rotationDegrees);
+      }
+    }
+
+    @Override
+    void release() {
+      releaser.release(image);
+    }
+
+    @Override
+    @Nullable
+    T findReusableResults() {
+      return getReusableResults(image, /* frame= */ this);
+    }
   }
 
   @Override
   public void stop() {
+    if (isShutdown) {
+      return;
+    }
     executor.shutdown();
     isShutdown = true;
+    frameIntake.close();
     resetLatencyStats();
-    fpsTimer.cancel();
-    temperatureMonitor.stop();
+    TemperatureMonitor.releaseShared();
   }
 
+  /** Resets the stats, while frames may still be delivered on another thread. */
   private void resetLatencyStats() {
-    numRuns = 0;
-    totalFrameMs = 0;
-    maxFrameMs = 0;
-    minFrameMs = Long.MAX_VALUE;
-    totalDetectorMs = 0;
-    maxDetectorMs = 0;
-    minDetectorMs = Long.MAX_VALUE;
+    synchronized (frameLatencyHistogram) {
+      frameLatencyHistogram.reset();
+    }
+    synchronized (detectorLatencyHistogram) {
+      detectorLatencyHistogram.reset();
+    }
+    synchronized (renderLatencyHistogram) {
+      renderLatencyHistogram.reset();
+    }
+    synchronized (fpsMeter) {
+      fpsMeter.reset();
+    }
+  }
+
+  private void logLatency(String name, LatencyHistogram histogram) {
+    String message;
+    synchronized (histogram) {
+      histogram.getValuesAtPercentiles(LOGGED_PERCENTILES, percentileValues);
+      message =
+          name
+              + " latency: p50="
+              + percentileValues[0]
+              + ", p90="
+              + percentileValues[1]
+              + ", p99="
+              + percentileValues[2]
+              + ", p99.9="
+              + percentileValues[3]
+              + ", max="
+              + histogram.getMaxValue()
+              + ", min="
+              + histogram.getMinValue()
+              + ", avg="
+              + histogram.getMeanValue();
+    }
+    Log.d(TAG, message);
+  }
+
+  /**
+   * Returns the histogram of latencies in ms from receiving a frame to getting its detection
+   * results. It is recorded on the thread delivering results, i.e. the main thread unless pipelined
+   * processing is enabled, and reset by {@link #stop()}, so readers must hold its lock.
+   */
+  public LatencyHistogram getFrameLatencyHistogram() {
+    return frameLatencyHistogram;
+  }
+
+  /**
+   * Returns the histogram of detector latencies in ms. Used like {@link
+   * #getFrameLatencyHistogram()}.
+   */
+  public LatencyHistogram getDetectorLatencyHistogram() {
+    return detectorLatencyHistogram;
+  }
+
+  /**
+   * Returns the histogram of latencies in ms spent on building the overlay graphics from the
+   * detection results. Used like {@link #getFrameLatencyHistogram()}.
+   */
+  public LatencyHistogram getRenderLatencyHistogram() {
+    return renderLatencyHistogram;
   }
 
   protected abstract Task<T> detectInImage(InputImage image);
@@ -396,4 +1371,12 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   protected boolean isMlImageEnabled(Context context) {
     return false;
   }
+
+  /**
+   * Returns the number of detected objects in the results, used by the batch benchmark. Subclasses
+   * whose results aren't a list override it.
+   */
+  protected int getResultCount(@NonNull T results) {
+    return results instanceof Collection ? ((Collection<?>) results).size() : 1;
+  }
 }
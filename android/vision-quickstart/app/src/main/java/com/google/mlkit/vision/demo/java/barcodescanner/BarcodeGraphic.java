@@ -26,6 +26,7 @@ import android.graphics.RectF;
 import com.google.mlkit.vision.barcode.common.Barcode;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.GraphicOverlay.Graphic;
+import com.google.mlkit.vision.demo.PaintRegistry;
 
 /** Graphic instance for rendering Barcode position and content information in an overlay view. */
 public class BarcodeGraphic extends Graphic {
@@ -45,18 +46,23 @@ public class BarcodeGraphic extends Graphic {
 
     this.barcode = barcode;
 
-    rectPaint = new Paint();
-    rectPaint.setColor(MARKER_COLOR);
-    rectPaint.setStyle(Paint.Style.STROKE);
-    rectPaint.setStrokeWidth(STROKE_WIDTH);
+    Paints paints = overlay.getPaintRegistry().get(Paints.class, Paints::new);
+    rectPaint = paints.rectPaint;
+    barcodePaint = paints.barcodePaint;
+    labelPaint = paints.labelPaint;
+  }
 
-    barcodePaint = new Paint();
-    barcodePaint.setColor(TEXT_COLOR);
-    barcodePaint.setTextSize(TEXT_SIZE);
+  /** The paints of the barcode graphics, created once per overlay. */
+  private static final class Paints {
+    final Paint rectPaint;
+    final Paint barcodePaint;
+    final Paint labelPaint;
 
-    labelPaint = new Paint();
-    labelPaint.setColor(MARKER_COLOR);
-    labelPaint.setStyle(Paint.Style.FILL);
+    Paints(PaintRegistry registry) {
+      rectPaint = registry.getStrokePaint(MARKER_COLOR, STROKE_WIDTH);
+      barcodePaint = registry.getTextPaint(TEXT_COLOR, TEXT_SIZE);
+      labelPaint = registry.getFillPaint(MARKER_COLOR);
+    }
   }
 
   /**
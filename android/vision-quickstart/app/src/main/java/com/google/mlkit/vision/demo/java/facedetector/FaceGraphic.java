@@ -22,6 +22,7 @@ import android.graphics.Paint;
 import android.graphics.PointF;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.GraphicOverlay.Graphic;
+import com.google.mlkit.vision.demo.PaintRegistry;
 import com.google.mlkit.vision.face.Face;
 import com.google.mlkit.vision.face.FaceContour;
 import com.google.mlkit.vision.face.FaceLandmark;
@@ -64,28 +65,36 @@ public class FaceGraphic extends Graphic {
     super(overlay);
 
     this.face = face;
-    final int selectedColor = Color.WHITE;
 
-    facePositionPaint = new Paint();
-    facePositionPaint.setColor(selectedColor);
+    Paints paints = overlay.getPaintRegistry().get(Paints.class, Paints::new);
+    facePositionPaint = paints.facePositionPaint;
+    idPaints = paints.idPaints;
+    boxPaints = paints.boxPaints;
+    labelPaints = paints.labelPaints;
+  }
+
+  /** The paints of the face graphics, created once per overlay. */
+  private static final class Paints {
+    final Paint facePositionPaint;
+    final Paint[] idPaints;
+    final Paint[] boxPaints;
+    final Paint[] labelPaints;
 
-    int numColors = COLORS.length;
-    idPaints = new Paint[numColors];
-    boxPaints = new Paint[numColors];
-    labelPaints = new Paint[numColors];
-    for (int i = 0; i < numColors; i++) {
-      idPaints[i] = new Paint();
-      idPaints[i].setColor(COLORS[i][0] /* text color */);
-      idPaints[i].setTextSize(ID_TEXT_SIZE);
+    Paints(PaintRegistry registry) {
+      final int selectedColor = Color.WHITE;
 
-      boxPaints[i] = new Paint();
-      boxPaints[i].setColor(COLORS[i][1] /* background color */);
-      boxPaints[i].setStyle(Paint.Style.STROKE);
-      boxPaints[i].setStrokeWidth(BOX_STROKE_WIDTH);
+      facePositionPaint = registry.getFillPaint(selectedColor);
 
-      labelPaints[i] = new Paint();
-      labelPaints[i].setColor(COLORS[i][1] /* background color */);
-      labelPaints[i].setStyle(Paint.Style.FILL);
+      int numColors = COLORS.length;
+      idPaints = new Paint[numColors];
+      boxPaints = new Paint[numColors];
+      labelPaints = new Paint[numColors];
+      for (int i = 0; i < numColors; i++) {
+        idPaints[i] = registry.getTextPaint(COLORS[i][0] /* text color */, ID_TEXT_SIZE);
+        boxPaints[i] =
+            registry.getStrokePaint(COLORS[i][1] /* background color */, BOX_STROKE_WIDTH);
+        labelPaints[i] = registry.getFillPaint(COLORS[i][1] /* background color */);
+      }
     }
   }
 
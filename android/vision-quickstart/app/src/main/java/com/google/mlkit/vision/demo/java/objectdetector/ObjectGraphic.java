@@ -22,6 +22,7 @@ import android.graphics.Paint;
 import android.graphics.RectF;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.GraphicOverlay.Graphic;
+import com.google.mlkit.vision.demo.PaintRegistry;
 import com.google.mlkit.vision.objects.DetectedObject;
 import com.google.mlkit.vision.objects.DetectedObject.Label;
 import java.util.Locale;
@@ -58,23 +59,28 @@ public class ObjectGraphic extends Graphic {
 
     this.object = object;
 
-    int numColors = COLORS.length;
-    textPaints = new Paint[numColors];
-    boxPaints = new Paint[numColors];
-    labelPaints = new Paint[numColors];
-    for (int i = 0; i < numColors; i++) {
-      textPaints[i] = new Paint();
-      textPaints[i].setColor(COLORS[i][0] /* text color */);
-      textPaints[i].setTextSize(TEXT_SIZE);
-
-      boxPaints[i] = new Paint();
-      boxPaints[i].setColor(COLORS[i][1] /* background color */);
-      boxPaints[i].setStyle(Paint.Style.STROKE);
-      boxPaints[i].setStrokeWidth(STROKE_WIDTH);
-
-      labelPaints[i] = new Paint();
-      labelPaints[i].setColor(COLORS[i][1] /* background color */);
-      labelPaints[i].setStyle(Paint.Style.FILL);
+    Paints paints = overlay.getPaintRegistry().get(Paints.class, Paints::new);
+    textPaints = paints.textPaints;
+    boxPaints = paints.boxPaints;
+    labelPaints = paints.labelPaints;
+  }
+
+  /** The paints of the object graphics, created once per overlay. */
+  private static final class Paints {
+    final Paint[] boxPaints;
+    final Paint[] textPaints;
+    final Paint[] labelPaints;
+
+    Paints(PaintRegistry registry) {
+      int numColors = COLORS.length;
+      textPaints = new Paint[numColors];
+      boxPaints = new Paint[numColors];
+      labelPaints = new Paint[numColors];
+      for (int i = 0; i < numColors; i++) {
+        textPaints[i] = registry.getTextPaint(COLORS[i][0] /* text color */, TEXT_SIZE);
+        boxPaints[i] = registry.getStrokePaint(COLORS[i][1] /* background color */, STROKE_WIDTH);
+        labelPaints[i] = registry.getFillPaint(COLORS[i][1] /* background color */);
+      }
     }
   }
 
@@ -151,6 +151,11 @@ public class PoseDetectorProcessor
     Log.e(TAG, "Pose detection failed!", e);
   }
 
+  @Override
+  protected int getResultCount(@NonNull PoseWithClassification poseWithClassification) {
+    return poseWithClassification.pose.getAllPoseLandmarks().isEmpty() ? 0 : 1;
+  }
+
   @Override
   protected boolean isMlImageEnabled(Context context) {
     // Use MlImage in Pose Detection by default, change it to OFF to switch to InputImage.
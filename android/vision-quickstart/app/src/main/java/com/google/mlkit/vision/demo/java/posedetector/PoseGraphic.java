@@ -25,6 +25,7 @@ import android.graphics.Paint;
 import com.google.mlkit.vision.common.PointF3D;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.GraphicOverlay.Graphic;
+import com.google.mlkit.vision.demo.PaintRegistry;
 import com.google.mlkit.vision.pose.Pose;
 import com.google.mlkit.vision.pose.PoseLandmark;
 import java.util.List;
@@ -50,6 +51,7 @@ public class PoseGraphic extends Graphic {
   private final Paint leftPaint;
   private final Paint rightPaint;
   private final Paint whitePaint;
+  private final Paint zPaint;
 
   PoseGraphic(
       GraphicOverlay overlay,
@@ -65,21 +67,39 @@ public class PoseGraphic extends Graphic {
     this.rescaleZForVisualization = rescaleZForVisualization;
 
     this.poseClassification = poseClassification;
-    classificationTextPaint = new Paint();
-    classificationTextPaint.setColor(Color.WHITE);
-    classificationTextPaint.setTextSize(POSE_CLASSIFICATION_TEXT_SIZE);
-    classificationTextPaint.setShadowLayer(5.0f, 0f, 0f, Color.BLACK);
-
-    whitePaint = new Paint();
-    whitePaint.setStrokeWidth(STROKE_WIDTH);
-    whitePaint.setColor(Color.WHITE);
-    whitePaint.setTextSize(IN_FRAME_LIKELIHOOD_TEXT_SIZE);
-    leftPaint = new Paint();
-    leftPaint.setStrokeWidth(STROKE_WIDTH);
-    leftPaint.setColor(Color.GREEN);
-    rightPaint = new Paint();
-    rightPaint.setStrokeWidth(STROKE_WIDTH);
-    rightPaint.setColor(Color.YELLOW);
+    Paints paints = overlay.getPaintRegistry().get(Paints.class, Paints::new);
+    classificationTextPaint = paints.classificationTextPaint;
+    whitePaint = paints.whitePaint;
+    leftPaint = paints.leftPaint;
+    rightPaint = paints.rightPaint;
+    zPaint = paints.zPaint;
+  }
+
+  /** The paints of the pose graphics, created once per overlay. */
+  private static final class Paints {
+    final Paint classificationTextPaint;
+    final Paint leftPaint;
+    final Paint rightPaint;
+    final Paint whitePaint;
+    // Recolored by updatePaintColorByZValue() for every point and line, so it is not shared with
+    // other graphics. Only used while drawing, on the main thread.
+    final Paint zPaint;
+
+    Paints(PaintRegistry registry) {
+      classificationTextPaint =
+          registry.getShadowedTextPaint(
+              Color.WHITE, POSE_CLASSIFICATION_TEXT_SIZE, /* shadowRadius= */ 5.0f, Color.BLACK);
+
+      whitePaint =
+          registry.getPaint(
+              Paint.Style.FILL, Color.WHITE, STROKE_WIDTH, IN_FRAME_LIKELIHOOD_TEXT_SIZE);
+      leftPaint =
+          registry.getPaint(Paint.Style.FILL, Color.GREEN, STROKE_WIDTH, /* textSize= */ 0);
+      rightPaint =
+          registry.getPaint(Paint.Style.FILL, Color.YELLOW, STROKE_WIDTH, /* textSize= */ 0);
+      zPaint = new Paint();
+      zPaint.setStrokeWidth(STROKE_WIDTH);
+    }
   }
 
   @Override
@@ -198,6 +218,9 @@ public class PoseGraphic extends Graphic {
 
   void drawPoint(Canvas canvas, PoseLandmark landmark, Paint paint) {
     PointF3D point = landmark.getPosition3D();
+    if (visualizeZ) {
+      paint = zPaint;
+    }
     updatePaintColorByZValue(
         paint, canvas, visualizeZ, rescaleZForVisualization, point.getZ(), zMin, zMax);
     canvas.drawCircle(translateX(point.getX()), translateY(point.getY()), DOT_RADIUS, paint);
@@ -209,6 +232,9 @@ public class PoseGraphic extends Graphic {
 
     // Gets average z for the current body line
     float avgZInImagePixel = (start.getZ() + end.getZ()) / 2;
+    if (visualizeZ) {
+      paint = zPaint;
+    }
     updatePaintColorByZValue(
         paint, canvas, visualizeZ, rescaleZForVisualization, avgZInImagePixel, zMin, zMax);
 
@@ -26,6 +26,7 @@ import android.graphics.RectF;
 import android.util.Log;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.GraphicOverlay.Graphic;
+import com.google.mlkit.vision.demo.PaintRegistry;
 import com.google.mlkit.vision.text.Text;
 import com.google.mlkit.vision.text.Text.Element;
 import com.google.mlkit.vision.text.Text.Line;
@@ -69,22 +70,27 @@ public class TextGraphic extends Graphic {
     this.showLanguageTag = showLanguageTag;
     this.showConfidence = showConfidence;
 
-    rectPaint = new Paint();
-    rectPaint.setColor(MARKER_COLOR);
-    rectPaint.setStyle(Paint.Style.STROKE);
-    rectPaint.setStrokeWidth(STROKE_WIDTH);
-
-    textPaint = new Paint();
-    textPaint.setColor(TEXT_COLOR);
-    textPaint.setTextSize(TEXT_SIZE);
-
-    labelPaint = new Paint();
-    labelPaint.setColor(MARKER_COLOR);
-    labelPaint.setStyle(Paint.Style.FILL);
+    Paints paints = overlay.getPaintRegistry().get(Paints.class, Paints::new);
+    rectPaint = paints.rectPaint;
+    textPaint = paints.textPaint;
+    labelPaint = paints.labelPaint;
     // Redraw the overlay, as this graphic has been added.
     postInvalidate();
   }
 
+  /** The paints of the text graphics, created once per overlay. */
+  private static final class Paints {
+    final Paint rectPaint;
+    final Paint textPaint;
+    final Paint labelPaint;
+
+    Paints(PaintRegistry registry) {
+      rectPaint = registry.getStrokePaint(MARKER_COLOR, STROKE_WIDTH);
+      textPaint = registry.getTextPaint(TEXT_COLOR, TEXT_SIZE);
+      labelPaint = registry.getFillPaint(MARKER_COLOR);
+    }
+  }
+
   /** Draws the text block annotations for position, size, and raw value on the supplied canvas. */
   @Override
   public void draw(Canvas canvas) {
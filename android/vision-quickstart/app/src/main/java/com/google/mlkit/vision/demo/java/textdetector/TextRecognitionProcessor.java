@@ -76,6 +76,11 @@ public class TextRecognitionProcessor extends VisionProcessorBase<Text> {
             showConfidence));
   }
 
+  @Override
+  protected int getResultCount(@NonNull Text text) {
+    return text.getTextBlocks().size();
+  }
+
   private static void logExtrasForTesting(Text text) {
     if (text != null) {
       Log.v(MANUAL_TESTING_LOG, "Detected text has : " + text.getTextBlocks().size() + " blocks");
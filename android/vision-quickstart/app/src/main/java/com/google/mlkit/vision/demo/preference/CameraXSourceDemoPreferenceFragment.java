@@ -38,6 +38,26 @@ public class CameraXSourceDemoPreferenceFragment extends CameraXLivePreviewPrefe
 
     preferenceCategory.removePreference(
         findPreference(getString(R.string.pref_key_camera_live_viewport)));
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_pipelined_processing)));
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_adaptive_resolution)));
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_adaptive_resolution_frame_budget)));
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_frame_policy)));
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_motion_gating)));
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_record_frames)));
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_record_trace)));
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_camera2)));
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_thermal_throttling)));
+    preferenceCategory.removePreference(
+        findPreference(getString(R.string.pref_key_thermal_throttling_threshold)));
     // Remove the PreferenceCategories for hiding camera detection info.
     preferenceScreen.removePreference(preferenceScreen.getPreference(1));
 
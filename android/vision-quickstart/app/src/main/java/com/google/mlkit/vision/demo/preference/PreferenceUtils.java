@@ -29,6 +29,7 @@ import com.google.common.base.Preconditions;
 import com.google.mlkit.common.model.LocalModel;
 import com.google.mlkit.vision.demo.CameraSource;
 import com.google.mlkit.vision.demo.CameraSource.SizePair;
+import com.google.mlkit.vision.demo.FramePolicy;
 import com.google.mlkit.vision.demo.R;
 import com.google.mlkit.vision.face.FaceDetectorOptions;
 import com.google.mlkit.vision.facemesh.FaceMeshDetectorOptions;
@@ -231,13 +232,22 @@ public class PreferenceUtils {
   }
 
   public static PoseDetectorOptionsBase getPoseDetectorOptionsForLivePreview(Context context) {
+    return getPoseDetectorOptionsForLivePreview(context, /* allowAccurateMode= */ true);
+  }
+
+  /**
+   * Returns the live preview pose detector options, with the base model instead of the accurate
+   * one if {@code allowAccurateMode} is false, e.g. while the device is thermally throttled.
+   */
+  public static PoseDetectorOptionsBase getPoseDetectorOptionsForLivePreview(
+      Context context, boolean allowAccurateMode) {
     int performanceMode =
         getModeTypePreferenceValue(
             context,
             R.string.pref_key_live_preview_pose_detection_performance_mode,
             POSE_DETECTOR_PERFORMANCE_MODE_FAST);
     boolean preferGPU = preferGPUForPoseDetection(context);
-    if (performanceMode == POSE_DETECTOR_PERFORMANCE_MODE_FAST) {
+    if (performanceMode == POSE_DETECTOR_PERFORMANCE_MODE_FAST || !allowAccurateMode) {
       PoseDetectorOptions.Builder builder =
           new PoseDetectorOptions.Builder().setDetectorMode(PoseDetectorOptions.STREAM_MODE);
       if (preferGPU) {
@@ -360,6 +370,77 @@ public class PreferenceUtils {
     return sharedPreferences.getBoolean(prefKey, false);
   }
 
+  public static boolean isPipelinedProcessingEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_pipelined_processing);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean isAdaptiveResolutionEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_adaptive_resolution);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static int getAdaptiveResolutionFrameBudgetMs(Context context) {
+    return getModeTypePreferenceValue(
+        context, R.string.pref_key_adaptive_resolution_frame_budget, /* defaultValue= */ 66);
+  }
+
+  /** Returns the policy for the Camera1 frames received while the detector is busy. */
+  public static FramePolicy getFramePolicy(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_frame_policy);
+    String policy =
+        sharedPreferences.getString(
+            prefKey, context.getString(R.string.pref_entry_values_frame_policy_drop_oldest));
+    if (policy.equals(context.getString(R.string.pref_entry_values_frame_policy_drop_latest))) {
+      return FramePolicy.dropLatest();
+    } else if (policy.equals(
+        context.getString(R.string.pref_entry_values_frame_policy_bounded_queue))) {
+      return FramePolicy.boundedQueue(3);
+    } else if (policy.equals(
+        context.getString(R.string.pref_entry_values_frame_policy_every_second_frame))) {
+      return FramePolicy.everyKthFrame(2);
+    }
+    return FramePolicy.dropOldest();
+  }
+
+  public static boolean isMotionGatingEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_motion_gating);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean isFrameRecordingEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_record_frames);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean isTraceRecordingEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_record_trace);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean isCamera2Enabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_camera2);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean isThermalThrottlingEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_thermal_throttling);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static int getThermalThrottlingThresholdCelsius(Context context) {
+    return getModeTypePreferenceValue(
+        context, R.string.pref_key_thermal_throttling_threshold, /* defaultValue= */ 45);
+  }
+
   public static int getFaceMeshUseCase(Context context) {
     SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
     String prefKey = context.getString(R.string.pref_key_face_mesh_use_case);
@@ -367,5 +448,61 @@ public class PreferenceUtils {
         sharedPreferences.getString(prefKey, String.valueOf(FaceMeshDetectorOptions.FACE_MESH)));
   }
 
+  // Keys of the preferences each processor is created with, see ProcessorCache.OptionKeys.
+
+  public static int[] getObjectDetectorOptionKeys(boolean isStreamMode) {
+    return isStreamMode
+        ? new int[] {
+          R.string.pref_key_live_preview_object_detector_enable_multiple_objects,
+          R.string.pref_key_live_preview_object_detector_enable_classification
+        }
+        : new int[] {
+          R.string.pref_key_still_image_object_detector_enable_multiple_objects,
+          R.string.pref_key_still_image_object_detector_enable_classification
+        };
+  }
+
+  public static int[] getFaceDetectorOptionKeys() {
+    return new int[] {
+      R.string.pref_key_live_preview_face_detection_landmark_mode,
+      R.string.pref_key_live_preview_face_detection_contour_mode,
+      R.string.pref_key_live_preview_face_detection_classification_mode,
+      R.string.pref_key_live_preview_face_detection_performance_mode,
+      R.string.pref_key_live_preview_face_detection_face_tracking,
+      R.string.pref_key_live_preview_face_detection_min_face_size
+    };
+  }
+
+  public static int[] getPoseDetectorOptionKeys(boolean isStreamMode) {
+    return new int[] {
+      isStreamMode
+          ? R.string.pref_key_live_preview_pose_detection_performance_mode
+          : R.string.pref_key_still_image_pose_detection_performance_mode,
+      isStreamMode
+          ? R.string.pref_key_live_preview_pose_detector_show_in_frame_likelihood
+          : R.string.pref_key_still_image_pose_detector_show_in_frame_likelihood,
+      R.string.pref_key_pose_detector_prefer_gpu,
+      R.string.pref_key_pose_detector_visualize_z,
+      R.string.pref_key_pose_detector_rescale_z,
+      R.string.pref_key_pose_detector_run_classification
+    };
+  }
+
+  public static int[] getTextRecognitionOptionKeys() {
+    return new int[] {
+      R.string.pref_key_group_recognized_text_in_blocks,
+      R.string.pref_key_show_language_tag,
+      R.string.pref_key_show_text_confidence
+    };
+  }
+
+  public static int[] getSegmenterOptionKeys() {
+    return new int[] {R.string.pref_key_segmentation_raw_size_mask};
+  }
+
+  public static int[] getFaceMeshDetectorOptionKeys() {
+    return new int[] {R.string.pref_key_face_mesh_use_case};
+  }
+
   private PreferenceUtils() {}
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.mlkit.vision.demo.FramePolicy.PendingFrame;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class FrameIntakeTest {
+
+  private final FrameMetadata metadata =
+      new FrameMetadata.Builder().setWidth(2).setHeight(2).build();
+  private final List<PendingFrame> processedFrames = new ArrayList<>();
+  private final List<TaskCompletionSource<Void>> detections = new ArrayList<>();
+
+  // Processes each frame with a detection completed by the test.
+  private final FrameIntake.FrameProcessor processor =
+      frame -> {
+        processedFrames.add(frame);
+        TaskCompletionSource<Void> detection = new TaskCompletionSource<>();
+        detections.add(detection);
+        return detection.getTask();
+      };
+
+  @Test
+  public void failedDetection_processesNextFrame() {
+    FrameIntake intake =
+        new FrameIntake(FramePolicy.dropOldest(), /* maxFramesInFlight= */ 1, Runnable::run);
+    ByteBuffer first = ByteBuffer.allocate(6);
+    ByteBuffer second = ByteBuffer.allocate(6);
+
+    intake.offer(first, metadata, /* bufferPool= */ null, processor);
+    intake.offer(second, metadata, /* bufferPool= */ null, processor);
+    assertEquals(1, processedFrames.size());
+
+    detections.get(0).setException(new Exception("Detection failed"));
+
+    assertEquals(2, processedFrames.size());
+    assertSame(second, processedFrames.get(1).data);
+  }
+
+  @Test
+  public void successfulDetection_processesNextFrame() {
+    FrameIntake intake =
+        new FrameIntake(FramePolicy.dropOldest(), /* maxFramesInFlight= */ 1, Runnable::run);
+    intake.offer(ByteBuffer.allocate(6), metadata, /* bufferPool= */ null, processor);
+    intake.offer(ByteBuffer.allocate(6), metadata, /* bufferPool= */ null, processor);
+
+    detections.get(0).setResult(null);
+
+    assertEquals(2, processedFrames.size());
+  }
+
+  @Test
+  public void framesInFlight_limitedToMax() {
+    FrameIntake intake =
+        new FrameIntake(FramePolicy.boundedQueue(3), /* maxFramesInFlight= */ 2, Runnable::run);
+    for (int i = 0; i < 4; i++) {
+      intake.offer(ByteBuffer.allocate(6), metadata, /* bufferPool= */ null, processor);
+    }
+    assertEquals(2, processedFrames.size());
+
+    detections.get(1).setException(new Exception("Detection failed"));
+    detections.get(0).setResult(null);
+
+    assertEquals(4, processedFrames.size());
+    assertEquals(0, intake.getDroppedFrameCount());
+  }
+
+  @Test
+  public void close_stopsProcessing() {
+    FrameIntake intake =
+        new FrameIntake(FramePolicy.dropOldest(), /* maxFramesInFlight= */ 1, Runnable::run);
+    intake.offer(ByteBuffer.allocate(6), metadata, /* bufferPool= */ null, processor);
+    intake.offer(ByteBuffer.allocate(6), metadata, /* bufferPool= */ null, processor);
+
+    intake.close();
+    detections.get(0).setResult(null);
+    intake.offer(ByteBuffer.allocate(6), metadata, /* bufferPool= */ null, processor);
+
+    assertEquals(1, processedFrames.size());
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.mlkit.vision.demo.FramePolicy.PendingFrame;
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FramePolicyTest {
+
+  private static final int POOL_SIZE = 8;
+
+  private final List<byte[]> recycledBuffers = new ArrayList<>();
+  private PreviewBufferPool bufferPool;
+  private List<byte[]> cameraBuffers;
+  private long sequenceNumber;
+
+  @Before
+  public void setUp() {
+    bufferPool =
+        new PreviewBufferPool(
+            POOL_SIZE,
+            /* bufferSize= */ 4,
+            new FrameMetadata.Builder().setWidth(2).setHeight(2),
+            recycledBuffers::add);
+    // The pool hands all buffers to the camera up front.
+    cameraBuffers = new ArrayList<>(recycledBuffers);
+    recycledBuffers.clear();
+  }
+
+  @Test
+  public void dropOldest_replacesPendingFrame() {
+    FramePolicy policy = FramePolicy.dropOldest();
+    PreviewBufferPool.Frame first = deliver();
+    PreviewBufferPool.Frame second = deliver();
+
+    assertTrue(offer(policy, first));
+    assertTrue(offer(policy, second));
+
+    assertSame(second.getData(), policy.poll().data);
+    assertNull(policy.poll());
+    assertEquals(1, policy.getDroppedFrameCount());
+    assertRecycled(first);
+  }
+
+  @Test
+  public void dropLatest_keepsPendingFrame() {
+    FramePolicy policy = FramePolicy.dropLatest();
+    PreviewBufferPool.Frame first = deliver();
+    PreviewBufferPool.Frame second = deliver();
+
+    assertTrue(offer(policy, first));
+    assertFalse(offer(policy, second));
+
+    assertSame(first.getData(), policy.poll().data);
+    assertNull(policy.poll());
+    assertEquals(1, policy.getDroppedFrameCount());
+    assertRecycled(second);
+  }
+
+  @Test
+  public void dropLatest_acceptsNewFrameOncePendingOneIsTaken() {
+    FramePolicy policy = FramePolicy.dropLatest();
+    PreviewBufferPool.Frame first = deliver();
+    PreviewBufferPool.Frame second = deliver();
+
+    assertTrue(offer(policy, first));
+    policy.poll().release();
+    assertTrue(offer(policy, second));
+
+    assertEquals(0, policy.getDroppedFrameCount());
+  }
+
+  @Test
+  public void boundedQueue_keepsFramesInOrderUpToCapacity() {
+    FramePolicy policy = FramePolicy.boundedQueue(3);
+    List<PreviewBufferPool.Frame> frames = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      frames.add(deliver());
+      assertTrue(offer(policy, frames.get(i)));
+    }
+
+    assertEquals(0, policy.getDroppedFrameCount());
+    for (PreviewBufferPool.Frame frame : frames) {
+      assertSame(frame.getData(), policy.poll().data);
+    }
+    assertNull(policy.poll());
+  }
+
+  @Test
+  public void boundedQueue_dropsOldestFrameBeyondCapacity() {
+    FramePolicy policy = FramePolicy.boundedQueue(3);
+    List<PreviewBufferPool.Frame> frames = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      frames.add(deliver());
+      assertTrue(offer(policy, frames.get(i)));
+    }
+
+    assertEquals(1, policy.getDroppedFrameCount());
+    assertRecycled(frames.get(0));
+    for (int i = 1; i < 4; i++) {
+      assertSame(frames.get(i).getData(), policy.poll().data);
+    }
+    assertNull(policy.poll());
+  }
+
+  @Test
+  public void everyKthFrame_onlyAcceptsEveryKthFrame() {
+    FramePolicy policy = FramePolicy.everyKthFrame(3);
+    boolean[] accepted = new boolean[7];
+    for (int i = 0; i < accepted.length; i++) {
+      accepted[i] = offer(policy, deliver());
+      PendingFrame frame = policy.poll();
+      if (frame != null) {
+        frame.release();
+      }
+    }
+
+    assertTrue(accepted[0]);
+    assertFalse(accepted[1]);
+    assertFalse(accepted[2]);
+    assertTrue(accepted[3]);
+    assertFalse(accepted[4]);
+    assertFalse(accepted[5]);
+    assertTrue(accepted[6]);
+    assertEquals(4, policy.getDroppedFrameCount());
+  }
+
+  @Test
+  public void everyKthFrame_ofOne_acceptsAllFrames() {
+    FramePolicy policy = FramePolicy.everyKthFrame(1);
+
+    assertTrue(offer(policy, deliver()));
+    assertTrue(offer(policy, deliver()));
+
+    // The second frame replaces the first like with dropOldest().
+    assertEquals(1, policy.getDroppedFrameCount());
+  }
+
+  @Test
+  public void clear_releasesPendingFramesWithoutCountingThem() {
+    FramePolicy policy = FramePolicy.boundedQueue(2);
+    PreviewBufferPool.Frame first = deliver();
+    PreviewBufferPool.Frame second = deliver();
+    offer(policy, first);
+    offer(policy, second);
+
+    policy.clear();
+
+    assertNull(policy.poll());
+    assertEquals(0, policy.getDroppedFrameCount());
+    assertRecycled(first);
+    assertRecycled(second);
+  }
+
+  @Test
+  public void polledFrame_staysRetainedUntilReleased() {
+    FramePolicy policy = FramePolicy.dropOldest();
+    PreviewBufferPool.Frame frame = deliver();
+    offer(policy, frame);
+
+    PendingFrame pendingFrame = policy.poll();
+
+    assertFalse(recycledBuffers.contains(frame.getData().array()));
+    pendingFrame.release();
+    assertRecycled(frame);
+  }
+
+  @Test
+  public void previewBufferFrames_reusePendingFrameOfBuffer() {
+    FramePolicy policy = FramePolicy.dropOldest();
+    PreviewBufferPool.Frame frame = deliver();
+    offer(policy, frame);
+    PendingFrame first = policy.poll();
+    first.release();
+    cameraBuffers.add(recycledBuffers.remove(0));
+
+    // The camera fills the same buffer again.
+    offer(policy, deliver(frame.getData().array()));
+
+    assertSame(first, policy.poll());
+  }
+
+  @Test
+  public void previewBufferFrames_offerAndPollWithoutAllocating() {
+    ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    FramePolicy policy = FramePolicy.boundedQueue(2);
+    // Warms up, so class loading and the first calls don't count.
+    cycleFrames(policy, /* count= */ 1000);
+
+    long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId);
+    cycleFrames(policy, /* count= */ 10000);
+    allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBytes;
+
+    // Allows for the odd allocation of the measurement itself, far below one object per frame.
+    assertTrue("Allocated " + allocatedBytes + " bytes", allocatedBytes < 1000);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void boundedQueue_ofZero_throws() {
+    FramePolicy.boundedQueue(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void everyKthFrame_ofZero_throws() {
+    FramePolicy.everyKthFrame(0);
+  }
+
+  /** Fills the next buffer like the camera does, the camera holds the first reference. */
+  private PreviewBufferPool.Frame deliver() {
+    byte[] buffer = cameraBuffers.remove(0);
+    return bufferPool.acquire(buffer, /* timestampNanos= */ 0, sequenceNumber++);
+  }
+
+  private PreviewBufferPool.Frame deliver(byte[] buffer) {
+    assertTrue(cameraBuffers.remove(buffer));
+    return bufferPool.acquire(buffer, /* timestampNanos= */ 0, sequenceNumber++);
+  }
+
+  /** Runs frames through the policy like the camera loop, giving each buffer back to the camera. */
+  private void cycleFrames(FramePolicy policy, int count) {
+    for (int i = 0; i < count; i++) {
+      offer(policy, deliver());
+      policy.poll().release();
+      cameraBuffers.add(recycledBuffers.remove(0));
+    }
+  }
+
+  /** Offers a frame and then releases the camera's reference, as {@code CameraSource} does. */
+  private boolean offer(FramePolicy policy, PreviewBufferPool.Frame frame) {
+    boolean isQueued = policy.offer(frame.getData(), frame.getMetadata(), bufferPool);
+    bufferPool.release(frame.getData());
+    return isQueued;
+  }
+
+  private void assertRecycled(PreviewBufferPool.Frame frame) {
+    assertTrue(recycledBuffers.contains(frame.getData().array()));
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FrameRecorderTest {
+
+  private static final int WIDTH = 6;
+  private static final int HEIGHT = 4;
+  // Rows of the Y plane are padded by 2 bytes, like many camera buffers.
+  private static final int Y_ROW_STRIDE = WIDTH + 2;
+  private static final int CHROMA_ROW_STRIDE = WIDTH + 2;
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = new File(temporaryFolder.getRoot(), "frames.mlfr");
+  }
+
+  @Test
+  public void nv21Frames_replayUnchanged() throws Exception {
+    byte[] first = pattern(WIDTH * HEIGHT * 3 / 2, /* seed= */ 1);
+    byte[] second = pattern(WIDTH * HEIGHT * 3 / 2, /* seed= */ 2);
+    FrameRecorder recorder = new FrameRecorder(file);
+    recorder.recordNv21(ByteBuffer.wrap(first), nv21Metadata(/* timestampNanos= */ 1000));
+    recorder.recordNv21(ByteBuffer.wrap(second), nv21Metadata(/* timestampNanos= */ 2000));
+    close(recorder);
+
+    try (FrameReplayer replayer = new FrameReplayer(file)) {
+      FrameReplayer.Frame frame = replayer.nextFrame();
+      assertEquals(1000, frame.getTimestampNanos());
+      assertTrue(frame.isTimestampRealtime());
+      assertEquals(0, frame.getFrameMetadata().getTimestampNanos());
+      assertEquals(WIDTH, frame.getFrameMetadata().getWidth());
+      assertEquals(HEIGHT, frame.getFrameMetadata().getHeight());
+      assertEquals(90, frame.getFrameMetadata().getRotation());
+      assertArrayEquals(first, toArray(frame.getData()));
+
+      frame = replayer.nextFrame();
+      assertEquals(2000, frame.getTimestampNanos());
+      assertArrayEquals(second, toArray(frame.getData()));
+      assertNull(replayer.nextFrame());
+    }
+  }
+
+  @Test
+  public void yuv420888Frame_withPaddedRows_isRecordedAsNv21() throws Exception {
+    byte[] y = pattern(Y_ROW_STRIDE * HEIGHT, /* seed= */ 3);
+    // The U and V planes interleave in one buffer, V starts one byte after U. As on devices, each
+    // plane stops after its last pixel instead of at the end of its padded row.
+    byte[] chroma = pattern(CHROMA_ROW_STRIDE * (HEIGHT / 2), /* seed= */ 4);
+    int chromaLength = CHROMA_ROW_STRIDE * (HEIGHT / 2 - 1) + WIDTH - 1;
+    ByteBuffer u = ByteBuffer.wrap(chroma, 0, chromaLength).slice();
+    ByteBuffer v = ByteBuffer.wrap(chroma, 1, chromaLength).slice();
+
+    FrameRecorder recorder = new FrameRecorder(file);
+    recorder.recordYuv420888(
+        new ByteBuffer[] {ByteBuffer.wrap(y), u, v},
+        new int[] {Y_ROW_STRIDE, CHROMA_ROW_STRIDE, CHROMA_ROW_STRIDE},
+        new int[] {1, 2, 2},
+        WIDTH,
+        HEIGHT,
+        /* rotation= */ 270,
+        /* timestampNanos= */ 3000,
+        /* isTimestampRealtime= */ false);
+    close(recorder);
+
+    try (FrameReplayer replayer = new FrameReplayer(file)) {
+      FrameReplayer.Frame frame = replayer.nextFrame();
+      assertEquals(3000, frame.getTimestampNanos());
+      assertFalse(frame.isTimestampRealtime());
+      assertEquals(270, frame.getFrameMetadata().getRotation());
+
+      byte[] nv21 = toArray(frame.getData());
+      int imageSize = WIDTH * HEIGHT;
+      assertEquals(imageSize * 3 / 2, nv21.length);
+      for (int row = 0; row < HEIGHT; row++) {
+        for (int col = 0; col < WIDTH; col++) {
+          assertEquals(y[row * Y_ROW_STRIDE + col], nv21[row * WIDTH + col]);
+        }
+      }
+      for (int row = 0; row < HEIGHT / 2; row++) {
+        for (int col = 0; col < WIDTH / 2; col++) {
+          int chromaPos = row * CHROMA_ROW_STRIDE + col * 2;
+          int nv21Pos = imageSize + row * WIDTH + col * 2;
+          assertEquals(chroma[chromaPos + 1], nv21[nv21Pos]);
+          assertEquals(chroma[chromaPos], nv21[nv21Pos + 1]);
+        }
+      }
+      assertNull(replayer.nextFrame());
+    }
+  }
+
+  @Test
+  public void close_writesPendingFramesBeforeClosingFile() throws Exception {
+    byte[] data = pattern(WIDTH * HEIGHT * 3 / 2, /* seed= */ 7);
+    FrameRecorder recorder = new FrameRecorder(file);
+    for (int i = 0; i < 5; i++) {
+      recorder.recordNv21(ByteBuffer.wrap(data), nv21Metadata(/* timestampNanos= */ i));
+    }
+
+    close(recorder);
+
+    assertEquals(5, recorder.getRecordedFrameCount());
+    assertEquals(0, recorder.getDroppedFrameCount());
+    int replayedFrameCount = 0;
+    try (FrameReplayer replayer = new FrameReplayer(file)) {
+      while (replayer.nextFrame() != null) {
+        replayedFrameCount++;
+      }
+    }
+    assertEquals(5, replayedFrameCount);
+  }
+
+  @Test
+  public void close_withoutFrames_writesHeaderOnly() throws Exception {
+    close(new FrameRecorder(file));
+
+    try (FrameReplayer replayer = new FrameReplayer(file)) {
+      assertNull(replayer.nextFrame());
+    }
+  }
+
+  private static void close(FrameRecorder recorder) throws Exception {
+    recorder.close();
+    assertTrue(recorder.awaitClosed(5, TimeUnit.SECONDS));
+  }
+
+  private static FrameMetadata nv21Metadata(long timestampNanos) {
+    return new FrameMetadata.Builder()
+        .setWidth(WIDTH)
+        .setHeight(HEIGHT)
+        .setRotation(90)
+        .setTimestampNanos(timestampNanos)
+        .build();
+  }
+
+  private static byte[] pattern(int length, int seed) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (i * 7 + seed * 31);
+    }
+    return bytes;
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+}
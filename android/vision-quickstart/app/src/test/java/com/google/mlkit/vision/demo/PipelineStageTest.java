@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PipelineStageTest {
+
+  private final List<String> events = new CopyOnWriteArrayList<>();
+  private final CountDownLatch unblock = new CountDownLatch(1);
+  private PipelineStage stage;
+
+  @Before
+  public void setUp() throws InterruptedException {
+    stage = new PipelineStage("test", /* queueCapacity= */ 1);
+    // Keeps the stage thread busy, so the tasks submitted next wait in the queue.
+    CountDownLatch started = new CountDownLatch(1);
+    stage.submit(
+        () -> {
+          started.countDown();
+          awaitUninterruptibly(unblock);
+        });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+  }
+
+  @After
+  public void tearDown() {
+    unblock.countDown();
+  }
+
+  @Test
+  public void submit_whenQueueIsFull_dropsNewTask() throws InterruptedException {
+    assertTrue(stage.submit(() -> events.add("run 1"), () -> events.add("drop 1")));
+    assertFalse(stage.submit(() -> events.add("run 2"), () -> events.add("drop 2")));
+
+    assertEquals(1, stage.getRejectedCount());
+    assertEquals(0, stage.getReplacedCount());
+    drain();
+    assertEquals(Arrays.asList("drop 2", "run 1"), events);
+  }
+
+  @Test
+  public void submitLatest_whenQueueIsFull_dropsOldestTask() throws InterruptedException {
+    for (int i = 1; i <= 3; i++) {
+      int task = i;
+      stage.submitLatest(() -> events.add("run " + task), () -> events.add("drop " + task));
+    }
+
+    assertEquals(0, stage.getRejectedCount());
+    assertEquals(2, stage.getReplacedCount());
+    drain();
+    assertEquals(Arrays.asList("drop 1", "drop 2", "run 3"), events);
+  }
+
+  @Test
+  public void submitLatest_replacesTaskSubmittedWithoutLatest() throws InterruptedException {
+    stage.submit(() -> events.add("run 1"), () -> events.add("drop 1"));
+    stage.submitLatest(() -> events.add("run 2"), () -> events.add("drop 2"));
+
+    drain();
+
+    assertEquals(Arrays.asList("drop 1", "run 2"), events);
+  }
+
+  /** Lets the stage thread go on and waits until it ran everything queued so far. */
+  private void drain() throws InterruptedException {
+    unblock.countDown();
+    CountDownLatch done = new CountDownLatch(1);
+    // The queue may still hold a task for a moment, retries until the marker is accepted. Each
+    // retry counts as rejected, so the counts must be checked before.
+    while (!stage.submit(done::countDown)) {
+      Thread.sleep(1);
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    while (true) {
+      try {
+        latch.await();
+        return;
+      } catch (InterruptedException e) {
+        // Keeps waiting, the test decides when the stage goes on.
+      }
+    }
+  }
+}
@@ -0,0 +1,445 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a {@link Detector} over all images in a directory and writes a JSONL report.
+ *
+ * <p>The report has one line per image, with the load and detect latency and the number of
+ * results, or the error if the image failed. The last line summarizes the run with the latency
+ * percentiles and the throughput:
+ *
+ * <pre>
+ * {"type":"image","path":"a.jpg","loadMs":3.120,"detectMs":25.480,"results":2}
+ * {"type":"image","path":"b.jpg","error":"..."}
+ * {"type":"summary","detector":"fake","images":2,"failures":1,...}
+ * </pre>
+ *
+ * <p>Up to {@code concurrency} images are processed at the same time. Image lines are written in
+ * the order the images finish.
+ */
+public final class BenchmarkRunner {
+
+  private static final List<String> IMAGE_EXTENSIONS =
+      Arrays.asList(".jpg", ".jpeg", ".png", ".webp", ".bmp");
+  private static final double[] PERCENTILES = {50, 90, 99, 100};
+
+  /** Aggregated results of a run. */
+  public static final class Summary {
+    private final int imageCount;
+    private final int failureCount;
+    private final long wallTimeNanos;
+    private final long[] loadNanos;
+    private final long[] detectNanos;
+
+    Summary(
+        int imageCount,
+        int failureCount,
+        long wallTimeNanos,
+        long[] loadNanos,
+        long[] detectNanos) {
+      this.imageCount = imageCount;
+      this.failureCount = failureCount;
+      this.wallTimeNanos = wallTimeNanos;
+      this.loadNanos = loadNanos;
+      this.detectNanos = detectNanos;
+    }
+
+    public int getImageCount() {
+      return imageCount;
+    }
+
+    public int getFailureCount() {
+      return failureCount;
+    }
+
+    public long getWallTimeNanos() {
+      return wallTimeNanos;
+    }
+
+    /** Returns the detect latency at {@code percentile} over the successful images, 0 if none. */
+    public long getDetectNanosAtPercentile(double percentile) {
+      return getValueAtPercentile(detectNanos, percentile);
+    }
+
+    /** Returns the load latency at {@code percentile} over the successful images, 0 if none. */
+    public long getLoadNanosAtPercentile(double percentile) {
+      return getValueAtPercentile(loadNanos, percentile);
+    }
+  }
+
+  private final Detector<?> detector;
+  private final int concurrency;
+  private final int warmUpRuns;
+
+  /**
+   * Creates a runner.
+   *
+   * @param concurrency maximum number of images processed at the same time
+   * @param warmUpRuns number of untimed runs on the first image before the timed ones, so model
+   *     loading doesn't count towards the latency
+   */
+  public BenchmarkRunner(Detector<?> detector, int concurrency, int warmUpRuns) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be positive");
+    }
+    this.detector = detector;
+    this.concurrency = concurrency;
+    this.warmUpRuns = warmUpRuns;
+  }
+
+  /** Runs the detector over the images in {@code imageDirectory} and its subdirectories. */
+  public Summary run(File imageDirectory, Writer report)
+      throws IOException, InterruptedException {
+    List<File> images = findImages(imageDirectory);
+    if (!images.isEmpty()) {
+      warmUp(detector, images.get(0), warmUpRuns);
+    }
+
+    int imageCount = images.size();
+    long[] loadNanos = new long[imageCount];
+    long[] detectNanos = new long[imageCount];
+    boolean[] failed = new boolean[imageCount];
+    IOException[] writeError = new IOException[1];
+    String rootPath = imageDirectory.getPath();
+
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    Semaphore slots = new Semaphore(concurrency);
+    long startNanos = System.nanoTime();
+    try {
+      for (int i = 0; i < imageCount; i++) {
+        int index = i;
+        File image = images.get(i);
+        // Bounds the number of queued images too, not just the running ones.
+        slots.acquire();
+        executor.execute(
+            () -> {
+              String line;
+              try {
+                line =
+                    runImage(
+                        detector,
+                        image,
+                        relativePath(rootPath, image),
+                        index,
+                        loadNanos,
+                        detectNanos);
+              } catch (Exception e) {
+                failed[index] = true;
+                line =
+                    "{\"type\":\"image\",\"path\":"
+                        + quote(relativePath(rootPath, image))
+                        + ",\"error\":"
+                        + quote(String.valueOf(e))
+                        + "}";
+              } finally {
+                slots.release();
+              }
+              synchronized (report) {
+                try {
+                  report.write(line);
+                  report.write('\n');
+                } catch (IOException e) {
+                  writeError[0] = e;
+                }
+              }
+            });
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+    long wallTimeNanos = System.nanoTime() - startNanos;
+
+    Summary summary = summarize(imageCount, failed, wallTimeNanos, loadNanos, detectNanos);
+    synchronized (report) {
+      if (writeError[0] != null) {
+        throw writeError[0];
+      }
+      report.write(toJson(summary));
+      report.write('\n');
+      report.flush();
+    }
+    return summary;
+  }
+
+  private static <I> void warmUp(Detector<I> detector, File image, int runs) {
+    try {
+      for (int i = 0; i < runs; i++) {
+        detector.detect(detector.load(image));
+      }
+    } catch (Exception e) {
+      // The timed run reports the error.
+    }
+  }
+
+  private static <I> String runImage(
+      Detector<I> detector,
+      File image,
+      String path,
+      int index,
+      long[] loadNanos,
+      long[] detectNanos)
+      throws Exception {
+    long startNanos = System.nanoTime();
+    I input = detector.load(image);
+    long loadedNanos = System.nanoTime();
+    int resultCount = detector.detect(input);
+    long endNanos = System.nanoTime();
+    loadNanos[index] = loadedNanos - startNanos;
+    detectNanos[index] = endNanos - loadedNanos;
+    return "{\"type\":\"image\",\"path\":"
+        + quote(path)
+        + ",\"loadMs\":"
+        + formatMillis(loadNanos[index])
+        + ",\"detectMs\":"
+        + formatMillis(detectNanos[index])
+        + ",\"results\":"
+        + resultCount
+        + "}";
+  }
+
+  private static Summary summarize(
+      int imageCount, boolean[] failed, long wallTimeNanos, long[] loadNanos, long[] detectNanos) {
+    int failureCount = 0;
+    for (boolean isFailed : failed) {
+      if (isFailed) {
+        failureCount++;
+      }
+    }
+    long[] successfulLoadNanos = new long[imageCount - failureCount];
+    long[] successfulDetectNanos = new long[imageCount - failureCount];
+    int next = 0;
+    for (int i = 0; i < imageCount; i++) {
+      if (!failed[i]) {
+        successfulLoadNanos[next] = loadNanos[i];
+        successfulDetectNanos[next] = detectNanos[i];
+        next++;
+      }
+    }
+    Arrays.sort(successfulLoadNanos);
+    Arrays.sort(successfulDetectNanos);
+    return new Summary(
+        imageCount, failureCount, wallTimeNanos, successfulLoadNanos, successfulDetectNanos);
+  }
+
+  private String toJson(Summary summary) {
+    double wallTimeSeconds = summary.wallTimeNanos / 1e9;
+    return "{\"type\":\"summary\",\"detector\":"
+        + quote(detector.getName())
+        + ",\"images\":"
+        + summary.imageCount
+        + ",\"failures\":"
+        + summary.failureCount
+        + ",\"concurrency\":"
+        + concurrency
+        + ",\"wallMs\":"
+        + formatMillis(summary.wallTimeNanos)
+        + ",\"imagesPerSecond\":"
+        + String.format(
+            Locale.US, "%.2f", wallTimeSeconds > 0 ? summary.imageCount / wallTimeSeconds : 0)
+        + ",\"loadMs\":"
+        + percentilesToJson(summary.loadNanos)
+        + ",\"detectMs\":"
+        + percentilesToJson(summary.detectNanos)
+        + "}";
+  }
+
+  private static String percentilesToJson(long[] sortedNanos) {
+    StringBuilder json = new StringBuilder("{");
+    for (double percentile : PERCENTILES) {
+      json.append(percentile == 100 ? "\"max\"" : "\"p" + (int) percentile + "\"")
+          .append(':')
+          .append(formatMillis(getValueAtPercentile(sortedNanos, percentile)))
+          .append(',');
+    }
+    long sum = 0;
+    for (long value : sortedNanos) {
+      sum += value;
+    }
+    json.append("\"mean\":")
+        .append(formatMillis(sortedNanos.length > 0 ? sum / sortedNanos.length : 0))
+        .append('}');
+    return json.toString();
+  }
+
+  /** Returns the value at {@code percentile} with the nearest rank method. */
+  static long getValueAtPercentile(long[] sortedValues, double percentile) {
+    if (sortedValues.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(percentile / 100 * sortedValues.length);
+    return sortedValues[Math.min(Math.max(rank, 1), sortedValues.length) - 1];
+  }
+
+  /** Returns the images in {@code directory} and its subdirectories, sorted by path. */
+  static List<File> findImages(File directory) throws IOException {
+    if (!directory.isDirectory()) {
+      throw new IOException("Not a directory: " + directory);
+    }
+    List<File> images = new ArrayList<>();
+    addImages(directory, images);
+    Collections.sort(images);
+    return images;
+  }
+
+  private static void addImages(File directory, List<File> images) {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.isDirectory()) {
+        addImages(file, images);
+      } else if (isImage(file)) {
+        images.add(file);
+      }
+    }
+  }
+
+  private static boolean isImage(File file) {
+    String name = file.getName().toLowerCase(Locale.US);
+    for (String extension : IMAGE_EXTENSIONS) {
+      if (name.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String relativePath(String rootPath, File file) {
+    String path = file.getPath();
+    return path.startsWith(rootPath + File.separator)
+        ? path.substring(rootPath.length() + 1)
+        : path;
+  }
+
+  private static String formatMillis(long nanos) {
+    return String.format(Locale.US, "%.3f", nanos / 1e6);
+  }
+
+  static String quote(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          quoted.append("\\\"");
+          break;
+        case '\\':
+          quoted.append("\\\\");
+          break;
+        case '\n':
+          quoted.append("\\n");
+          break;
+        case '\r':
+          quoted.append("\\r");
+          break;
+        case '\t':
+          quoted.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            quoted.append(String.format(Locale.US, "\\u%04x", (int) c));
+          } else {
+            quoted.append(c);
+          }
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  /**
+   * Runs the benchmark with the {@link FakeDetector}.
+   *
+   * <pre>
+   * --images DIR          directory with the images, required
+   * --report FILE         JSONL report to write, stdout by default
+   * --concurrency N       images processed at the same time, 1 by default
+   * --warm-up N           untimed runs before the benchmark, 1 by default
+   * --fake-latency-us N   time the fake detector takes per image, 0 by default
+   * </pre>
+   */
+  public static void main(String[] args) throws Exception {
+    File images = null;
+    File reportFile = null;
+    int concurrency = 1;
+    int warmUpRuns = 1;
+    long fakeLatencyMicros = 0;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "--images":
+          images = new File(value);
+          break;
+        case "--report":
+          reportFile = new File(value);
+          break;
+        case "--concurrency":
+          concurrency = Integer.parseInt(value);
+          break;
+        case "--warm-up":
+          warmUpRuns = Integer.parseInt(value);
+          break;
+        case "--fake-latency-us":
+          fakeLatencyMicros = Long.parseLong(value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown argument: " + args[i]);
+      }
+    }
+    if (images == null) {
+      throw new IllegalArgumentException("--images is required");
+    }
+
+    BenchmarkRunner runner =
+        new BenchmarkRunner(new FakeDetector(fakeLatencyMicros), concurrency, warmUpRuns);
+    Writer report =
+        new OutputStreamWriter(
+            reportFile != null ? new FileOutputStream(reportFile) : System.out,
+            Charset.forName("UTF-8"));
+    Summary summary;
+    try {
+      summary = runner.run(images, report);
+    } finally {
+      if (reportFile != null) {
+        report.close();
+      } else {
+        report.flush();
+      }
+    }
+    if (summary.getFailureCount() > 0) {
+      System.exit(1);
+    }
+  }
+}
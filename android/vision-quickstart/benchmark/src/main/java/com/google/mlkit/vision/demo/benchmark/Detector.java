@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.benchmark;
+
+import java.io.File;
+
+/**
+ * A detector driven by the {@link BenchmarkRunner}. Loading and detecting are timed separately, so
+ * image decoding doesn't hide regressions of the detector.
+ *
+ * <p>Both methods are called from several threads at the same time.
+ *
+ * @param <I> the decoded image type the detector takes
+ */
+public interface Detector<I> {
+
+  /** Returns the name of the detector used in the report. */
+  String getName();
+
+  /** Decodes an image file into the detector input. */
+  I load(File imageFile) throws Exception;
+
+  /** Runs the detector on an image and returns the number of results, e.g. detected faces. */
+  int detect(I image) throws Exception;
+}
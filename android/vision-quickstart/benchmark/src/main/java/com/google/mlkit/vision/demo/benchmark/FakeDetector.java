@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A detector that doesn't need a device, for running the benchmark in CI. It reads the raw file
+ * bytes, takes a fixed time per image and reports a result count derived from the file content,
+ * so reports are reproducible.
+ */
+public final class FakeDetector implements Detector<byte[]> {
+
+  private static final int MAX_RESULT_COUNT = 5;
+
+  private final long latencyMicros;
+
+  /** Creates a detector that takes {@code latencyMicros} per image. */
+  public FakeDetector(long latencyMicros) {
+    this.latencyMicros = latencyMicros;
+  }
+
+  @Override
+  public String getName() {
+    return "fake";
+  }
+
+  @Override
+  public byte[] load(File imageFile) throws Exception {
+    return Files.readAllBytes(imageFile.toPath());
+  }
+
+  @Override
+  public int detect(byte[] image) throws Exception {
+    if (latencyMicros > 0) {
+      TimeUnit.MICROSECONDS.sleep(latencyMicros);
+    }
+    return Math.floorMod(Arrays.hashCode(image), MAX_RESULT_COUNT + 1);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BenchmarkRunnerTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void run_writesOneLinePerImageAndSummary() throws Exception {
+    writeFile("a.jpg", 1);
+    writeFile("nested/b.png", 2);
+    writeFile("notes.txt", 3);
+    StringWriter report = new StringWriter();
+
+    BenchmarkRunner.Summary summary =
+        new BenchmarkRunner(new FakeDetector(/* latencyMicros= */ 0), 2, 1)
+            .run(folder.getRoot(), report);
+
+    String[] lines = report.toString().split("\n");
+    assertEquals(2, summary.getImageCount());
+    assertEquals(0, summary.getFailureCount());
+    assertEquals(3, lines.length);
+    assertTrue(lines[2].startsWith("{\"type\":\"summary\",\"detector\":\"fake\",\"images\":2,"));
+  }
+
+  @Test
+  public void run_reportsFailedImages() throws Exception {
+    writeFile("a.jpg", 1);
+    writeFile("b.jpg", 2);
+    StringWriter report = new StringWriter();
+    Detector<File> detector =
+        new Detector<File>() {
+          @Override
+          public String getName() {
+            return "failing";
+          }
+
+          @Override
+          public File load(File imageFile) {
+            return imageFile;
+          }
+
+          @Override
+          public int detect(File image) {
+            if (image.getName().equals("b.jpg")) {
+              throw new IllegalStateException("no \"model\"");
+            }
+            return 1;
+          }
+        };
+
+    BenchmarkRunner.Summary summary =
+        new BenchmarkRunner(detector, 1, /* warmUpRuns= */ 0).run(folder.getRoot(), report);
+
+    assertEquals(1, summary.getFailureCount());
+    assertTrue(
+        report
+            .toString()
+            .contains(
+                "{\"type\":\"image\",\"path\":\"b.jpg\","
+                    + "\"error\":\"java.lang.IllegalStateException: no \\\"model\\\"\"}"));
+  }
+
+  @Test
+  public void getValueAtPercentile_usesNearestRank() {
+    long[] values = {10, 20, 30, 40, 50, 60, 70, 80, 90, 100};
+
+    assertEquals(50, BenchmarkRunner.getValueAtPercentile(values, 50));
+    assertEquals(90, BenchmarkRunner.getValueAtPercentile(values, 90));
+    assertEquals(100, BenchmarkRunner.getValueAtPercentile(values, 99));
+    assertEquals(10, BenchmarkRunner.getValueAtPercentile(values, 0));
+    assertEquals(0, BenchmarkRunner.getValueAtPercentile(new long[0], 50));
+  }
+
+  private void writeFile(String path, int content) throws IOException {
+    File file = new File(folder.getRoot(), path);
+    file.getParentFile().mkdirs();
+    try (FileOutputStream output = new FileOutputStream(file)) {
+      output.write(content);
+    }
+  }
+}
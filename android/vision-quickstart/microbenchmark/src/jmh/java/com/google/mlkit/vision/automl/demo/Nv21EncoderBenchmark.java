@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.automl.demo;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Benchmarks the ARGB to NV21 and NV21 to YV12 conversions of the AutoML still image path. */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Nv21EncoderBenchmark {
+
+  // The most threads BitmapUtils encodes a bitmap on.
+  private static final int STRIPE_COUNT = 4;
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String size;
+
+  private int width;
+  private int height;
+  private int[] argb;
+  private byte[] nv21Bytes;
+  private byte[] yuvBytes;
+  private byte[] scratch;
+  private ExecutorService executor;
+
+  @Setup
+  public void setUp() {
+    String[] dimensions = size.split("x");
+    width = Integer.parseInt(dimensions[0]);
+    height = Integer.parseInt(dimensions[1]);
+    Random random = new Random(/* seed= */ 42);
+    argb = new int[width * height];
+    for (int i = 0; i < argb.length; i++) {
+      argb[i] = 0xff000000 | random.nextInt(0x1000000);
+    }
+    // Sized like BitmapUtils.convertBitmapToNv21Bytes().
+    nv21Bytes =
+        new byte
+            [height * width
+                + 2 * (int) Math.ceil(height / 2.0) * (int) Math.ceil(width / 2.0)];
+    YuvUtils.encodeToNv21(nv21Bytes, argb, width, height);
+    yuvBytes = nv21Bytes.clone();
+    scratch = new byte[nv21Bytes.length / 6];
+    executor = Executors.newFixedThreadPool(STRIPE_COUNT - 1);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Benchmark
+  public byte[] encodeToNv21() {
+    YuvUtils.encodeToNv21(nv21Bytes, argb, width, height);
+    return nv21Bytes;
+  }
+
+  @Benchmark
+  public byte[] encodeToNv21Striped() {
+    YuvUtils.encodeToNv21(argb, width, height, nv21Bytes, executor, STRIPE_COUNT);
+    return nv21Bytes;
+  }
+
+  @Benchmark
+  public byte[] nv21Toyv12() {
+    return YuvUtils.nv21Toyv12(nv21Bytes);
+  }
+
+  /** Converts the same array over and over, its content doesn't change the amount of work. */
+  @Benchmark
+  public byte[] nv21Toyv12InPlace() {
+    YuvUtils.nv21Toyv12InPlace(yuvBytes, yuvBytes.length, scratch);
+    return yuvBytes;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Benchmarks the NV21 to ARGB conversion of camera frames drawn under the graphics. */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Nv21ToArgbBenchmark {
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String size;
+
+  @Param({"0", "90"})
+  public int rotationDegrees;
+
+  /** Number of stripes converted in parallel, 1 to convert on the benchmark thread only. */
+  @Param({"1", "4"})
+  public int stripeCount;
+
+  private int width;
+  private int height;
+  private byte[] nv21;
+  private int[] out;
+  private ExecutorService executor;
+
+  @Setup
+  public void setUp() {
+    String[] dimensions = size.split("x");
+    width = Integer.parseInt(dimensions[0]);
+    height = Integer.parseInt(dimensions[1]);
+    int imageSize = width * height;
+    nv21 = new byte[imageSize + 2 * (imageSize / 4)];
+    new Random(/* seed= */ 42).nextBytes(nv21);
+    out = new int[imageSize];
+    executor = Executors.newFixedThreadPool(Math.max(1, stripeCount - 1));
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Benchmark
+  public int[] nv21ToArgb() throws InterruptedException {
+    YuvUtils.nv21ToArgb(
+        nv21, width, height, rotationDegrees, /* mirror= */ false, out, executor, stripeCount);
+    return out;
+  }
+}
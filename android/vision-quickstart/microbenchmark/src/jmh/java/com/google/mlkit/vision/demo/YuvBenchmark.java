@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks the YUV_420_888 to NV21 conversion of camera frames. */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class YuvBenchmark {
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String size;
+
+  /**
+   * Whether the U and V planes share one interleaved buffer like NV21, as on most devices, or are
+   * planar like I420, which takes the slow path.
+   */
+  @Param({"true", "false"})
+  public boolean interleavedUV;
+
+  private int width;
+  private int height;
+  private ByteBuffer[] planeBuffers;
+  private int[] rowStrides;
+  private int[] pixelStrides;
+  private byte[] out;
+
+  @Setup
+  public void setUp() {
+    String[] dimensions = size.split("x");
+    width = Integer.parseInt(dimensions[0]);
+    height = Integer.parseInt(dimensions[1]);
+    int imageSize = width * height;
+    Random random = new Random(/* seed= */ 42);
+
+    ByteBuffer yBuffer = newFilledBuffer(random, imageSize);
+    if (interleavedUV) {
+      // The V plane starts one byte before the U plane in the same VUVU... buffer.
+      ByteBuffer vuBuffer = newFilledBuffer(random, imageSize / 2);
+      vuBuffer.limit(imageSize / 2 - 1);
+      ByteBuffer vBuffer = vuBuffer.slice();
+      vuBuffer.limit(imageSize / 2).position(1);
+      ByteBuffer uBuffer = vuBuffer.slice();
+      planeBuffers = new ByteBuffer[] {yBuffer, uBuffer, vBuffer};
+      rowStrides = new int[] {width, width, width};
+      pixelStrides = new int[] {1, 2, 2};
+    } else {
+      planeBuffers =
+          new ByteBuffer[] {
+            yBuffer, newFilledBuffer(random, imageSize / 4), newFilledBuffer(random, imageSize / 4)
+          };
+      rowStrides = new int[] {width, width / 2, width / 2};
+      pixelStrides = new int[] {1, 1, 1};
+    }
+    out = new byte[imageSize + 2 * (imageSize / 4)];
+  }
+
+  @Benchmark
+  public byte[] yuv420ThreePlanesToNV21() {
+    for (ByteBuffer buffer : planeBuffers) {
+      buffer.rewind();
+    }
+    return YuvUtils.yuv420ThreePlanesToNV21(planeBuffers, rowStrides, pixelStrides, width, height);
+  }
+
+  @Benchmark
+  public byte[] yuv420ThreePlanesToNV21IntoReusedArray() {
+    for (ByteBuffer buffer : planeBuffers) {
+      buffer.rewind();
+    }
+    YuvUtils.yuv420ThreePlanesToNV21(planeBuffers, rowStrides, pixelStrides, width, height, out);
+    return out;
+  }
+
+  @Benchmark
+  public byte[] unpackUPlane() {
+    YuvUtils.unpackPlane(
+        planeBuffers[1], rowStrides[1], pixelStrides[1], width, height, out, width * height + 1, 2);
+    return out;
+  }
+
+  /** Returns a direct buffer like the ones of camera images, filled with random bytes. */
+  private static ByteBuffer newFilledBuffer(Random random, int size) {
+    byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    buffer.put(bytes).rewind();
+    return buffer;
+  }
+}
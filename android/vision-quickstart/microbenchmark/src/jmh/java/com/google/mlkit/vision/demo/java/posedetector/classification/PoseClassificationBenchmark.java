@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.posedetector.classification;
+
+import com.google.mlkit.vision.common.PointF3D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the pose classification run on every live preview frame, and the parsing of the pose
+ * samples when the classifier is created. Uses random poses, with about as many samples as the
+ * bundled fitness_pose_samples.csv.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PoseClassificationBenchmark {
+
+  private static final int NUM_LANDMARKS = 33;
+  private static final int SAMPLE_COUNT = 800;
+  private static final String[] CLASSES = {
+    "pushups_up", "pushups_down", "squats_up", "squats_down"
+  };
+
+  private String[] csvLines;
+  private int nextCsvLine;
+  private List<PointF3D> landmarks;
+  private PoseClassifier classifier;
+  private ClassificationResult classificationResult;
+  private EMASmoothing emaSmoothing;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(/* seed= */ 42);
+    csvLines = new String[SAMPLE_COUNT];
+    List<PoseSample> poseSamples = new ArrayList<>();
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      StringBuilder csvLine =
+          new StringBuilder("sample_" + i + ".png,").append(CLASSES[i % CLASSES.length]);
+      for (PointF3D landmark : newRandomPose(random)) {
+        csvLine
+            .append(',')
+            .append(landmark.getX())
+            .append(',')
+            .append(landmark.getY())
+            .append(',')
+            .append(landmark.getZ());
+      }
+      csvLines[i] = csvLine.toString();
+      poseSamples.add(PoseSample.getPoseSample(csvLines[i], ","));
+    }
+    landmarks = newRandomPose(random);
+    classifier = new PoseClassifier(poseSamples);
+    classificationResult = classifier.classify(landmarks);
+    emaSmoothing = new EMASmoothing();
+  }
+
+  @Benchmark
+  public List<PointF3D> getPoseEmbedding() {
+    return PoseEmbedding.getPoseEmbedding(landmarks);
+  }
+
+  @Benchmark
+  public ClassificationResult classify() {
+    return classifier.classify(landmarks);
+  }
+
+  @Benchmark
+  public ClassificationResult getSmoothedResult() {
+    return emaSmoothing.getSmoothedResult(classificationResult);
+  }
+
+  @Benchmark
+  public PoseSample getPoseSample() {
+    String csvLine = csvLines[nextCsvLine];
+    nextCsvLine = (nextCsvLine + 1) % csvLines.length;
+    return PoseSample.getPoseSample(csvLine, ",");
+  }
+
+  /** Returns landmarks in image coordinates of a 480x640 portrait frame. */
+  private static List<PointF3D> newRandomPose(Random random) {
+    List<PointF3D> pose = new ArrayList<>(NUM_LANDMARKS);
+    for (int i = 0; i < NUM_LANDMARKS; i++) {
+      pose.add(
+          PointF3D.from(
+              random.nextFloat() * 480, random.nextFloat() * 640, random.nextFloat() * 1000 - 500));
+    }
+    return pose;
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.pose;
+
+import java.util.List;
+
+/** JVM stand-in for the ML Kit class, for the microbenchmarks. */
+public final class Pose {
+  private final List<PoseLandmark> landmarks;
+
+  public Pose(List<PoseLandmark> landmarks) {
+    this.landmarks = landmarks;
+  }
+
+  public List<PoseLandmark> getAllPoseLandmarks() {
+    return landmarks;
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.pose;
+
+import com.google.mlkit.vision.common.PointF3D;
+
+/**
+ * JVM stand-in for the ML Kit class, for the microbenchmarks. Only has the landmark types used by
+ * the pose classification.
+ */
+public final class PoseLandmark {
+  public static final int LEFT_SHOULDER = 11;
+  public static final int RIGHT_SHOULDER = 12;
+  public static final int LEFT_ELBOW = 13;
+  public static final int RIGHT_ELBOW = 14;
+  public static final int LEFT_WRIST = 15;
+  public static final int RIGHT_WRIST = 16;
+  public static final int LEFT_HIP = 23;
+  public static final int RIGHT_HIP = 24;
+  public static final int LEFT_KNEE = 25;
+  public static final int RIGHT_KNEE = 26;
+  public static final int LEFT_ANKLE = 27;
+  public static final int RIGHT_ANKLE = 28;
+
+  private final PointF3D position3D;
+
+  public PoseLandmark(PointF3D position3D) {
+    this.position3D = position3D;
+  }
+
+  public PointF3D getPosition3D() {
+    return position3D;
+  }
+}
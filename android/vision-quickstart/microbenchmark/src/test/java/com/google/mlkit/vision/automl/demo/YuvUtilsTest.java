@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.automl.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.google.mlkit.vision.demo.Yuv420Images;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+
+/**
+ * Checks the AutoML copy of the YUV_420_888 unpacking against the same golden output, and the NV21
+ * encoder against its original implementation.
+ */
+public class YuvUtilsTest {
+
+  // Odd sizes too, the encoder gives the last row and column chroma values of their own.
+  private static final int[][] ENCODED_SIZES = {
+    {1, 1}, {2, 2}, {3, 5}, {7, 4}, {33, 17}, {640, 480}
+  };
+
+  @Test
+  public void yuv420ThreePlanesToNV21_matchesGolden() {
+    byte[] out = new byte[YuvUtils.getNv21Size(Yuv420Images.MAX_WIDTH, Yuv420Images.MAX_HEIGHT)];
+    for (Yuv420Images image : Yuv420Images.newImages()) {
+      byte[] expected = image.toNv21Golden();
+
+      YuvUtils.yuv420ThreePlanesToNV21(
+          image.planeBuffers,
+          image.rowStrides,
+          image.pixelStrides,
+          image.width,
+          image.height,
+          out);
+
+      assertArrayEquals(image.toString(), expected, Arrays.copyOf(out, expected.length));
+    }
+  }
+
+  @Test
+  public void encodeToNv21_matchesGolden() {
+    Random random = new Random(/* seed= */ 42);
+    for (int[] size : ENCODED_SIZES) {
+      int[] argb = newArgb(random, size[0], size[1]);
+      byte[] expected = encodeToNv21Golden(argb, size[0], size[1]);
+      byte[] actual = new byte[YuvUtils.getEncodedNv21Size(size[0], size[1])];
+
+      YuvUtils.encodeToNv21(actual, argb, size[0], size[1]);
+
+      assertArrayEquals(size[0] + "x" + size[1], expected, actual);
+    }
+  }
+
+  @Test
+  public void encodeToNv21_striped_matchesGolden() {
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      Random random = new Random(/* seed= */ 42);
+      for (int[] size : ENCODED_SIZES) {
+        int[] argb = newArgb(random, size[0], size[1]);
+        byte[] expected = encodeToNv21Golden(argb, size[0], size[1]);
+        byte[] actual = new byte[expected.length + 3];
+
+        YuvUtils.encodeToNv21(argb, size[0], size[1], actual, executor, /* stripeCount= */ 4);
+
+        assertArrayEquals(
+            size[0] + "x" + size[1], expected, Arrays.copyOf(actual, expected.length));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void nv21Toyv12InPlace_matchesNv21Toyv12() {
+    Random random = new Random(/* seed= */ 42);
+    for (int[] size : ENCODED_SIZES) {
+      byte[] nv21Bytes = new byte[YuvUtils.getEncodedNv21Size(size[0], size[1])];
+      random.nextBytes(nv21Bytes);
+      byte[] expected = YuvUtils.nv21Toyv12(nv21Bytes);
+
+      YuvUtils.nv21Toyv12InPlace(nv21Bytes, nv21Bytes.length, new byte[nv21Bytes.length / 6]);
+
+      // Both only convert the first length / 6 * 6 bytes, like images of even sizes.
+      int convertedLength = nv21Bytes.length / 6 * 6;
+      assertArrayEquals(
+          size[0] + "x" + size[1],
+          Arrays.copyOf(expected, convertedLength),
+          Arrays.copyOf(nv21Bytes, convertedLength));
+    }
+  }
+
+  private static int[] newArgb(Random random, int width, int height) {
+    int[] argb = new int[width * height];
+    for (int i = 0; i < argb.length; i++) {
+      argb[i] = random.nextInt();
+    }
+    return argb;
+  }
+
+  /** Encodes ARGB pixels to NV21 the way the AutoML app did before, with a branch per pixel. */
+  private static byte[] encodeToNv21Golden(int[] argb, int width, int height) {
+    byte[] nv21Bytes = new byte[YuvUtils.getEncodedNv21Size(width, height)];
+    int yIndex = 0;
+    int uvIndex = width * height;
+    int index = 0;
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < width; i++) {
+        int red = (argb[index] & 0xff0000) >> 16;
+        int green = (argb[index] & 0xff00) >> 8;
+        int blue = argb[index] & 0xff;
+        int y = ((66 * red + 129 * green + 25 * blue + 128) >> 8) + 16;
+        int u = ((-38 * red - 74 * green + 112 * blue + 128) >> 8) + 128;
+        int v = ((112 * red - 94 * green - 18 * blue + 128) >> 8) + 128;
+        nv21Bytes[yIndex++] = (byte) ((y < 0) ? 0 : Math.min(255, y));
+        if (j % 2 == 0 && index % 2 == 0) {
+          nv21Bytes[uvIndex++] = (byte) ((v < 0) ? 0 : Math.min(255, v));
+          nv21Bytes[uvIndex++] = (byte) ((u < 0) ? 0 : Math.min(255, u));
+        }
+        index++;
+      }
+    }
+    return nv21Bytes;
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * YUV_420_888 test images laid out like camera images, and the original NV21 conversion of the
+ * apps their converted output is checked against.
+ */
+public final class Yuv420Images {
+
+  private static final int[][] SIZES = {{2, 2}, {10, 6}, {640, 480}, {1280, 720}};
+
+  /** The largest size of the images returned by {@link #newImages()}. */
+  public static final int MAX_WIDTH = 1280;
+  public static final int MAX_HEIGHT = 720;
+
+  public final int width;
+  public final int height;
+  public final ByteBuffer[] planeBuffers;
+  public final int[] rowStrides;
+  public final int[] pixelStrides;
+
+  private Yuv420Images(
+      int width, int height, ByteBuffer[] planeBuffers, int[] rowStrides, int[] pixelStrides) {
+    this.width = width;
+    this.height = height;
+    this.planeBuffers = planeBuffers;
+    this.rowStrides = rowStrides;
+    this.pixelStrides = pixelStrides;
+  }
+
+  /** Returns images of all sizes and layouts, with and without row padding. */
+  public static List<Yuv420Images> newImages() {
+    Random random = new Random(/* seed= */ 42);
+    List<Yuv420Images> images = new ArrayList<>();
+    for (int[] size : SIZES) {
+      for (int rowPadding : new int[] {0, 16}) {
+        images.add(planar(random, size[0], size[1], rowPadding));
+        images.add(semiPlanar(random, size[0], size[1], rowPadding, true));
+        images.add(semiPlanar(random, size[0], size[1], rowPadding, false));
+      }
+    }
+    return images;
+  }
+
+  /** Returns an image with separate U and V planes, each row followed by {@code rowPadding}. */
+  public static Yuv420Images planar(Random random, int width, int height, int rowPadding) {
+    int chromaRowStride = width / 2 + rowPadding;
+    return new Yuv420Images(
+        width,
+        height,
+        new ByteBuffer[] {
+          newPlane(random, width + rowPadding, height, width),
+          newPlane(random, chromaRowStride, height / 2, width / 2),
+          newPlane(random, chromaRowStride, height / 2, width / 2)
+        },
+        new int[] {width + rowPadding, chromaRowStride, chromaRowStride},
+        new int[] {1, 1, 1});
+  }
+
+  /**
+   * Returns an image whose U and V planes share one interleaved buffer, each row followed by {@code
+   * rowPadding}. The V plane starts one byte before the U plane if {@code vFirst} is set, like
+   * NV21, and one byte after it otherwise, like NV12.
+   */
+  public static Yuv420Images semiPlanar(
+      Random random, int width, int height, int rowPadding, boolean vFirst) {
+    int rowStride = width + rowPadding;
+    ByteBuffer chroma = newPlane(random, rowStride, height / 2, width);
+    chroma.limit(chroma.capacity() - 1);
+    ByteBuffer first = chroma.slice();
+    chroma.limit(chroma.capacity()).position(1);
+    ByteBuffer second = chroma.slice();
+    return new Yuv420Images(
+        width,
+        height,
+        new ByteBuffer[] {
+          newPlane(random, rowStride, height, width),
+          vFirst ? second : first,
+          vFirst ? first : second
+        },
+        new int[] {rowStride, rowStride, rowStride},
+        new int[] {1, 2, 2});
+  }
+
+  /** Rewinds the plane buffers, like the ones of a new camera image. */
+  public void rewind() {
+    for (ByteBuffer buffer : planeBuffers) {
+      buffer.rewind();
+    }
+  }
+
+  /** Describes the size and layout of the image, for assertion messages. */
+  @Override
+  public String toString() {
+    return width
+        + "x"
+        + height
+        + ", row strides "
+        + Arrays.toString(rowStrides)
+        + ", pixel strides "
+        + Arrays.toString(pixelStrides);
+  }
+
+  /** Returns the image in NV21 format, converted the way the apps did before. */
+  public byte[] toNv21Golden() {
+    rewind();
+    int imageSize = width * height;
+    byte[] out = new byte[imageSize + 2 * (imageSize / 4)];
+
+    ByteBuffer uBuffer = planeBuffers[1];
+    ByteBuffer vBuffer = planeBuffers[2];
+    if (YuvUtils.areUVPlanesNV21(uBuffer, vBuffer, width, height)) {
+      planeBuffers[0].get(out, 0, imageSize);
+      vBuffer.get(out, imageSize, 1);
+      uBuffer.get(out, imageSize + 1, 2 * imageSize / 4 - 1);
+    } else {
+      unpackPlaneGolden(0, out, 0, 1);
+      unpackPlaneGolden(1, out, imageSize + 1, 2);
+      unpackPlaneGolden(2, out, imageSize, 2);
+    }
+    rewind();
+    return out;
+  }
+
+  private void unpackPlaneGolden(int index, byte[] out, int offset, int pixelStride) {
+    ByteBuffer buffer = planeBuffers[index];
+    buffer.rewind();
+    int numRow = (buffer.limit() + rowStrides[index] - 1) / rowStrides[index];
+    if (numRow == 0) {
+      return;
+    }
+    int scaleFactor = height / numRow;
+    int numCol = width / scaleFactor;
+    int outputPos = offset;
+    int rowStart = 0;
+    for (int row = 0; row < numRow; row++) {
+      int inputPos = rowStart;
+      for (int col = 0; col < numCol; col++) {
+        out[outputPos] = buffer.get(inputPos);
+        outputPos += pixelStride;
+        inputPos += pixelStrides[index];
+      }
+      rowStart += rowStrides[index];
+    }
+  }
+
+  /**
+   * Returns a direct buffer like the ones of camera images, filled with random bytes. The last row
+   * isn't padded.
+   */
+  private static ByteBuffer newPlane(Random random, int rowStride, int rows, int rowLength) {
+    byte[] bytes = new byte[rowStride * (rows - 1) + rowLength];
+    random.nextBytes(bytes);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes).rewind();
+    return buffer;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class YuvUtilsTest {
+
+  @Test
+  public void yuv420ThreePlanesToNV21_matchesGolden() {
+    for (Yuv420Images image : Yuv420Images.newImages()) {
+      byte[] expected = image.toNv21Golden();
+
+      byte[] actual =
+          YuvUtils.yuv420ThreePlanesToNV21(
+              image.planeBuffers, image.rowStrides, image.pixelStrides, image.width, image.height);
+
+      assertArrayEquals(image.toString(), expected, actual);
+    }
+  }
+
+  @Test
+  public void yuv420ThreePlanesToNV21_intoReusedArray_matchesGolden() {
+    byte[] out =
+        new byte[YuvUtils.getNv21Size(Yuv420Images.MAX_WIDTH, Yuv420Images.MAX_HEIGHT) + 7];
+    for (Yuv420Images image : Yuv420Images.newImages()) {
+      byte[] expected = image.toNv21Golden();
+      Arrays.fill(out, (byte) 0x5a);
+
+      YuvUtils.yuv420ThreePlanesToNV21(
+          image.planeBuffers,
+          image.rowStrides,
+          image.pixelStrides,
+          image.width,
+          image.height,
+          out);
+
+      assertArrayEquals(image.toString(), expected, Arrays.copyOf(out, expected.length));
+      // Bytes past the image are left alone.
+      for (int i = expected.length; i < out.length; i++) {
+        assertEquals(image.toString(), (byte) 0x5a, out[i]);
+      }
+    }
+  }
+
+  @Test
+  public void unpackPlane_leavesBufferRewound() {
+    Yuv420Images image = Yuv420Images.planar(new Random(42), 10, 6, 4);
+    byte[] out = new byte[YuvUtils.getNv21Size(10, 6)];
+
+    YuvUtils.unpackPlane(
+        image.planeBuffers[1], image.rowStrides[1], image.pixelStrides[1], 10, 6, out, 61, 2);
+
+    assertEquals(0, image.planeBuffers[1].position());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void yuv420ThreePlanesToNV21_intoTooSmallArray_throws() {
+    Yuv420Images image = Yuv420Images.planar(new Random(42), 10, 6, 0);
+
+    YuvUtils.yuv420ThreePlanesToNV21(
+        image.planeBuffers,
+        image.rowStrides,
+        image.pixelStrides,
+        image.width,
+        image.height,
+        new byte[YuvUtils.getNv21Size(10, 6) - 1]);
+  }
+}